@@ -0,0 +1,191 @@
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+// Java port of the anime-side cleaning in pre-processing-advanced.ipynb.
+// Reads the raw anime.csv and keeps, per anime_id, the encoded values of the
+// columns that end up in combined-cleaned.arff, formatted the way the notebook
+// writes them (float columns as "%.2f").
+public class Anime_Encoder {
+
+    // Attributes of combined_data that come from the anime table
+    public static final String[] ATTRIBUTES = { "genre_encoded", "members_encoded", "anime_rating_encoded", "type",
+            "episodes_encoded" };
+
+    // 2.7 Merge is a left join: ratings of unknown anime are kept with missing values
+    public static final boolean DROP_UNMATCHED = false;
+
+    private final Map<Integer, String[]> encoded = new LinkedHashMap<Integer, String[]>();
+
+    // genreArff is the notebook's anime-cleaned.arff, used for the TF-IDF + KMeans genre clusters
+    public Anime_Encoder(String animeCsv, String genreArff) throws Exception {
+        this(animeCsv, readGenreClusters(genreArff));
+    }
+
+    // genres maps anime_id to its genre cluster, e.g. Genre_Encoder.clusters()
+    public Anime_Encoder(String animeCsv, Map<Integer, Integer> genres) throws Exception {
+        List<String[]> rows = new ArrayList<String[]>();
+        int[] columns;
+        try (Csv_Reader reader = new Csv_Reader(animeCsv)) {
+            columns = columnIndices(reader.next(), "anime_id", "type", "episodes", "rating", "members");
+            String[] row;
+            while ((row = reader.next()) != null) {
+                rows.add(row);
+            }
+        }
+
+        // 2.1 Handle Missing Values: rating falls back to the median
+        double[] ratings = new double[rows.size()];
+        int numRatings = 0;
+        for (String[] row : rows) {
+            double rating = parseDouble(field(row, columns[3]));
+            if (!Double.isNaN(rating)) {
+                ratings[numRatings++] = rating;
+            }
+        }
+        double medianRating = median(ratings, numRatings);
+
+        for (String[] row : rows) {
+            int animeId = Integer.parseInt(field(row, columns[0]));
+            String type = field(row, columns[1]);
+            double episodes = parseDouble(field(row, columns[2]));
+            double rating = parseDouble(field(row, columns[3]));
+            double members = parseDouble(field(row, columns[4]));
+
+            Integer genre = genres.get(animeId);
+            encoded.put(animeId, new String[] {
+                    genre == null ? null : format(genre),
+                    format(encodeMembers(Double.isNaN(members) ? 0 : (long) members)),
+                    format(encodeRating(Double.isNaN(rating) ? medianRating : rating)),
+                    type.isEmpty() ? "Unknown" : type,
+                    encodeEpisodes(Double.isNaN(episodes) ? 0 : (int) episodes) });
+        }
+    }
+
+    // Encoded values in ATTRIBUTES order, or null when the anime is unknown
+    public String[] lookup(int animeId) {
+        return encoded.get(animeId);
+    }
+
+    // Distinct encoded values of one ATTRIBUTES column, in anime.csv order
+    public List<String> values(int column) {
+        LinkedHashSet<String> values = new LinkedHashSet<String>();
+        for (String[] row : encoded.values()) {
+            if (row[column] != null) {
+                values.add(row[column]);
+            }
+        }
+        return new ArrayList<String>(values);
+    }
+
+    public int size() {
+        return encoded.size();
+    }
+
+    // 2.6 User Rating Encoding
+    public static String encodeUserRating(int rating) {
+        if (rating == -1) return "0";
+        else if (1 <= rating && rating <= 3) return "1";
+        else if (4 <= rating && rating <= 5) return "2";
+        else if (6 <= rating && rating <= 7) return "3";
+        else if (8 <= rating && rating <= 9) return "4";
+        else return "5";
+    }
+
+    // 2.3 Members Clustering
+    public static int encodeMembers(long members) {
+        if (members == 0) return 0;
+        else if (1 <= members && members <= 5000) return 1;
+        else if (5001 <= members && members <= 20000) return 2;
+        else if (20001 <= members && members <= 50000) return 3;
+        else if (50001 <= members && members <= 100000) return 4;
+        else if (100001 <= members && members <= 200000) return 5;
+        else if (200001 <= members && members <= 500000) return 6;
+        else return 7;
+    }
+
+    // 2.4 Anime Rating Clustering
+    public static int encodeRating(double rating) {
+        if (rating < 3.0) return 0;
+        else if (rating < 5.0) return 1;
+        else if (rating < 6.5) return 2;
+        else if (rating < 7.5) return 3;
+        else if (rating < 8.5) return 4;
+        else if (rating < 9.0) return 5;
+        else return 6;
+    }
+
+    // 2.5 Episodes Encoding
+    public static String encodeEpisodes(int episodes) {
+        if (episodes <= 1) return "Movie/Special";
+        else if (episodes <= 13) return "Short_Series";
+        else if (episodes <= 26) return "Medium_Series";
+        else if (episodes <= 100) return "Long_Series";
+        else return "Very_Long_Series";
+    }
+
+    private static Map<Integer, Integer> readGenreClusters(String genreArff) throws Exception {
+        Instances anime = new DataSource(genreArff).getDataSet();
+        Attribute id = anime.attribute("anime_id");
+        Attribute genre = anime.attribute("genre_encoded");
+        if (id == null || genre == null) {
+            throw new Exception(genreArff + " has no anime_id/genre_encoded attributes");
+        }
+        Map<Integer, Integer> genres = new HashMap<Integer, Integer>();
+        for (Instance instance : anime) {
+            if (instance.isMissing(id) || instance.isMissing(genre)) {
+                continue;
+            }
+            int animeId = (int) Math.round(id.isNominal() ? Double.parseDouble(instance.stringValue(id)) : instance.value(id));
+            double cluster = genre.isNominal() ? Double.parseDouble(instance.stringValue(genre)) : instance.value(genre);
+            genres.put(animeId, (int) Math.round(cluster));
+        }
+        return genres;
+    }
+
+    static int[] columnIndices(String[] header, String... names) throws Exception {
+        int[] indices = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indices[i] = Arrays.asList(header).indexOf(names[i]);
+            if (indices[i] < 0) {
+                throw new Exception("Column '" + names[i] + "' not found in " + Arrays.toString(header));
+            }
+        }
+        return indices;
+    }
+
+    private static String field(String[] row, int index) {
+        return index < row.length ? row[index].trim() : "";
+    }
+
+    // pd.to_numeric(errors='coerce'): anything unparsable becomes NaN
+    private static double parseDouble(String value) {
+        try {
+            return value.isEmpty() ? Double.NaN : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double median(double[] values, int count) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return count % 2 == 1 ? sorted[count / 2] : (sorted[count / 2 - 1] + sorted[count / 2]) / 2.0;
+    }
+
+    private static String format(int code) {
+        return code + ".00";
+    }
+}
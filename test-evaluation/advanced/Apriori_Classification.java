@@ -1,44 +1,53 @@
 import weka.associations.Apriori;
 import weka.core.Instances;
 import weka.core.Utils;
-import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.PrintStream;
 
 public class Apriori_Classification {
     public static void main(String[] args) {
         try {
             // Load data
-            DataSource source = new DataSource("../../dataset/advanced/combined-cleaned.arff");
-            Instances data = source.getDataSet();
-
-            // Unset class index (Apriori doesn't use class index in the same way, usually
-            // -c -1 means no class)
-            data.setClassIndex(-1);
+            Instances data = Binary_Dataset_Cache.load("../../dataset/advanced/combined-cleaned.arff");
+            run(data, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Create associator
-            Apriori associator = new Apriori();
-            String[] options = Utils.splitOptions("-N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1 -S -1.0 -c -1");
-            associator.setOptions(options);
+    // Runs the scheme on data and prints the report to out
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Unset class index (Apriori doesn't use class index in the same way, usually
+        // -c -1 means no class)
+        data.setClassIndex(-1);
 
-            // Print Run information
-            System.out.println("=== Run information ===");
-            System.out.println();
-            System.out.println(
-                    "Scheme:       weka.associations.Apriori -N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1 -S -1.0 -c -1");
-            System.out.println("Relation:     " + data.relationName());
-            System.out.println("Instances:    " + data.numInstances());
-            System.out.println("Attributes:   " + data.numAttributes());
-            for (int i = 0; i < data.numAttributes(); i++) {
-                System.out.println("              " + data.attribute(i).name());
-            }
-            System.out.println("=== Associator model (full training set) ===");
-            System.out.println();
+        // Create associator
+        Apriori associator = new Apriori();
+        String[] options = Utils.splitOptions("-N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1 -S -1.0 -c -1");
+        associator.setOptions(options);
 
-            associator.buildAssociations(data);
+        // Print Run information
+        out.println("=== Run information ===");
+        out.println();
+        out.println(
+                "Scheme:       weka.associations.Apriori -N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1 -S -1.0 -c -1");
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("=== Associator model (full training set) ===");
+        out.println();
 
-            System.out.println(associator.toString());
+        // Stored models are keyed by scheme, options and data, see Model_Store
+        Apriori model = Phase_Metrics.time("build",
+                () -> Model_Store.getOrBuild(associator.getClass().getName(),
+                        Utils.joinOptions(associator.getOptions()), data, () -> {
+                            associator.buildAssociations(data);
+                            return associator;
+                        }).get());
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        Phase_Metrics.run("report", () -> out.println(model.toString()));
     }
 }
@@ -0,0 +1,450 @@
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.J48;
+import weka.core.AbstractInstance;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// In-memory column store for combined_data: one byte[] of nominal codes per attribute
+// (-1 = missing), so a row costs one byte per attribute instead of the ~100 bytes of a
+// DenseInstance (object, double[] and list slot). All seven million rows of rating.csv
+// fit in about 50 MB this way.
+//
+// Weka algorithms see the rows through Row_View, a read-only Instance over one row of
+// the columns. asInstances() wraps every row in a view (about 40 bytes each, still less
+// than half a DenseInstance), while forEachRow() moves a single view over the rows for
+// scans that allocate nothing. Every attribute must be nominal with at most 127 values,
+// and every row has weight 1, which holds for both combined-cleaned.arff variants.
+//
+// Usage: java Columnar_Dataset [-full]
+//
+// Loads combined-cleaned.arff, or with -full every row of rating.csv, into the store and
+// prints its size next to the DenseInstance estimate. Without -full it also checks that
+// asInstances() holds the same rows as the ARFF read by Weka and gives the same J48 and
+// NaiveBayes models.
+public class Columnar_Dataset implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // A body of work run once per row, see forEachRow()
+    public interface Row_Visitor {
+        void visit(Row_View row) throws Exception;
+    }
+
+    private final Instances header;
+    private final byte[][] columns;
+    private int numRows;
+
+    public Columnar_Dataset(Instances header, int capacity) {
+        this.header = new Instances(header, 0);
+        this.columns = new byte[header.numAttributes()][];
+        for (int j = 0; j < columns.length; j++) {
+            Attribute attribute = header.attribute(j);
+            if (!attribute.isNominal() || attribute.numValues() > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException(attribute.name() + " is not nominal with at most "
+                        + Byte.MAX_VALUE + " values");
+            }
+            columns[j] = new byte[Math.max(16, capacity)];
+        }
+    }
+
+    // A store holding every row of data
+    public static Columnar_Dataset of(Instances data) {
+        Columnar_Dataset store = new Columnar_Dataset(data, data.numInstances());
+        store.addAll(data);
+        return store;
+    }
+
+    // A store holding every row of a cached ARFF, read column by column without building Instances
+    public static Columnar_Dataset of(Binary_Dataset_Cache cache) {
+        Instances header = cache.header();
+        header.setClassIndex(header.numAttributes() - 1);
+        Columnar_Dataset store = new Columnar_Dataset(header, cache.numRows());
+        for (double weight : cache.weights()) {
+            if (weight != 1.0) {
+                throw new IllegalArgumentException("Rows with weights other than 1 are not supported");
+            }
+        }
+        for (int j = 0; j < store.columns.length; j++) {
+            int[] codes = cache.codes(j);
+            for (int i = 0; i < codes.length; i++) {
+                store.columns[j][i] = (byte) codes[i];
+            }
+        }
+        store.numRows = cache.numRows();
+        return store;
+    }
+
+    // A store holding every row the loader streams, one chunk in memory at a time
+    public static Columnar_Dataset of(Streaming_Rating_Loader loader) throws Exception {
+        Columnar_Dataset store = new Columnar_Dataset(loader.getHeader(), 1 << 20);
+        Instances chunk;
+        while ((chunk = loader.nextChunk()) != null) {
+            store.addAll(chunk);
+        }
+        store.trimToSize();
+        return store;
+    }
+
+    public void add(double[] values) {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " values, got " + values.length);
+        }
+        ensureCapacity(numRows + 1);
+        for (int j = 0; j < columns.length; j++) {
+            columns[j][numRows] = Utils.isMissingValue(values[j]) ? -1 : (byte) values[j];
+        }
+        numRows++;
+    }
+
+    public void add(Instance instance) {
+        if (instance.weight() != 1.0) {
+            throw new IllegalArgumentException("Rows with weights other than 1 are not supported");
+        }
+        ensureCapacity(numRows + 1);
+        for (int j = 0; j < columns.length; j++) {
+            columns[j][numRows] = instance.isMissing(j) ? -1 : (byte) instance.value(j);
+        }
+        numRows++;
+    }
+
+    public void addAll(Instances data) {
+        ensureCapacity(numRows + data.numInstances());
+        for (int i = 0; i < data.numInstances(); i++) {
+            add(data.instance(i));
+        }
+    }
+
+    // Drops the spare capacity left by growing
+    public void trimToSize() {
+        for (int j = 0; j < columns.length; j++) {
+            if (columns[j].length != numRows) {
+                columns[j] = Arrays.copyOf(columns[j], numRows);
+            }
+        }
+    }
+
+    public Instances header() {
+        return new Instances(header, 0);
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numAttributes() {
+        return columns.length;
+    }
+
+    // Code of one cell, -1 when missing
+    public byte code(int row, int attIndex) {
+        return columns[attIndex][row];
+    }
+
+    // Value of one cell as Weka stores it (nominal index, NaN = missing)
+    public double value(int row, int attIndex) {
+        byte code = columns[attIndex][row];
+        return code < 0 ? Utils.missingValue() : code;
+    }
+
+    // The codes of one attribute; the array is shared and only its first numRows() entries are rows
+    public byte[] column(int attIndex) {
+        return columns[attIndex];
+    }
+
+    // Bytes held by the columns
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (byte[] column : columns) {
+            bytes += 16 + column.length;
+        }
+        return bytes;
+    }
+
+    public Row_View row(int row) {
+        Row_View view = new Row_View(this, row);
+        view.setDataset(header);
+        return view;
+    }
+
+    // Visits every row through one view that is moved from row to row
+    public void forEachRow(Row_Visitor visitor) throws Exception {
+        Row_View view = row(0);
+        for (int i = 0; i < numRows; i++) {
+            view.moveTo(i);
+            visitor.visit(view);
+        }
+    }
+
+    // All rows as Instances backed by the columns
+    public Instances asInstances() {
+        return asInstances(0, numRows);
+    }
+
+    // Rows from (inclusive) to to (exclusive) as Instances backed by the columns
+    public Instances asInstances(int from, int to) {
+        Instances data = new Instances(header, to - from);
+        for (int i = from; i < to; i++) {
+            data.add(new Row_View(this, i));
+        }
+        return data;
+    }
+
+    // All rows copied into ordinary DenseInstances
+    public Instances toInstances() {
+        Instances data = new Instances(header, numRows);
+        for (int i = 0; i < numRows; i++) {
+            double[] values = new double[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                values[j] = value(i, j);
+            }
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > columns[0].length) {
+            int grown = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, columns[0].length * 3L / 2));
+            for (int j = 0; j < columns.length; j++) {
+                columns[j] = Arrays.copyOf(columns[j], grown);
+            }
+        }
+    }
+
+    // One row of a Columnar_Dataset as a Weka Instance. Reads go to the columns; the first
+    // write copies the row into the view's own double[], so the store itself never changes.
+    public static final class Row_View extends AbstractInstance {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Columnar_Dataset store;
+        private int row;
+
+        Row_View(Columnar_Dataset store, int row) {
+            this.store = store;
+            this.row = row;
+            this.m_Weight = 1.0;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        // Points this view at another row, dropping any values written to it
+        public void moveTo(int row) {
+            this.row = row;
+            this.m_AttValues = null;
+            this.m_Weight = 1.0;
+        }
+
+        @Override
+        public double value(int attIndex) {
+            return m_AttValues != null ? m_AttValues[attIndex] : store.value(row, attIndex);
+        }
+
+        @Override
+        public double valueSparse(int indexOfIndex) {
+            return value(indexOfIndex);
+        }
+
+        @Override
+        public int index(int position) {
+            return position;
+        }
+
+        @Override
+        public int numAttributes() {
+            return m_AttValues != null ? m_AttValues.length : store.numAttributes();
+        }
+
+        @Override
+        public int numValues() {
+            return numAttributes();
+        }
+
+        @Override
+        public double[] toDoubleArray() {
+            double[] values = new double[numAttributes()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = value(j);
+            }
+            return values;
+        }
+
+        @Override
+        public Object copy() {
+            Row_View result = new Row_View(store, row);
+            result.m_AttValues = m_AttValues == null ? null : m_AttValues.clone();
+            result.m_Weight = m_Weight;
+            result.m_Dataset = m_Dataset;
+            return result;
+        }
+
+        @Override
+        public Instance copy(double[] values) {
+            DenseInstance result = new DenseInstance(m_Weight, values);
+            result.setDataset(m_Dataset);
+            return result;
+        }
+
+        @Override
+        public Instance mergeInstance(Instance inst) {
+            double[] values = new double[numAttributes() + inst.numAttributes()];
+            System.arraycopy(toDoubleArray(), 0, values, 0, numAttributes());
+            System.arraycopy(inst.toDoubleArray(), 0, values, numAttributes(), inst.numAttributes());
+            return new DenseInstance(1.0, values);
+        }
+
+        @Override
+        public void replaceMissingValues(double[] array) {
+            if (array == null || array.length != numAttributes()) {
+                throw new IllegalArgumentException("Unequal number of attributes!");
+            }
+            detach();
+            for (int j = 0; j < m_AttValues.length; j++) {
+                if (Utils.isMissingValue(m_AttValues[j])) {
+                    m_AttValues[j] = array[j];
+                }
+            }
+        }
+
+        @Override
+        public void setValue(int attIndex, double value) {
+            detach();
+            m_AttValues[attIndex] = value;
+        }
+
+        @Override
+        public void setValueSparse(int indexOfIndex, double value) {
+            setValue(indexOfIndex, value);
+        }
+
+        @Override
+        public String toStringNoWeight() {
+            return toStringNoWeight(AbstractInstance.s_numericAfterDecimalPoint);
+        }
+
+        @Override
+        public String toStringNoWeight(int afterDecimalPoint) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < numAttributes(); j++) {
+                if (j > 0) {
+                    text.append(",");
+                }
+                text.append(toString(j, afterDecimalPoint));
+            }
+            return text.toString();
+        }
+
+        @Override
+        protected void forceDeleteAttributeAt(int position) {
+            detach();
+            double[] values = new double[m_AttValues.length - 1];
+            System.arraycopy(m_AttValues, 0, values, 0, position);
+            System.arraycopy(m_AttValues, position + 1, values, position, m_AttValues.length - position - 1);
+            m_AttValues = values;
+        }
+
+        @Override
+        protected void forceInsertAttributeAt(int position) {
+            detach();
+            double[] values = new double[m_AttValues.length + 1];
+            System.arraycopy(m_AttValues, 0, values, 0, position);
+            values[position] = Utils.missingValue();
+            System.arraycopy(m_AttValues, position, values, position + 1, m_AttValues.length - position);
+            m_AttValues = values;
+        }
+
+        private void detach() {
+            if (m_AttValues == null) {
+                m_AttValues = toDoubleArray();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            boolean full = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-full")) {
+                    full = true;
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            long usedBefore = usedHeap();
+            long startTime = System.currentTimeMillis();
+            Columnar_Dataset store;
+            if (full) {
+                Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv",
+                        "../../dataset/advanced/anime-cleaned.arff");
+                Instances header = Streaming_Rating_Loader.readHeader("../../dataset/advanced/combined-cleaned.arff");
+                try (Streaming_Rating_Loader loader = new Streaming_Rating_Loader("../../dataset/raw/rating.csv",
+                        anime, header, 100000)) {
+                    store = of(loader);
+                }
+            } else {
+                store = of(Binary_Dataset_Cache.open("../../dataset/advanced/combined-cleaned.arff"));
+            }
+            long endTime = System.currentTimeMillis();
+            long usedAfter = usedHeap();
+
+            int numRows = store.numRows();
+            // DenseInstance: object (32 bytes), double[] (16 + 8 per attribute) and its list slot (4)
+            long denseBytes = numRows * (32L + 16 + 8L * store.numAttributes() + 4);
+            System.out.println("Rows:                " + numRows);
+            System.out.println("Attributes:          " + store.numAttributes());
+            System.out.println("Time taken to load:  "
+                    + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
+            System.out.println("Column bytes:        " + store.sizeInBytes() + " ("
+                    + Utils.doubleToString((double) store.sizeInBytes() / Math.max(1, numRows), 2) + " per row)");
+            System.out.println("Heap growth:         " + (usedAfter - usedBefore));
+            System.out.println("As DenseInstances:   about " + denseBytes + " ("
+                    + Utils.doubleToString((double) denseBytes / Math.max(1, numRows), 2) + " per row)");
+
+            if (!full) {
+                Instances arff = new DataSource("../../dataset/advanced/combined-cleaned.arff").getDataSet();
+                arff.setClassIndex(arff.numAttributes() - 1);
+                Instances views = store.asInstances();
+                boolean same = views.numInstances() == arff.numInstances()
+                        && views.classIndex() == arff.classIndex();
+                for (int i = 0; same && i < arff.numInstances(); i++) {
+                    same = Arrays.equals(views.instance(i).toDoubleArray(), arff.instance(i).toDoubleArray());
+                }
+                System.out.println("Rows match ARFF:     " + same);
+
+                J48 fromViews = new J48();
+                fromViews.buildClassifier(views);
+                J48 fromArff = new J48();
+                fromArff.buildClassifier(arff);
+                System.out.println("J48 matches:         " + fromViews.toString().equals(fromArff.toString()));
+
+                NaiveBayes bayesFromViews = new NaiveBayes();
+                bayesFromViews.buildClassifier(views);
+                NaiveBayes bayesFromArff = new NaiveBayes();
+                bayesFromArff.buildClassifier(arff);
+                System.out.println("NaiveBayes matches:  "
+                        + bayesFromViews.toString().equals(bayesFromArff.toString()));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,652 @@
+import weka.associations.AbstractAssociator;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+// Association rules with the same results as weka.associations.Apriori with the
+// confidence metric (-T 0), but without rescanning the data in every cycle.
+//
+// Apriori starts at support 1 - delta and lowers it by delta until it finds numRules
+// rules or reaches the lower bound. Every cycle counts the candidate itemsets of each
+// size against all rows again. Here the rows are read once into one bitset per item
+// (attribute = value). The frequent itemsets for the lowest support of any cycle are
+// then mined depth-first by intersecting those bitsets (Eclat), and the rules of
+// every itemset are generated once. A cycle only has to keep the rules whose itemset
+// is frequent at its support, so the cycles no longer touch the data at all.
+//
+// Large inputs are mined in row partitions on a fork-join pool (SON): each partition
+// finds its locally frequent itemsets, and the union is counted in all partitions.
+// The itemsets and counts are exact, so the rules do not depend on the partitioning.
+//
+// Itemsets, rules, their order and toString() follow Apriori exactly (same cycle
+// arithmetic, same consequence merging and the same stable sorts by support and
+// confidence), so reports can be diffed. Missing values never match an item and
+// instance weights are ignored, as in Apriori.
+public class Fast_Apriori extends AbstractAssociator {
+
+    private static final long serialVersionUID = 1L;
+
+    // Words of the item bitsets per partition at least (65,536 rows)
+    private static final int PARTITION_WORDS = 1 << 10;
+
+    private int numRules = 10;
+    private double minConfidence = 0.9;
+    private double delta = 0.05;
+    private double upperBoundMinSupport = 1.0;
+    private double lowerBoundMinSupport = 0.1;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private Instances header;
+    // Item itemOffsets[a] + v stands for attribute a = value v
+    private int[] itemOffsets;
+    private int[] itemAttributes;
+    // One bit per row for every item
+    private long[][] itemRows;
+    private int[] itemCounts;
+    private int numRows;
+
+    // Frequent itemsets at the lowest support, by size, each size in lexicographic order
+    private List<List<Item_Set>> itemSets;
+    private HashMap<Item_Set, Integer> itemSetCounts;
+
+    // Results of the last cycle
+    private int cycles;
+    private double minSupport;
+    private int[] largeItemSetSizes;
+    private List<Rule> bestRules;
+
+    public void setNumRules(int numRules) {
+        this.numRules = numRules;
+    }
+
+    public int getNumRules() {
+        return numRules;
+    }
+
+    public void setMinConfidence(double minConfidence) {
+        this.minConfidence = minConfidence;
+    }
+
+    public double getMinConfidence() {
+        return minConfidence;
+    }
+
+    public void setDelta(double delta) {
+        this.delta = delta;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    public void setUpperBoundMinSupport(double upperBoundMinSupport) {
+        this.upperBoundMinSupport = upperBoundMinSupport;
+    }
+
+    public double getUpperBoundMinSupport() {
+        return upperBoundMinSupport;
+    }
+
+    public void setLowerBoundMinSupport(double lowerBoundMinSupport) {
+        this.lowerBoundMinSupport = lowerBoundMinSupport;
+    }
+
+    public double getLowerBoundMinSupport() {
+        return lowerBoundMinSupport;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public int getNumCycles() {
+        return cycles;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+        result.enable(Capabilities.Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capabilities.Capability.MISSING_VALUES);
+        result.enable(Capabilities.Capability.NO_CLASS);
+        result.enable(Capabilities.Capability.NOMINAL_CLASS);
+        result.enable(Capabilities.Capability.MISSING_CLASS_VALUES);
+        return result;
+    }
+
+    @Override
+    public void buildAssociations(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+        startBuild(data);
+        addInstances(data);
+        finishBuild();
+    }
+
+    // Starts a build for rows with header's attributes. Rows are then added with
+    // addInstances() (e.g. one chunk at a time) and the rules found by finishBuild().
+    public void startBuild(Instances header) throws Exception {
+        this.header = new Instances(header, 0);
+        Capabilities capabilities = getCapabilities();
+        capabilities.setMinimumNumberInstances(0);
+        capabilities.testWithFail(this.header);
+        int numAttributes = header.numAttributes();
+        itemOffsets = new int[numAttributes + 1];
+        for (int a = 0; a < numAttributes; a++) {
+            itemOffsets[a + 1] = itemOffsets[a] + header.attribute(a).numValues();
+        }
+        int numItems = itemOffsets[numAttributes];
+        itemAttributes = new int[numItems];
+        for (int a = 0; a < numAttributes; a++) {
+            Arrays.fill(itemAttributes, itemOffsets[a], itemOffsets[a + 1], a);
+        }
+        itemRows = new long[numItems][16];
+        itemCounts = new int[numItems];
+        numRows = 0;
+        itemSets = null;
+        itemSetCounts = null;
+        bestRules = null;
+    }
+
+    // Sets the bits of rows' items; this is the only pass over the data
+    public void addInstances(Instances rows) {
+        int numAttributes = header.numAttributes();
+        int words = (numRows + rows.numInstances() + 63) >>> 6;
+        if (words > itemRows[0].length) {
+            int capacity = (int) Math.max(words, itemRows[0].length * 3L / 2);
+            for (int item = 0; item < itemRows.length; item++) {
+                itemRows[item] = Arrays.copyOf(itemRows[item], capacity);
+            }
+        }
+        for (Instance instance : rows) {
+            for (int a = 0; a < numAttributes; a++) {
+                if (!instance.isMissing(a)) {
+                    int item = itemOffsets[a] + (int) instance.value(a);
+                    itemRows[item][numRows >>> 6] |= 1L << numRows;
+                    itemCounts[item]++;
+                }
+            }
+            numRows++;
+        }
+    }
+
+    // Mines the rows added so far and runs Apriori's cycles on the result
+    public void finishBuild() throws Exception {
+        if (numRows == 0) {
+            throw new Exception("No instances to mine.");
+        }
+        if (delta <= 0) {
+            throw new Exception("Delta must be positive.");
+        }
+        double n = numRows;
+        double lowerBound = lowerBoundMinSupport * n < 1.0 ? 1.0 / n : lowerBoundMinSupport;
+        double firstSupport = 1.0 - delta < lowerBound ? lowerBound : 1.0 - delta;
+
+        // The supports the cycles would go through if no cycle found enough rules
+        int minCount = Integer.MAX_VALUE;
+        double support = firstSupport;
+        double necSupport;
+        do {
+            minCount = Math.min(minCount, (int) (support * n + 0.5));
+            support = nextSupport(support, lowerBound);
+            necSupport = Math.rint(support * n);
+        } while (Utils.grOrEq(support, lowerBound) && necSupport >= 1.0);
+
+        mineItemSets(minCount);
+        List<Rule> rules = generateRules();
+        int maxCount = (int) (upperBoundMinSupport * n + 0.5);
+
+        cycles = 0;
+        minSupport = firstSupport;
+        do {
+            int count = (int) (minSupport * n + 0.5);
+            largeItemSetSizes = largeItemSetSizes(count);
+            List<Rule> cycleRules = new ArrayList<Rule>();
+            for (Rule rule : rules) {
+                if (rule.count >= count && (upperBoundMinSupport >= 1.0 || rule.count <= maxCount)) {
+                    cycleRules.add(rule);
+                }
+            }
+            bestRules = bestRules(cycleRules);
+            minSupport = nextSupport(minSupport, lowerBound);
+            necSupport = Math.rint(minSupport * n);
+            cycles++;
+        } while (bestRules.size() < numRules && Utils.grOrEq(minSupport, lowerBound) && necSupport >= 1.0);
+        minSupport += delta;
+    }
+
+    // Apriori's step from one cycle's support to the next
+    private double nextSupport(double support, double lowerBound) {
+        return support == lowerBound || support - delta > lowerBound ? support - delta : lowerBound;
+    }
+
+    // Finds every itemset contained in at least minCount rows. With more than one
+    // partition this is SON's two-phase mining: every partition mines the itemsets that
+    // are frequent within its own rows (any globally frequent itemset is frequent in at
+    // least one partition), and the union of those candidates is then counted in every
+    // partition and summed. Both phases run one task per partition on a fork-join pool.
+    private void mineItemSets(int minCount) throws Exception {
+        itemSets = new ArrayList<List<Item_Set>>();
+        itemSetCounts = new HashMap<Item_Set, Integer>();
+        int words = (numRows + 63) >>> 6;
+        int numPartitions = (int) Math.min(Math.max(1, numThreads) * 4L,
+                (words + PARTITION_WORDS - 1) / PARTITION_WORDS);
+        if (numPartitions <= 1) {
+            for (Item_Set itemSet : localItemSets(0, words, minCount)) {
+                addItemSet(itemSet);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, numThreads));
+        try {
+            List<Item_Set> candidates = new ArrayList<Item_Set>(new TreeSet<Item_Set>(
+                    forEachPartition(pool, words, numPartitions, (from, to) -> {
+                        long partitionRows = Math.min((long) to << 6, numRows) - ((long) from << 6);
+                        int localMinCount = (int) ((minCount * partitionRows + numRows - 1) / numRows);
+                        return localItemSets(from, to, localMinCount);
+                    }).stream().flatMap(List::stream).collect(Collectors.toList())));
+            long[] counts = new long[candidates.size()];
+            for (int[] partitionCounts : forEachPartition(pool, words, numPartitions,
+                    (from, to) -> countItemSets(candidates, from, to))) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += partitionCounts[i];
+                }
+            }
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] >= minCount) {
+                    addItemSet(new Item_Set(candidates.get(i).items, (int) counts[i]));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private interface Partition<T> {
+        T run(int fromWord, int toWord) throws Exception;
+    }
+
+    // Runs task on numPartitions word ranges of the item bitsets and returns the results in order
+    private static <T> List<T> forEachPartition(ForkJoinPool pool, int words, int numPartitions, Partition<T> task)
+            throws Exception {
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int p = 0; p < numPartitions; p++) {
+            final int from = (int) ((long) words * p / numPartitions);
+            final int to = (int) ((long) words * (p + 1) / numPartitions);
+            futures.add(pool.submit(() -> task.run(from, to)));
+        }
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private void addItemSet(Item_Set itemSet) {
+        int depth = itemSet.items.length - 1;
+        if (itemSets.size() == depth) {
+            itemSets.add(new ArrayList<Item_Set>());
+        }
+        itemSets.get(depth).add(itemSet);
+        itemSetCounts.put(itemSet, itemSet.count);
+    }
+
+    // The itemsets contained in at least minCount of the rows in words [from, to), in
+    // lexicographic order. Items are numbered attribute by attribute, so each size is in
+    // the order of Apriori's L(k).
+    private List<Item_Set> localItemSets(int from, int to, int minCount) {
+        List<Item_Set> found = new ArrayList<Item_Set>();
+        int[] candidates = new int[itemCounts.length];
+        int numCandidates = 0;
+        for (int item = 0; item < itemCounts.length; item++) {
+            if (itemCounts[item] >= minCount) {
+                candidates[numCandidates++] = item;
+            }
+        }
+        long[][] buffers = new long[header.numAttributes()][];
+        extend(new int[0], null, 0, Arrays.copyOf(candidates, numCandidates), from, to, minCount, buffers, found);
+        return found;
+    }
+
+    // Adds the frequent extensions of prefix by one of the candidates to found, depth-first.
+    // prefixRows holds the prefix's rows from word prefixOffset on (null for the empty prefix).
+    private void extend(int[] prefix, long[] prefixRows, int prefixOffset, int[] candidates, int from, int to,
+            int minCount, long[][] buffers, List<Item_Set> found) {
+        int depth = prefix.length;
+        for (int i = 0; i < candidates.length; i++) {
+            int item = candidates[i];
+            long[] other = itemRows[item];
+            long[] rows;
+            int rowsOffset;
+            int count = 0;
+            if (prefixRows == null) {
+                rows = other;
+                rowsOffset = 0;
+                for (int w = from; w < to; w++) {
+                    count += Long.bitCount(other[w]);
+                }
+            } else {
+                if (buffers[depth] == null) {
+                    buffers[depth] = new long[to - from];
+                }
+                rows = buffers[depth];
+                rowsOffset = from;
+                for (int w = from; w < to; w++) {
+                    long bits = prefixRows[w - prefixOffset] & other[w];
+                    rows[w - from] = bits;
+                    count += Long.bitCount(bits);
+                }
+            }
+            if (count < minCount) {
+                continue;
+            }
+            int[] items = Arrays.copyOf(prefix, depth + 1);
+            items[depth] = item;
+            found.add(new Item_Set(items, count));
+
+            // Only items of later attributes can extend this itemset
+            int next = i + 1;
+            while (next < candidates.length && itemAttributes[candidates[next]] == itemAttributes[item]) {
+                next++;
+            }
+            if (next < candidates.length) {
+                extend(items, rows, rowsOffset, Arrays.copyOfRange(candidates, next, candidates.length), from, to,
+                        minCount, buffers, found);
+            }
+        }
+    }
+
+    // Counts each candidate in the rows of words [from, to). Candidates are in lexicographic
+    // order and contain all their prefixes, so the last candidate seen one item shorter
+    // is always the prefix whose rows are still in buffers.
+    private int[] countItemSets(List<Item_Set> candidates, int from, int to) {
+        int[] counts = new int[candidates.size()];
+        long[][] buffers = new long[header.numAttributes()][to - from];
+        for (int i = 0; i < counts.length; i++) {
+            int[] items = candidates.get(i).items;
+            int depth = items.length - 1;
+            long[] other = itemRows[items[depth]];
+            long[] rows = buffers[depth];
+            int count = 0;
+            if (depth == 0) {
+                for (int w = from; w < to; w++) {
+                    rows[w - from] = other[w];
+                    count += Long.bitCount(other[w]);
+                }
+            } else {
+                long[] prefixRows = buffers[depth - 1];
+                for (int w = from; w < to; w++) {
+                    long bits = prefixRows[w - from] & other[w];
+                    rows[w - from] = bits;
+                    count += Long.bitCount(bits);
+                }
+            }
+            counts[i] = count;
+        }
+        return counts;
+    }
+
+    // Sizes of L(1), L(2), ... at a support of count rows
+    private int[] largeItemSetSizes(int count) {
+        int[] sizes = new int[itemSets.size()];
+        int numSizes = 0;
+        for (int k = 0; k < itemSets.size(); k++) {
+            for (Item_Set itemSet : itemSets.get(k)) {
+                if (itemSet.count >= count) {
+                    sizes[k]++;
+                }
+            }
+            if (sizes[k] == 0) {
+                break;
+            }
+            numSizes++;
+        }
+        return Arrays.copyOf(sizes, numSizes);
+    }
+
+    // Rules of every frequent itemset with at least two items, in the order Apriori's
+    // findRulesQuickly() generates them
+    private List<Rule> generateRules() {
+        List<Rule> rules = new ArrayList<Rule>();
+        for (int k = 1; k < itemSets.size(); k++) {
+            for (Item_Set itemSet : itemSets.get(k)) {
+                // Consequences of one item, then merged consequences of the rules that
+                // reached minConfidence, one item larger each time
+                List<int[]> consequences = new ArrayList<int[]>();
+                for (int item : itemSet.items) {
+                    consequences.add(new int[] { item });
+                }
+                for (int consequenceSize = 1; ; consequenceSize++) {
+                    List<int[]> kept = new ArrayList<int[]>();
+                    for (int[] consequence : consequences) {
+                        int[] premise = subtract(itemSet.items, consequence);
+                        int premiseCount = itemSetCounts.get(new Item_Set(premise, 0));
+                        int consequenceCount = itemSetCounts.get(new Item_Set(consequence, 0));
+                        Rule rule = new Rule(premise, premiseCount, consequence, consequenceCount, itemSet.count,
+                                numRows, rules.size());
+                        if (rule.confidence < minConfidence) {
+                            continue;
+                        }
+                        rules.add(rule);
+                        kept.add(consequence);
+                    }
+                    if (itemSet.items.length <= consequenceSize + 1 || kept.size() < 2) {
+                        break;
+                    }
+                    consequences = merge(kept);
+                }
+            }
+        }
+        return rules;
+    }
+
+    // Joins pairs of consequences that share all but their last item (Apriori's mergeAllItemSets)
+    private List<int[]> merge(List<int[]> consequences) {
+        List<int[]> merged = new ArrayList<int[]>();
+        for (int i = 0; i < consequences.size(); i++) {
+            int[] first = consequences.get(i);
+            int last = first.length - 1;
+            for (int j = i + 1; j < consequences.size(); j++) {
+                int[] second = consequences.get(j);
+                if (!samePrefix(first, second, last)) {
+                    break;
+                }
+                if (itemAttributes[first[last]] != itemAttributes[second[last]]) {
+                    int[] items = Arrays.copyOf(first, first.length + 1);
+                    items[first.length] = second[last];
+                    merged.add(items);
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static boolean samePrefix(int[] first, int[] second, int length) {
+        for (int i = 0; i < length; i++) {
+            if (first[i] != second[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] subtract(int[] items, int[] remove) {
+        int[] result = new int[items.length - remove.length];
+        int size = 0;
+        int r = 0;
+        for (int item : items) {
+            if (r < remove.length && remove[r] == item) {
+                r++;
+            } else {
+                result[size++] = item;
+            }
+        }
+        return result;
+    }
+
+    // The numRules best rules: by confidence, then by support, then in generation order,
+    // which is what Apriori's two stable sorts amount to
+    private List<Rule> bestRules(List<Rule> rules) {
+        List<Rule> sorted = new ArrayList<Rule>(rules);
+        sorted.sort((a, b) -> {
+            if (a.confidence != b.confidence) {
+                return a.confidence > b.confidence ? -1 : 1;
+            }
+            if (a.count != b.count) {
+                return a.count > b.count ? -1 : 1;
+            }
+            return Integer.compare(a.order, b.order);
+        });
+        return new ArrayList<Rule>(sorted.subList(0, Math.min(numRules, sorted.size())));
+    }
+
+    public List<Rule> getRules() {
+        return bestRules;
+    }
+
+    @Override
+    public String toString() {
+        if (bestRules == null || largeItemSetSizes.length <= 1) {
+            return "\nNo large itemsets and rules found!\n";
+        }
+        StringBuilder text = new StringBuilder();
+        text.append("\nApriori\n=======\n\n");
+        text.append("Minimum support: " + Utils.doubleToString(minSupport, 2) + " ("
+                + (int) (minSupport * numRows + 0.5) + " instances)" + '\n');
+        text.append("Minimum metric <confidence>: " + Utils.doubleToString(minConfidence, 2) + '\n');
+        text.append("Number of cycles performed: " + cycles + '\n');
+        text.append("\nGenerated sets of large itemsets:\n");
+        for (int k = 0; k < largeItemSetSizes.length; k++) {
+            text.append("\nSize of set of large itemsets L(" + (k + 1) + "): " + largeItemSetSizes[k] + '\n');
+        }
+        text.append("\nBest rules found:\n\n");
+        int width = (int) (Math.log(numRules) / Math.log(10.0) + 1.0);
+        for (int i = 0; i < bestRules.size(); i++) {
+            Rule rule = bestRules.get(i);
+            text.append(Utils.doubleToString(i + 1.0, width, 0)).append(". ");
+            text.append(itemsToString(rule.premise, rule.premiseCount)).append(" ==> ");
+            text.append(itemsToString(rule.consequence, rule.count));
+            text.append("    <conf:(").append(Utils.doubleToString(rule.confidence, 2)).append(")>");
+            text.append(" lift:(").append(Utils.doubleToString(rule.lift, 2)).append(")");
+            text.append(" lev:(").append(Utils.doubleToString(rule.leverage, 2)).append(") [")
+                    .append((int) (rule.leverage * numRows)).append("]");
+            text.append(" conv:(").append(Utils.doubleToString(rule.conviction, 2)).append(")");
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    // "att=value att=value count", as ItemSet.toString prints it
+    private String itemsToString(int[] items, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int item : items) {
+            int a = itemAttributes[item];
+            text.append(header.attribute(a).name()).append('=')
+                    .append(header.attribute(a).value(item - itemOffsets[a])).append(' ');
+        }
+        return text.append(count).toString();
+    }
+
+    // A frequent itemset; equality, hashing and order only look at the items
+    private static final class Item_Set implements Comparable<Item_Set>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int[] items;
+        final int count;
+
+        Item_Set(int[] items, int count) {
+            this.items = items;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Item_Set && Arrays.equals(items, ((Item_Set) other).items);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(items);
+        }
+
+        // Lexicographic order of the items; a prefix comes before its extensions
+        @Override
+        public int compareTo(Item_Set other) {
+            for (int i = 0; i < items.length && i < other.items.length; i++) {
+                if (items[i] != other.items[i]) {
+                    return items[i] < other.items[i] ? -1 : 1;
+                }
+            }
+            return Integer.compare(items.length, other.items.length);
+        }
+    }
+
+    // premise ==> consequence with Apriori's metrics; count is the number of rows with both
+    public static final class Rule implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int[] premise;
+        final int premiseCount;
+        final int[] consequence;
+        final int consequenceCount;
+        final int count;
+        final double confidence;
+        final double lift;
+        final double leverage;
+        final double conviction;
+        final int order;
+
+        Rule(int[] premise, int premiseCount, int[] consequence, int consequenceCount, int count, int numRows,
+                int order) {
+            this.premise = premise;
+            this.premiseCount = premiseCount;
+            this.consequence = consequence;
+            this.consequenceCount = consequenceCount;
+            this.count = count;
+            this.order = order;
+            // Same expressions as AprioriItemSet, so the values match to the last bit
+            confidence = (double) count / (double) premiseCount;
+            lift = confidence / ((double) consequenceCount / (double) numRows);
+            leverage = (double) count / (double) numRows
+                    - (double) premiseCount / (double) numRows * ((double) consequenceCount / (double) numRows);
+            conviction = (double) premiseCount * (double) (numRows - consequenceCount) / (double) numRows
+                    / (double) (premiseCount - count + 1);
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+
+        public double getLift() {
+            return lift;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+public class Fast_J48_Classification {
+    public static void main(String[] args) {
+        try {
+            // Load data
+            Instances data = Binary_Dataset_Cache.load("../../dataset/advanced/combined-cleaned.arff");
+            run(data, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the scheme on data and prints the report to out, in the same layout as J48_Classification
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Set class index to the last attribute
+        if (data.classIndex() == -1)
+            data.setClassIndex(data.numAttributes() - 1);
+
+        // Create classifier, same tree as J48 -C 0.25 -M 2
+        Fast_J48 classifier = new Fast_J48();
+        classifier.setConfidenceFactor(0.25f); // -C 0.25
+        classifier.setMinNumObj(2); // -M 2
+
+        // Print Run information
+        out.println("=== Run information ===");
+        out.println();
+        out.println("Scheme:       Fast_J48 " + Utils.joinOptions(classifier.getOptions()) + " -num-threads "
+                + classifier.getNumThreads());
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    10-fold cross-validation");
+        out.println();
+
+        // Build model on full training set
+        out.println("=== Classifier model (full training set) ===");
+        out.println();
+
+        // Stored models are keyed by scheme, options and data, see Model_Store. The
+        // thread count is left out of the key since it does not change the model.
+        String options = Utils.joinOptions(classifier.getOptions());
+
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<Fast_J48> model = Phase_Metrics.time("build",
+                () -> Model_Store.getOrBuild("Fast_J48", options, data, () -> {
+                    classifier.buildClassifier(data);
+                    return classifier;
+                }));
+        long endTime = System.currentTimeMillis();
+
+        out.println(model.get().toString());
+        out.println();
+        out.println("Time taken to " + model.action() + " model: "
+                + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
+        out.println();
+
+        // Cross-validation; each fold's tree is grown on the cross-validation pool
+        out.println("=== Stratified cross-validation ===");
+        out.println("=== Summary ===");
+
+        Evaluation eval = Phase_Metrics.time("cross-validation",
+                () -> Model_Store.getOrBuild("Fast_J48", options + " -x 10 -s 1", data,
+                        () -> Parallel_Cross_Validation.crossValidateModel(classifier, data, 10, new Random(1))).get());
+
+        Phase_Metrics.run("report", () -> {
+            out.println(eval.toSummaryString(false));
+
+            out.println("=== Detailed Accuracy By Class ===");
+            out.println();
+            out.println(eval.toClassDetailsString());
+
+            out.println("=== Confusion Matrix ===");
+            out.println();
+            out.println(eval.toMatrixString());
+        });
+    }
+}
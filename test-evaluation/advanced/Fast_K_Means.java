@@ -0,0 +1,937 @@
+import weka.clusterers.AbstractClusterer;
+import weka.clusterers.UpdateableClusterer;
+import weka.core.BatchPredictor;
+import weka.core.Capabilities;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.WeightedInstancesHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// K-Means over a contiguous row-major double[] matrix instead of Instance objects.
+// It follows SimpleKMeans -init 0 with EuclideanDistance step by step: missing values
+// are replaced with the mean/mode, the starting points are drawn with the same
+// Random(seed) swaps, nominal attributes differ by 0/1 and numeric ones are scaled by
+// their range, ties go to the lower cluster, empty clusters are dropped and the run
+// stops when no row changes cluster or after maxIterations. toString() prints the
+// same layout as SimpleKMeans, so reports can be diffed.
+//
+// Each iteration is a single parallel pass: rows are split into fixed chunks, and
+// every chunk assigns its rows and collects per-cluster weights, numeric sums and
+// nominal counts. The partial results are merged in chunk order, so the model does
+// not depend on the number of threads. Nominal centroids are exact; numeric means
+// may differ from SimpleKMeans in the last bits because sums are added per chunk.
+//
+// The model keeps those per-cluster statistics, so it can also be updated with new
+// rows without touching the old ones: updateClusterer() assigns a row or a
+// mini-batch to the current centroids, adds it to the statistics and moves the
+// centroids to the new means/modes. Missing values in new rows are replaced with
+// the values of the original build, and numeric ranges widen to cover new rows. The
+// squared errors are also kept per numeric attribute, so when a range widens the errors
+// already summed are rescaled with the centroids and stay on one scale.
+// The clusterer is Serializable, so its state can be saved with SerializationHelper
+// and updated again in a later run.
+public class Fast_K_Means extends AbstractClusterer
+        implements BatchPredictor, UpdateableClusterer, WeightedInstancesHandler {
+
+    private static final long serialVersionUID = 2L;
+
+    // Rows per parallel task
+    private static final int CHUNK_ROWS = 1 << 16;
+
+    private static final byte NOMINAL = 0;
+    private static final byte NUMERIC = 1;
+    // Numeric attribute with a zero range, which never adds to the distance
+    private static final byte CONSTANT = 2;
+
+    private int numClusters = 2;
+    private int maxIterations = 500;
+    private int seed = 10;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private String batchSize = "100";
+
+    private Instances header;
+    private byte[] kinds;
+    private double[] rangeMin;
+    private double[] rangeWidth;
+    private double[] modesAndMeans;
+    private double[] fullMeansOrModes;
+
+    private int k;
+    private int iterations;
+    // k rows of numAttributes values; normCentroids holds numeric values scaled by range
+    private double[] centroids;
+    private double[] normCentroids;
+    private double[] clusterSizes;
+    private double[] squaredErrors;
+    // k rows of numAttributes: the part of squaredErrors from each numeric attribute
+    private double[] attributeErrors;
+    // Rows per cluster in the final pass, as ClusterEvaluation would count them. A row of
+    // weight w counts w times, so distinct rows weighted by their counts count every row.
+    private long[] clusterCounts;
+    private Instances initialStartPoints;
+
+    // Per cluster: row count, weight, then one slot per numeric attribute (weighted
+    // sum) and one per nominal value (weight) starting at statOffsets[attribute]
+    private int[] statOffsets;
+    private int statWidth;
+    private double[] clusterStats;
+    // Rows added since the last build, counted by weight like clusterCounts
+    private long updatedRows;
+
+    public void setNumClusters(int numClusters) {
+        this.numClusters = numClusters;
+    }
+
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+        result.enable(Capabilities.Capability.NO_CLASS);
+        result.enable(Capabilities.Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capabilities.Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capabilities.Capability.MISSING_VALUES);
+        return result;
+    }
+
+    @Override
+    public void buildClusterer(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+        int numAttributes = data.numAttributes();
+        double[] matrix = newMatrix(data.numInstances(), numAttributes);
+        double[] weights = new double[data.numInstances()];
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance instance = data.instance(i);
+            for (int j = 0; j < numAttributes; j++) {
+                matrix[i * numAttributes + j] = instance.value(j);
+            }
+            weights[i] = instance.weight();
+        }
+        buildClusterer(new Instances(data, 0), matrix, weights, data.numInstances());
+    }
+
+    // Builds the model from numRows rows of header's attributes stored row-major in
+    // matrix (NaN = missing). weights may be null for unit weights. The matrix is
+    // modified in place: missing values are replaced and rows are reordered.
+    public void buildClusterer(Instances header, double[] matrix, double[] weights, int numRows) throws Exception {
+        if (header.classIndex() >= 0) {
+            throw new Exception("Fast_K_Means: class attribute must be unset");
+        }
+        if (weights == null) {
+            weights = new double[numRows];
+            Arrays.fill(weights, 1.0);
+        }
+        this.header = new Instances(header, 0);
+        int m = header.numAttributes();
+
+        replaceMissingValues(matrix, weights, numRows);
+        fullMeansOrModes = centroidOf(matrix, weights, numRows);
+        computeRanges(matrix, numRows);
+
+        // Random starting points, drawn exactly like SimpleKMeans: walk j down from the
+        // last row, pick a row in [0, j], skip duplicates and swap it to position j
+        Random random = new Random(seed);
+        double[] initial = new double[numClusters * m];
+        int numInitial = 0;
+        for (int j = numRows - 1; j >= 0; j--) {
+            int index = random.nextInt(j + 1);
+            if (!isDuplicate(matrix, index * m, initial, numInitial)) {
+                System.arraycopy(matrix, index * m, initial, numInitial * m, m);
+                numInitial++;
+            }
+            swapRows(matrix, weights, j, index);
+            if (numInitial == numClusters) {
+                break;
+            }
+        }
+        k = numInitial;
+        centroids = Arrays.copyOf(initial, k * m);
+        initialStartPoints = new Instances(this.header, k);
+        for (int c = 0; c < k; c++) {
+            initialStartPoints.add(new DenseInstance(1.0, Arrays.copyOfRange(centroids, c * m, c * m + m)));
+        }
+        normaliseCentroids();
+
+        statOffsets = new int[m];
+        statWidth = 2;
+        for (int j = 0; j < m; j++) {
+            statOffsets[j] = statWidth;
+            statWidth += kinds[j] == NOMINAL ? header.attribute(j).numValues() : 1;
+        }
+        updatedRows = 0;
+        final int[] assignments = new int[numRows];
+        final double[] rowWeights = weights;
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            iterations = 0;
+            boolean converged = false;
+            while (!converged) {
+                iterations++;
+                final int numCentroids = k;
+                List<double[]> partials = forEachChunk(pool, numRows, (from, to) -> {
+                    // Slot numCentroids * statWidth carries the number of changed rows
+                    double[] partial = new double[numCentroids * statWidth + 1];
+                    partial[numCentroids * statWidth] = assignChunk(matrix, rowWeights, from, to, assignments,
+                            partial);
+                    return partial;
+                });
+                double[] stats = new double[k * statWidth];
+                long changed = 0;
+                for (double[] partial : partials) {
+                    for (int i = 0; i < stats.length; i++) {
+                        stats[i] += partial[i];
+                    }
+                    changed += (long) partial[stats.length];
+                }
+                converged = changed == 0 || iterations == maxIterations;
+                moveCentroids(stats);
+            }
+
+            // Final pass with the last centroids for the squared errors; the per-row
+            // errors are summed in row order so the total matches SimpleKMeans
+            final double[] errors = new double[numRows];
+            final int numCentroids = k;
+            List<double[]> partials = forEachChunk(pool, numRows, (from, to) -> {
+                double[] partial = new double[numCentroids * m];
+                for (int i = from; i < to; i++) {
+                    int cluster = nearest(matrix, i * m);
+                    double distance = Math.sqrt(squaredDistance(matrix, i * m, cluster, Double.POSITIVE_INFINITY));
+                    assignments[i] = cluster;
+                    errors[i] = distance * (distance * rowWeights[i]);
+                    addAttributeErrors(partial, cluster, matrix, i * m, rowWeights[i]);
+                }
+                return partial;
+            });
+            attributeErrors = new double[k * m];
+            for (double[] partial : partials) {
+                for (int i = 0; i < attributeErrors.length; i++) {
+                    attributeErrors[i] += partial[i];
+                }
+            }
+            squaredErrors = new double[k];
+            clusterCounts = new long[k];
+            for (int i = 0; i < numRows; i++) {
+                squaredErrors[assignments[i]] += errors[i];
+                clusterCounts[assignments[i]] += Math.round(rowWeights[i]);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Override
+    public int clusterInstance(Instance instance) throws Exception {
+        double[] row = rowOf(instance);
+        return nearest(row, 0);
+    }
+
+    // Adds one row to its nearest cluster and moves that centroid
+    @Override
+    public void updateClusterer(Instance instance) throws Exception {
+        double[] row = rowOf(instance);
+        widenRanges(row, 1);
+        int cluster = nearest(row, 0);
+        double distance = Math.sqrt(squaredDistance(row, 0, cluster, Double.POSITIVE_INFINITY));
+        addRow(clusterStats, cluster * statWidth, row, 0, instance.weight());
+        squaredErrors[cluster] += distance * (distance * instance.weight());
+        addAttributeErrors(attributeErrors, cluster, row, 0, instance.weight());
+        clusterCounts[cluster] += Math.round(instance.weight());
+        updatedRows += Math.round(instance.weight());
+        updateCentroid(cluster);
+        updateFullData();
+    }
+
+    // Centroids are already current after every update
+    @Override
+    public void updateFinished() {
+    }
+
+    // Mini-batch update: every row of batch is assigned to the current centroids in
+    // parallel, then the centroids move once. The cost depends on the batch only.
+    public void updateClusterer(Instances batch) throws Exception {
+        int m = header.numAttributes();
+        if (batch.numAttributes() != m) {
+            throw new Exception("Fast_K_Means: batch has " + batch.numAttributes() + " attributes, model has " + m);
+        }
+        double[] matrix = newMatrix(batch.numInstances(), m);
+        double[] weights = new double[batch.numInstances()];
+        for (int i = 0; i < batch.numInstances(); i++) {
+            System.arraycopy(rowOf(batch.instance(i)), 0, matrix, i * m, m);
+            weights[i] = batch.instance(i).weight();
+        }
+        updateClusterer(matrix, weights, batch.numInstances());
+    }
+
+    // Mini-batch update from numRows row-major rows (NaN = missing, replaced in place).
+    // weights may be null for unit weights.
+    public void updateClusterer(double[] matrix, double[] weights, int numRows) throws Exception {
+        int m = header.numAttributes();
+        for (int i = 0; i < numRows * m; i++) {
+            if (Double.isNaN(matrix[i])) {
+                matrix[i] = modesAndMeans[i % m];
+            }
+        }
+        widenRanges(matrix, numRows);
+
+        double added = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            // Each partial holds the statistics, then k squared errors, then k row weights,
+            // then the k * m squared errors per attribute
+            int errorsStart = k * statWidth + 2 * k;
+            List<double[]> partials = forEachChunk(pool, numRows, (from, to) -> {
+                double[] partial = new double[errorsStart + k * m];
+                for (int i = from; i < to; i++) {
+                    double weight = weights == null ? 1.0 : weights[i];
+                    int cluster = nearest(matrix, i * m);
+                    double distance = Math.sqrt(squaredDistance(matrix, i * m, cluster, Double.POSITIVE_INFINITY));
+                    addRow(partial, cluster * statWidth, matrix, i * m, weight);
+                    partial[k * statWidth + cluster] += distance * (distance * weight);
+                    partial[k * statWidth + k + cluster] += weight;
+                    addAttributeErrors(partial, errorsStart, cluster, matrix, i * m, weight);
+                }
+                return partial;
+            });
+            for (double[] partial : partials) {
+                for (int i = 0; i < clusterStats.length; i++) {
+                    clusterStats[i] += partial[i];
+                }
+                for (int c = 0; c < k; c++) {
+                    squaredErrors[c] += partial[k * statWidth + c];
+                    clusterCounts[c] += Math.round(partial[k * statWidth + k + c]);
+                    added += partial[k * statWidth + k + c];
+                }
+                for (int i = 0; i < attributeErrors.length; i++) {
+                    attributeErrors[i] += partial[errorsStart + i];
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        for (int c = 0; c < k; c++) {
+            updateCentroid(c);
+        }
+        updateFullData();
+        updatedRows += Math.round(added);
+    }
+
+    // Rows added by updateClusterer() since the last build
+    public long getUpdatedRows() {
+        return updatedRows;
+    }
+
+    @Override
+    public int numberOfClusters() throws Exception {
+        return k;
+    }
+
+    @Override
+    public void setBatchSize(String size) {
+        batchSize = size;
+    }
+
+    @Override
+    public String getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public boolean implementsMoreEfficientBatchPrediction() {
+        return true;
+    }
+
+    // Assigns the whole batch in parallel; used by ClusterEvaluation
+    @Override
+    public double[][] distributionsForInstances(Instances batch) throws Exception {
+        final int m = header.numAttributes();
+        final double[] matrix = newMatrix(batch.numInstances(), m);
+        for (int i = 0; i < batch.numInstances(); i++) {
+            System.arraycopy(rowOf(batch.instance(i)), 0, matrix, i * m, m);
+        }
+        final double[][] distributions = new double[batch.numInstances()][k];
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            forEachChunk(pool, batch.numInstances(), (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    distributions[i][nearest(matrix, i * m)] = 1.0;
+                }
+                return null;
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        return distributions;
+    }
+
+    // Cluster weights of the final assignment
+    public double[] getClusterSizes() {
+        return clusterSizes.clone();
+    }
+
+    public long[] getClusterCounts() {
+        return clusterCounts.clone();
+    }
+
+    public Instances getClusterCentroids() {
+        Instances result = new Instances(header, k);
+        int m = header.numAttributes();
+        for (int c = 0; c < k; c++) {
+            result.add(new DenseInstance(1.0, Arrays.copyOfRange(centroids, c * m, c * m + m)));
+        }
+        return result;
+    }
+
+    public double getSquaredError() {
+        return Utils.sum(squaredErrors);
+    }
+
+    // Task over rows [from, to)
+    private interface Chunk<T> {
+        T run(int from, int to) throws Exception;
+    }
+
+    // Runs task on every chunk of CHUNK_ROWS rows and returns the results in chunk order
+    private static <T> List<T> forEachChunk(ExecutorService pool, int numRows, Chunk<T> task) throws Exception {
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int from = 0; from < numRows; from += CHUNK_ROWS) {
+            final int start = from;
+            final int end = Math.min(numRows, from + CHUNK_ROWS);
+            futures.add(pool.submit(() -> task.run(start, end)));
+        }
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    // Assigns rows [from, to) and adds them to their cluster's statistics in stats.
+    // Returns the number of rows whose cluster changed.
+    private int assignChunk(double[] matrix, double[] weights, int from, int to, int[] assignments, double[] stats) {
+        int m = kinds.length;
+        int changed = 0;
+        for (int i = from; i < to; i++) {
+            int offset = i * m;
+            int cluster = nearest(matrix, offset);
+            if (cluster != assignments[i]) {
+                changed++;
+                assignments[i] = cluster;
+            }
+            addRow(stats, cluster * statWidth, matrix, offset, weights[i]);
+        }
+        return changed;
+    }
+
+    // Adds the row at offset to the cluster statistics starting at base
+    private void addRow(double[] stats, int base, double[] matrix, int offset, double weight) {
+        stats[base] += 1;
+        stats[base + 1] += weight;
+        for (int j = 0; j < kinds.length; j++) {
+            double value = matrix[offset + j];
+            if (kinds[j] == NOMINAL) {
+                stats[base + statOffsets[j] + (int) value] += weight;
+            } else {
+                stats[base + statOffsets[j]] += weight * value;
+            }
+        }
+    }
+
+    // Adds the row's weighted squared difference to centroid c on each numeric attribute
+    // to errors[start + c * numAttributes + j]
+    private void addAttributeErrors(double[] errors, int start, int c, double[] matrix, int offset, double weight) {
+        int m = kinds.length;
+        for (int j = 0; j < m; j++) {
+            if (kinds[j] == NUMERIC) {
+                double diff = (matrix[offset + j] - rangeMin[j]) / rangeWidth[j] - normCentroids[c * m + j];
+                errors[start + c * m + j] += diff * (diff * weight);
+            }
+        }
+    }
+
+    private void addAttributeErrors(double[] errors, int c, double[] matrix, int offset, double weight) {
+        addAttributeErrors(errors, 0, c, matrix, offset, weight);
+    }
+
+    // Index of the nearest centroid to the row at offset; the first of equally near
+    // centroids wins, as in SimpleKMeans
+    private int nearest(double[] matrix, int offset) {
+        int best = 0;
+        double bestSum = Double.POSITIVE_INFINITY;
+        double bestDistance = Integer.MAX_VALUE;
+        for (int c = 0; c < k; c++) {
+            double sum = squaredDistance(matrix, offset, c, bestSum);
+            if (sum < bestSum) {
+                // SimpleKMeans compares square roots, which can tie where the sums do not
+                double distance = Math.sqrt(sum);
+                if (distance < bestDistance) {
+                    best = c;
+                    bestSum = sum;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Squared normalised Euclidean distance between a row and centroid c. Stops early
+    // once the partial sum exceeds cutoff, since that centroid can no longer win.
+    private double squaredDistance(double[] matrix, int offset, int c, double cutoff) {
+        int m = kinds.length;
+        int centroid = c * m;
+        double sum = 0;
+        for (int j = 0; j < m; j++) {
+            byte kind = kinds[j];
+            double diff;
+            if (kind == NOMINAL) {
+                diff = matrix[offset + j] == normCentroids[centroid + j] ? 0 : 1;
+            } else if (kind == NUMERIC) {
+                diff = (matrix[offset + j] - rangeMin[j]) / rangeWidth[j] - normCentroids[centroid + j];
+            } else {
+                continue;
+            }
+            sum += diff * diff;
+            if (sum > cutoff) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    // Keeps the statistics of non-empty clusters and moves their centroids
+    private void moveCentroids(double[] stats) {
+        double[] kept = new double[k * statWidth];
+        int numKept = 0;
+        for (int c = 0; c < k; c++) {
+            if (stats[c * statWidth] > 0) {
+                System.arraycopy(stats, c * statWidth, kept, numKept * statWidth, statWidth);
+                numKept++;
+            }
+        }
+        k = numKept;
+        clusterStats = Arrays.copyOf(kept, k * statWidth);
+        centroids = new double[k * kinds.length];
+        normCentroids = new double[k * kinds.length];
+        clusterSizes = new double[k];
+        for (int c = 0; c < k; c++) {
+            updateCentroid(c);
+        }
+    }
+
+    // Centroid c as the weighted mean/mode of its statistics
+    private void updateCentroid(int c) {
+        int m = kinds.length;
+        int base = c * statWidth;
+        double weight = clusterStats[base + 1];
+        for (int j = 0; j < m; j++) {
+            int slot = base + statOffsets[j];
+            if (kinds[j] == NOMINAL) {
+                centroids[c * m + j] = maxIndex(clusterStats, slot, header.attribute(j).numValues());
+            } else {
+                centroids[c * m + j] = weight > 0 ? clusterStats[slot] / weight : Utils.missingValue();
+            }
+        }
+        clusterSizes[c] = weight;
+        normaliseCentroid(c);
+    }
+
+    // "Full Data" column after an update: mean/mode over the statistics of all clusters
+    private void updateFullData() {
+        double[] total = new double[statWidth];
+        for (int i = 0; i < clusterStats.length; i++) {
+            total[i % statWidth] += clusterStats[i];
+        }
+        for (int j = 0; j < kinds.length; j++) {
+            int slot = statOffsets[j];
+            if (kinds[j] == NOMINAL) {
+                fullMeansOrModes[j] = maxIndex(total, slot, header.attribute(j).numValues());
+            } else {
+                fullMeansOrModes[j] = total[1] > 0 ? total[slot] / total[1] : Utils.missingValue();
+            }
+        }
+    }
+
+    private void normaliseCentroids() {
+        normCentroids = centroids.clone();
+        for (int c = 0; c < k; c++) {
+            normaliseCentroid(c);
+        }
+    }
+
+    private void normaliseCentroid(int c) {
+        int m = kinds.length;
+        for (int j = 0; j < m; j++) {
+            normCentroids[c * m + j] = kinds[j] == NUMERIC
+                    ? (centroids[c * m + j] - rangeMin[j]) / rangeWidth[j]
+                    : centroids[c * m + j];
+        }
+    }
+
+    // Extends the numeric ranges to new rows; the centroids and the squared errors summed
+    // so far are rescaled if any changed. A difference on attribute j scales by
+    // oldWidth / newWidth, so its squared errors scale by the square of that. A constant
+    // attribute contributed nothing and still does: its old rows all equal their centroid.
+    private void widenRanges(double[] matrix, int numRows) {
+        int m = kinds.length;
+        boolean changed = false;
+        for (int j = 0; j < m; j++) {
+            if (kinds[j] == NOMINAL) {
+                continue;
+            }
+            double min = rangeMin[j];
+            double max = rangeMin[j] + rangeWidth[j];
+            boolean widened = false;
+            for (int i = 0; i < numRows; i++) {
+                double value = matrix[i * m + j];
+                if (value < min || value > max) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    widened = true;
+                }
+            }
+            if (widened) {
+                if (kinds[j] == NUMERIC) {
+                    double ratio = rangeWidth[j] / (max - min);
+                    for (int c = 0; c < k; c++) {
+                        double error = attributeErrors[c * m + j];
+                        attributeErrors[c * m + j] = error * (ratio * ratio);
+                        squaredErrors[c] -= error - attributeErrors[c * m + j];
+                    }
+                }
+                rangeMin[j] = min;
+                rangeWidth[j] = max - min;
+                kinds[j] = rangeWidth[j] == 0 ? CONSTANT : NUMERIC;
+                changed = true;
+            }
+        }
+        if (changed) {
+            normaliseCentroids();
+        }
+    }
+
+    // Same values as ReplaceMissingValues: weighted mode (first on ties) or weighted
+    // mean of the non-missing values, 0 for an all-missing numeric attribute
+    private void replaceMissingValues(double[] matrix, double[] weights, int numRows) {
+        int m = header.numAttributes();
+        double[][] counts = new double[m][];
+        double[] sums = new double[m];
+        double[] sumWeights = new double[m];
+        for (int j = 0; j < m; j++) {
+            if (header.attribute(j).isNominal()) {
+                counts[j] = new double[header.attribute(j).numValues()];
+            }
+        }
+        boolean anyMissing = false;
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < m; j++) {
+                double value = matrix[i * m + j];
+                if (Double.isNaN(value)) {
+                    anyMissing = true;
+                } else if (counts[j] != null) {
+                    counts[j][(int) value] += weights[i];
+                } else {
+                    sums[j] += weights[i] * value;
+                    sumWeights[j] += weights[i];
+                }
+            }
+        }
+        modesAndMeans = new double[m];
+        for (int j = 0; j < m; j++) {
+            if (counts[j] != null) {
+                modesAndMeans[j] = counts[j].length == 0 ? Utils.missingValue() : Utils.maxIndex(counts[j]);
+            } else if (sumWeights[j] > 0) {
+                modesAndMeans[j] = sums[j] / sumWeights[j];
+            }
+        }
+        if (anyMissing) {
+            for (int i = 0; i < numRows * m; i++) {
+                if (Double.isNaN(matrix[i])) {
+                    matrix[i] = modesAndMeans[i % m];
+                }
+            }
+        }
+    }
+
+    // Weighted mean/mode of all rows, shown as the "Full Data" column
+    private double[] centroidOf(double[] matrix, double[] weights, int numRows) {
+        int m = header.numAttributes();
+        double[] result = new double[m];
+        double[][] counts = new double[m][];
+        double totalWeight = 0;
+        for (int j = 0; j < m; j++) {
+            if (header.attribute(j).isNominal()) {
+                counts[j] = new double[header.attribute(j).numValues()];
+            }
+        }
+        for (int i = 0; i < numRows; i++) {
+            totalWeight += weights[i];
+            for (int j = 0; j < m; j++) {
+                if (counts[j] != null) {
+                    counts[j][(int) matrix[i * m + j]] += weights[i];
+                } else {
+                    result[j] += weights[i] * matrix[i * m + j];
+                }
+            }
+        }
+        for (int j = 0; j < m; j++) {
+            if (counts[j] != null) {
+                result[j] = maxIndex(counts[j], 0, counts[j].length);
+            } else {
+                result[j] = totalWeight > 0 ? result[j] / totalWeight : Utils.missingValue();
+            }
+        }
+        return result;
+    }
+
+    private void computeRanges(double[] matrix, int numRows) {
+        int m = header.numAttributes();
+        kinds = new byte[m];
+        rangeMin = new double[m];
+        rangeWidth = new double[m];
+        for (int j = 0; j < m; j++) {
+            if (header.attribute(j).isNominal()) {
+                kinds[j] = NOMINAL;
+                continue;
+            }
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < numRows; i++) {
+                double value = matrix[i * m + j];
+                if (!Double.isNaN(value)) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+            rangeMin[j] = min;
+            rangeWidth[j] = max - min;
+            kinds[j] = numRows == 0 || rangeWidth[j] == 0 || Double.isNaN(rangeWidth[j]) ? CONSTANT : NUMERIC;
+        }
+    }
+
+    // Values of instance with missing values replaced like in the training data
+    private double[] rowOf(Instance instance) {
+        double[] row = instance.toDoubleArray();
+        for (int j = 0; j < row.length; j++) {
+            if (Double.isNaN(row[j])) {
+                row[j] = modesAndMeans[j];
+            }
+        }
+        return row;
+    }
+
+    private boolean isDuplicate(double[] matrix, int offset, double[] rows, int numRows) {
+        int m = kinds.length;
+        for (int r = 0; r < numRows; r++) {
+            boolean same = true;
+            for (int j = 0; j < m && same; j++) {
+                same = matrix[offset + j] == rows[r * m + j];
+            }
+            if (same) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void swapRows(double[] matrix, double[] weights, int a, int b) {
+        if (a == b) {
+            return;
+        }
+        int m = kinds.length;
+        for (int j = 0; j < m; j++) {
+            double value = matrix[a * m + j];
+            matrix[a * m + j] = matrix[b * m + j];
+            matrix[b * m + j] = value;
+        }
+        double weight = weights[a];
+        weights[a] = weights[b];
+        weights[b] = weight;
+    }
+
+    // First index of the largest of length values starting at from
+    private static int maxIndex(double[] values, int from, int length) {
+        double max = -Double.MAX_VALUE;
+        int index = -1;
+        for (int i = 0; i < length; i++) {
+            if (values[from + i] > max) {
+                max = values[from + i];
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    static double[] newMatrix(int numRows, int numAttributes) throws Exception {
+        if ((long) numRows * numAttributes > Integer.MAX_VALUE - 8) {
+            throw new Exception("Fast_K_Means: " + numRows + " x " + numAttributes + " values do not fit in one array");
+        }
+        return new double[numRows * numAttributes];
+    }
+
+    // Same layout as SimpleKMeans.toString() without standard deviations
+    @Override
+    public String toString() {
+        if (centroids == null) {
+            return "No clusterer built yet!";
+        }
+        Instances centroidInstances = getClusterCentroids();
+        int maxWidth = 0;
+        int maxAttWidth = 0;
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < centroidInstances.numAttributes(); j++) {
+                if (centroidInstances.attribute(j).name().length() > maxAttWidth) {
+                    maxAttWidth = centroidInstances.attribute(j).name().length();
+                }
+                if (centroidInstances.attribute(j).isNumeric()) {
+                    double width = Math.log(Math.abs(centroidInstances.instance(i).value(j))) / Math.log(10.0);
+                    if (width < 0) {
+                        width = 1;
+                    }
+                    width += 6.0;
+                    if ((int) width > maxWidth) {
+                        maxWidth = (int) width;
+                    }
+                }
+            }
+        }
+        for (int j = 0; j < centroidInstances.numAttributes(); j++) {
+            if (centroidInstances.attribute(j).isNominal()) {
+                for (int i = 0; i < k; i++) {
+                    String value = centroidInstances.attribute(j).value((int) centroidInstances.instance(i).value(j));
+                    maxWidth = Math.max(maxWidth, value.length());
+                }
+                for (int v = 0; v < centroidInstances.attribute(j).numValues(); v++) {
+                    String value = centroidInstances.attribute(j).value(v) + " ";
+                    maxAttWidth = Math.max(maxAttWidth, value.length());
+                }
+            }
+        }
+        for (double size : clusterSizes) {
+            maxWidth = Math.max(maxWidth, ("(" + size + ")").length());
+        }
+        maxAttWidth += 2;
+        if (maxAttWidth < "Attribute".length() + 2) {
+            maxAttWidth = "Attribute".length() + 2;
+        }
+        if (maxWidth < "Full Data".length()) {
+            maxWidth = "Full Data".length() + 1;
+        }
+        if (maxWidth < "missing".length()) {
+            maxWidth = "missing".length() + 1;
+        }
+
+        StringBuffer text = new StringBuffer();
+        text.append("\nkMeans\n======\n");
+        text.append("\nNumber of iterations: " + iterations);
+        text.append("\nWithin cluster sum of squared errors: " + Utils.sum(squaredErrors));
+        if (updatedRows > 0) {
+            text.append("\nRows added by incremental updates: " + updatedRows);
+        }
+        text.append("\n\nInitial starting points (random):\n\n");
+        for (int i = 0; i < initialStartPoints.numInstances(); i++) {
+            text.append("Cluster " + i + ": " + initialStartPoints.instance(i)).append("\n");
+        }
+        text.append("\nMissing values globally replaced with mean/mode");
+        text.append("\n\nFinal cluster centroids:\n");
+        text.append(pad("Cluster#", ' ', maxAttWidth + (maxWidth * 2 + 2) - "Cluster#".length(), true));
+        text.append("\n");
+        text.append(pad("Attribute", ' ', maxAttWidth - "Attribute".length(), false));
+        text.append(pad("Full Data", ' ', maxWidth + 1 - "Full Data".length(), true));
+        for (int i = 0; i < k; i++) {
+            String number = "" + i;
+            text.append(pad(number, ' ', maxWidth + 1 - number.length(), true));
+        }
+        text.append("\n");
+        String size = "(" + Utils.sum(clusterSizes) + ")";
+        text.append(pad(size, ' ', maxAttWidth + maxWidth + 1 - size.length(), true));
+        for (int i = 0; i < k; i++) {
+            size = "(" + clusterSizes[i] + ")";
+            text.append(pad(size, ' ', maxWidth + 1 - size.length(), true));
+        }
+        text.append("\n");
+        text.append(pad("", '=', maxAttWidth + (maxWidth * (k + 1) + k + 1), true));
+        text.append("\n");
+
+        for (int j = 0; j < centroidInstances.numAttributes(); j++) {
+            String name = centroidInstances.attribute(j).name();
+            text.append(pad(name, ' ', maxAttWidth - name.length(), false));
+            text.append(formatValue(centroidInstances, j, fullMeansOrModes[j], maxWidth));
+            for (int i = 0; i < k; i++) {
+                text.append(formatValue(centroidInstances, j, centroidInstances.instance(i).value(j), maxWidth));
+            }
+            text.append("\n");
+        }
+        text.append("\n\n");
+        return text.toString();
+    }
+
+    private static String formatValue(Instances data, int attIndex, double value, int maxWidth) {
+        String text;
+        if (Utils.isMissingValue(value)) {
+            text = "missing";
+        } else if (data.attribute(attIndex).isNominal()) {
+            text = data.attribute(attIndex).value((int) value);
+        } else {
+            text = Utils.doubleToString(value, maxWidth, 4).trim();
+        }
+        return pad(text, ' ', maxWidth + 1 - text.length(), true);
+    }
+
+    private static String pad(String source, char padChar, int length, boolean leftPad) {
+        StringBuilder text = new StringBuilder();
+        if (!leftPad) {
+            text.append(source);
+        }
+        for (int i = 0; i < length; i++) {
+            text.append(padChar);
+        }
+        if (leftPad) {
+            text.append(source);
+        }
+        return text.toString();
+    }
+}
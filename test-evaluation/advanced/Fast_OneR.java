@@ -0,0 +1,119 @@
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+// OneR for nominal attributes, built from a Contingency_Cube instead of one scan of
+// the data per attribute. For every attribute each value predicts its most frequent
+// class (the first one on ties) and missing values their own most frequent class;
+// the attribute whose rule is right most often wins, the first one on ties. This is
+// what OneR does for nominal attributes (-B only affects numeric ones), so the rule,
+// its predictions and toString() are the same.
+public class Fast_OneR extends AbstractClassifier {
+
+    private static final long serialVersionUID = 1L;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private Attribute classAttribute;
+    private Attribute attribute;
+    private int[] classifications;
+    private int missingValueClass = -1;
+    private long correct;
+    private long numRows;
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+        result.enable(Capabilities.Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capabilities.Capability.MISSING_VALUES);
+        result.enable(Capabilities.Capability.NOMINAL_CLASS);
+        result.enable(Capabilities.Capability.MISSING_CLASS_VALUES);
+        return result;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+        buildClassifier(data, Contingency_Cube.count(data, numThreads));
+    }
+
+    // Picks the rule from cube, counted on rows with header's attributes
+    public void buildClassifier(Instances header, Contingency_Cube cube) throws Exception {
+        if (cube.numAttributes() == 0) {
+            throw new Exception("No attributes found to work with!");
+        }
+        int numClasses = cube.numClasses();
+        int bestAttribute = -1;
+        for (int k = 0; k < cube.numAttributes(); k++) {
+            int[] rule = new int[cube.numValues(k)];
+            long ruleCorrect = 0;
+            for (int v = 0; v < rule.length; v++) {
+                rule[v] = maxClass(cube, k, v, numClasses);
+                ruleCorrect += cube.count(k, v, rule[v]);
+            }
+            int missingClass = maxClass(cube, k, cube.numValues(k), numClasses);
+            if (cube.count(k, cube.numValues(k), missingClass) == 0) {
+                missingClass = -1;
+            } else {
+                ruleCorrect += cube.count(k, cube.numValues(k), missingClass);
+            }
+            if (bestAttribute < 0 || ruleCorrect > correct) {
+                bestAttribute = k;
+                attribute = header.attribute(cube.attribute(k));
+                classifications = rule;
+                missingValueClass = missingClass;
+                correct = ruleCorrect;
+            }
+        }
+        classAttribute = header.classAttribute();
+        numRows = cube.numRows();
+    }
+
+    // Utils.maxIndex() of the class counts of one value
+    private static int maxClass(Contingency_Cube cube, int k, int value, int numClasses) {
+        int best = 0;
+        for (int c = 1; c < numClasses; c++) {
+            if (cube.count(k, value, c) > cube.count(k, value, best)) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public double classifyInstance(Instance instance) {
+        if (instance.isMissing(attribute.index())) {
+            return missingValueClass != -1 ? missingValueClass : 0;
+        }
+        return classifications[(int) instance.value(attribute.index())];
+    }
+
+    // Same text as OneR.toString()
+    @Override
+    public String toString() {
+        if (attribute == null) {
+            return "OneR: No model built yet.";
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(attribute.name() + ":\n");
+        for (int v = 0; v < classifications.length; v++) {
+            text.append("\t" + attribute.value(v) + "\t-> " + classAttribute.value(classifications[v]) + "\n");
+        }
+        if (missingValueClass != -1) {
+            text.append("\t?\t-> " + classAttribute.value(missingValueClass) + "\n");
+        }
+        text.append("(" + correct + "/" + numRows + " instances correct)\n");
+        return text.toString();
+    }
+}
@@ -0,0 +1,141 @@
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+// Usage: java Fast_ZeroR_Classification [-full]
+//
+// -full cross-validates on every row of rating.csv instead of the 10,000-row sample,
+// with row i in fold i mod 10: one pass counts each fold's cube, a second pass scores
+// every row with the class distribution of the total minus its fold.
+public class Fast_ZeroR_Classification {
+    public static void main(String[] args) {
+        try {
+            boolean full = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-full")) {
+                    full = true;
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            if (full) {
+                runFull(System.out);
+            } else {
+                // Load data
+                Instances data = Binary_Dataset_Cache.load("../../dataset/advanced/combined-cleaned.arff");
+                run(data, System.out);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the scheme on data and prints the report to out, in the same layout as ZeroR_Classification
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Set class index to the last attribute
+        if (data.classIndex() == -1)
+            data.setClassIndex(data.numAttributes() - 1);
+
+        Fast_ZeroR classifier = new Fast_ZeroR();
+
+        printRunInformation(out, classifier, data, data.numInstances(), "10-fold cross-validation");
+
+        // Build model on full training set
+        out.println("=== Classifier model (full training set) ===");
+        out.println();
+
+        // Stored models are keyed by scheme, options and data, see Model_Store. The
+        // thread count is left out of the key since it does not change the model.
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<Fast_ZeroR> model = Model_Store.getOrBuild("Fast_ZeroR", "", data, () -> {
+            classifier.buildClassifier(data);
+            return classifier;
+        });
+        long endTime = System.currentTimeMillis();
+
+        out.println(model.get().toString());
+        out.println();
+        out.println("Time taken to " + model.action() + " model: "
+                + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
+        out.println();
+
+        // Cross-validation, each fold's cube subtracted from the total
+        out.println("=== Stratified cross-validation ===");
+
+        Evaluation eval = Model_Store.getOrBuild("Fast_ZeroR", "-x 10 -s 1", data,
+                () -> Contingency_Cube.crossValidate(data, 10, new Random(1), classifier.getNumThreads(),
+                        Fast_ZeroR_Classification::newFoldModel)).get();
+
+        printEvaluation(out, eval);
+    }
+
+    // Counts all of rating.csv per fold in one pass, then scores it fold by fold in a second pass
+    public static Fast_ZeroR runFull(PrintStream out) throws Exception {
+        Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv",
+                "../../dataset/advanced/anime-cleaned.arff");
+        Instances header = Streaming_Rating_Loader.readHeader("../../dataset/advanced/combined-cleaned.arff");
+        header.setClassIndex(header.numAttributes() - 1);
+        Contingency_Cube.Source ratings = () -> new Streaming_Rating_Loader("../../dataset/raw/rating.csv", anime,
+                header, 100000);
+
+        Fast_ZeroR classifier = new Fast_ZeroR();
+        long startTime = System.currentTimeMillis();
+        Contingency_Cube[] folds = Contingency_Cube.countFolds(ratings, header, 10, classifier.getNumThreads());
+        Contingency_Cube total = new Contingency_Cube(header);
+        for (Contingency_Cube fold : folds) {
+            total.add(fold);
+        }
+        classifier.buildClassifier(header, total);
+        long buildTime = System.currentTimeMillis();
+        Evaluation eval = Contingency_Cube.evaluateFolds(ratings, header, folds, classifier.getNumThreads(),
+                Fast_ZeroR_Classification::newFoldModel);
+        long endTime = System.currentTimeMillis();
+
+        printRunInformation(out, classifier, header, total.numRows(),
+                "10-fold cross-validation over rating.csv (row i in fold i mod 10)");
+        out.println("=== Classifier model (full rating stream) ===");
+        out.println();
+        out.println(classifier.toString());
+        out.println();
+        out.println("Time taken to stream and count rating.csv : "
+                + String.format("%.2f", (buildTime - startTime) / 1000.0).replace(",", ".") + " seconds");
+        out.println("Time taken to stream and cross-validate : "
+                + String.format("%.2f", (endTime - buildTime) / 1000.0).replace(",", ".") + " seconds");
+        out.println();
+
+        out.println("=== Cross-validation ===");
+        printEvaluation(out, eval);
+        return classifier;
+    }
+
+    static Fast_ZeroR newFoldModel(Instances header, Contingency_Cube cube) {
+        Fast_ZeroR classifier = new Fast_ZeroR();
+        classifier.buildClassifier(header, cube);
+        return classifier;
+    }
+
+    static void printRunInformation(PrintStream out, Fast_ZeroR classifier, Instances data, long numRows,
+            String testMode) {
+        out.println("=== Run information ===");
+        out.println();
+        out.println("Scheme:       Fast_ZeroR -num-threads " + classifier.getNumThreads());
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + numRows);
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    " + testMode);
+        out.println();
+    }
+
+    static void printEvaluation(PrintStream out, Evaluation eval) throws Exception {
+        out.println(eval.toSummaryString(false));
+        out.println(eval.toClassDetailsString());
+        out.println(eval.toMatrixString());
+    }
+}
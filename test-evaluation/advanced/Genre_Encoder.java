@@ -0,0 +1,759 @@
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Java port of "2.2 Genre Encoding" in pre-processing-advanced.ipynb: TF-IDF over the
+// genre strings followed by KMeans(n_clusters=10, n_init=10), giving genre_encoded for
+// every anime_id without sklearn.
+//
+// The vectors follow TfidfVectorizer's defaults: lower-cased tokens of two or more word
+// characters (so "Slice of Life" gives "slice", "of" and "life"), raw term counts,
+// smooth idf = ln((1 + n) / (1 + df)) + 1 and l2-normalised rows, stored sparse. K-Means
+// follows sklearn's Lloyd iteration: k-means++ seeding with 2 + ln(k) local trials, at
+// most 300 iterations, stop on unchanged labels or when the centres move less than
+// 1e-4 times the mean feature variance, empty clusters moved to the farthest point, and
+// the restart with the lowest inertia wins. Anime with the same genre string share one
+// weighted vector, so a run costs the number of distinct strings, not of anime. The
+// restarts run in parallel, each with a seed drawn up front from Random(seed), so the
+// result does not depend on the number of threads. sklearn's random draws are not
+// reproduced, so the clusters can differ from the notebook's and are numbered
+// differently; main() reports how well the two agree.
+//
+// The encoder is Serializable and is cached with the anime_id -> cluster map (see
+// load()). When anime.csv changes, only the new or changed anime are vectorised with the
+// cached vocabulary and idf and assigned to the nearest cached centre. Everything else
+// keeps its cluster. Calling fit() on a cached encoder (-refit) clusters the whole
+// catalogue again and renumbers the new clusters to match the old ones where possible.
+//
+// Usage: java Genre_Encoder [-refit] [-t <threads>] [-cache <file>]
+//
+// Loads or builds the cached encoder for ../../dataset/raw/anime.csv, prints the cluster
+// sizes and compares the clusters with genre_encoded in the notebook's anime-cleaned.arff.
+public class Genre_Encoder implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern TOKEN = Pattern.compile("(?U)\\b\\w\\w+\\b");
+
+    public static final String DEFAULT_CACHE = "../../models/Genre_Encoder.cache";
+
+    private int numClusters = 10;
+    private int numInit = 10;
+    private int maxIterations = 300;
+    private double tolerance = 1e-4;
+    private long seed = 42;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    // Fitted model: sorted vocabulary, its idf and the dense cluster centres
+    private String[] vocabulary;
+    private double[] idf;
+    private double[][] centers;
+    private double inertia;
+
+    // Genre string and cluster per anime_id, in anime.csv order
+    private LinkedHashMap<Integer, String> genres = new LinkedHashMap<Integer, String>();
+    private LinkedHashMap<Integer, Integer> clusters = new LinkedHashMap<Integer, Integer>();
+
+    // Distinct genre strings as sparse l2-normalised rows, with the number of anime per row
+    private static final class Documents {
+        int[] start;
+        int[] terms;
+        double[] values;
+        double[] weights;
+        int size;
+        double totalWeight;
+    }
+
+    // One finished K-Means run
+    private static final class Run {
+        double[][] centers;
+        int[] labels;
+        double inertia;
+    }
+
+    public void setNumClusters(int numClusters) {
+        this.numClusters = numClusters;
+    }
+
+    public void setNumInit(int numInit) {
+        this.numInit = numInit;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    // genre_encoded of an anime, or null when it is not in the catalogue
+    public Integer cluster(int animeId) {
+        return clusters.get(animeId);
+    }
+
+    public Map<Integer, Integer> clusters() {
+        return clusters;
+    }
+
+    public int size() {
+        return clusters.size();
+    }
+
+    public double getInertia() {
+        return inertia;
+    }
+
+    // Reads the cached encoder and brings it up to date with animeCsv, or fits one when
+    // there is no usable cache. The cache is rewritten whenever it changed.
+    public static Genre_Encoder load(String animeCsv, String cacheFile) throws Exception {
+        Map<Integer, String> catalogue = readGenres(animeCsv);
+        Genre_Encoder encoder = readCache(cacheFile);
+        if (encoder == null) {
+            encoder = new Genre_Encoder();
+            encoder.fit(catalogue);
+        } else if (!encoder.update(catalogue)) {
+            return encoder;
+        }
+        encoder.save(cacheFile);
+        return encoder;
+    }
+
+    // The cached encoder, or null when there is none or it cannot be read
+    public static Genre_Encoder readCache(String cacheFile) {
+        if (!new File(cacheFile).isFile()) {
+            return null;
+        }
+        try {
+            return (Genre_Encoder) SerializationHelper.read(cacheFile);
+        } catch (Exception e) {
+            System.err.println("Could not read genre cache " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(String cacheFile) throws Exception {
+        File file = new File(cacheFile);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        SerializationHelper.write(cacheFile, this);
+    }
+
+    // Clusters the whole catalogue from scratch. An encoder that was fitted before keeps
+    // its cluster numbers where the new clusters overlap the old ones.
+    public void fit(Map<Integer, String> catalogue) throws Exception {
+        genres = new LinkedHashMap<Integer, String>(catalogue);
+
+        // Vocabulary and document frequencies over every anime
+        TreeMap<String, Integer> df = new TreeMap<String, Integer>();
+        for (String genre : genres.values()) {
+            for (String token : termCounts(genre).keySet()) {
+                df.merge(token, 1, Integer::sum);
+            }
+        }
+        vocabulary = df.keySet().toArray(new String[0]);
+        idf = new double[vocabulary.length];
+        int n = genres.size();
+        for (int t = 0; t < vocabulary.length; t++) {
+            idf[t] = Math.log((1.0 + n) / (1.0 + df.get(vocabulary[t]))) + 1.0;
+        }
+
+        // One weighted row per distinct genre string
+        Map<String, Integer> rowOf = new HashMap<String, Integer>();
+        List<String> distinct = new ArrayList<String>();
+        List<Double> weights = new ArrayList<Double>();
+        int[] rowOfAnime = new int[n];
+        int a = 0;
+        for (String genre : genres.values()) {
+            Integer row = rowOf.get(genre);
+            if (row == null) {
+                row = distinct.size();
+                rowOf.put(genre, row);
+                distinct.add(genre);
+                weights.add(0.0);
+            }
+            weights.set(row, weights.get(row) + 1.0);
+            rowOfAnime[a++] = row;
+        }
+        Documents docs = vectorize(distinct, weights);
+
+        double tol = tolerance * meanVariance(docs, vocabulary.length);
+        Random random = new Random(seed);
+        long[] seeds = new long[numInit];
+        for (int i = 0; i < numInit; i++) {
+            seeds[i] = random.nextLong();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, numInit)));
+        Run best = null;
+        try {
+            List<Future<Run>> runs = new ArrayList<Future<Run>>();
+            for (long runSeed : seeds) {
+                runs.add(pool.submit(() -> lloyd(docs, tol, new Random(runSeed))));
+            }
+            // Strictly lower inertia wins, so ties go to the earlier restart
+            for (Future<Run> future : runs) {
+                Run run = get(future);
+                if (best == null || run.inertia < best.inertia) {
+                    best = run;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        LinkedHashMap<Integer, Integer> previous = clusters;
+        centers = best.centers;
+        inertia = best.inertia;
+        clusters = new LinkedHashMap<Integer, Integer>();
+        a = 0;
+        for (Integer animeId : genres.keySet()) {
+            clusters.put(animeId, best.labels[rowOfAnime[a++]]);
+        }
+        if (!previous.isEmpty()) {
+            renumber(previous);
+        }
+    }
+
+    // Assigns new and changed anime to the nearest centre and forgets removed ones;
+    // returns false when the catalogue is unchanged
+    public boolean update(Map<Integer, String> catalogue) {
+        if (catalogue.equals(genres)) {
+            return false;
+        }
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int t = 0; t < vocabulary.length; t++) {
+            index.put(vocabulary[t], t);
+        }
+        double[] centerNorms = centerNorms(centers);
+
+        LinkedHashMap<Integer, Integer> updated = new LinkedHashMap<Integer, Integer>();
+        Map<String, Integer> assigned = new HashMap<String, Integer>();
+        for (Map.Entry<Integer, String> anime : catalogue.entrySet()) {
+            String genre = anime.getValue();
+            Integer cluster = genre.equals(genres.get(anime.getKey())) ? clusters.get(anime.getKey()) : null;
+            if (cluster == null) {
+                cluster = assigned.get(genre);
+            }
+            if (cluster == null) {
+                cluster = nearest(genre, index, centerNorms);
+                assigned.put(genre, cluster);
+            }
+            updated.put(anime.getKey(), cluster);
+        }
+        genres = new LinkedHashMap<Integer, String>(catalogue);
+        clusters = updated;
+        return true;
+    }
+
+    // anime_id -> genre, with missing genres filled as 'Unknown' (2.1)
+    public static Map<Integer, String> readGenres(String animeCsv) throws Exception {
+        Map<Integer, String> catalogue = new LinkedHashMap<Integer, String>();
+        try (Csv_Reader reader = new Csv_Reader(animeCsv)) {
+            int[] columns = Anime_Encoder.columnIndices(reader.next(), "anime_id", "genre");
+            String[] row;
+            while ((row = reader.next()) != null) {
+                if (columns[0] >= row.length || row[columns[0]].trim().isEmpty()) {
+                    continue;
+                }
+                String genre = columns[1] < row.length ? row[columns[1]].trim() : "";
+                catalogue.put(Integer.parseInt(row[columns[0]].trim()), genre.isEmpty() ? "Unknown" : genre);
+            }
+        }
+        return catalogue;
+    }
+
+    private static Map<String, Integer> termCounts(String genre) {
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        Matcher matcher = TOKEN.matcher(genre.replace(',', ' ').toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            counts.merge(matcher.group(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private Documents vectorize(List<String> distinct, List<Double> weights) {
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int t = 0; t < vocabulary.length; t++) {
+            index.put(vocabulary[t], t);
+        }
+        Documents docs = new Documents();
+        docs.size = distinct.size();
+        docs.start = new int[docs.size + 1];
+        docs.weights = new double[docs.size];
+        List<int[]> rowTerms = new ArrayList<int[]>();
+        List<double[]> rowValues = new ArrayList<double[]>();
+        int nonZeros = 0;
+        for (int i = 0; i < docs.size; i++) {
+            TreeMap<Integer, Double> row = tfidf(distinct.get(i), index);
+            int[] terms = new int[row.size()];
+            double[] values = new double[row.size()];
+            int k = 0;
+            for (Map.Entry<Integer, Double> entry : row.entrySet()) {
+                terms[k] = entry.getKey();
+                values[k++] = entry.getValue();
+            }
+            rowTerms.add(terms);
+            rowValues.add(values);
+            nonZeros += terms.length;
+            docs.weights[i] = weights.get(i);
+            docs.totalWeight += weights.get(i);
+        }
+        docs.terms = new int[nonZeros];
+        docs.values = new double[nonZeros];
+        for (int i = 0; i < docs.size; i++) {
+            docs.start[i + 1] = docs.start[i] + rowTerms.get(i).length;
+            System.arraycopy(rowTerms.get(i), 0, docs.terms, docs.start[i], rowTerms.get(i).length);
+            System.arraycopy(rowValues.get(i), 0, docs.values, docs.start[i], rowValues.get(i).length);
+        }
+        return docs;
+    }
+
+    // l2-normalised tf-idf of one genre string; tokens outside the vocabulary are ignored
+    private TreeMap<Integer, Double> tfidf(String genre, Map<String, Integer> index) {
+        TreeMap<Integer, Double> row = new TreeMap<Integer, Double>();
+        double norm = 0;
+        for (Map.Entry<String, Integer> term : termCounts(genre).entrySet()) {
+            Integer t = index.get(term.getKey());
+            if (t != null) {
+                double value = term.getValue() * idf[t];
+                row.put(t, value);
+                norm += value * value;
+            }
+        }
+        if (norm > 0) {
+            norm = Math.sqrt(norm);
+            for (Map.Entry<Integer, Double> entry : row.entrySet()) {
+                entry.setValue(entry.getValue() / norm);
+            }
+        }
+        return row;
+    }
+
+    private int nearest(String genre, Map<String, Integer> index, double[] centerNorms) {
+        TreeMap<Integer, Double> row = tfidf(genre, index);
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < centers.length; c++) {
+            double dot = 0;
+            double norm = 0;
+            for (Map.Entry<Integer, Double> entry : row.entrySet()) {
+                dot += entry.getValue() * centers[c][entry.getKey()];
+                norm += entry.getValue() * entry.getValue();
+            }
+            double distance = norm - 2 * dot + centerNorms[c];
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // One K-Means run: k-means++ seeding, then Lloyd iterations
+    private Run lloyd(Documents docs, double tol, Random random) {
+        int dims = vocabulary.length;
+        double[] norms = new double[docs.size];
+        for (int i = 0; i < docs.size; i++) {
+            for (int p = docs.start[i]; p < docs.start[i + 1]; p++) {
+                norms[i] += docs.values[p] * docs.values[p];
+            }
+        }
+        double[][] centers = seed(docs, norms, random);
+
+        int[] labels = new int[docs.size];
+        int[] previous = new int[docs.size];
+        double[] distances = new double[docs.size];
+        Arrays.fill(previous, -1);
+        boolean strict = false;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            assign(docs, norms, centers, labels, distances);
+
+            double[][] next = new double[numClusters][dims];
+            double[] weights = new double[numClusters];
+            for (int i = 0; i < docs.size; i++) {
+                addRow(docs, i, docs.weights[i], next[labels[i]]);
+                weights[labels[i]] += docs.weights[i];
+            }
+            relocateEmpty(docs, labels, distances, next, weights);
+            double shift = 0;
+            for (int c = 0; c < numClusters; c++) {
+                if (weights[c] == 0) {
+                    // Fewer distinct rows than clusters: the centre stays where it is
+                    next[c] = centers[c].clone();
+                }
+                for (int t = 0; t < dims; t++) {
+                    next[c][t] /= weights[c] == 0 ? 1 : weights[c];
+                    double d = next[c][t] - centers[c][t];
+                    shift += d * d;
+                }
+            }
+            centers = next;
+
+            if (Arrays.equals(labels, previous)) {
+                strict = true;
+                break;
+            }
+            if (shift <= tol) {
+                break;
+            }
+            System.arraycopy(labels, 0, previous, 0, labels.length);
+        }
+        if (!strict) {
+            assign(docs, norms, centers, labels, distances);
+        }
+
+        Run run = new Run();
+        run.centers = centers;
+        run.labels = labels;
+        for (int i = 0; i < docs.size; i++) {
+            run.inertia += docs.weights[i] * distances[i];
+        }
+        return run;
+    }
+
+    // k-means++: the first centre is drawn by weight, each later one is the best of
+    // 2 + ln(k) candidates drawn by weight * squared distance to the closest centre
+    private double[][] seed(Documents docs, double[] norms, Random random) {
+        int dims = vocabulary.length;
+        int trials = 2 + (int) Math.log(numClusters);
+        double[][] centers = new double[numClusters][dims];
+
+        int first = draw(docs.weights, docs.totalWeight * random.nextDouble(), docs.size);
+        addRow(docs, first, 1.0, centers[0]);
+        double[] closest = distancesTo(docs, norms, first, dims);
+        double potential = weighted(closest, docs.weights);
+
+        double[] cumulative = new double[docs.size];
+        for (int c = 1; c < numClusters; c++) {
+            double sum = 0;
+            for (int i = 0; i < docs.size; i++) {
+                sum += docs.weights[i] * closest[i];
+                cumulative[i] = sum;
+            }
+            double[] bestDistances = null;
+            double bestPotential = Double.POSITIVE_INFINITY;
+            int bestCandidate = -1;
+            for (int trial = 0; trial < trials; trial++) {
+                int candidate = search(cumulative, random.nextDouble() * potential);
+                double[] distances = distancesTo(docs, norms, candidate, dims);
+                for (int i = 0; i < docs.size; i++) {
+                    distances[i] = Math.min(distances[i], closest[i]);
+                }
+                double candidatePotential = weighted(distances, docs.weights);
+                if (candidatePotential < bestPotential) {
+                    bestPotential = candidatePotential;
+                    bestDistances = distances;
+                    bestCandidate = candidate;
+                }
+            }
+            addRow(docs, bestCandidate, 1.0, centers[c]);
+            closest = bestDistances;
+            potential = bestPotential;
+        }
+        return centers;
+    }
+
+    private void assign(Documents docs, double[] norms, double[][] centers, int[] labels, double[] distances) {
+        double[] centerNorms = centerNorms(centers);
+        for (int i = 0; i < docs.size; i++) {
+            int best = 0;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < centers.length; c++) {
+                double dot = 0;
+                for (int p = docs.start[i]; p < docs.start[i + 1]; p++) {
+                    dot += docs.values[p] * centers[c][docs.terms[p]];
+                }
+                double distance = Math.max(0, norms[i] - 2 * dot + centerNorms[c]);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = c;
+                }
+            }
+            labels[i] = best;
+            distances[i] = bestDistance;
+        }
+    }
+
+    // An empty cluster takes one point from the row farthest from its centre, as sklearn
+    // moves the farthest samples into empty clusters
+    private void relocateEmpty(Documents docs, int[] labels, double[] distances, double[][] sums,
+            double[] weights) {
+        boolean[] moved = new boolean[docs.size];
+        for (int c = 0; c < numClusters; c++) {
+            if (weights[c] > 0) {
+                continue;
+            }
+            int far = -1;
+            for (int i = 0; i < docs.size; i++) {
+                if (!moved[i] && weights[labels[i]] > 1 && (far < 0 || distances[i] > distances[far])) {
+                    far = i;
+                }
+            }
+            if (far < 0) {
+                continue;
+            }
+            moved[far] = true;
+            addRow(docs, far, -1.0, sums[labels[far]]);
+            weights[labels[far]] -= 1.0;
+            addRow(docs, far, 1.0, sums[c]);
+            weights[c] = 1.0;
+        }
+    }
+
+    // Gives the new clusters the numbers of the old clusters they share the most anime with
+    private void renumber(Map<Integer, Integer> previous) {
+        long[][] overlap = new long[numClusters][numClusters];
+        for (Map.Entry<Integer, Integer> anime : clusters.entrySet()) {
+            Integer old = previous.get(anime.getKey());
+            if (old != null && old < numClusters) {
+                overlap[anime.getValue()][old]++;
+            }
+        }
+        int[] number = new int[numClusters];
+        Arrays.fill(number, -1);
+        boolean[] taken = new boolean[numClusters];
+        for (int pair = 0; pair < numClusters; pair++) {
+            int bestNew = -1;
+            int bestOld = -1;
+            for (int c = 0; c < numClusters; c++) {
+                for (int o = 0; o < numClusters; o++) {
+                    if (number[c] < 0 && !taken[o]
+                            && (bestNew < 0 || overlap[c][o] > overlap[bestNew][bestOld])) {
+                        bestNew = c;
+                        bestOld = o;
+                    }
+                }
+            }
+            number[bestNew] = bestOld;
+            taken[bestOld] = true;
+        }
+
+        double[][] renumbered = new double[numClusters][];
+        for (int c = 0; c < numClusters; c++) {
+            renumbered[number[c]] = centers[c];
+        }
+        centers = renumbered;
+        for (Map.Entry<Integer, Integer> anime : clusters.entrySet()) {
+            anime.setValue(number[anime.getValue()]);
+        }
+    }
+
+    private static void addRow(Documents docs, int row, double weight, double[] target) {
+        for (int p = docs.start[row]; p < docs.start[row + 1]; p++) {
+            target[docs.terms[p]] += weight * docs.values[p];
+        }
+    }
+
+    private static double[] distancesTo(Documents docs, double[] norms, int row, int dims) {
+        double[] center = new double[dims];
+        addRow(docs, row, 1.0, center);
+        double[] distances = new double[docs.size];
+        for (int i = 0; i < docs.size; i++) {
+            double dot = 0;
+            for (int p = docs.start[i]; p < docs.start[i + 1]; p++) {
+                dot += docs.values[p] * center[docs.terms[p]];
+            }
+            distances[i] = Math.max(0, norms[i] - 2 * dot + norms[row]);
+        }
+        return distances;
+    }
+
+    private static double[] centerNorms(double[][] centers) {
+        double[] norms = new double[centers.length];
+        for (int c = 0; c < centers.length; c++) {
+            for (double value : centers[c]) {
+                norms[c] += value * value;
+            }
+        }
+        return norms;
+    }
+
+    private static double weighted(double[] values, double[] weights) {
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i] * weights[i];
+        }
+        return sum;
+    }
+
+    // Row whose cumulative weight first reaches target
+    private static int draw(double[] weights, double target, int size) {
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += weights[i];
+            if (sum > target) {
+                return i;
+            }
+        }
+        return size - 1;
+    }
+
+    // np.searchsorted(cumulative, target), clipped to the last row
+    private static int search(double[] cumulative, double target) {
+        int index = Arrays.binarySearch(cumulative, target);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            while (index > 0 && cumulative[index - 1] == target) {
+                index--;
+            }
+        }
+        return Math.min(index, cumulative.length - 1);
+    }
+
+    // Mean over the features of their variance across all anime
+    private static double meanVariance(Documents docs, int dims) {
+        double[] sum = new double[dims];
+        double[] squares = new double[dims];
+        for (int i = 0; i < docs.size; i++) {
+            for (int p = docs.start[i]; p < docs.start[i + 1]; p++) {
+                sum[docs.terms[p]] += docs.weights[i] * docs.values[p];
+                squares[docs.terms[p]] += docs.weights[i] * docs.values[p] * docs.values[p];
+            }
+        }
+        double total = 0;
+        for (int t = 0; t < dims; t++) {
+            double mean = sum[t] / docs.totalWeight;
+            total += squares[t] / docs.totalWeight - mean * mean;
+        }
+        return dims == 0 ? 0 : total / dims;
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Adjusted Rand index of two labelings over the anime they share
+    static double adjustedRandIndex(Map<Integer, Integer> a, Map<Integer, Integer> b) {
+        Map<Long, Long> pairs = new HashMap<Long, Long>();
+        Map<Integer, Long> rows = new HashMap<Integer, Long>();
+        Map<Integer, Long> columns = new HashMap<Integer, Long>();
+        long n = 0;
+        for (Map.Entry<Integer, Integer> anime : a.entrySet()) {
+            Integer other = b.get(anime.getKey());
+            if (other == null) {
+                continue;
+            }
+            pairs.merge(((long) anime.getValue() << 32) | other, 1L, Long::sum);
+            rows.merge(anime.getValue(), 1L, Long::sum);
+            columns.merge(other, 1L, Long::sum);
+            n++;
+        }
+        double index = 0;
+        double rowPairs = 0;
+        double columnPairs = 0;
+        for (long count : pairs.values()) {
+            index += count * (count - 1) / 2.0;
+        }
+        for (long count : rows.values()) {
+            rowPairs += count * (count - 1) / 2.0;
+        }
+        for (long count : columns.values()) {
+            columnPairs += count * (count - 1) / 2.0;
+        }
+        double expected = rowPairs * columnPairs / (n * (n - 1) / 2.0);
+        double max = (rowPairs + columnPairs) / 2.0;
+        return max == expected ? 1.0 : (index - expected) / (max - expected);
+    }
+
+    // genre_encoded per anime_id in the notebook's anime-cleaned.arff
+    static Map<Integer, Integer> readNotebookClusters(String animeArff) throws Exception {
+        Instances anime = new DataSource(animeArff).getDataSet();
+        Attribute id = anime.attribute("anime_id");
+        Attribute genre = anime.attribute("genre_encoded");
+        Map<Integer, Integer> clusters = new HashMap<Integer, Integer>();
+        for (Instance instance : anime) {
+            if (!instance.isMissing(id) && !instance.isMissing(genre)) {
+                clusters.put((int) Math.round(Double.parseDouble(instance.stringValue(id))),
+                        (int) Math.round(Double.parseDouble(instance.stringValue(genre))));
+            }
+        }
+        return clusters;
+    }
+
+    public static void main(String[] args) {
+        try {
+            boolean refit = false;
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            String cacheFile = DEFAULT_CACHE;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-refit")) {
+                    refit = true;
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-cache") && i + 1 < args.length) {
+                    cacheFile = args[++i];
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            long startTime = System.currentTimeMillis();
+            Genre_Encoder encoder;
+            if (refit) {
+                encoder = readCache(cacheFile);
+                if (encoder == null) {
+                    encoder = new Genre_Encoder();
+                }
+                encoder.setNumThreads(numThreads);
+                encoder.fit(readGenres("../../dataset/raw/anime.csv"));
+                encoder.save(cacheFile);
+            } else {
+                encoder = load("../../dataset/raw/anime.csv", cacheFile);
+            }
+            long endTime = System.currentTimeMillis();
+
+            int[] sizes = new int[encoder.numClusters];
+            for (int cluster : encoder.clusters().values()) {
+                sizes[cluster]++;
+            }
+            System.out.println("Anime encoded: " + encoder.size() + ", vocabulary: " + encoder.vocabulary.length
+                    + " terms");
+            System.out.println(String.format("Inertia: %.4f", encoder.getInertia()).replace(",", "."));
+            for (int c = 0; c < sizes.length; c++) {
+                System.out.println("Cluster " + c + ": " + sizes[c] + " anime");
+            }
+            System.out.println(String.format("Time taken: %.2f seconds", (endTime - startTime) / 1000.0)
+                    .replace(",", "."));
+
+            File notebook = new File("../../dataset/advanced/anime-cleaned.arff");
+            if (notebook.isFile()) {
+                Map<Integer, Integer> reference = readNotebookClusters(notebook.getPath());
+                System.out.println(String.format("Adjusted Rand index vs anime-cleaned.arff: %.4f",
+                        adjustedRandIndex(encoder.clusters(), reference)).replace(",", "."));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
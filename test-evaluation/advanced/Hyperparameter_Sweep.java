@@ -0,0 +1,514 @@
+import weka.associations.Apriori;
+import weka.associations.AssociationRule;
+import weka.associations.Item;
+import weka.associations.NominalItem;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.rules.OneR;
+import weka.classifiers.trees.J48;
+import weka.clusterers.SimpleKMeans;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Tries many option settings of one scheme in one JVM on a single load of the dataset.
+//
+// Usage: java Hyperparameter_Sweep -scheme <J48|OneR|K_Means|Apriori> [-grid <spec> | -random <n> <spec>]
+//        [-seed <n>] [-folds <n>] [-min-folds <n>] [-eta <n>] [-t <threads>] [-o <output dir>]
+//
+// A spec lists flag=values separated by ';', e.g. "C=0.1,0.25,0.5;M=2,5,10". -grid tries
+// every combination; -random draws n settings, where a value may also be a range lo:hi
+// (whole numbers if both ends are). Flags that are not swept keep the driver's values,
+// and without -grid or -random a default grid for the scheme is used.
+//
+// Every setting is cross-validated on the folds Evaluation.crossValidateModel makes with
+// Random(1), and the (setting, fold) pairs run concurrently on -t threads. Losing settings
+// are stopped early by successive halving: all settings run the first min-folds folds,
+// the best 1/eta of them run eta times as many, and so on until the survivors have run
+// every fold. The ranked leaderboard is written to <output dir>/Sweep_<scheme>.txt.
+public class Hyperparameter_Sweep {
+
+    // Scores one setting on one fold as {sum over the test rows, number of rows it is averaged over}
+    interface Scorer {
+        double[] score(String[] options, Instances train, Instances test) throws Exception;
+    }
+
+    // A scheme that can be swept, with the options its driver hard-codes
+    static final class Target {
+        final String scheme;
+        final String options;
+        final String grid;
+        final String metric;
+        final Scorer scorer;
+
+        Target(String scheme, String options, String grid, String metric, Scorer scorer) {
+            this.scheme = scheme;
+            this.options = options;
+            this.grid = grid;
+            this.metric = metric;
+            this.scorer = scorer;
+        }
+    }
+
+    static final Map<String, Target> TARGETS = new LinkedHashMap<String, Target>();
+    static {
+        TARGETS.put("J48", new Target(J48.class.getName(), "-C 0.25 -M 2", "C=0.05,0.1,0.25,0.5;M=1,2,5,10,20",
+                "accuracy %", (options, train, test) -> classify(new J48(), options, train, test)));
+        TARGETS.put("OneR", new Target(OneR.class.getName(), "-B 6", "B=1,2,3,6,10,20,50",
+                "accuracy %", (options, train, test) -> classify(new OneR(), options, train, test)));
+        // Classes to clusters: the class attribute is left out of the clustering, and
+        // each cluster predicts the class most of its training rows have
+        TARGETS.put("K_Means", new Target(SimpleKMeans.class.getName(),
+                "-init 0 -max-candidates 100 -periodic-pruning 10000 -min-density 2.0 -t1 -1.25 -t2 -1.0 -N 2 -A \"weka.core.EuclideanDistance -R first-last\" -I 500 -num-slots 1 -S 10",
+                "N=2,3,4,5,6,8,10", "classes to clusters accuracy %", Hyperparameter_Sweep::cluster));
+        // Rules found on the training folds, scored by their confidence on the test fold
+        TARGETS.put("Apriori", new Target(Apriori.class.getName(),
+                "-N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1 -S -1.0 -c -1", "C=0.5,0.6,0.7,0.8,0.9,0.95",
+                "test fold rule confidence %", Hyperparameter_Sweep::associate));
+    }
+
+    // One option setting and its per-fold results
+    static final class Setting {
+        final int index;
+        final String label;
+        final String[] options;
+        final double[] sums;
+        final double[] counts;
+        final long[] nanos;
+        int numFolds;
+
+        Setting(int index, String label, String[] options, int numFolds) {
+            this.index = index;
+            this.label = label;
+            this.options = options;
+            this.sums = new double[numFolds];
+            this.counts = new double[numFolds];
+            this.nanos = new long[numFolds];
+        }
+
+        double score() {
+            double sum = 0;
+            double count = 0;
+            for (int f = 0; f < numFolds; f++) {
+                sum += sums[f];
+                count += counts[f];
+            }
+            return count > 0 ? 100 * sum / count : 0;
+        }
+
+        double seconds() {
+            long total = 0;
+            for (int f = 0; f < numFolds; f++) {
+                total += nanos[f];
+            }
+            return total / 1e9;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            String scheme = null;
+            String spec = null;
+            int numRandom = 0;
+            long seed = 1;
+            int numFolds = 10;
+            int minFolds = 2;
+            int eta = 3;
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            String outputDir = "../../results/advanced";
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-scheme") && i + 1 < args.length) {
+                    scheme = args[++i];
+                } else if (args[i].equals("-grid") && i + 1 < args.length) {
+                    spec = args[++i];
+                } else if (args[i].equals("-random") && i + 2 < args.length) {
+                    numRandom = Integer.parseInt(args[++i]);
+                    spec = args[++i];
+                } else if (args[i].equals("-seed") && i + 1 < args.length) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-folds") && i + 1 < args.length) {
+                    numFolds = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-min-folds") && i + 1 < args.length) {
+                    minFolds = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-eta") && i + 1 < args.length) {
+                    eta = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-o") && i + 1 < args.length) {
+                    outputDir = args[++i];
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    scheme = null;
+                    break;
+                }
+            }
+            Target target = scheme != null ? TARGETS.get(scheme) : null;
+            if (target == null || numFolds < 2 || minFolds < 1 || eta < 2) {
+                System.err.println("Usage: java Hyperparameter_Sweep -scheme <" + String.join("|", TARGETS.keySet())
+                        + "> [-grid <spec> | -random <n> <spec>] [-seed <n>] [-folds <n>] [-min-folds <n>] [-eta <n>]"
+                        + " [-t <threads>] [-o <output dir>]");
+                System.exit(1);
+            }
+            if (spec == null) {
+                spec = target.grid;
+            }
+
+            // Load data once
+            Instances data = Binary_Dataset_Cache.load("../../dataset/advanced/combined-cleaned.arff");
+            data.setClassIndex(data.numAttributes() - 1);
+
+            String[] base = Utils.splitOptions(target.options);
+            List<Setting> settings = numRandom > 0
+                    ? randomSettings(base, parseSpec(spec), numRandom, new Random(seed), numFolds)
+                    : gridSettings(base, parseSpec(spec), numFolds);
+            String search = (numRandom > 0 ? "random " + numRandom + " (seed " + seed + ")" : "grid") + " " + spec
+                    + " (" + settings.size() + " settings)";
+
+            long startTime = System.currentTimeMillis();
+            List<Setting> ranked = sweep(target, data, settings, numFolds, minFolds, eta, numThreads, System.out);
+            double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+            System.out.println();
+
+            File dir = new File(outputDir);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new Exception("Cannot create output directory " + dir);
+            }
+            File report = new File(dir, "Sweep_" + scheme + ".txt");
+            try (PrintStream out = new PrintStream(new FileOutputStream(report), false, "UTF-8")) {
+                printLeaderboard(out, target, data, search, numFolds, minFolds, eta, numThreads, ranked, seconds);
+            }
+            printLeaderboard(System.out, target, data, search, numFolds, minFolds, eta, numThreads, ranked, seconds);
+            System.out.println("Leaderboard written to '" + report + "'.");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the settings by successive halving and returns them best first. Settings that ran
+    // every fold come first, ranked by their cross-validated score, followed by the pruned
+    // ones ranked by how far they got and then by score.
+    public static List<Setting> sweep(Target target, Instances data, List<Setting> settings, int numFolds,
+            int minFolds, int eta, int numThreads, PrintStream log) throws Exception {
+        // Same folds as Evaluation.crossValidateModel, see Parallel_Cross_Validation
+        Instances randomized = new Instances(data);
+        Random random = new Random(1);
+        randomized.randomize(random);
+        if (randomized.classAttribute().isNominal()) {
+            randomized.stratify(numFolds);
+        }
+        final Instances[] trainSets = new Instances[numFolds];
+        final Instances[] testSets = new Instances[numFolds];
+        for (int f = 0; f < numFolds; f++) {
+            trainSets[f] = randomized.trainCV(numFolds, f, random);
+            testSets[f] = randomized.testCV(numFolds, f);
+        }
+
+        Comparator<Setting> byScore = (a, b) -> a.numFolds != b.numFolds ? b.numFolds - a.numFolds
+                : a.score() != b.score() ? Double.compare(b.score(), a.score()) : a.index - b.index;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            List<Setting> alive = new ArrayList<Setting>(settings);
+            int folds = Math.min(minFolds, numFolds);
+            for (int rung = 1;; rung++) {
+                long startTime = System.currentTimeMillis();
+                List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (final Setting setting : alive) {
+                    for (int f = setting.numFolds; f < folds; f++) {
+                        final int fold = f;
+                        futures.add(pool.submit(() -> {
+                            long start = System.nanoTime();
+                            double[] result = target.scorer.score(setting.options.clone(), trainSets[fold],
+                                    testSets[fold]);
+                            setting.sums[fold] = result[0];
+                            setting.counts[fold] = result[1];
+                            setting.nanos[fold] = System.nanoTime() - start;
+                            return null;
+                        }));
+                    }
+                }
+                getAll(futures);
+                for (Setting setting : alive) {
+                    setting.numFolds = folds;
+                }
+                alive.sort(byScore);
+                log.println("Rung " + rung + ": " + alive.size() + " settings on " + folds + " folds... "
+                        + String.format("%.2f", (System.currentTimeMillis() - startTime) / 1000.0).replace(",", ".")
+                        + " seconds, best " + alive.get(0).label);
+                if (folds == numFolds) {
+                    break;
+                }
+                alive = new ArrayList<Setting>(alive.subList(0, Math.max(1, (alive.size() + eta - 1) / eta)));
+                folds = Math.min(numFolds, folds * eta);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Setting> ranked = new ArrayList<Setting>(settings);
+        ranked.sort(byScore);
+        return ranked;
+    }
+
+    // Parses "flag=v1,v2;flag2=lo:hi" into flag -> values, in the order given
+    static Map<String, String[]> parseSpec(String spec) throws Exception {
+        Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+        for (String part : spec.split(";")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            int equals = part.indexOf('=');
+            if (equals <= 0 || equals == part.length() - 1) {
+                throw new Exception("Bad parameter '" + part + "', expected flag=values");
+            }
+            String flag = part.substring(0, equals).trim();
+            String[] values = part.substring(equals + 1).split(",");
+            for (int i = 0; i < values.length; i++) {
+                values[i] = values[i].trim();
+            }
+            params.put(flag.startsWith("-") ? flag.substring(1) : flag, values);
+        }
+        if (params.isEmpty()) {
+            throw new Exception("Empty parameter spec '" + spec + "'");
+        }
+        return params;
+    }
+
+    // Every combination of the values, the first flag varying slowest
+    static List<Setting> gridSettings(String[] base, Map<String, String[]> params, int numFolds) throws Exception {
+        List<String> flags = new ArrayList<String>(params.keySet());
+        for (String[] values : params.values()) {
+            for (String value : values) {
+                if (value.indexOf(':') >= 0) {
+                    throw new Exception("Range " + value + " can only be used with -random");
+                }
+            }
+        }
+        List<Setting> settings = new ArrayList<Setting>();
+        int[] choice = new int[flags.size()];
+        while (true) {
+            String[] values = new String[flags.size()];
+            for (int k = 0; k < values.length; k++) {
+                values[k] = params.get(flags.get(k))[choice[k]];
+            }
+            settings.add(newSetting(settings.size(), base, flags, values, numFolds));
+            int k = choice.length - 1;
+            while (k >= 0 && ++choice[k] == params.get(flags.get(k)).length) {
+                choice[k--] = 0;
+            }
+            if (k < 0) {
+                return settings;
+            }
+        }
+    }
+
+    // numSettings distinct draws, each flag taking one of its values or a uniform value in its range
+    static List<Setting> randomSettings(String[] base, Map<String, String[]> params, int numSettings,
+            Random random, int numFolds) throws Exception {
+        List<String> flags = new ArrayList<String>(params.keySet());
+        Set<String> seen = new LinkedHashSet<String>();
+        List<Setting> settings = new ArrayList<Setting>();
+        for (int draw = 0; draw < numSettings * 100 && settings.size() < numSettings; draw++) {
+            String[] values = new String[flags.size()];
+            for (int k = 0; k < values.length; k++) {
+                String[] choices = params.get(flags.get(k));
+                values[k] = sample(choices[random.nextInt(choices.length)], random);
+            }
+            Setting setting = newSetting(settings.size(), base, flags, values, numFolds);
+            if (seen.add(setting.label)) {
+                settings.add(setting);
+            }
+        }
+        return settings;
+    }
+
+    private static String sample(String value, Random random) throws Exception {
+        int colon = value.indexOf(':');
+        if (colon < 0) {
+            return value;
+        }
+        String low = value.substring(0, colon).trim();
+        String high = value.substring(colon + 1).trim();
+        try {
+            int from = Integer.parseInt(low);
+            int to = Integer.parseInt(high);
+            if (to < from) {
+                throw new Exception("Empty range " + value);
+            }
+            return Integer.toString(from + random.nextInt(to - from + 1));
+        } catch (NumberFormatException e) {
+            double from = Double.parseDouble(low);
+            double to = Double.parseDouble(high);
+            if (to < from) {
+                throw new Exception("Empty range " + value);
+            }
+            return Utils.doubleToString(from + random.nextDouble() * (to - from), 4);
+        }
+    }
+
+    // The base options with each swept flag's value replaced, or appended if the base lacks the flag
+    private static Setting newSetting(int index, String[] base, List<String> flags, String[] values, int numFolds) {
+        List<String> options = new ArrayList<String>(Arrays.asList(base));
+        StringBuilder label = new StringBuilder();
+        for (int k = 0; k < flags.size(); k++) {
+            String flag = "-" + flags.get(k);
+            int at = options.indexOf(flag);
+            if (at >= 0 && at + 1 < options.size()) {
+                options.set(at + 1, values[k]);
+            } else {
+                options.add(flag);
+                options.add(values[k]);
+            }
+            label.append(k > 0 ? " " : "").append(flag).append(' ').append(values[k]);
+        }
+        return new Setting(index, label.toString(), options.toArray(new String[0]), numFolds);
+    }
+
+    // Correctly classified rows of the test fold, exactly as crossValidateModel counts them
+    private static double[] classify(Classifier classifier, String[] options, Instances train, Instances test)
+            throws Exception {
+        ((OptionHandler) classifier).setOptions(options);
+        classifier.buildClassifier(train);
+        Evaluation evaluation = new Evaluation(train);
+        evaluation.evaluateModel(classifier, test);
+        return new double[] { evaluation.correct(), evaluation.numInstances() };
+    }
+
+    private static double[] cluster(String[] options, Instances train, Instances test) throws Exception {
+        Remove remove = new Remove();
+        remove.setAttributeIndices(Integer.toString(train.classIndex() + 1));
+        remove.setInputFormat(train);
+        Instances clusterTrain = Filter.useFilter(train, remove);
+        Instances clusterTest = Filter.useFilter(test, remove);
+
+        SimpleKMeans clusterer = new SimpleKMeans();
+        clusterer.setOptions(options);
+        clusterer.buildClusterer(clusterTrain);
+
+        double[][] counts = new double[clusterer.numberOfClusters()][train.numClasses()];
+        for (int i = 0; i < train.numInstances(); i++) {
+            Instance instance = train.instance(i);
+            if (!instance.classIsMissing()) {
+                counts[clusterer.clusterInstance(clusterTrain.instance(i))][(int) instance.classValue()] +=
+                        instance.weight();
+            }
+        }
+        int[] labels = new int[counts.length];
+        for (int c = 0; c < counts.length; c++) {
+            labels[c] = Utils.maxIndex(counts[c]);
+        }
+
+        double correct = 0;
+        double total = 0;
+        for (int i = 0; i < test.numInstances(); i++) {
+            Instance instance = test.instance(i);
+            if (!instance.classIsMissing()) {
+                if (labels[clusterer.clusterInstance(clusterTest.instance(i))] == (int) instance.classValue()) {
+                    correct += instance.weight();
+                }
+                total += instance.weight();
+            }
+        }
+        return new double[] { correct, total };
+    }
+
+    // Rules whose premise never occurs in the test fold have no confidence there and are left out
+    private static double[] associate(String[] options, Instances train, Instances test) throws Exception {
+        Instances copy = new Instances(train);
+        copy.setClassIndex(-1);
+        Apriori associator = new Apriori();
+        associator.setOptions(options);
+        associator.buildAssociations(copy);
+
+        double confidence = 0;
+        double numRules = 0;
+        for (AssociationRule rule : associator.getAssociationRules().getRules()) {
+            double premise = 0;
+            double both = 0;
+            for (int i = 0; i < test.numInstances(); i++) {
+                Instance instance = test.instance(i);
+                if (matches(rule.getPremise(), instance)) {
+                    premise += instance.weight();
+                    if (matches(rule.getConsequence(), instance)) {
+                        both += instance.weight();
+                    }
+                }
+            }
+            if (premise > 0) {
+                confidence += both / premise;
+                numRules++;
+            }
+        }
+        return new double[] { confidence, numRules };
+    }
+
+    private static boolean matches(Collection<Item> items, Instance instance) {
+        for (Item item : items) {
+            int index = item.getAttribute().index();
+            if (instance.isMissing(index) || (int) instance.value(index) != ((NominalItem) item).getValueIndex()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void printLeaderboard(PrintStream out, Target target, Instances data, String search,
+            int numFolds, int minFolds, int eta, int numThreads, List<Setting> ranked, double seconds) {
+        out.println("=== Hyperparameter sweep ===");
+        out.println();
+        out.println("Scheme:       " + target.scheme + " " + target.options);
+        out.println("Search:       " + search);
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Test mode:    " + numFolds + "-fold cross-validation, successive halving from " + minFolds
+                + " folds with eta " + eta);
+        out.println("Threads:      " + numThreads);
+        out.println();
+        out.println("=== Leaderboard (" + target.metric + ") ===");
+        out.println();
+        out.println("Rank     Score  Folds  Seconds  Options");
+        for (int r = 0; r < ranked.size(); r++) {
+            Setting setting = ranked.get(r);
+            out.println(String.format("%4d  %8.4f  %5d  %7.2f  %s", r + 1, setting.score(), setting.numFolds,
+                    setting.seconds(), setting.label).replace(",", "."));
+        }
+        out.println();
+        out.println("Time taken to sweep: " + String.format("%.2f", seconds).replace(",", ".") + " seconds");
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) throws Exception {
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+}
@@ -0,0 +1,505 @@
+import weka.classifiers.AggregateableEvaluation;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Nightly re-evaluation of the -full drivers over a rating.csv that only grows. The state
+// of the last run is kept in one file: how far rating.csv was read, and for each of the
+// ten folds (row i in fold i mod 10, as the -full drivers do) its Contingency_Cube, its
+// Count_Naive_Bayes counts and how often each distinct encoded row occurs in it, plus the
+// Fast_K_Means clusterer. A run reads only the rows appended since the last one through
+// Preprocessing_Pipeline, adds them to their folds, updates the clusterer with them as one
+// mini-batch and writes the reports again.
+//
+// The reports are computed from the state alone. Each fold's Fast_ZeroR, Fast_OneR and
+// Count_Naive_Bayes model is the total minus that fold, and it is scored on the fold's
+// distinct rows, each weighted by its count, which gives the same evaluation as scoring
+// every row. The rows have six nominal attributes, so there are at most a few thousand
+// distinct ones: the cost of a run depends on the appended rows, not on rating.csv.
+//
+// rating.csv is taken to be appended to when it is at least as long as at the last run
+// and the first and last 64 KB read last time are unchanged. Otherwise, or when the
+// header of combined-cleaned.arff, anime.csv or anime-cleaned.arff has changed, the
+// state is rebuilt from the start of the file. The first run clusters the distinct rows
+// weighted by their counts instead of every row, so its clusters can differ slightly
+// from Fast_K_Means_Classification -full.
+//
+// Usage: java Incremental_Evaluation [-rebuild] [-ratings <csv>] [-state <file>]
+//            [-o <output dir>] [-t <threads>]
+//
+// Reports are written to <output dir>/Incremental_<Scheme>.txt, in the layout of the
+// matching *_Classification -full report.
+public class Incremental_Evaluation {
+
+    static final String DEFAULT_STATE = "../../models/Incremental_Evaluation.state";
+
+    private static final int NUM_FOLDS = 10;
+
+    // Bytes of rating.csv hashed at its start and before the last offset
+    private static final int CHECK_BYTES = 1 << 16;
+
+    // What is kept between runs
+    static final class State implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        Instances header;
+        byte[] sourceHash;
+        long offset;
+        long numRows;
+        long rowsSkipped;
+        byte[] headHash;
+        byte[] tailHash;
+
+        Contingency_Cube[] cubes = new Contingency_Cube[NUM_FOLDS];
+        Count_Naive_Bayes.Counts[] counts = new Count_Naive_Bayes.Counts[NUM_FOLDS];
+        // Per fold: encoded row (see key()) -> number of rows
+        List<HashMap<Long, Long>> rows = new ArrayList<HashMap<Long, Long>>();
+
+        Fast_K_Means clusterer;
+        // Rows assigned to each cluster when they were added
+        long[] clusterRows;
+
+        State(Instances header, byte[] sourceHash) {
+            this.header = new Instances(header, 0);
+            this.sourceHash = sourceHash;
+            for (int f = 0; f < NUM_FOLDS; f++) {
+                cubes[f] = new Contingency_Cube(header);
+                counts[f] = new Count_Naive_Bayes.Counts(header);
+                rows.add(new HashMap<Long, Long>());
+            }
+        }
+    }
+
+    private final String ratingCsv;
+    private final String stateFile;
+    private final Anime_Encoder anime;
+    private final Instances header;
+    private final byte[] sourceHash;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private boolean rebuild;
+
+    private State state;
+    private long rowsAdded;
+    private long bytesRead;
+
+    public Incremental_Evaluation(String ratingCsv, String animeCsv, String genreArff, String combinedArff,
+            String stateFile) throws Exception {
+        this.ratingCsv = ratingCsv;
+        this.stateFile = stateFile;
+        anime = new Anime_Encoder(animeCsv, genreArff);
+        header = Streaming_Rating_Loader.readHeader(combinedArff);
+        header.setClassIndex(header.numAttributes() - 1);
+        if (header.numAttributes() > Long.SIZE / 8) {
+            throw new Exception("Incremental_Evaluation: at most " + Long.SIZE / 8 + " attributes, got "
+                    + header.numAttributes());
+        }
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(Binary_Dataset_Cache.sha256(new File(animeCsv)));
+        digest.update(Binary_Dataset_Cache.sha256(new File(genreArff)));
+        sourceHash = digest.digest();
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    // Ignores the saved state and reads rating.csv from the start
+    public void setRebuild(boolean rebuild) {
+        this.rebuild = rebuild;
+    }
+
+    // Rows read by the last update()
+    public long rowsAdded() {
+        return rowsAdded;
+    }
+
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    public long numRows() {
+        return state.numRows;
+    }
+
+    // Restores the state, reads the rows appended since and saves the state again.
+    // Returns why the state was rebuilt, or null when it was updated in place.
+    public String update() throws Exception {
+        String reason = restore();
+        if (reason != null) {
+            state = new State(header, sourceHash);
+        }
+
+        Preprocessing_Pipeline pipeline = new Preprocessing_Pipeline(anime, header);
+        pipeline.setNumThreads(numThreads);
+        Map<Long, Long> added = new HashMap<Long, Long>();
+        long start = state.offset;
+        state.offset = pipeline.process(ratingCsv, start, new Preprocessing_Pipeline.Output() {
+            private final double[] values = new double[header.numAttributes()];
+
+            @Override
+            public void write(Preprocessing_Pipeline.Block block) {
+                int m = values.length;
+                for (int i = 0; i < block.rows; i++) {
+                    for (int j = 0; j < m; j++) {
+                        byte code = block.codes[i * m + j];
+                        values[j] = code < 0 ? Double.NaN : code;
+                    }
+                    int fold = (int) (state.numRows % NUM_FOLDS);
+                    state.cubes[fold].add(values);
+                    state.counts[fold].add(values);
+                    long key = key(block.codes, i * m, m);
+                    state.rows.get(fold).merge(key, 1L, Long::sum);
+                    added.merge(key, 1L, Long::sum);
+                    state.numRows++;
+                }
+            }
+
+            @Override
+            public void finish() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        rowsAdded = pipeline.rowsEncoded();
+        state.rowsSkipped += pipeline.rowsSkipped();
+        bytesRead = state.offset - start;
+
+        updateClusterer(added);
+
+        state.headHash = hashRange(ratingCsv, 0, Math.min(state.offset, CHECK_BYTES));
+        state.tailHash = hashRange(ratingCsv, Math.max(0, state.offset - CHECK_BYTES), state.offset);
+        File target = new File(stateFile);
+        File tmp = new File(stateFile + ".tmp");
+        if (target.getParentFile() != null) {
+            target.getParentFile().mkdirs();
+        }
+        SerializationHelper.write(tmp.getPath(), state);
+        Binary_Dataset_Cache.replace(tmp, target);
+        return reason;
+    }
+
+    // Reads the saved state and checks that it still describes the start of rating.csv
+    private String restore() throws Exception {
+        if (rebuild) {
+            return "-rebuild";
+        }
+        if (!new File(stateFile).isFile()) {
+            return "no saved state";
+        }
+        try {
+            state = (State) SerializationHelper.read(stateFile);
+        } catch (Exception e) {
+            return "unreadable state (" + e + ")";
+        }
+        if (!header.equalHeaders(state.header)) {
+            return "combined-cleaned.arff header changed";
+        }
+        if (!Arrays.equals(sourceHash, state.sourceHash)) {
+            return "anime.csv or anime-cleaned.arff changed";
+        }
+        if (new File(ratingCsv).length() < state.offset) {
+            return ratingCsv + " is shorter than at the last run";
+        }
+        if (!Arrays.equals(state.headHash, hashRange(ratingCsv, 0, Math.min(state.offset, CHECK_BYTES)))
+                || !Arrays.equals(state.tailHash,
+                        hashRange(ratingCsv, Math.max(0, state.offset - CHECK_BYTES), state.offset))) {
+            return ratingCsv + " was rewritten, not appended to";
+        }
+        return null;
+    }
+
+    // The first batch builds the clusterer on the distinct rows weighted by their counts,
+    // later batches move its centroids once (mini-batch update)
+    private void updateClusterer(Map<Long, Long> added) throws Exception {
+        if (added.isEmpty()) {
+            return;
+        }
+        Instances clusterHeader = new Instances(header, 0);
+        clusterHeader.setClassIndex(-1);
+        int m = header.numAttributes();
+        double[] matrix = new double[added.size() * m];
+        double[] weights = new double[added.size()];
+        int n = 0;
+        for (Map.Entry<Long, Long> entry : added.entrySet()) {
+            values(entry.getKey(), matrix, n * m, m);
+            weights[n++] = entry.getValue();
+        }
+
+        if (state.clusterer == null) {
+            state.clusterer = Fast_K_Means_Classification.newClusterer();
+            state.clusterer.setNumThreads(numThreads);
+            state.clusterer.buildClusterer(clusterHeader, matrix, weights, n);
+            state.clusterRows = new long[state.clusterer.numberOfClusters()];
+        } else {
+            state.clusterer.setNumThreads(numThreads);
+            state.clusterer.updateClusterer(matrix, weights, n);
+            state.clusterer.updateFinished();
+        }
+        for (Map.Entry<Long, Long> entry : added.entrySet()) {
+            double[] row = new double[m];
+            values(entry.getKey(), row, 0, m);
+            Instance instance = new DenseInstance(1.0, row);
+            instance.setDataset(clusterHeader);
+            state.clusterRows[state.clusterer.clusterInstance(instance)] += entry.getValue();
+        }
+    }
+
+    // Writes the four reports from the current state
+    public void writeReports(String outputDir) throws Exception {
+        new File(outputDir).mkdirs();
+        String testMode = NUM_FOLDS + "-fold cross-validation over rating.csv (row i in fold i mod " + NUM_FOLDS
+                + ", incremental)";
+        Contingency_Cube cube = new Contingency_Cube(header);
+        Count_Naive_Bayes.Counts counts = new Count_Naive_Bayes.Counts(header);
+        for (int f = 0; f < NUM_FOLDS; f++) {
+            cube.add(state.cubes[f]);
+            counts.add(state.counts[f]);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(NUM_FOLDS, numThreads)));
+        try {
+            try (PrintStream out = report(outputDir, "Fast_ZeroR")) {
+                long startTime = System.currentTimeMillis();
+                Fast_ZeroR classifier = Fast_ZeroR_Classification.newFoldModel(header, cube);
+                Classifier[] models = new Classifier[NUM_FOLDS];
+                Instances[] priors = new Instances[NUM_FOLDS];
+                for (int f = 0; f < NUM_FOLDS; f++) {
+                    Contingency_Cube train = cube.copy();
+                    train.subtract(state.cubes[f]);
+                    models[f] = Fast_ZeroR_Classification.newFoldModel(header, train);
+                    priors[f] = Contingency_Cube.priorRows(header, train);
+                }
+                Evaluation eval = evaluate(pool, models, priors);
+                long endTime = System.currentTimeMillis();
+
+                Fast_ZeroR_Classification.printRunInformation(out, classifier, header, cube.numRows(), testMode);
+                printModel(out, classifier.toString(), endTime - startTime);
+                out.println("=== Cross-validation ===");
+                Fast_ZeroR_Classification.printEvaluation(out, eval);
+            }
+
+            try (PrintStream out = report(outputDir, "Fast_OneR")) {
+                long startTime = System.currentTimeMillis();
+                Fast_OneR classifier = Fast_OneR_Classification.newFoldModel(header, cube);
+                Classifier[] models = new Classifier[NUM_FOLDS];
+                Instances[] priors = new Instances[NUM_FOLDS];
+                for (int f = 0; f < NUM_FOLDS; f++) {
+                    Contingency_Cube train = cube.copy();
+                    train.subtract(state.cubes[f]);
+                    models[f] = Fast_OneR_Classification.newFoldModel(header, train);
+                    priors[f] = Contingency_Cube.priorRows(header, train);
+                }
+                Evaluation eval = evaluate(pool, models, priors);
+                long endTime = System.currentTimeMillis();
+
+                Fast_OneR_Classification.printRunInformation(out, classifier, header, cube.numRows(), testMode);
+                printModel(out, classifier.toString(), endTime - startTime);
+                out.println("=== Cross-validation ===");
+                out.println("=== Summary ===");
+                Fast_OneR_Classification.printEvaluation(out, eval);
+            }
+
+            try (PrintStream out = report(outputDir, "Count_Naive_Bayes")) {
+                long startTime = System.currentTimeMillis();
+                Count_Naive_Bayes classifier = new Count_Naive_Bayes();
+                classifier.setCounts(header, counts);
+                Classifier[] models = new Classifier[NUM_FOLDS];
+                Instances[] priors = new Instances[NUM_FOLDS];
+                for (int f = 0; f < NUM_FOLDS; f++) {
+                    Count_Naive_Bayes.Counts train = counts.copy();
+                    train.subtract(state.counts[f]);
+                    Count_Naive_Bayes model = new Count_Naive_Bayes();
+                    model.setCounts(header, train);
+                    models[f] = model;
+                    priors[f] = Count_Naive_Bayes.priorRows(header, train);
+                }
+                Evaluation eval = evaluate(pool, models, priors);
+                long endTime = System.currentTimeMillis();
+
+                Count_Naive_Bayes_Classification.printRunInformation(out, classifier, header, state.numRows,
+                        testMode);
+                printModel(out, classifier.toString(), endTime - startTime);
+                out.println("=== Cross-validation ===");
+                out.println("=== Summary ===");
+                Count_Naive_Bayes_Classification.printEvaluation(out, eval);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (state.clusterer != null) {
+            try (PrintStream out = report(outputDir, "Fast_K_Means")) {
+                Instances clusterHeader = new Instances(header, 0);
+                clusterHeader.setClassIndex(-1);
+                Fast_K_Means_Classification.printRunInformation(out, state.clusterer, clusterHeader,
+                        state.numRows, "evaluate on training data (incremental, mini-batch per run)");
+                out.println("=== Clustering model (full rating stream) ===");
+                out.println();
+                out.println(state.clusterer.toString());
+                out.println();
+                out.println("=== Model and evaluation on all rows seen ===");
+                out.println();
+                out.println(Fast_K_Means_Classification.clusteredInstances(state.clusterRows));
+            }
+        }
+    }
+
+    // Scores each fold's distinct rows, weighted by their counts, with that fold's model
+    private Evaluation evaluate(ExecutorService pool, Classifier[] models, Instances[] priors) throws Exception {
+        List<Future<Evaluation>> futures = new ArrayList<Future<Evaluation>>();
+        for (int f = 0; f < NUM_FOLDS; f++) {
+            final int fold = f;
+            futures.add(pool.submit(() -> {
+                Evaluation evaluation = new Evaluation(header);
+                evaluation.setDiscardPredictions(true);
+                evaluation.setPriors(priors[fold]);
+                int m = header.numAttributes();
+                for (Map.Entry<Long, Long> entry : state.rows.get(fold).entrySet()) {
+                    double[] row = new double[m];
+                    values(entry.getKey(), row, 0, m);
+                    Instance instance = new DenseInstance(entry.getValue(), row);
+                    instance.setDataset(header);
+                    evaluation.evaluateModelOnce(models[fold], instance);
+                }
+                return evaluation;
+            }));
+        }
+        AggregateableEvaluation evaluation = new AggregateableEvaluation(header);
+        for (Evaluation fold : getAll(futures)) {
+            evaluation.aggregate(fold);
+        }
+        return evaluation;
+    }
+
+    private void printModel(PrintStream out, String model, long millis) {
+        out.println("=== Classifier model (full rating stream) ===");
+        out.println();
+        out.println(model);
+        out.println();
+        out.println("Time taken to cross-validate from the saved folds : "
+                + String.format("%.2f", millis / 1000.0).replace(",", ".") + " seconds");
+        out.println();
+    }
+
+    private static PrintStream report(String outputDir, String scheme) throws IOException {
+        return new PrintStream(new FileOutputStream(new File(outputDir, "Incremental_" + scheme + ".txt")), false,
+                "UTF-8");
+    }
+
+    // One byte per attribute, code + 1 so that a missing value (-1) packs as 0
+    private static long key(byte[] codes, int offset, int numAttributes) {
+        long key = 0;
+        for (int j = 0; j < numAttributes; j++) {
+            key |= (long) ((codes[offset + j] + 1) & 0xFF) << (8 * j);
+        }
+        return key;
+    }
+
+    private static void values(long key, double[] values, int offset, int numAttributes) {
+        for (int j = 0; j < numAttributes; j++) {
+            int code = (int) ((key >>> (8 * j)) & 0xFF) - 1;
+            values[offset + j] = code < 0 ? Double.NaN : code;
+        }
+    }
+
+    private static byte[] hashRange(String file, long from, long to) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[(int) (to - from)];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(from);
+            in.readFully(buffer);
+        }
+        return digest.digest(buffer);
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) throws Exception {
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    public static void main(String[] args) {
+        try {
+            String ratingCsv = "../../dataset/raw/rating.csv";
+            String stateFile = DEFAULT_STATE;
+            String outputDir = "../../results/advanced";
+            int numThreads = 0;
+            boolean rebuild = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-rebuild")) {
+                    rebuild = true;
+                } else if (args[i].equals("-ratings") && i + 1 < args.length) {
+                    ratingCsv = args[++i];
+                } else if (args[i].equals("-state") && i + 1 < args.length) {
+                    stateFile = args[++i];
+                } else if (args[i].equals("-o") && i + 1 < args.length) {
+                    outputDir = args[++i];
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            Incremental_Evaluation evaluation = new Incremental_Evaluation(ratingCsv, "../../dataset/raw/anime.csv",
+                    "../../dataset/advanced/anime-cleaned.arff", "../../dataset/advanced/combined-cleaned.arff",
+                    stateFile);
+            if (numThreads > 0) {
+                evaluation.setNumThreads(numThreads);
+            }
+            evaluation.setRebuild(rebuild);
+
+            long startTime = System.currentTimeMillis();
+            String reason = evaluation.update();
+            long updateTime = System.currentTimeMillis();
+            evaluation.writeReports(outputDir);
+            long endTime = System.currentTimeMillis();
+
+            if (reason != null) {
+                System.out.println("Rebuilt the state: " + reason);
+            }
+            System.out.println("Read " + evaluation.rowsAdded() + " new rows (" + evaluation.bytesRead()
+                    + " bytes) in " + String.format("%.2f", (updateTime - startTime) / 1000.0).replace(",", ".")
+                    + " seconds, " + evaluation.numRows() + " rows in total");
+            System.out.println("Reports written to " + outputDir + " in "
+                    + String.format("%.2f", (endTime - updateTime) / 1000.0).replace(",", ".") + " seconds");
+            System.out.println("State saved to " + stateFile);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -2,64 +2,73 @@ import weka.clusterers.ClusterEvaluation;
 import weka.clusterers.SimpleKMeans;
 import weka.core.Instances;
 import weka.core.Utils;
-import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.PrintStream;
 
 public class K_Means_Classification {
     public static void main(String[] args) {
         try {
             // Load data
-            DataSource source = new DataSource("../../dataset/advanced/combined-cleaned.arff");
-            Instances data = source.getDataSet();
-
-            // Unset class index for clustering (use all attributes)
-            data.setClassIndex(-1);
+            Instances data = Binary_Dataset_Cache.load("../../dataset/advanced/combined-cleaned.arff");
+            run(data, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Create clusterer
-            SimpleKMeans clusterer = new SimpleKMeans();
-            String[] options = Utils.splitOptions(
-                    "-init 0 -max-candidates 100 -periodic-pruning 10000 -min-density 2.0 -t1 -1.25 -t2 -1.0 -N 2 -A \"weka.core.EuclideanDistance -R first-last\" -I 500 -num-slots 1 -S 10");
-            clusterer.setOptions(options);
+    // Runs the scheme on data and prints the report to out
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Unset class index for clustering (use all attributes)
+        data.setClassIndex(-1);
 
-            // Print Run information
-            System.out.println("=== Run information ===");
-            System.out.println();
-            System.out.println(
-                    "Scheme:       weka.clusterers.SimpleKMeans -init 0 -max-candidates 100 -periodic-pruning 10000 -min-density 2.0 -t1 -1.25 -t2 -1.0 -N 2 -A \"weka.core.EuclideanDistance -R first-last\" -I 500 -num-slots 1 -S 10");
-            System.out.println("Relation:     " + data.relationName());
-            System.out.println("Instances:    " + data.numInstances());
-            System.out.println("Attributes:   " + data.numAttributes());
-            for (int i = 0; i < data.numAttributes(); i++) {
-                System.out.println("              " + data.attribute(i).name());
-            }
-            System.out.println("Test mode:    evaluate on training data");
-            System.out.println();
+        // Create clusterer
+        SimpleKMeans clusterer = new SimpleKMeans();
+        String[] options = Utils.splitOptions(
+                "-init 0 -max-candidates 100 -periodic-pruning 10000 -min-density 2.0 -t1 -1.25 -t2 -1.0 -N 2 -A \"weka.core.EuclideanDistance -R first-last\" -I 500 -num-slots 1 -S 10");
+        clusterer.setOptions(options);
 
-            // Build model on full training set
-            System.out.println("=== Clustering model (full training set) ===");
-            System.out.println();
+        // Print Run information
+        out.println("=== Run information ===");
+        out.println();
+        out.println(
+                "Scheme:       weka.clusterers.SimpleKMeans -init 0 -max-candidates 100 -periodic-pruning 10000 -min-density 2.0 -t1 -1.25 -t2 -1.0 -N 2 -A \"weka.core.EuclideanDistance -R first-last\" -I 500 -num-slots 1 -S 10");
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    evaluate on training data");
+        out.println();
 
-            long startTime = System.currentTimeMillis();
-            clusterer.buildClusterer(data);
-            long endTime = System.currentTimeMillis();
+        // Build model on full training set
+        out.println("=== Clustering model (full training set) ===");
+        out.println();
 
-            System.out.println(clusterer.toString());
-            System.out.println();
-            System.out.println("Time taken to build model (full training data) : "
-                    + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
-            System.out.println();
+        // Stored models are keyed by scheme, options and data, see Model_Store
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<SimpleKMeans> model = Phase_Metrics.time("build",
+                () -> Model_Store.getOrBuild(clusterer.getClass().getName(),
+                        Utils.joinOptions(clusterer.getOptions()), data, () -> {
+                            clusterer.buildClusterer(data);
+                            return clusterer;
+                        }));
+        long endTime = System.currentTimeMillis();
 
-            // Evaluation on training set
-            System.out.println("=== Model and evaluation on training set ===");
-            System.out.println();
+        out.println(model.get().toString());
+        out.println();
+        out.println("Time taken to " + model.action() + " model (full training data) : "
+                + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
+        out.println();
 
-            ClusterEvaluation eval = new ClusterEvaluation();
-            eval.setClusterer(clusterer);
-            eval.evaluateClusterer(data);
+        // Evaluation on training set
+        out.println("=== Model and evaluation on training set ===");
+        out.println();
 
-            System.out.println(eval.clusterResultsToString());
+        ClusterEvaluation eval = new ClusterEvaluation();
+        eval.setClusterer(model.get());
+        Phase_Metrics.run("evaluation", () -> eval.evaluateClusterer(data));
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        Phase_Metrics.run("report", () -> out.println(eval.clusterResultsToString()));
     }
 }
@@ -0,0 +1,76 @@
+import weka.classifiers.Evaluation;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class Naive_Bayes_Updateable_Classification {
+    public static void main(String[] args) {
+        try {
+            // Stream the full rating table instead of the 10,000-row sample
+            Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv",
+                    "../../dataset/advanced/anime-cleaned.arff");
+            Instances header = Streaming_Rating_Loader.readHeader("../../dataset/advanced/combined-cleaned.arff");
+
+            // Create classifier and initialise it on the empty header
+            NaiveBayesUpdateable classifier = new NaiveBayesUpdateable();
+            classifier.buildClassifier(new Instances(header, 0));
+
+            // Test-then-train: every row is scored before the model learns from it.
+            // Predictions are not stored, so memory stays bounded by one chunk.
+            Evaluation eval = new Evaluation(header);
+            eval.setDiscardPredictions(true);
+
+            long startTime = System.currentTimeMillis();
+            long numInstances = 0;
+            try (Streaming_Rating_Loader loader = new Streaming_Rating_Loader("../../dataset/raw/rating.csv", anime,
+                    header, 100000)) {
+                Instances chunk;
+                while ((chunk = loader.nextChunk()) != null) {
+                    for (Instance instance : chunk) {
+                        eval.evaluateModelOnce(classifier, instance);
+                        classifier.updateClassifier(instance);
+                        eval.updatePriors(instance);
+                    }
+                    numInstances += chunk.numInstances();
+                }
+            }
+            long endTime = System.currentTimeMillis();
+
+            // Print Run information
+            System.out.println("=== Run information ===");
+            System.out.println();
+            System.out.println("Scheme:       weka.classifiers.bayes.NaiveBayesUpdateable ");
+            System.out.println("Relation:     " + header.relationName());
+            System.out.println("Instances:    " + numInstances);
+            System.out.println("Attributes:   " + header.numAttributes());
+            for (int i = 0; i < header.numAttributes(); i++) {
+                System.out.println("              " + header.attribute(i).name());
+            }
+            System.out.println("Test mode:    prequential (test-then-train) over rating.csv");
+            System.out.println();
+
+            System.out.println("=== Classifier model (full stream) ===");
+            System.out.println();
+            System.out.println(classifier.toString());
+            System.out.println();
+            System.out.println("Time taken to stream, evaluate and train: "
+                    + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
+            System.out.println();
+
+            System.out.println("=== Prequential evaluation ===");
+            System.out.println("=== Summary ===");
+            System.out.println(eval.toSummaryString(false));
+
+            System.out.println("=== Detailed Accuracy By Class ===");
+            System.out.println();
+            System.out.println(eval.toClassDetailsString());
+
+            System.out.println("=== Confusion Matrix ===");
+            System.out.println();
+            System.out.println(eval.toMatrixString());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
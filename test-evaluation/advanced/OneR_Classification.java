@@ -2,71 +2,85 @@ import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.rules.OneR;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.Utils;
 
+import java.io.PrintStream;
 import java.util.Random;
 
 public class OneR_Classification {
     public static void main(String[] args) {
         try {
             // Load data
-            DataSource source = new DataSource("../../dataset/advanced/combined-cleaned.arff");
-            Instances data = source.getDataSet();
+            Instances data = Binary_Dataset_Cache.load("../../dataset/advanced/combined-cleaned.arff");
+            run(data, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Set class index to the last attribute
-            if (data.classIndex() == -1)
-                data.setClassIndex(data.numAttributes() - 1);
+    // Runs the scheme on data and prints the report to out
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Set class index to the last attribute
+        if (data.classIndex() == -1)
+            data.setClassIndex(data.numAttributes() - 1);
 
-            // Create classifier
-            OneR classifier = new OneR();
-            classifier.setMinBucketSize(6); // -B 6
+        // Create classifier
+        OneR classifier = new OneR();
+        classifier.setMinBucketSize(6); // -B 6
 
-            // Print Run information
-            System.out.println("=== Run information ===");
-            System.out.println();
-            System.out.println("Scheme:       weka.classifiers.rules.OneR -B 6");
-            System.out.println("Relation:     " + data.relationName());
-            System.out.println("Instances:    " + data.numInstances());
-            System.out.println("Attributes:   " + data.numAttributes());
-            for (int i = 0; i < data.numAttributes(); i++) {
-                System.out.println("              " + data.attribute(i).name());
-            }
-            System.out.println("Test mode:    10-fold cross-validation");
-            System.out.println();
+        // Print Run information
+        out.println("=== Run information ===");
+        out.println();
+        out.println("Scheme:       weka.classifiers.rules.OneR -B 6");
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    10-fold cross-validation");
+        out.println();
 
-            // Build model on full training set
-            System.out.println("=== Classifier model (full training set) ===");
-            System.out.println();
+        // Build model on full training set
+        out.println("=== Classifier model (full training set) ===");
+        out.println();
 
-            long startTime = System.currentTimeMillis();
-            classifier.buildClassifier(data);
-            long endTime = System.currentTimeMillis();
+        // Stored models are keyed by scheme, options and data, see Model_Store
+        String scheme = classifier.getClass().getName();
+        String options = Utils.joinOptions(classifier.getOptions());
 
-            System.out.println(classifier.toString());
-            System.out.println();
-            System.out.println("Time taken to build model: "
-                    + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
-            System.out.println();
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<OneR> model = Phase_Metrics.time("build",
+                () -> Model_Store.getOrBuild(scheme, options, data, () -> {
+                    classifier.buildClassifier(data);
+                    return classifier;
+                }));
+        long endTime = System.currentTimeMillis();
 
-            // Cross-validation
-            System.out.println("=== Stratified cross-validation ===");
-            System.out.println("=== Summary ===");
+        out.println(model.get().toString());
+        out.println();
+        out.println("Time taken to " + model.action() + " model: "
+                + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
+        out.println();
 
-            Evaluation eval = new Evaluation(data);
-            eval.crossValidateModel(classifier, data, 10, new Random(1));
+        // Cross-validation
+        out.println("=== Stratified cross-validation ===");
+        out.println("=== Summary ===");
 
-            System.out.println(eval.toSummaryString(false));
+        Evaluation eval = Phase_Metrics.time("cross-validation",
+                () -> Model_Store.getOrBuild(scheme, options + " -x 10 -s 1", data,
+                        () -> Parallel_Cross_Validation.crossValidateModel(classifier, data, 10, new Random(1))).get());
 
-            System.out.println("=== Detailed Accuracy By Class ===");
-            System.out.println();
-            System.out.println(eval.toClassDetailsString());
+        Phase_Metrics.run("report", () -> {
+            out.println(eval.toSummaryString(false));
 
-            System.out.println("=== Confusion Matrix ===");
-            System.out.println();
-            System.out.println(eval.toMatrixString());
+            out.println("=== Detailed Accuracy By Class ===");
+            out.println();
+            out.println(eval.toClassDetailsString());
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+            out.println("=== Confusion Matrix ===");
+            out.println();
+            out.println(eval.toMatrixString());
+        });
     }
 }
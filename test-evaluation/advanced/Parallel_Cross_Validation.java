@@ -0,0 +1,96 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.AggregateableEvaluation;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Fold-parallel replacement for Evaluation.crossValidateModel().
+// The data is randomized, stratified and split on the calling thread exactly like
+// Weka does, so the Random is consumed in the same order. Each fold then trains a
+// copy of the classifier and evaluates it on a work-stealing pool, and the per-fold
+// statistics are aggregated back in fold order. When a run's Phase_Metrics is current,
+// the split and each fold's train and test are recorded as phases of it.
+//
+// When setWorkers() has been given a Distributed_Cross_Validation coordinator, the folds
+// run on its worker JVMs instead of the local pool, with the same result.
+public class Parallel_Cross_Validation {
+
+    private static volatile Distributed_Cross_Validation workers;
+
+    // Sends the folds of every later cross-validation to workers; null runs them locally again
+    public static void setWorkers(Distributed_Cross_Validation coordinator) {
+        workers = coordinator;
+    }
+
+    public static Evaluation crossValidateModel(Classifier classifier, Instances data, int numFolds, Random random)
+            throws Exception {
+        return crossValidateModel(classifier, data, numFolds, random, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static Evaluation crossValidateModel(Classifier classifier, Instances data, int numFolds, Random random,
+            int numThreads) throws Exception {
+        Distributed_Cross_Validation coordinator = workers;
+        if (coordinator != null) {
+            return coordinator.crossValidateModel(classifier, data, numFolds, random);
+        }
+        final Phase_Metrics metrics = Phase_Metrics.current();
+
+        // Same preparation as weka.classifiers.evaluation.Evaluation.crossValidateModel
+        final Instances randomized = new Instances(data);
+        final Instances[] trainSets = new Instances[numFolds];
+        final Instances[] testSets = new Instances[numFolds];
+        Phase_Metrics.run(metrics, "split", () -> {
+            randomized.randomize(random);
+            if (randomized.classAttribute().isNominal()) {
+                randomized.stratify(numFolds);
+            }
+
+            // trainCV() shuffles with the shared Random, so folds must be cut in order here
+            for (int i = 0; i < numFolds; i++) {
+                trainSets[i] = randomized.trainCV(numFolds, i, random);
+                testSets[i] = randomized.testCV(numFolds, i);
+            }
+        });
+
+        ExecutorService pool = Executors.newWorkStealingPool(Math.max(1, Math.min(numFolds, numThreads)));
+        try {
+            List<Future<Evaluation>> folds = new ArrayList<Future<Evaluation>>();
+            for (int i = 0; i < numFolds; i++) {
+                final int fold = i;
+                final Instances train = trainSets[i];
+                final Instances test = testSets[i];
+                final Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
+                folds.add(pool.submit(() -> {
+                    Phase_Metrics.run(metrics, "fold " + fold + " train",
+                            () -> copiedClassifier.buildClassifier(train));
+                    // The constructor sets the priors from the training fold, like setPriors(train)
+                    Evaluation foldEvaluation = new Evaluation(train);
+                    Phase_Metrics.run(metrics, "fold " + fold + " test",
+                            () -> foldEvaluation.evaluateModel(copiedClassifier, test));
+                    return foldEvaluation;
+                }));
+            }
+
+            AggregateableEvaluation evaluation = new AggregateableEvaluation(randomized);
+            for (Future<Evaluation> fold : folds) {
+                evaluation.aggregate(fold.get());
+            }
+            return evaluation;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Wall time, CPU time, allocated bytes and peak heap of the phases of one run
+// (load, build, cross-validation folds, report, ...).
+//
+// A run's metrics are made current on the thread running it; drivers then wrap their
+// phases in Phase_Metrics.time()/run(), which do nothing when no metrics are current,
+// so the standalone mains are unaffected. Work handed to a thread pool is recorded by
+// passing the caller's metrics along, as Parallel_Cross_Validation does for its folds.
+//
+// CPU time and allocated bytes are those of the thread that ran the phase (ThreadMXBean),
+// so a phase that waits on a pool does not include the pool's work; that work shows up
+// in the pool's own phases. Peak heap is the JVM's used heap sampled every 10 ms while
+// the phase is open, so concurrent runs share it. Every phase is also committed as an
+// "anime.Phase" JFR event, visible in any recording started with -XX:StartFlightRecording.
+public class Phase_Metrics {
+
+    // A body of work that returns a value
+    public interface Work<T> {
+        T call() throws Exception;
+    }
+
+    // A body of work that returns nothing
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    // One finished phase; serializable so phases run on worker JVMs can be sent back
+    public static final class Phase implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public final String name;
+        public final String thread;
+        public final long startMillis;
+        public final double wallMillis;
+        public final double cpuMillis;
+        public final long allocatedBytes;
+        public final long peakHeapBytes;
+
+        Phase(String name, String thread, long startMillis, double wallMillis, double cpuMillis,
+                long allocatedBytes, long peakHeapBytes) {
+            this.name = name;
+            this.thread = thread;
+            this.startMillis = startMillis;
+            this.wallMillis = wallMillis;
+            this.cpuMillis = cpuMillis;
+            this.allocatedBytes = allocatedBytes;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+    }
+
+    @Name("anime.Phase")
+    @Label("Phase")
+    @Category("Anime")
+    @Description("A timed phase of a scheme run")
+    static final class Phase_Event extends jdk.jfr.Event {
+        @Label("Run")
+        String run;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("CPU Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long cpuTime;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+
+        @Label("Peak Heap")
+        @DataAmount
+        long peakHeap;
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final ThreadLocal<Phase_Metrics> CURRENT = new ThreadLocal<Phase_Metrics>();
+
+    // Peaks of the phases that are open right now, raised by the sampler thread
+    private static final Set<AtomicLong> OPEN_PEAKS = ConcurrentHashMap.newKeySet();
+    private static Thread sampler;
+
+    static {
+        if (THREADS.isCurrentThreadCpuTimeSupported()) {
+            THREADS.setThreadCpuTimeEnabled(true);
+        }
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+    }
+
+    private final String run;
+    private final long startMillis = System.currentTimeMillis();
+    private final List<Phase> phases = Collections.synchronizedList(new ArrayList<Phase>());
+
+    public Phase_Metrics(String run) {
+        this.run = run;
+    }
+
+    public String getRun() {
+        return run;
+    }
+
+    // The metrics of the run on this thread, or null
+    public static Phase_Metrics current() {
+        return CURRENT.get();
+    }
+
+    // Makes metrics the current run of this thread; null clears it
+    public static void setCurrent(Phase_Metrics metrics) {
+        if (metrics == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(metrics);
+        }
+    }
+
+    // Records work as a phase of the current run, if there is one
+    public static <T> T time(String phase, Work<T> work) throws Exception {
+        return time(current(), phase, work);
+    }
+
+    public static void run(String phase, Task task) throws Exception {
+        run(current(), phase, task);
+    }
+
+    // Records work as a phase of metrics, or just runs it when metrics is null
+    public static <T> T time(Phase_Metrics metrics, String phase, Work<T> work) throws Exception {
+        return metrics == null ? work.call() : metrics.record(phase, work);
+    }
+
+    public static void run(Phase_Metrics metrics, String phase, Task task) throws Exception {
+        time(metrics, phase, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public <T> T record(String phase, Work<T> work) throws Exception {
+        Phase_Event event = new Phase_Event();
+        event.begin();
+        long start = System.currentTimeMillis();
+        long wallStart = System.nanoTime();
+        long cpuStart = cpuNanos();
+        long allocatedStart = allocatedBytes();
+        AtomicLong peak = new AtomicLong(MEMORY.getHeapMemoryUsage().getUsed());
+        OPEN_PEAKS.add(peak);
+        startSampler();
+        try {
+            return work.call();
+        } finally {
+            OPEN_PEAKS.remove(peak);
+            peak.accumulateAndGet(MEMORY.getHeapMemoryUsage().getUsed(), Math::max);
+            long wall = System.nanoTime() - wallStart;
+            long cpu = cpuStart < 0 ? -1 : cpuNanos() - cpuStart;
+            long allocated = allocatedStart < 0 ? -1 : allocatedBytes() - allocatedStart;
+            add(new Phase(phase, Thread.currentThread().getName(), start, wall / 1e6, cpu < 0 ? -1 : cpu / 1e6,
+                    allocated, peak.get()));
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.run = run;
+                event.phase = phase;
+                event.cpuTime = cpu;
+                event.allocated = allocated;
+                event.peakHeap = peak.get();
+                event.commit();
+            }
+        }
+    }
+
+    // Adds a phase recorded elsewhere, e.g. the dataset load shared by several runs
+    public void add(Phase phase) {
+        phases.add(phase);
+    }
+
+    // The phases in the order they started
+    public List<Phase> getPhases() {
+        List<Phase> sorted;
+        synchronized (phases) {
+            sorted = new ArrayList<Phase>(phases);
+        }
+        sorted.sort((a, b) -> Long.compare(a.startMillis, b.startMillis));
+        return sorted;
+    }
+
+    // Writes the run as a JSON object, one phase per line
+    public void writeJson(File file) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(toJson("\n  ", "\n    "));
+            out.write("\n");
+        }
+    }
+
+    // Appends the run as a single line, so repeated runs can be compared over time
+    public void appendJsonLine(File file) throws IOException {
+        String line = toJson("", "") + "\n";
+        synchronized (Phase_Metrics.class) {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+                out.write(line);
+            }
+        }
+    }
+
+    private String toJson(String field, String phaseField) {
+        Runtime runtime = Runtime.getRuntime();
+        StringBuilder json = new StringBuilder("{");
+        json.append(field).append("\"run\": ").append(Scoring_Server.Json_Parser.quote(run)).append(",");
+        List<Phase> sorted = getPhases();
+        long origin = sorted.isEmpty() ? startMillis : Math.min(startMillis, sorted.get(0).startMillis);
+        json.append(field).append("\"started\": \"").append(Instant.ofEpochMilli(origin)).append("\",");
+        json.append(field).append("\"java\": ")
+                .append(Scoring_Server.Json_Parser.quote(System.getProperty("java.version"))).append(",");
+        json.append(field).append("\"processors\": ").append(runtime.availableProcessors()).append(",");
+        json.append(field).append("\"maxHeapBytes\": ").append(runtime.maxMemory()).append(",");
+        json.append(field).append("\"phases\": [");
+        for (int i = 0; i < sorted.size(); i++) {
+            Phase phase = sorted.get(i);
+            json.append(i > 0 ? "," : "").append(phaseField).append("{\"phase\": ")
+                    .append(Scoring_Server.Json_Parser.quote(phase.name))
+                    .append(", \"thread\": ").append(Scoring_Server.Json_Parser.quote(phase.thread))
+                    .append(", \"startMillis\": ").append(phase.startMillis - origin)
+                    .append(", \"wallMillis\": ").append(millis(phase.wallMillis))
+                    .append(", \"cpuMillis\": ").append(millis(phase.cpuMillis))
+                    .append(", \"allocatedBytes\": ").append(phase.allocatedBytes)
+                    .append(", \"peakHeapBytes\": ").append(phase.peakHeapBytes).append("}");
+        }
+        json.append(field.isEmpty() ? "" : "\n  ").append("]").append(field.isEmpty() ? "" : "\n").append("}");
+        return json.toString();
+    }
+
+    private static String millis(double value) {
+        return value < 0 ? "-1" : String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+
+    private static long cpuNanos() {
+        return THREADS.isThreadCpuTimeEnabled() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static synchronized void startSampler() {
+        if (sampler != null) {
+            return;
+        }
+        sampler = new Thread(() -> {
+            while (true) {
+                if (!OPEN_PEAKS.isEmpty()) {
+                    long used = MEMORY.getHeapMemoryUsage().getUsed();
+                    for (AtomicLong peak : OPEN_PEAKS) {
+                        peak.accumulateAndGet(used, Math::max);
+                    }
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "Phase_Metrics sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+}
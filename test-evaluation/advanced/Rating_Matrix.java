@@ -0,0 +1,451 @@
+import java.io.FileInputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Usage: java Rating_Matrix [-ratings <rating.csv>] [-t <threads>]
+//
+// rating.csv as a sparse user x anime matrix of primitive arrays, stored both by row
+// (CSR: the anime of each user) and by column (CSC: the users of each anime), so ALS
+// can solve users and anime alike by walking contiguous slices. Ratings of -1 (watched,
+// not rated) are skipped as in the notebooks, and lines without a 1-10 rating are counted
+// as malformed. Users and anime are numbered densely in order of their ids; userId() and
+// itemId() map back. Within a row the anime are in ascending order, and so are the users
+// within a column.
+//
+// A rating takes an int index and a byte in each direction, 10 bytes in all, so the
+// ~6.3M rated rows of the full rating.csv take about 65 MB. Loading parses 4 MB blocks
+// of the file on all cores, like Preprocessing_Pipeline, and keeps them in file order.
+//
+// Running it loads rating.csv and prints the size of the matrix.
+public class Rating_Matrix implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BLOCK_BYTES = 1 << 22;
+
+    // Rated rows parsed from one block of rating.csv, still with their raw ids
+    private static final class Block {
+        int[] users;
+        int[] items;
+        byte[] ratings;
+        int rows;
+        long unrated;
+        long malformed;
+    }
+
+    private final int[] userIds;
+    private final int[] itemIds;
+
+    // CSR: the ratings of user u are rowItems/rowRatings[rowStart[u], rowStart[u + 1])
+    private final int[] rowStart;
+    private final int[] rowItems;
+    private final byte[] rowRatings;
+
+    // CSC: the ratings of item i are colUsers/colRatings[colStart[i], colStart[i + 1])
+    private final int[] colStart;
+    private final int[] colUsers;
+    private final byte[] colRatings;
+
+    private long unrated;
+    private long malformed;
+
+    // Builds the matrix from n (dense user, dense item, rating) triples
+    Rating_Matrix(int[] users, int[] items, byte[] ratings, int n, int[] userIds, int[] itemIds) {
+        this.userIds = userIds;
+        this.itemIds = itemIds;
+        int numUsers = userIds.length;
+        int numItems = itemIds.length;
+
+        // Counting sort by user, then by item and by user again: each pass walks the
+        // previous one in order, so both directions end up sorted
+        int[] start = new int[numUsers + 1];
+        for (int i = 0; i < n; i++) {
+            start[users[i] + 1]++;
+        }
+        int[] byUserItems = new int[n];
+        byte[] byUserRatings = new byte[n];
+        scatter(start, users, items, ratings, n, byUserItems, byUserRatings);
+
+        colStart = new int[numItems + 1];
+        colUsers = new int[n];
+        colRatings = new byte[n];
+        transpose(start, byUserItems, byUserRatings, colStart, colUsers, colRatings);
+
+        rowStart = new int[numUsers + 1];
+        rowItems = byUserItems;
+        rowRatings = byUserRatings;
+        transpose(colStart, colUsers, colRatings, rowStart, rowItems, rowRatings);
+    }
+
+    // Loads rating.csv with numThreads parsing threads
+    public static Rating_Matrix load(String ratingCsv, int numThreads) throws Exception {
+        List<Block> blocks = new ArrayList<Block>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        ArrayDeque<Future<Block>> inFlight = new ArrayDeque<Future<Block>>();
+        try (FileInputStream in = new FileInputStream(ratingCsv)) {
+            byte[] pending = new byte[0];
+            boolean first = true;
+            boolean eof = false;
+            while (!eof) {
+                byte[] buffer = Arrays.copyOf(pending, Math.max(BLOCK_BYTES, 2 * pending.length));
+                int length = pending.length;
+                int read;
+                while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) >= 0) {
+                    length += read;
+                }
+                eof = length < buffer.length;
+                int end = eof ? length : lastLineEnd(buffer, length);
+                if (end < 0) {
+                    // A line longer than the block: read on with a bigger one
+                    pending = Arrays.copyOf(buffer, length);
+                    continue;
+                }
+                int start = first ? skipHeader(buffer, end, ratingCsv) : 0;
+                first = false;
+                pending = Arrays.copyOfRange(buffer, end, length);
+
+                inFlight.add(pool.submit(() -> parse(buffer, start, end)));
+                while (inFlight.size() >= 2 * numThreads) {
+                    blocks.add(get(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                blocks.add(get(inFlight.poll()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Number the users and anime that have ratings in order of their ids
+        int n = 0;
+        int maxUser = -1;
+        int maxItem = -1;
+        for (Block block : blocks) {
+            n += block.rows;
+            for (int i = 0; i < block.rows; i++) {
+                maxUser = Math.max(maxUser, block.users[i]);
+                maxItem = Math.max(maxItem, block.items[i]);
+            }
+        }
+        int[] userIndex = new int[maxUser + 1];
+        int[] itemIndex = new int[maxItem + 1];
+        for (Block block : blocks) {
+            for (int i = 0; i < block.rows; i++) {
+                userIndex[block.users[i]] = 1;
+                itemIndex[block.items[i]] = 1;
+            }
+        }
+        int[] userIds = number(userIndex);
+        int[] itemIds = number(itemIndex);
+
+        int[] users = new int[n];
+        int[] items = new int[n];
+        byte[] ratings = new byte[n];
+        int offset = 0;
+        long unrated = 0;
+        long malformed = 0;
+        for (int b = 0; b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            for (int i = 0; i < block.rows; i++) {
+                users[offset + i] = userIndex[block.users[i]];
+                items[offset + i] = itemIndex[block.items[i]];
+            }
+            System.arraycopy(block.ratings, 0, ratings, offset, block.rows);
+            offset += block.rows;
+            unrated += block.unrated;
+            malformed += block.malformed;
+            blocks.set(b, null);
+        }
+
+        Rating_Matrix matrix = new Rating_Matrix(users, items, ratings, n, userIds, itemIds);
+        matrix.unrated = unrated;
+        matrix.malformed = malformed;
+        return matrix;
+    }
+
+    // Splits the ratings at random into a training and a test matrix over the same users and anime
+    public Rating_Matrix[] split(double testFraction, long seed) {
+        int n = numRatings();
+        int[] trainUsers = new int[n];
+        int[] trainItems = new int[n];
+        byte[] trainRatings = new byte[n];
+        int[] testUsers = new int[n];
+        int[] testItems = new int[n];
+        byte[] testRatings = new byte[n];
+        int numTrain = 0;
+        int numTest = 0;
+        Random random = new Random(seed);
+        for (int u = 0; u < numUsers(); u++) {
+            for (int j = rowStart[u]; j < rowStart[u + 1]; j++) {
+                if (random.nextDouble() < testFraction) {
+                    testUsers[numTest] = u;
+                    testItems[numTest] = rowItems[j];
+                    testRatings[numTest++] = rowRatings[j];
+                } else {
+                    trainUsers[numTrain] = u;
+                    trainItems[numTrain] = rowItems[j];
+                    trainRatings[numTrain++] = rowRatings[j];
+                }
+            }
+        }
+        return new Rating_Matrix[] {
+                new Rating_Matrix(trainUsers, trainItems, trainRatings, numTrain, userIds, itemIds),
+                new Rating_Matrix(testUsers, testItems, testRatings, numTest, userIds, itemIds) };
+    }
+
+    public int numUsers() {
+        return userIds.length;
+    }
+
+    public int numItems() {
+        return itemIds.length;
+    }
+
+    public int numRatings() {
+        return rowItems.length;
+    }
+
+    // Rows with rating -1 that were skipped
+    public long numUnrated() {
+        return unrated;
+    }
+
+    // Lines without a user, an anime or a 1-10 rating
+    public long numMalformed() {
+        return malformed;
+    }
+
+    public int userId(int user) {
+        return userIds[user];
+    }
+
+    public int itemId(int item) {
+        return itemIds[item];
+    }
+
+    // Dense index of a user id, or -1 if the user has no ratings
+    public int userIndex(int userId) {
+        int index = Arrays.binarySearch(userIds, userId);
+        return index < 0 ? -1 : index;
+    }
+
+    public int itemIndex(int itemId) {
+        int index = Arrays.binarySearch(itemIds, itemId);
+        return index < 0 ? -1 : index;
+    }
+
+    int rowStart(int user) {
+        return rowStart[user];
+    }
+
+    int rowEnd(int user) {
+        return rowStart[user + 1];
+    }
+
+    int rowItem(int j) {
+        return rowItems[j];
+    }
+
+    int rowRating(int j) {
+        return rowRatings[j];
+    }
+
+    int colStart(int item) {
+        return colStart[item];
+    }
+
+    int colEnd(int item) {
+        return colStart[item + 1];
+    }
+
+    int colUser(int j) {
+        return colUsers[j];
+    }
+
+    int colRating(int j) {
+        return colRatings[j];
+    }
+
+    // Bytes held by the arrays of the matrix
+    public long memoryBytes() {
+        return 4L * (userIds.length + itemIds.length + rowStart.length + rowItems.length + colStart.length
+                + colUsers.length) + rowRatings.length + colRatings.length;
+    }
+
+    private static Block parse(byte[] buffer, int from, int to) {
+        Block block = new Block();
+        int capacity = Math.max(16, (to - from) / 12);
+        block.users = new int[capacity];
+        block.items = new int[capacity];
+        block.ratings = new byte[capacity];
+        int[] record = new int[3];
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && buffer[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                if (Csv_Reader.parseInts(buffer, lineStart, lineEnd, record) < 3 || record[0] < 0 || record[1] < 0) {
+                    block.malformed++;
+                } else if (record[2] == -1) {
+                    block.unrated++;
+                } else if (record[2] < 1 || record[2] > 10) {
+                    block.malformed++;
+                } else {
+                    if (block.rows == block.users.length) {
+                        block.users = Arrays.copyOf(block.users, 2 * block.rows);
+                        block.items = Arrays.copyOf(block.items, 2 * block.rows);
+                        block.ratings = Arrays.copyOf(block.ratings, 2 * block.rows);
+                    }
+                    block.users[block.rows] = record[0];
+                    block.items[block.rows] = record[1];
+                    block.ratings[block.rows++] = (byte) record[2];
+                }
+            }
+            lineStart = next;
+        }
+        return block;
+    }
+
+    // Turns a 0/1 presence table indexed by id into id -> dense index; returns dense index -> id
+    private static int[] number(int[] index) {
+        int count = 0;
+        for (int present : index) {
+            count += present;
+        }
+        int[] ids = new int[count];
+        int next = 0;
+        for (int id = 0; id < index.length; id++) {
+            if (index[id] != 0) {
+                ids[next] = id;
+                index[id] = next++;
+            } else {
+                index[id] = -1;
+            }
+        }
+        return ids;
+    }
+
+    // Places the triples in the slots given by start, which holds the counts shifted by one
+    private static void scatter(int[] start, int[] keys, int[] values, byte[] ratings, int n, int[] outValues,
+            byte[] outRatings) {
+        for (int i = 1; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        int[] next = Arrays.copyOf(start, start.length - 1);
+        for (int i = 0; i < n; i++) {
+            int slot = next[keys[i]]++;
+            outValues[slot] = values[i];
+            outRatings[slot] = ratings[i];
+        }
+    }
+
+    // Builds the other direction of a compressed matrix, walking its rows in order
+    private static void transpose(int[] start, int[] indices, byte[] ratings, int[] outStart, int[] outIndices,
+            byte[] outRatings) {
+        Arrays.fill(outStart, 0);
+        int n = start[start.length - 1];
+        for (int j = 0; j < n; j++) {
+            outStart[indices[j] + 1]++;
+        }
+        for (int i = 1; i < outStart.length; i++) {
+            outStart[i] += outStart[i - 1];
+        }
+        int[] next = Arrays.copyOf(outStart, outStart.length - 1);
+        for (int row = 0; row + 1 < start.length; row++) {
+            for (int j = start[row]; j < start[row + 1]; j++) {
+                int slot = next[indices[j]]++;
+                outIndices[slot] = row;
+                outRatings[slot] = ratings[j];
+            }
+        }
+    }
+
+    private static int skipHeader(byte[] buffer, int end, String ratingCsv) throws Exception {
+        int lineEnd = 0;
+        while (lineEnd < end && buffer[lineEnd] != '\n') {
+            lineEnd++;
+        }
+        String[] columns = new String(buffer, 0, lineEnd, StandardCharsets.UTF_8).replace("\uFEFF", "").split(",");
+        if (columns.length < 3 || !"user_id".equals(columns[0].trim()) || !"anime_id".equals(columns[1].trim())
+                || !"rating".equals(columns[2].trim())) {
+            throw new Exception(ratingCsv + " must start with user_id,anime_id,rating");
+        }
+        return Math.min(end, lineEnd + 1);
+    }
+
+    private static int lastLineEnd(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            String ratingCsv = "../../dataset/raw/rating.csv";
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-ratings") && i + 1 < args.length) {
+                    ratingCsv = args[++i];
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            long startTime = System.currentTimeMillis();
+            Rating_Matrix matrix = load(ratingCsv, numThreads);
+            long endTime = System.currentTimeMillis();
+            printSummary(matrix, endTime - startTime, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    static void printSummary(Rating_Matrix matrix, long loadMillis, PrintStream out) {
+        out.println("=== Rating matrix ===");
+        out.println();
+        out.println("Ratings:      " + matrix.numRatings() + " (" + matrix.numUnrated() + " rows with rating -1 and "
+                + matrix.numMalformed() + " malformed lines skipped)");
+        out.println("Users:        " + matrix.numUsers());
+        out.println("Anime:        " + matrix.numItems());
+        out.println("Density:      " + String.format("%.4f", 100.0 * matrix.numRatings()
+                / ((double) matrix.numUsers() * Math.max(1, matrix.numItems()))).replace(",", ".") + " %");
+        out.println("Memory:       " + String.format("%.1f", matrix.memoryBytes() / 1048576.0).replace(",", ".")
+                + " MB (CSR and CSC)");
+        out.println("Time taken to load matrix: " + String.format("%.2f", loadMillis / 1000.0).replace(",", ".")
+                + " seconds");
+        out.println();
+    }
+}
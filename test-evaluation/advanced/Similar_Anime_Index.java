@@ -0,0 +1,804 @@
+import weka.core.SerializationHelper;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+// Usage: java Similar_Anime_Index [-rebuild] [-cache <file>] [-anime <anime.csv>] [-k <k>] [-ef <ef>]
+//                                 [-M <m>] [-queries <n>] [-id <anime_id> ...]
+//
+// "More like this" lookups over anime.csv with an HNSW graph (Malkov and Yashunin, 2018)
+// instead of the single genre_encoded cluster id. Every anime becomes a float vector:
+// its genres multi-hot and scaled to length 1, its type one-hot at weight 0.5, and
+// log(1 + episodes), log(1 + members) and rating standardised at weight 0.25 each.
+// Missing ratings take the median as in the notebook, and unknown episode counts the
+// mean. Similarity is the Euclidean distance between the vectors; the search itself
+// compares squared distances, which rank the same.
+//
+// The graph keeps up to M links per anime on the upper layers and 2M on the bottom one,
+// chosen with the paper's neighbour heuristic from efConstruction (200) candidates. A
+// query descends greedily to the bottom layer and searches it with max(ef, k) candidates.
+// Levels are drawn from Random(seed), so a build is reproducible.
+//
+// The index is Serializable and is cached (see load()) like Genre_Encoder. When anime.csv
+// changes, new anime are inserted into the cached graph and anime that changed are
+// inserted again with their new vector. Anime that were removed or changed stay in the
+// graph as routing nodes but are left out of results. The vocabulary and the standardisation
+// stay those of the first build, so genres or types first seen later are ignored until
+// -rebuild builds the index again from scratch.
+//
+// Running it loads or updates the cached index, reports recall@k and query latency against
+// exact search over every anime (or -queries of them), and prints the k most similar
+// anime for each -id. Recall counts an answer as a hit when it is no farther than the
+// exact k-th neighbour, so ties at the k-th distance do not count as misses.
+public class Similar_Anime_Index implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String DEFAULT_CACHE = "../../models/Similar_Anime_Index.cache";
+
+    private static final float TYPE_WEIGHT = 0.5f;
+    private static final float NUMERIC_WEIGHT = 0.25f;
+
+    // One row of anime.csv
+    static final class Anime {
+        final int id;
+        final String name;
+        final String genre;
+        final String type;
+        final double episodes;
+        final double rating;
+        final double members;
+
+        Anime(int id, String name, String genre, String type, double episodes, double rating, double members) {
+            this.id = id;
+            this.name = name;
+            this.genre = genre;
+            this.type = type;
+            this.episodes = episodes;
+            this.rating = rating;
+            this.members = members;
+        }
+    }
+
+    // Per-thread search state: visited marks and the two heaps of the layer search
+    private static final class Scratch {
+        int[] visited = new int[0];
+        int epoch;
+        final Heap candidates = new Heap();
+        final Heap results = new Heap();
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    // Binary min-heap of (distance, node); the result heap stores negated distances
+    private static final class Heap {
+        float[] keys = new float[64];
+        int[] nodes = new int[64];
+        int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void push(float key, int node) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                nodes = Arrays.copyOf(nodes, 2 * size);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                nodes[i] = nodes[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+
+        // Removes the smallest entry
+        void pop() {
+            float key = keys[--size];
+            int node = nodes[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+    }
+
+    private int maxLinks = 16;
+    private int efConstruction = 200;
+    private long seed = 1;
+
+    // Feature space, fixed by the first build
+    private String[] genres;
+    private String[] types;
+    private double medianRating;
+    private double[] means = new double[3];
+    private double[] deviations = new double[3];
+    private int dims;
+
+    // Graph: node -> vector, anime, links[node][layer] = { count, neighbour... }
+    private float[] vectors = new float[0];
+    private int[] animeIds = new int[0];
+    private String[] names = new String[0];
+    private boolean[] removed = new boolean[0];
+    private int[][][] links = new int[0][][];
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private Random random;
+    private final Map<Integer, Integer> nodeOf = new HashMap<Integer, Integer>();
+
+    // At least 2: levels are drawn with base M logarithms
+    public void setMaxLinks(int maxLinks) {
+        if (maxLinks < 2) {
+            throw new IllegalArgumentException("M must be at least 2, got " + maxLinks);
+        }
+        this.maxLinks = maxLinks;
+    }
+
+    public void setEfConstruction(int efConstruction) {
+        this.efConstruction = efConstruction;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // Anime that can be returned
+    public int numAnime() {
+        return nodeOf.size();
+    }
+
+    // Graph nodes, including anime that were removed or changed since they were inserted
+    public int numNodes() {
+        return size;
+    }
+
+    public int numDimensions() {
+        return dims;
+    }
+
+    public boolean contains(int animeId) {
+        return nodeOf.containsKey(animeId);
+    }
+
+    public String name(int animeId) {
+        Integer node = nodeOf.get(animeId);
+        return node == null ? null : names[node];
+    }
+
+    // Builds the feature space and the graph from the whole catalogue
+    public void build(Map<Integer, Anime> catalogue) {
+        TreeSet<String> genreSet = new TreeSet<String>();
+        TreeSet<String> typeSet = new TreeSet<String>();
+        List<Double> ratings = new ArrayList<Double>();
+        for (Anime anime : catalogue.values()) {
+            genreSet.addAll(splitGenres(anime.genre));
+            typeSet.add(anime.type);
+            if (!Double.isNaN(anime.rating)) {
+                ratings.add(anime.rating);
+            }
+        }
+        genres = genreSet.toArray(new String[0]);
+        types = typeSet.toArray(new String[0]);
+        dims = genres.length + types.length + 3;
+        double[] sorted = new double[ratings.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ratings.get(i);
+        }
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        medianRating = n == 0 ? 0 : n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2.0;
+
+        // Mean and deviation of each numeric feature over the anime that have it
+        double[] sums = new double[3];
+        double[] squares = new double[3];
+        int[] counts = new int[3];
+        for (Anime anime : catalogue.values()) {
+            double[] raw = numericFeatures(anime);
+            for (int f = 0; f < 3; f++) {
+                if (!Double.isNaN(raw[f])) {
+                    sums[f] += raw[f];
+                    squares[f] += raw[f] * raw[f];
+                    counts[f]++;
+                }
+            }
+        }
+        for (int f = 0; f < 3; f++) {
+            means[f] = counts[f] == 0 ? 0 : sums[f] / counts[f];
+            double variance = counts[f] == 0 ? 0 : squares[f] / counts[f] - means[f] * means[f];
+            deviations[f] = variance > 1e-12 ? Math.sqrt(variance) : 1;
+        }
+
+        vectors = new float[0];
+        animeIds = new int[0];
+        names = new String[0];
+        removed = new boolean[0];
+        links = new int[0][][];
+        size = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+        nodeOf.clear();
+        random = new Random(seed);
+        for (Anime anime : catalogue.values()) {
+            insert(anime);
+        }
+    }
+
+    // Brings the index up to date with the catalogue; returns the number of anime added, changed or removed
+    public int update(Map<Integer, Anime> catalogue) {
+        int changes = 0;
+        for (Anime anime : catalogue.values()) {
+            Integer node = nodeOf.get(anime.id);
+            if (node == null) {
+                insert(anime);
+                changes++;
+            } else if (!Arrays.equals(encode(anime), Arrays.copyOfRange(vectors, node * dims, (node + 1) * dims))) {
+                removed[node] = true;
+                insert(anime);
+                changes++;
+            } else if (!names[node].equals(anime.name)) {
+                names[node] = anime.name;
+                changes++;
+            }
+        }
+        for (Integer animeId : new ArrayList<Integer>(nodeOf.keySet())) {
+            if (!catalogue.containsKey(animeId)) {
+                removed[nodeOf.remove(animeId)] = true;
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    // The k anime nearest to animeId, nearest first, without animeId itself
+    public int[] similar(int animeId, int k, int ef) {
+        Integer node = nodeOf.get(animeId);
+        if (node == null) {
+            return new int[0];
+        }
+        return search(Arrays.copyOfRange(vectors, node * dims, (node + 1) * dims), k, ef, node);
+    }
+
+    // Same answer by comparing with every anime
+    public int[] exactSimilar(int animeId, int k) {
+        Integer node = nodeOf.get(animeId);
+        if (node == null) {
+            return new int[0];
+        }
+        float[] query = Arrays.copyOfRange(vectors, node * dims, (node + 1) * dims);
+        Heap results = new Heap();
+        for (int other = 0; other < size; other++) {
+            if (other == node || removed[other]) {
+                continue;
+            }
+            float distance = distance(query, other);
+            if (results.size < k) {
+                results.push(-distance, other);
+            } else if (distance < -results.keys[0]) {
+                results.pop();
+                results.push(-distance, other);
+            }
+        }
+        return drain(results);
+    }
+
+    // Euclidean distance between two indexed anime
+    public float distance(int animeId, int otherId) {
+        int node = nodeOf.get(animeId);
+        return (float) Math.sqrt(distance(Arrays.copyOfRange(vectors, node * dims, (node + 1) * dims),
+                nodeOf.get(otherId)));
+    }
+
+    private int[] search(float[] query, int k, int ef, int exclude) {
+        if (entryPoint < 0 || k <= 0) {
+            return new int[0];
+        }
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > 0; layer--) {
+            current = greedy(query, current, layer);
+        }
+        Scratch scratch = SCRATCH.get();
+        searchLayer(query, current, Math.max(ef, k + 1), 0, scratch);
+
+        // Keep the k nearest results that may be returned
+        Heap results = scratch.results;
+        Heap best = new Heap();
+        while (results.size > 0) {
+            int node = results.nodes[0];
+            float distance = -results.keys[0];
+            results.pop();
+            if (node == exclude || removed[node]) {
+                continue;
+            }
+            best.push(-distance, node);
+            if (best.size > k) {
+                best.pop();
+            }
+        }
+        return drain(best);
+    }
+
+    // Anime ids of a heap of negated distances, nearest first; empties the heap
+    private int[] drain(Heap heap) {
+        int[] ids = new int[heap.size];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = animeIds[heap.nodes[0]];
+            heap.pop();
+        }
+        return ids;
+    }
+
+    private void insert(Anime anime) {
+        float[] vector = encode(anime);
+        int node = size++;
+        if (node == animeIds.length) {
+            int capacity = Math.max(16, 2 * node);
+            vectors = Arrays.copyOf(vectors, capacity * dims);
+            animeIds = Arrays.copyOf(animeIds, capacity);
+            names = Arrays.copyOf(names, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+            links = Arrays.copyOf(links, capacity);
+        }
+        System.arraycopy(vector, 0, vectors, node * dims, dims);
+        animeIds[node] = anime.id;
+        names[node] = anime.name;
+        nodeOf.put(anime.id, node);
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) / Math.log(maxLinks));
+        links[node] = new int[level + 1][];
+        for (int layer = 0; layer <= level; layer++) {
+            links[node][layer] = new int[1 + maxLinks(layer)];
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = greedy(vector, current, layer);
+        }
+        Scratch scratch = SCRATCH.get();
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            searchLayer(vector, current, efConstruction, layer, scratch);
+            int[] candidates = ascending(scratch.results);
+            current = candidates[0];
+            int[] neighbours = selectNeighbours(vector, candidates, maxLinks);
+            int[] own = links[node][layer];
+            for (int neighbour : neighbours) {
+                own[++own[0]] = neighbour;
+                connect(neighbour, node, layer);
+            }
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    // Adds a link from node to added, pruning node's links with the heuristic when they overflow
+    private void connect(int node, int added, int layer) {
+        int[] list = links[node][layer];
+        if (list[0] < list.length - 1) {
+            list[++list[0]] = added;
+            return;
+        }
+        float[] vector = Arrays.copyOfRange(vectors, node * dims, (node + 1) * dims);
+        Heap heap = new Heap();
+        for (int i = 1; i <= list[0]; i++) {
+            heap.push(distance(vector, list[i]), list[i]);
+        }
+        heap.push(distance(vector, added), added);
+        int[] candidates = new int[heap.size];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = heap.nodes[0];
+            heap.pop();
+        }
+        int[] kept = selectNeighbours(vector, candidates, list.length - 1);
+        list[0] = kept.length;
+        System.arraycopy(kept, 0, list, 1, kept.length);
+    }
+
+    // The paper's heuristic: take candidates nearest first, skipping any that is nearer to
+    // an already chosen neighbour than to the base vector
+    private int[] selectNeighbours(float[] base, int[] ascending, int max) {
+        int[] chosen = new int[Math.min(max, ascending.length)];
+        int count = 0;
+        for (int i = 0; i < ascending.length && count < chosen.length; i++) {
+            int candidate = ascending[i];
+            float toBase = distance(base, candidate);
+            float[] candidateVector = Arrays.copyOfRange(vectors, candidate * dims, (candidate + 1) * dims);
+            boolean keep = true;
+            for (int j = 0; j < count && keep; j++) {
+                keep = distance(candidateVector, chosen[j]) >= toBase;
+            }
+            if (keep) {
+                chosen[count++] = candidate;
+            }
+        }
+        return count == chosen.length ? chosen : Arrays.copyOf(chosen, count);
+    }
+
+    // Nearest-first nodes of a heap of negated distances; empties the heap
+    private static int[] ascending(Heap heap) {
+        int[] nodes = new int[heap.size];
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            nodes[i] = heap.nodes[0];
+            heap.pop();
+        }
+        return nodes;
+    }
+
+    // Moves to a nearer neighbour on layer until there is none
+    private int greedy(float[] query, int current, int layer) {
+        float best = distance(query, current);
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            int[] list = links[current][layer];
+            for (int i = 1; i <= list[0]; i++) {
+                float distance = distance(query, list[i]);
+                if (distance < best) {
+                    best = distance;
+                    current = list[i];
+                    moved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Best-first search of one layer from entry; leaves the ef nearest in scratch.results
+    private void searchLayer(float[] query, int entry, int ef, int layer, Scratch scratch) {
+        if (scratch.visited.length < size) {
+            scratch.visited = new int[Math.max(size, 2 * scratch.visited.length)];
+            scratch.epoch = 0;
+        }
+        int epoch = ++scratch.epoch;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(scratch.visited, 0);
+            scratch.epoch = epoch = 1;
+        }
+        Heap candidates = scratch.candidates;
+        Heap results = scratch.results;
+        candidates.clear();
+        results.clear();
+
+        float distance = distance(query, entry);
+        scratch.visited[entry] = epoch;
+        candidates.push(distance, entry);
+        results.push(-distance, entry);
+        while (candidates.size > 0) {
+            float nearest = candidates.keys[0];
+            int node = candidates.nodes[0];
+            if (nearest > -results.keys[0] && results.size >= ef) {
+                break;
+            }
+            candidates.pop();
+            int[] list = links[node][layer];
+            for (int i = 1; i <= list[0]; i++) {
+                int neighbour = list[i];
+                if (scratch.visited[neighbour] == epoch) {
+                    continue;
+                }
+                scratch.visited[neighbour] = epoch;
+                distance = distance(query, neighbour);
+                if (results.size < ef || distance < -results.keys[0]) {
+                    candidates.push(distance, neighbour);
+                    results.push(-distance, neighbour);
+                    if (results.size > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+    }
+
+    private int maxLinks(int layer) {
+        return layer == 0 ? 2 * maxLinks : maxLinks;
+    }
+
+    // Squared Euclidean distance from a vector to a node
+    private float distance(float[] query, int node) {
+        float sum = 0;
+        int offset = node * dims;
+        for (int d = 0; d < dims; d++) {
+            float difference = query[d] - vectors[offset + d];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    float[] encode(Anime anime) {
+        float[] vector = new float[dims];
+        List<String> animeGenres = splitGenres(anime.genre);
+        int known = 0;
+        for (String genre : animeGenres) {
+            if (Arrays.binarySearch(genres, genre) >= 0) {
+                known++;
+            }
+        }
+        for (String genre : animeGenres) {
+            int index = Arrays.binarySearch(genres, genre);
+            if (index >= 0) {
+                vector[index] = (float) (1 / Math.sqrt(known));
+            }
+        }
+        int type = Arrays.binarySearch(types, anime.type);
+        if (type >= 0) {
+            vector[genres.length + type] = TYPE_WEIGHT;
+        }
+        double[] raw = numericFeatures(anime);
+        for (int f = 0; f < 3; f++) {
+            double value = Double.isNaN(raw[f]) ? means[f] : raw[f];
+            vector[genres.length + types.length + f] = (float) (NUMERIC_WEIGHT * (value - means[f]) / deviations[f]);
+        }
+        return vector;
+    }
+
+    // log(1 + episodes), log(1 + members) and rating, NaN when unknown (ratings fall back to the median)
+    private double[] numericFeatures(Anime anime) {
+        double rating = Double.isNaN(anime.rating) ? medianRating : anime.rating;
+        return new double[] {
+                Double.isNaN(anime.episodes) ? Double.NaN : Math.log1p(Math.max(0, anime.episodes)),
+                Double.isNaN(anime.members) ? Double.NaN : Math.log1p(Math.max(0, anime.members)),
+                rating };
+    }
+
+    private static List<String> splitGenres(String genre) {
+        List<String> list = new ArrayList<String>();
+        for (String part : genre.split(",")) {
+            String trimmed = part.trim();
+            if (!trimmed.isEmpty() && !list.contains(trimmed)) {
+                list.add(trimmed);
+            }
+        }
+        return list;
+    }
+
+    // anime.csv as anime_id -> row, in file order
+    public static Map<Integer, Anime> readCatalogue(String animeCsv) throws Exception {
+        Map<Integer, Anime> catalogue = new LinkedHashMap<Integer, Anime>();
+        try (Csv_Reader reader = new Csv_Reader(animeCsv)) {
+            int[] columns = Anime_Encoder.columnIndices(reader.next(), "anime_id", "name", "genre", "type",
+                    "episodes", "rating", "members");
+            String[] row;
+            while ((row = reader.next()) != null) {
+                String id = field(row, columns[0]);
+                if (id.isEmpty()) {
+                    continue;
+                }
+                String type = field(row, columns[3]);
+                catalogue.put(Integer.parseInt(id), new Anime(Integer.parseInt(id), field(row, columns[1]),
+                        field(row, columns[2]), type.isEmpty() ? "Unknown" : type,
+                        parseDouble(field(row, columns[4])), parseDouble(field(row, columns[5])),
+                        parseDouble(field(row, columns[6]))));
+            }
+        }
+        return catalogue;
+    }
+
+    private static String field(String[] row, int index) {
+        return index < row.length ? row[index].trim() : "";
+    }
+
+    // pd.to_numeric(errors='coerce'): anything unparsable becomes NaN
+    private static double parseDouble(String value) {
+        try {
+            return value.isEmpty() ? Double.NaN : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // Reads the cached index and brings it up to date with animeCsv, or builds one when
+    // there is no usable cache. The cache is rewritten whenever it changed.
+    public static Similar_Anime_Index load(String animeCsv, String cacheFile) throws Exception {
+        Map<Integer, Anime> catalogue = readCatalogue(animeCsv);
+        Similar_Anime_Index index = readCache(cacheFile);
+        if (index == null) {
+            index = new Similar_Anime_Index();
+            index.build(catalogue);
+        } else if (index.update(catalogue) == 0) {
+            return index;
+        }
+        index.save(cacheFile);
+        return index;
+    }
+
+    // The cached index, or null when there is none or it cannot be read
+    public static Similar_Anime_Index readCache(String cacheFile) {
+        if (!new File(cacheFile).isFile()) {
+            return null;
+        }
+        try {
+            return (Similar_Anime_Index) SerializationHelper.read(cacheFile);
+        } catch (Exception e) {
+            System.err.println("Could not read index cache " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(String cacheFile) throws Exception {
+        File file = new File(cacheFile);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        SerializationHelper.write(cacheFile, this);
+    }
+
+    public static void main(String[] args) {
+        try {
+            String animeCsv = "../../dataset/raw/anime.csv";
+            String cacheFile = DEFAULT_CACHE;
+            boolean rebuild = false;
+            int k = 10;
+            int ef = 50;
+            int maxLinks = 16;
+            int numQueries = 0;
+            List<Integer> ids = new ArrayList<Integer>();
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-rebuild")) {
+                    rebuild = true;
+                } else if (args[i].equals("-cache") && i + 1 < args.length) {
+                    cacheFile = args[++i];
+                } else if (args[i].equals("-anime") && i + 1 < args.length) {
+                    animeCsv = args[++i];
+                } else if (args[i].equals("-k") && i + 1 < args.length) {
+                    k = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-ef") && i + 1 < args.length) {
+                    ef = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-M") && i + 1 < args.length) {
+                    maxLinks = Integer.parseInt(args[++i]);
+                    if (maxLinks < 2) {
+                        System.err.println("-M must be at least 2");
+                        System.exit(1);
+                    }
+                } else if (args[i].equals("-queries") && i + 1 < args.length) {
+                    numQueries = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-id") && i + 1 < args.length) {
+                    ids.add(Integer.parseInt(args[++i]));
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            // Load, update or build the index
+            long startTime = System.currentTimeMillis();
+            Map<Integer, Anime> catalogue = readCatalogue(animeCsv);
+            Similar_Anime_Index index = rebuild ? null : readCache(cacheFile);
+            String action;
+            if (index == null) {
+                index = new Similar_Anime_Index();
+                index.setMaxLinks(maxLinks);
+                index.build(catalogue);
+                index.save(cacheFile);
+                action = "build";
+            } else {
+                int changes = index.update(catalogue);
+                if (changes > 0) {
+                    index.save(cacheFile);
+                }
+                action = "load";
+                System.out.println("Anime added, changed or removed since the cache: " + changes);
+            }
+            long endTime = System.currentTimeMillis();
+            System.out.println("Index:        " + index.numAnime() + " anime, " + index.numNodes() + " nodes, "
+                    + index.numDimensions() + " dimensions, M=" + index.maxLinks + ", ef=" + ef);
+            System.out.println("Time taken to " + action + " index: "
+                    + String.format("%.2f", (endTime - startTime) / 1000.0).replace(",", ".") + " seconds");
+            System.out.println();
+
+            // Recall and latency against exact search
+            List<Integer> queries = new ArrayList<Integer>(catalogue.keySet());
+            if (numQueries > 0 && numQueries < queries.size()) {
+                Collections.shuffle(queries, new Random(1));
+                queries = queries.subList(0, numQueries);
+            }
+            for (int animeId : queries) {
+                index.similar(animeId, k, ef);
+                index.exactSimilar(animeId, k);
+            }
+            long[] annNanos = new long[queries.size()];
+            long[] exactNanos = new long[queries.size()];
+            long hits = 0;
+            long expected = 0;
+            for (int q = 0; q < queries.size(); q++) {
+                int animeId = queries.get(q);
+                long start = System.nanoTime();
+                int[] approximate = index.similar(animeId, k, ef);
+                long middle = System.nanoTime();
+                int[] exact = index.exactSimilar(animeId, k);
+                long end = System.nanoTime();
+                annNanos[q] = middle - start;
+                exactNanos[q] = end - middle;
+                if (exact.length == 0) {
+                    continue;
+                }
+                float kth = index.distance(animeId, exact[exact.length - 1]);
+                for (int found : approximate) {
+                    if (index.distance(animeId, found) <= kth) {
+                        hits++;
+                    }
+                }
+                expected += exact.length;
+            }
+            System.out.println("=== Recall@" + k + " on " + queries.size() + " queries ===");
+            System.out.println();
+            System.out.println("Recall:       " + String.format("%.4f", expected == 0 ? 1.0 : (double) hits / expected)
+                    .replace(",", "."));
+            System.out.println("HNSW:         " + latency(annNanos));
+            System.out.println("Exact:        " + latency(exactNanos));
+            System.out.println();
+
+            for (int animeId : ids) {
+                System.out.println("=== " + k + " most similar to " + animeId
+                        + (index.contains(animeId) ? " " + index.name(animeId) : "") + " ===");
+                System.out.println();
+                int[] similar = index.similar(animeId, k, ef);
+                if (similar.length == 0) {
+                    System.out.println("Anime " + animeId + " is not in the index");
+                }
+                for (int rank = 0; rank < similar.length; rank++) {
+                    System.out.println(String.format("%3d. %.4f", rank + 1, index.distance(animeId, similar[rank]))
+                            .replace(",", ".") + "  " + index.name(similar[rank]) + " (" + similar[rank] + ")");
+                }
+                System.out.println();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String latency(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        double mean = 0;
+        for (long n : sorted) {
+            mean += n;
+        }
+        mean /= Math.max(1, sorted.length);
+        return "mean " + micros(mean) + " us, p50 " + micros(percentile(sorted, 0.50)) + " us, p99 "
+                + micros(percentile(sorted, 0.99)) + " us per query";
+    }
+
+    private static String micros(double nanos) {
+        return String.format("%.1f", nanos / 1000.0).replace(",", ".");
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
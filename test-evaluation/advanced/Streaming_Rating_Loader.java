@@ -0,0 +1,175 @@
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Streams the full raw rating.csv, joins every row with the encoded anime table
+// on anime_id (with the notebook's join semantics, see Anime_Encoder) and hands the result out in
+// fixed-size chunks that share the header of combined-cleaned.arff. Only one
+// chunk plus the small anime table is held in memory at any time, so all 7.8M
+// ratings can be fed to an UpdateableClassifier without loading them at once.
+public class Streaming_Rating_Loader implements Closeable {
+
+    private final Instances header;
+    private final Anime_Encoder anime;
+    private final Csv_Reader ratings;
+    private final int chunkSize;
+
+    // Position of each combined_data attribute in the header
+    private final int userRatingIndex;
+    private final int[] animeIndices = new int[Anime_Encoder.ATTRIBUTES.length];
+
+    // Resolved nominal index per attribute and encoded value
+    private final List<Map<String, Double>> resolved;
+
+    private final int[] record = new int[3];
+    private long rowsRead;
+    private long rowsSkipped;
+
+    public Streaming_Rating_Loader(String ratingCsv, Anime_Encoder anime, Instances header, int chunkSize)
+            throws Exception {
+        this.header = new Instances(header, 0);
+        this.anime = anime;
+        this.chunkSize = chunkSize;
+        this.resolved = new ArrayList<Map<String, Double>>(header.numAttributes());
+        for (int i = 0; i < header.numAttributes(); i++) {
+            resolved.add(new HashMap<String, Double>());
+        }
+
+        userRatingIndex = attributeIndex(this.header, "user_rating_encoded");
+        for (int i = 0; i < animeIndices.length; i++) {
+            animeIndices[i] = attributeIndex(this.header, Anime_Encoder.ATTRIBUTES[i]);
+        }
+
+        ratings = new Csv_Reader(ratingCsv);
+        String[] columns = ratings.next();
+        if (columns == null || !"user_id".equals(columns[0].trim()) || !"anime_id".equals(columns[1].trim())
+                || !"rating".equals(columns[2].trim())) {
+            ratings.close();
+            throw new Exception(ratingCsv + " must start with user_id,anime_id,rating");
+        }
+    }
+
+    // The header of the combined ARFF, read without parsing its data section
+    public static Instances readHeader(String combinedArff) throws Exception {
+        Instances structure = new DataSource(combinedArff).getStructure();
+        structure.setClassIndex(structure.numAttributes() - 1);
+        return structure;
+    }
+
+    public Instances getHeader() {
+        return header;
+    }
+
+    // Returns the next chunk of at most chunkSize rows, or null when the file is exhausted
+    public Instances nextChunk() throws IOException {
+        Instances chunk = new Instances(header, chunkSize);
+        String line;
+        while (chunk.numInstances() < chunkSize && (line = ratings.nextLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (Csv_Reader.parseInts(line, record) < 3 || record[1] == Integer.MIN_VALUE) {
+                rowsSkipped++;
+                continue;
+            }
+            String[] encoded = anime.lookup(record[1]);
+            if (encoded == null && Anime_Encoder.DROP_UNMATCHED) {
+                rowsSkipped++;
+                continue;
+            }
+            rowsRead++;
+
+            double[] values = new double[header.numAttributes()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Utils.missingValue();
+            }
+            if (record[2] != Integer.MIN_VALUE) {
+                values[userRatingIndex] = resolve(userRatingIndex, Anime_Encoder.encodeUserRating(record[2]));
+            }
+            if (encoded != null) {
+                for (int i = 0; i < animeIndices.length; i++) {
+                    values[animeIndices[i]] = resolve(animeIndices[i], encoded[i]);
+                }
+            }
+            chunk.add(new DenseInstance(1.0, values));
+        }
+        return chunk.numInstances() == 0 ? null : chunk;
+    }
+
+    public long rowsRead() {
+        return rowsRead;
+    }
+
+    public long rowsSkipped() {
+        return rowsSkipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ratings.close();
+    }
+
+    private double resolve(int attIndex, String value) {
+        if (value == null) {
+            return Utils.missingValue();
+        }
+        Double index = resolved.get(attIndex).get(value);
+        if (index == null) {
+            index = valueIndex(header.attribute(attIndex), value);
+            resolved.get(attIndex).put(value, index);
+        }
+        return index;
+    }
+
+    private static int attributeIndex(Instances header, String name) throws Exception {
+        Attribute attribute = header.attribute(name);
+        if (attribute == null) {
+            throw new Exception("Attribute '" + name + "' not found in " + header.relationName());
+        }
+        return attribute.index();
+    }
+
+    // Maps an encoded value onto the header's nominal index. The sampled ARFF can
+    // spell numbers differently ("1" vs "1.00"), so numeric labels are compared by
+    // value. Values the 10k sample never saw become missing.
+    static double valueIndex(Attribute attribute, String value) {
+        if (value == null) {
+            return Utils.missingValue();
+        }
+        if (!attribute.isNominal()) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return Utils.missingValue();
+            }
+        }
+        int index = attribute.indexOfValue(value);
+        if (index >= 0) {
+            return index;
+        }
+        try {
+            double number = Double.parseDouble(value);
+            for (int i = 0; i < attribute.numValues(); i++) {
+                try {
+                    if (Double.parseDouble(attribute.value(i)) == number) {
+                        return i;
+                    }
+                } catch (NumberFormatException e) {
+                    // not a numeric label
+                }
+            }
+        } catch (NumberFormatException e) {
+            // not a numeric value
+        }
+        return Utils.missingValue();
+    }
+}
@@ -0,0 +1,42 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import weka.associations.Apriori;
+import weka.core.Instances;
+
+import java.util.concurrent.TimeUnit;
+
+// Rule mining for Apriori (it has no per-instance scoring)
+@State(Scope.Benchmark)
+public class Associator_Benchmark {
+
+    @Param({ "initial", "advanced" })
+    public String variant;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int rows;
+
+    private Instances data;
+
+    @Setup
+    public void setup() throws Exception {
+        data = new Instances(Benchmark_Data.load(variant, rows));
+        data.setClassIndex(-1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Apriori build() throws Exception {
+        Apriori associator = Benchmark_Data.newApriori();
+        associator.buildAssociations(data);
+        return associator;
+    }
+}
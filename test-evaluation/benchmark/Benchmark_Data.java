@@ -0,0 +1,76 @@
+package benchmark;
+
+import weka.associations.Apriori;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.rules.OneR;
+import weka.classifiers.rules.ZeroR;
+import weka.classifiers.trees.J48;
+import weka.clusterers.SimpleKMeans;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Dataset loading and scheme configuration shared by the benchmarks. The schemes
+// use the same options as the *_Classification drivers.
+public class Benchmark_Data {
+
+    private static final Map<String, Instances> LOADED = new HashMap<String, Instances>();
+
+    // combined-cleaned.arff of the variant, resampled with replacement to rows
+    // instances when rows differs from the file size (seeded, so every fork sees
+    // the same data)
+    public static synchronized Instances load(String variant, int rows) throws Exception {
+        String key = variant + ":" + rows;
+        Instances data = LOADED.get(key);
+        if (data == null) {
+            Instances source = new DataSource("../../dataset/" + variant + "/combined-cleaned.arff").getDataSet();
+            if (rows == source.numInstances()) {
+                data = source;
+            } else {
+                Random random = new Random(42);
+                data = new Instances(source, rows);
+                for (int i = 0; i < rows; i++) {
+                    data.add(source.instance(random.nextInt(source.numInstances())));
+                }
+            }
+            LOADED.put(key, data);
+        }
+        return data;
+    }
+
+    public static Classifier newClassifier(String scheme) throws Exception {
+        if (scheme.equals("ZeroR")) {
+            return new ZeroR();
+        } else if (scheme.equals("OneR")) {
+            OneR classifier = new OneR();
+            classifier.setMinBucketSize(6); // -B 6
+            return classifier;
+        } else if (scheme.equals("J48")) {
+            J48 classifier = new J48();
+            classifier.setConfidenceFactor(0.25f); // -C 0.25
+            classifier.setMinNumObj(2); // -M 2
+            return classifier;
+        } else if (scheme.equals("Naive_Bayes")) {
+            return new NaiveBayes();
+        }
+        throw new IllegalArgumentException("Unknown classifier scheme: " + scheme);
+    }
+
+    public static SimpleKMeans newKMeans() throws Exception {
+        SimpleKMeans clusterer = new SimpleKMeans();
+        clusterer.setOptions(Utils.splitOptions(
+                "-init 0 -max-candidates 100 -periodic-pruning 10000 -min-density 2.0 -t1 -1.25 -t2 -1.0 -N 2 -A \"weka.core.EuclideanDistance -R first-last\" -I 500 -num-slots 1 -S 10"));
+        return clusterer;
+    }
+
+    public static Apriori newApriori() throws Exception {
+        Apriori associator = new Apriori();
+        associator.setOptions(Utils.splitOptions("-N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1 -S -1.0 -c -1"));
+        return associator;
+    }
+}
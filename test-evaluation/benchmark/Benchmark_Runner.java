@@ -0,0 +1,149 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+// Runs the JMH benchmarks and optionally compares them with a saved baseline.
+//
+// Usage: java benchmark.Benchmark_Runner [options] [benchmark regex ...]
+//   -p <name>=<v1,v2>    restrict a parameter, e.g. -p rows=10000 -p variant=advanced
+//   -f <forks>           forks per benchmark (default 1)
+//   -wi <n> / -i <n>     warm-up / measurement iterations (default 3 / 5)
+//   -jvmArgs <args>      extra arguments for the forked JVMs (default -Xmx4g)
+//   -save <file>         store the scores as a new baseline
+//   -baseline <file>     compare with a baseline and exit with status 1 on regression
+//   -threshold <ratio>   allowed slowdown before a benchmark counts as regressed (default 0.10)
+//
+// Raw JMH results are always written to jmh-result.json.
+public class Benchmark_Runner {
+
+    public static void main(String[] args) throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .jvmArgs("-Xmx4g")
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json");
+        String saveFile = null;
+        String baselineFile = null;
+        double threshold = 0.10;
+        List<String> includes = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if (arg.equals("-p") && hasValue) {
+                String[] param = args[++i].split("=", 2);
+                options.param(param[0], param[1].split(","));
+            } else if (arg.equals("-f") && hasValue) {
+                options.forks(Integer.parseInt(args[++i]));
+            } else if (arg.equals("-wi") && hasValue) {
+                options.warmupIterations(Integer.parseInt(args[++i]));
+            } else if (arg.equals("-i") && hasValue) {
+                options.measurementIterations(Integer.parseInt(args[++i]));
+            } else if (arg.equals("-jvmArgs") && hasValue) {
+                options.jvmArgs(args[++i].split(" "));
+            } else if (arg.equals("-save") && hasValue) {
+                saveFile = args[++i];
+            } else if (arg.equals("-baseline") && hasValue) {
+                baselineFile = args[++i];
+            } else if (arg.equals("-threshold") && hasValue) {
+                threshold = Double.parseDouble(args[++i]);
+            } else {
+                includes.add(arg);
+            }
+        }
+        if (includes.isEmpty()) {
+            includes.add("benchmark\\..*_Benchmark\\..*");
+        }
+        for (String include : includes) {
+            options.include(include);
+        }
+
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        TreeMap<String, Double> scores = new TreeMap<String, Double>();
+        TreeMap<String, Mode> modes = new TreeMap<String, Mode>();
+        for (RunResult result : results) {
+            String key = key(result);
+            scores.put(key, result.getPrimaryResult().getScore());
+            modes.put(key, result.getParams().getMode());
+        }
+
+        if (saveFile != null) {
+            Properties baseline = new Properties();
+            for (String key : scores.keySet()) {
+                baseline.setProperty(key, scores.get(key) + " " + modes.get(key).shortLabel());
+            }
+            try (OutputStream out = new FileOutputStream(saveFile)) {
+                baseline.store(out, "JMH baseline scores (score mode)");
+            }
+            System.out.println("Baseline saved to " + saveFile);
+        }
+
+        if (baselineFile != null && !compare(scores, modes, baselineFile, threshold)) {
+            System.exit(1);
+        }
+    }
+
+    // benchmark method plus its parameters, e.g. benchmark.Classifier_Benchmark.build[rows=10000,scheme=J48,variant=advanced]
+    static String key(RunResult result) {
+        StringBuilder key = new StringBuilder(result.getParams().getBenchmark()).append('[');
+        boolean first = true;
+        for (String name : result.getParams().getParamsKeys()) {
+            key.append(first ? "" : ",").append(name).append('=').append(result.getParams().getParam(name));
+            first = false;
+        }
+        return key.append(']').toString();
+    }
+
+    // Prints the comparison and returns false if any benchmark regressed past the threshold
+    static boolean compare(TreeMap<String, Double> scores, TreeMap<String, Mode> modes, String baselineFile,
+            double threshold) throws Exception {
+        Properties baseline = new Properties();
+        try (InputStream in = new FileInputStream(baselineFile)) {
+            baseline.load(in);
+        }
+
+        boolean ok = true;
+        System.out.println();
+        System.out.println("=== Comparison with " + baselineFile + " (threshold "
+                + String.format("%.0f", threshold * 100) + "%) ===");
+        for (String key : scores.keySet()) {
+            String stored = baseline.getProperty(key);
+            if (stored == null) {
+                System.out.println("NEW         " + key);
+                continue;
+            }
+            double before = Double.parseDouble(stored.split(" ")[0]);
+            double now = scores.get(key);
+            // Throughput should not drop, time per operation should not grow
+            boolean higherIsBetter = modes.get(key) == Mode.Throughput;
+            double change = higherIsBetter ? (before - now) / before : (now - before) / before;
+            boolean regressed = change > threshold;
+            ok &= !regressed;
+            System.out.println((regressed ? "REGRESSION  " : "ok          ") + key + "  "
+                    + String.format("%.3f -> %.3f (%+.1f%% %s)", before, now, -change * 100,
+                            higherIsBetter ? "throughput" : "speed"));
+        }
+        return ok;
+    }
+}
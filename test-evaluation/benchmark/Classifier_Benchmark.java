@@ -0,0 +1,83 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Build, one cross-validation fold and per-instance scoring for ZeroR, OneR, J48 and Naive Bayes
+@State(Scope.Benchmark)
+public class Classifier_Benchmark {
+
+    @Param({ "ZeroR", "OneR", "J48", "Naive_Bayes" })
+    public String scheme;
+
+    @Param({ "initial", "advanced" })
+    public String variant;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int rows;
+
+    private Instances data;
+    private Instances train;
+    private Instances test;
+    private Classifier model;
+    private int cursor;
+
+    @Setup
+    public void setup() throws Exception {
+        data = new Instances(Benchmark_Data.load(variant, rows));
+        data.setClassIndex(data.numAttributes() - 1);
+
+        // First fold of the drivers' 10-fold cross-validation with Random(1)
+        Random random = new Random(1);
+        Instances folds = new Instances(data);
+        folds.randomize(random);
+        folds.stratify(10);
+        train = folds.trainCV(10, 0, random);
+        test = folds.testCV(10, 0);
+
+        model = Benchmark_Data.newClassifier(scheme);
+        model.buildClassifier(data);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Classifier build() throws Exception {
+        Classifier classifier = Benchmark_Data.newClassifier(scheme);
+        classifier.buildClassifier(data);
+        return classifier;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Evaluation crossValidationFold() throws Exception {
+        Classifier classifier = AbstractClassifier.makeCopy(Benchmark_Data.newClassifier(scheme));
+        classifier.buildClassifier(train);
+        Evaluation evaluation = new Evaluation(train);
+        evaluation.evaluateModel(classifier, test);
+        return evaluation;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public double classifyInstance() throws Exception {
+        int i = cursor;
+        cursor = i + 1 == data.numInstances() ? 0 : i + 1;
+        return model.classifyInstance(data.instance(i));
+    }
+}
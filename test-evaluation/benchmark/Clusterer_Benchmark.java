@@ -0,0 +1,55 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import weka.clusterers.SimpleKMeans;
+import weka.core.Instances;
+
+import java.util.concurrent.TimeUnit;
+
+// Build and per-instance assignment for K-Means
+@State(Scope.Benchmark)
+public class Clusterer_Benchmark {
+
+    @Param({ "initial", "advanced" })
+    public String variant;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int rows;
+
+    private Instances data;
+    private SimpleKMeans model;
+    private int cursor;
+
+    @Setup
+    public void setup() throws Exception {
+        data = new Instances(Benchmark_Data.load(variant, rows));
+        data.setClassIndex(-1);
+        model = Benchmark_Data.newKMeans();
+        model.buildClusterer(data);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SimpleKMeans build() throws Exception {
+        SimpleKMeans clusterer = Benchmark_Data.newKMeans();
+        clusterer.buildClusterer(data);
+        return clusterer;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int clusterInstance() throws Exception {
+        int i = cursor;
+        cursor = i + 1 == data.numInstances() ? 0 : i + 1;
+        return model.clusterInstance(data.instance(i));
+    }
+}
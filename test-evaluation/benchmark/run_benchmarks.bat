@@ -0,0 +1,21 @@
+@echo off
+rem Needs jmh-core, jmh-generator-annprocess, jopt-simple and commons-math3 jars next to weka.jar in ../../lib
+if not exist classes mkdir classes
+
+echo Compiling benchmarks...
+javac -cp "../../lib/*" -d classes *.java
+if %errorlevel% neq 0 (
+    echo Compilation failed.
+    pause
+    exit /b %errorlevel%
+)
+
+rem Examples:
+rem   run_benchmarks.bat -p rows=10000 -save baseline.properties
+rem   run_benchmarks.bat -p rows=10000 -baseline baseline.properties -threshold 0.10
+echo Running benchmarks...
+java -cp "classes;../../lib/*" benchmark.Benchmark_Runner %*
+set result=%errorlevel%
+
+echo Done. Raw results are in jmh-result.json.
+exit /b %result%
@@ -0,0 +1,527 @@
+import weka.core.SerializationHelper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Usage: java ALS_Recommender [-ratings <rating.csv>] [-k <factors>] [-lambda <lambda>] [-iterations <n>]
+//                             [-t <threads>] [-test <fraction>] [-seed <seed>] [-top <n>] [-user <id> ...]
+//                             [-o <recommendations.csv>] [-save <model>] [-load <model>]
+//
+// Matrix factorisation of the user x anime ratings in a Rating_Matrix by alternating
+// least squares with weighted-lambda regularisation (Zhou et al., 2008). A rating is
+// predicted as the global mean plus the dot product of a user and an anime factor vector.
+// Each half-iteration fixes one side and solves, for every user (or anime) on its own,
+// (Y'Y + lambda * n * I) x = Y'(r - mean) over its n ratings with a Cholesky factorisation.
+// Those solves are independent, so they run in chunks of rows on -t threads, and the
+// model does not depend on the number of threads. Users (or anime) with no ratings in
+// the training matrix get zero factors and are predicted by the mean.
+//
+// recommend() scores every anime for a user and keeps the n best the user has not
+// rated, walking the user's sorted row alongside the anime. predict() is the raw dot
+// product and can fall outside the 1-10 scale; the scores recommend() returns (and -o
+// writes) are clipped to it, after ranking on the raw value so the order is kept.
+//
+// Running it loads rating.csv, holds out -test of the ratings (default 0.1) to report
+// the RMSE against the global mean, prints the top -top anime for each -user, and -o
+// writes the top -top of every user as CSV, computed on all threads in user order.
+// -save keeps the model (with its training matrix) and -load skips the training.
+public class ALS_Recommender implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Users or anime per parallel task
+    private static final int CHUNK_ROWS = 512;
+
+    // The rating scale of rating.csv
+    private static final double MIN_RATING = 1, MAX_RATING = 10;
+
+    private int numFactors = 10;
+    private double lambda = 0.05;
+    private int numIterations = 10;
+    private long seed = 1;
+    private transient int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private Rating_Matrix matrix;
+    private double mean;
+    private double[] userFactors;
+    private double[] itemFactors;
+    private double[] trainRmse;
+
+    // A chunk of rows [from, to) of a parallel pass, returning a partial sum
+    private interface Rows {
+        double run(int from, int to);
+    }
+
+    public void setNumFactors(int numFactors) {
+        this.numFactors = numFactors;
+    }
+
+    public void setLambda(double lambda) {
+        this.lambda = lambda;
+    }
+
+    public void setNumIterations(int numIterations) {
+        this.numIterations = numIterations;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public Rating_Matrix getMatrix() {
+        return matrix;
+    }
+
+    // Training RMSE after each iteration
+    public double[] getTrainRmse() {
+        return trainRmse;
+    }
+
+    public void build(Rating_Matrix matrix) throws Exception {
+        this.matrix = matrix;
+        int k = numFactors;
+        long sum = 0;
+        for (int u = 0; u < matrix.numUsers(); u++) {
+            for (int j = matrix.rowStart(u); j < matrix.rowEnd(u); j++) {
+                sum += matrix.rowRating(j);
+            }
+        }
+        mean = matrix.numRatings() > 0 ? (double) sum / matrix.numRatings() : 0;
+
+        // Anime start as small random vectors, users are solved first
+        Random random = new Random(seed);
+        userFactors = new double[matrix.numUsers() * k];
+        itemFactors = new double[matrix.numItems() * k];
+        for (int i = 0; i < itemFactors.length; i++) {
+            itemFactors[i] = 0.1 * random.nextGaussian();
+        }
+
+        trainRmse = new double[numIterations];
+        ExecutorService pool = Executors.newFixedThreadPool(getNumThreads());
+        try {
+            for (int iteration = 0; iteration < numIterations; iteration++) {
+                parallel(pool, matrix.numUsers(), (from, to) -> solveUsers(from, to));
+                parallel(pool, matrix.numItems(), (from, to) -> solveItems(from, to));
+                double squares = parallel(pool, matrix.numUsers(), (from, to) -> squaredError(matrix, from, to));
+                trainRmse[iteration] = Math.sqrt(squares / Math.max(1, matrix.numRatings()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public double predict(int user, int item) {
+        return mean + dot(userFactors, user, itemFactors, item, numFactors);
+    }
+
+    // RMSE on the ratings of another matrix over the same users and anime (e.g. a test split)
+    public double rmse(Rating_Matrix test) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(getNumThreads());
+        try {
+            double squares = parallel(pool, test.numUsers(), (from, to) -> squaredError(test, from, to));
+            return Math.sqrt(squares / Math.max(1, test.numRatings()));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // RMSE of always predicting the training mean
+    public double meanRmse(Rating_Matrix test) {
+        double squares = 0;
+        for (int u = 0; u < test.numUsers(); u++) {
+            for (int j = test.rowStart(u); j < test.rowEnd(u); j++) {
+                double error = test.rowRating(j) - mean;
+                squares += error * error;
+            }
+        }
+        return Math.sqrt(squares / Math.max(1, test.numRatings()));
+    }
+
+    // The n anime with the highest predicted rating that user has not rated, best first
+    public int[] recommend(int user, int n) {
+        return recommend(user, n, new double[n]);
+    }
+
+    // As above, with the predicted ratings of the returned anime, clipped to 1-10, in scores
+    public int[] recommend(int user, int n, double[] scores) {
+        if (n <= 0) {
+            return new int[0];
+        }
+        int[] best = new int[n];
+        int size = 0;
+        int j = matrix.rowStart(user);
+        int end = matrix.rowEnd(user);
+        for (int item = 0; item < matrix.numItems(); item++) {
+            while (j < end && matrix.rowItem(j) < item) {
+                j++;
+            }
+            if (j < end && matrix.rowItem(j) == item) {
+                continue;
+            }
+            double score = predict(user, item);
+            if (size == n && score <= scores[size - 1]) {
+                continue;
+            }
+            // Insert into the sorted list; ties keep the lower anime index first
+            int position = size < n ? size++ : n - 1;
+            while (position > 0 && scores[position - 1] < score) {
+                scores[position] = scores[position - 1];
+                best[position] = best[position - 1];
+                position--;
+            }
+            scores[position] = score;
+            best[position] = item;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            scores[rank] = Math.max(MIN_RATING, Math.min(MAX_RATING, scores[rank]));
+        }
+        return size == n ? best : Arrays.copyOf(best, size);
+    }
+
+    // Writes user_id,rank,anime_id,score for the top n of every user, in user order
+    public void writeRecommendations(OutputStream out, int n) throws Exception {
+        out.write("user_id,rank,anime_id,score\n".getBytes(StandardCharsets.UTF_8));
+        ExecutorService pool = Executors.newFixedThreadPool(getNumThreads());
+        try {
+            List<Future<byte[]>> chunks = new ArrayList<Future<byte[]>>();
+            for (int from = 0; from < matrix.numUsers(); from += CHUNK_ROWS) {
+                final int start = from;
+                final int stop = Math.min(matrix.numUsers(), from + CHUNK_ROWS);
+                chunks.add(pool.submit(() -> {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    StringBuilder line = new StringBuilder();
+                    double[] scores = new double[n];
+                    for (int user = start; user < stop; user++) {
+                        int[] best = recommend(user, n, scores);
+                        for (int rank = 0; rank < best.length; rank++) {
+                            line.setLength(0);
+                            line.append(matrix.userId(user)).append(',').append(rank + 1).append(',')
+                                    .append(matrix.itemId(best[rank])).append(',')
+                                    .append(String.format("%.4f", scores[rank])).append('\n');
+                            bytes.write(line.toString().getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                    return bytes.toByteArray();
+                }));
+            }
+            for (Future<byte[]> chunk : chunks) {
+                out.write(get(chunk));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private double solveUsers(int from, int to) {
+        int k = numFactors;
+        double[] a = new double[k * k];
+        double[] b = new double[k];
+        for (int user = from; user < to; user++) {
+            int start = matrix.rowStart(user);
+            int end = matrix.rowEnd(user);
+            Arrays.fill(a, 0);
+            Arrays.fill(b, 0);
+            for (int j = start; j < end; j++) {
+                accumulate(a, b, itemFactors, matrix.rowItem(j) * k, matrix.rowRating(j) - mean, k);
+            }
+            solve(a, b, lambda * (end - start), k, userFactors, user * k);
+        }
+        return 0;
+    }
+
+    private double solveItems(int from, int to) {
+        int k = numFactors;
+        double[] a = new double[k * k];
+        double[] b = new double[k];
+        for (int item = from; item < to; item++) {
+            int start = matrix.colStart(item);
+            int end = matrix.colEnd(item);
+            Arrays.fill(a, 0);
+            Arrays.fill(b, 0);
+            for (int j = start; j < end; j++) {
+                accumulate(a, b, userFactors, matrix.colUser(j) * k, matrix.colRating(j) - mean, k);
+            }
+            solve(a, b, lambda * (end - start), k, itemFactors, item * k);
+        }
+        return 0;
+    }
+
+    private double squaredError(Rating_Matrix ratings, int from, int to) {
+        double squares = 0;
+        for (int user = from; user < to; user++) {
+            for (int j = ratings.rowStart(user); j < ratings.rowEnd(user); j++) {
+                double error = ratings.rowRating(j) - predict(user, ratings.rowItem(j));
+                squares += error * error;
+            }
+        }
+        return squares;
+    }
+
+    // Adds y y' to the lower triangle of a and r y to b
+    private static void accumulate(double[] a, double[] b, double[] factors, int offset, double r, int k) {
+        for (int p = 0; p < k; p++) {
+            double y = factors[offset + p];
+            b[p] += r * y;
+            int row = p * k;
+            for (int q = 0; q <= p; q++) {
+                a[row + q] += y * factors[offset + q];
+            }
+        }
+    }
+
+    // Solves (a + ridge I) x = b by Cholesky on the lower triangle of a; no ratings give x = 0
+    private static void solve(double[] a, double[] b, double ridge, int k, double[] x, int offset) {
+        if (ridge <= 0) {
+            Arrays.fill(x, offset, offset + k, 0);
+            return;
+        }
+        for (int p = 0; p < k; p++) {
+            a[p * k + p] += ridge;
+        }
+        for (int p = 0; p < k; p++) {
+            for (int q = 0; q <= p; q++) {
+                double s = a[p * k + q];
+                for (int m = 0; m < q; m++) {
+                    s -= a[p * k + m] * a[q * k + m];
+                }
+                a[p * k + q] = p == q ? Math.sqrt(s) : s / a[q * k + q];
+            }
+        }
+        // L y = b, then L' x = y
+        for (int p = 0; p < k; p++) {
+            double s = b[p];
+            for (int m = 0; m < p; m++) {
+                s -= a[p * k + m] * b[m];
+            }
+            b[p] = s / a[p * k + p];
+        }
+        for (int p = k - 1; p >= 0; p--) {
+            double s = b[p];
+            for (int m = p + 1; m < k; m++) {
+                s -= a[m * k + p] * b[m];
+            }
+            b[p] = s / a[p * k + p];
+        }
+        System.arraycopy(b, 0, x, offset, k);
+    }
+
+    private static double dot(double[] a, int i, double[] b, int j, int k) {
+        double sum = 0;
+        int offsetA = i * k;
+        int offsetB = j * k;
+        for (int p = 0; p < k; p++) {
+            sum += a[offsetA + p] * b[offsetB + p];
+        }
+        return sum;
+    }
+
+    // Runs rows in chunks on pool; partial sums are added in chunk order
+    private static double parallel(ExecutorService pool, int numRows, Rows rows) throws Exception {
+        List<Future<Double>> chunks = new ArrayList<Future<Double>>();
+        for (int from = 0; from < numRows; from += CHUNK_ROWS) {
+            final int start = from;
+            final int stop = Math.min(numRows, from + CHUNK_ROWS);
+            chunks.add(pool.submit(() -> rows.run(start, stop)));
+        }
+        double sum = 0;
+        for (Future<Double> chunk : chunks) {
+            sum += get(chunk);
+        }
+        return sum;
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // anime_id -> name from anime.csv, or an empty map if it cannot be read
+    private static Map<Integer, String> animeNames(String animeCsv) {
+        Map<Integer, String> names = new HashMap<Integer, String>();
+        try (Csv_Reader reader = new Csv_Reader(animeCsv)) {
+            reader.next();
+            String[] record;
+            while ((record = reader.next()) != null) {
+                if (record.length > 1) {
+                    try {
+                        names.put(Integer.parseInt(record[0].trim()), record[1]);
+                    } catch (NumberFormatException e) {
+                        // Not a data row
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read " + animeCsv + ": " + e.getMessage());
+        }
+        return names;
+    }
+
+    public static void main(String[] args) {
+        try {
+            String ratingCsv = "../../dataset/raw/rating.csv";
+            String animeCsv = "../../dataset/raw/anime.csv";
+            String outputPath = null;
+            String savePath = null;
+            String loadPath = null;
+            double testFraction = 0.1;
+            int top = 10;
+            List<Integer> userIds = new ArrayList<Integer>();
+            ALS_Recommender recommender = new ALS_Recommender();
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-ratings") && i + 1 < args.length) {
+                    ratingCsv = args[++i];
+                } else if (args[i].equals("-anime") && i + 1 < args.length) {
+                    animeCsv = args[++i];
+                } else if (args[i].equals("-k") && i + 1 < args.length) {
+                    recommender.setNumFactors(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-lambda") && i + 1 < args.length) {
+                    recommender.setLambda(Double.parseDouble(args[++i]));
+                } else if (args[i].equals("-iterations") && i + 1 < args.length) {
+                    recommender.setNumIterations(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    recommender.setNumThreads(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-test") && i + 1 < args.length) {
+                    testFraction = Double.parseDouble(args[++i]);
+                } else if (args[i].equals("-seed") && i + 1 < args.length) {
+                    recommender.setSeed(Long.parseLong(args[++i]));
+                } else if (args[i].equals("-top") && i + 1 < args.length) {
+                    top = Integer.parseInt(args[++i]);
+                    if (top < 1) {
+                        System.err.println("-top must be at least 1");
+                        System.exit(1);
+                    }
+                } else if (args[i].equals("-user") && i + 1 < args.length) {
+                    userIds.add(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-o") && i + 1 < args.length) {
+                    outputPath = args[++i];
+                } else if (args[i].equals("-save") && i + 1 < args.length) {
+                    savePath = args[++i];
+                } else if (args[i].equals("-load") && i + 1 < args.length) {
+                    loadPath = args[++i];
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+            PrintStream out = System.out;
+
+            if (loadPath != null) {
+                int numThreads = recommender.getNumThreads();
+                long startTime = System.currentTimeMillis();
+                recommender = (ALS_Recommender) SerializationHelper.read(loadPath);
+                recommender.setNumThreads(numThreads);
+                out.println("Time taken to load model: "
+                        + String.format("%.2f", (System.currentTimeMillis() - startTime) / 1000.0)
+                        + " seconds");
+                out.println();
+            } else {
+                // Load the ratings
+                long startTime = System.currentTimeMillis();
+                Rating_Matrix matrix = Rating_Matrix.load(ratingCsv, recommender.getNumThreads());
+                Rating_Matrix.printSummary(matrix, System.currentTimeMillis() - startTime, out);
+
+                Rating_Matrix train = matrix;
+                Rating_Matrix test = null;
+                if (testFraction > 0) {
+                    Rating_Matrix[] split = matrix.split(testFraction, recommender.seed);
+                    train = split[0];
+                    test = split[1];
+                }
+                matrix = null;
+
+                // Train
+                out.println("=== ALS (k=" + recommender.numFactors + ", lambda=" + recommender.lambda + ", "
+                        + recommender.numIterations + " iterations, " + recommender.getNumThreads() + " threads) ===");
+                out.println();
+                startTime = System.currentTimeMillis();
+                recommender.build(train);
+                long endTime = System.currentTimeMillis();
+                double[] trainRmse = recommender.getTrainRmse();
+                for (int i = 0; i < trainRmse.length; i++) {
+                    out.println("Iteration " + (i + 1) + ": training RMSE "
+                            + String.format("%.4f", trainRmse[i]));
+                }
+                out.println("Time taken to build model: "
+                        + String.format("%.2f", (endTime - startTime) / 1000.0) + " seconds");
+                if (test != null) {
+                    out.println("Test RMSE:    " + String.format("%.4f", recommender.rmse(test))
+                            + " on " + test.numRatings() + " held-out ratings (global mean "
+                            + String.format("%.4f", recommender.meanRmse(test)) + ")");
+                }
+                out.println();
+
+                if (savePath != null) {
+                    SerializationHelper.write(savePath, recommender);
+                }
+            }
+
+            // Top-N for the requested users
+            Rating_Matrix matrix = recommender.getMatrix();
+            Map<Integer, String> names = userIds.isEmpty() ? new HashMap<Integer, String>() : animeNames(animeCsv);
+            for (int userId : userIds) {
+                int user = matrix.userIndex(userId);
+                out.println("=== Top " + top + " for user " + userId + " ===");
+                out.println();
+                if (user < 0) {
+                    out.println("User " + userId + " has no ratings");
+                    out.println();
+                    continue;
+                }
+                double[] scores = new double[top];
+                long startTime = System.nanoTime();
+                int[] best = recommender.recommend(user, top, scores);
+                long endTime = System.nanoTime();
+                for (int rank = 0; rank < best.length; rank++) {
+                    int animeId = matrix.itemId(best[rank]);
+                    out.println(String.format("%3d. %6.3f", rank + 1, scores[rank]) + "  "
+                            + names.getOrDefault(animeId, "?") + " (" + animeId + ")");
+                }
+                out.println("(" + (matrix.rowEnd(user) - matrix.rowStart(user)) + " rated, scored in "
+                        + String.format("%.3f", (endTime - startTime) / 1e6) + " ms)");
+                out.println();
+            }
+
+            if (outputPath != null) {
+                long startTime = System.currentTimeMillis();
+                try (OutputStream file = new BufferedOutputStream(new FileOutputStream(outputPath), 1 << 16)) {
+                    recommender.writeRecommendations(file, top);
+                }
+                out.println("Top " + top + " of " + matrix.numUsers() + " users written to " + outputPath + " in "
+                        + String.format("%.2f", (System.currentTimeMillis() - startTime) / 1000.0)
+                        + " seconds");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+// Java port of the anime-side cleaning in pre-processing-initial.ipynb.
+// Reads the raw anime.csv and keeps, per anime_id, the encoded values of the
+// columns that end up in combined-cleaned.arff.
+public class Anime_Encoder {
+
+    // Attributes of combined_data that come from the anime table
+    public static final String[] ATTRIBUTES = { "genre_encoded", "members_encoded", "anime_rating_encoded", "type",
+            "episodes_encoded" };
+
+    // The merged table goes through dropna(): ratings of unknown anime are dropped
+    public static final boolean DROP_UNMATCHED = true;
+
+    private final Map<Integer, String[]> encoded = new LinkedHashMap<Integer, String[]>();
+
+    public Anime_Encoder(String animeCsv) throws Exception {
+        List<String[]> rows = new ArrayList<String[]>();
+        int[] columns;
+        try (Csv_Reader reader = new Csv_Reader(animeCsv)) {
+            columns = columnIndices(reader.next(), "anime_id", "genre", "type", "episodes", "rating", "members");
+            String[] row;
+            while ((row = reader.next()) != null) {
+                rows.add(row);
+            }
+        }
+
+        // Episodes and rating: 'Unknown' and blanks are filled with the median
+        double[] episodeValues = new double[rows.size()];
+        double[] ratingValues = new double[rows.size()];
+        int numEpisodes = 0;
+        int numRatings = 0;
+        for (String[] row : rows) {
+            double episodes = parseDouble(field(row, columns[3]));
+            double rating = parseDouble(field(row, columns[4]));
+            if (!Double.isNaN(episodes)) {
+                episodeValues[numEpisodes++] = episodes;
+            }
+            if (!Double.isNaN(rating)) {
+                ratingValues[numRatings++] = rating;
+            }
+        }
+        double medianEpisodes = median(episodeValues, numEpisodes);
+        double medianRating = median(ratingValues, numRatings);
+
+        for (String[] row : rows) {
+            int animeId = Integer.parseInt(field(row, columns[0]));
+            String genre = field(row, columns[1]);
+            String type = field(row, columns[2]);
+            double episodes = parseDouble(field(row, columns[3]));
+            double rating = parseDouble(field(row, columns[4]));
+            double members = parseDouble(field(row, columns[5]));
+
+            type = type.isEmpty() ? "Unknown" : type;
+            encoded.put(animeId, new String[] {
+                    encodeGenre(genre.isEmpty() ? "Unknown" : genre),
+                    encodeMembers(Double.isNaN(members) ? 0 : members),
+                    encodeRating(Double.isNaN(rating) ? medianRating : rating),
+                    type,
+                    encodeEpisodes(type, Double.isNaN(episodes) ? medianEpisodes : episodes) });
+        }
+    }
+
+    // Encoded values in ATTRIBUTES order, or null when the anime is unknown
+    public String[] lookup(int animeId) {
+        return encoded.get(animeId);
+    }
+
+    // Distinct encoded values of one ATTRIBUTES column, in anime.csv order
+    public List<String> values(int column) {
+        LinkedHashSet<String> values = new LinkedHashSet<String>();
+        for (String[] row : encoded.values()) {
+            if (row[column] != null) {
+                values.add(row[column]);
+            }
+        }
+        return new ArrayList<String>(values);
+    }
+
+    public int size() {
+        return encoded.size();
+    }
+
+    // 1. User Rating: -1 means "watched but not rated"
+    public static String encodeUserRating(int rating) {
+        if (rating == -1) return "No_Rating";
+        else if (rating < 6) return "Low";
+        else if (rating < 8) return "Average";
+        else return "High";
+    }
+
+    // 1. Genre: Take only the first genre
+    public static String encodeGenre(String genre) {
+        int comma = genre.indexOf(',');
+        return (comma < 0 ? genre : genre.substring(0, comma)).trim();
+    }
+
+    // 3. Episodes: rule-based binning, movies and specials first
+    public static String encodeEpisodes(String type, double episodes) {
+        if (type.equals("Movie") || type.equals("Special") || type.equals("OVA") || type.equals("ONA")
+                || type.equals("Music")) {
+            return "Movie/Special";
+        }
+        if (episodes <= 13) return "Short_Series";
+        else if (episodes <= 26) return "Medium_Series";
+        else if (episodes <= 100) return "Long_Series";
+        else return "Very_Long_Series";
+    }
+
+    // 4. Anime Rating: Simple Binning
+    public static String encodeRating(double rating) {
+        if (rating < 6.0) return "Low";
+        else if (rating < 8.0) return "Average";
+        else return "High";
+    }
+
+    // 5. Members: Simple Binning
+    public static String encodeMembers(double members) {
+        if (members < 10000) return "Low";
+        else if (members < 100000) return "Medium";
+        else return "High";
+    }
+
+    static int[] columnIndices(String[] header, String... names) throws Exception {
+        int[] indices = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indices[i] = Arrays.asList(header).indexOf(names[i]);
+            if (indices[i] < 0) {
+                throw new Exception("Column '" + names[i] + "' not found in " + Arrays.toString(header));
+            }
+        }
+        return indices;
+    }
+
+    private static String field(String[] row, int index) {
+        return index < row.length ? row[index].trim() : "";
+    }
+
+    // Unparsable values ('Unknown') become NaN
+    private static double parseDouble(String value) {
+        try {
+            return value.isEmpty() ? Double.NaN : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double median(double[] values, int count) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return count % 2 == 1 ? sorted[count / 2] : (sorted[count / 2 - 1] + sorted[count / 2]) / 2.0;
+    }
+}
@@ -1,43 +1,52 @@
 import weka.associations.Apriori;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
 import weka.core.Utils;
 
+import java.io.PrintStream;
+
 public class Apriori_Classification {
     public static void main(String[] args) {
         try {
             // Load data
-            DataSource source = new DataSource("../../dataset/initial/combined-cleaned.arff");
-            Instances data = source.getDataSet();
-
-            // No class index for Apriori (or -c -1 handles it)
-            // data.setClassIndex(data.numAttributes() - 1); // Do not set
+            Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+            run(data, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Initialize Apriori with options
-            Apriori associator = new Apriori();
-            String options = "-N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1 -S -1.0 -c -1";
-            associator.setOptions(Utils.splitOptions(options));
+    // Runs the scheme on data and prints the report to out
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // No class index for Apriori (or -c -1 handles it)
+        // data.setClassIndex(data.numAttributes() - 1); // Do not set
 
-            // 1. Build associator on full training set
-            associator.buildAssociations(data);
+        // Initialize Apriori with options
+        Apriori associator = new Apriori();
+        String options = "-N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1 -S -1.0 -c -1";
+        associator.setOptions(Utils.splitOptions(options));
 
-            // Print Run Information
-            System.out.println("=== Run information ===");
-            System.out.println();
-            String scheme = associator.getClass().getName() + " " + Utils.joinOptions(associator.getOptions());
-            System.out.println("Scheme:       " + scheme);
-            System.out.println("Relation:     " + data.relationName());
-            System.out.println("Instances:    " + data.numInstances());
-            System.out.println("Attributes:   " + data.numAttributes());
-            for (int i = 0; i < data.numAttributes(); i++) {
-                System.out.println("              " + data.attribute(i).name());
-            }
-            System.out.println("=== Associator model (full training set) ===");
-            System.out.println();
-            System.out.println(associator.toString());
+        // 1. Build associator on full training set, or load it from the store (keyed by
+        // scheme, options and data, see Model_Store)
+        Apriori model = Phase_Metrics.time("build",
+                () -> Model_Store.getOrBuild(associator.getClass().getName(),
+                        Utils.joinOptions(associator.getOptions()), data, () -> {
+                            associator.buildAssociations(data);
+                            return associator;
+                        }).get());
 
-        } catch (Exception e) {
-            e.printStackTrace();
+        // Print Run Information
+        out.println("=== Run information ===");
+        out.println();
+        String scheme = associator.getClass().getName() + " " + Utils.joinOptions(associator.getOptions());
+        out.println("Scheme:       " + scheme);
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
         }
+        out.println("=== Associator model (full training set) ===");
+        out.println();
+        Phase_Metrics.run("report", () -> out.println(model.toString()));
     }
 }
@@ -0,0 +1,495 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.clusterers.AbstractClusterer;
+import weka.clusterers.Clusterer;
+import weka.clusterers.SimpleKMeans;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Usage: java Batch_Scorer [-scheme J48|Naive_Bayes|K_Means] [-input <combined.arff|combined.bin>]
+//                          [-o <scores.bin|scores.csv>] [-t <threads>] [-chunk <rows>] [-check]
+//
+// Applies a trained model to every row of a combined table and writes one prediction
+// (J48, Naive_Bayes) or cluster (K_Means) per row, in row order. The model is the one the
+// matching *_Classification driver builds on combined-cleaned.arff: it is loaded from
+// Model_Store when the driver has stored it, and built and stored otherwise. The input
+// defaults to combined-cleaned.arff itself; for nightly scoring of every rating, write the
+// full table with "Preprocessing_Pipeline -header combined-cleaned.arff -o combined-full.bin"
+// and pass that. Its header must match the training data.
+//
+// The input is memory-mapped through Binary_Dataset_Cache (an ARFF gets its .bin cache)
+// and read in chunks of -chunk rows (default 65536). Each chunk is read, scored and
+// written by one task on -t threads, and at most two chunks per thread are in flight, so
+// memory does not grow with the table. J48 scores through Compiled_J48; Naive Bayes and
+// K-Means through a copy of the model per thread, since SimpleKMeans filters each row.
+//
+// A .bin output is memory-mapped as well and every chunk writes its own slice of it, so
+// order needs no coordination. Layout (big-endian): int magic, int version, long numRows,
+// int numLabels, numLabels UTF strings (the class labels or cluster numbers), then one
+// byte per row holding the label index (-1 = none). Any other -o is CSV with a header
+// line and one label per row, written chunk by chunk in order.
+//
+// -check scores every row again one at a time with the model itself and compares it with
+// the output file as written.
+public class Batch_Scorer {
+
+    static final int MAGIC = 0x53434F52;
+    static final int VERSION = 1;
+
+    // Scores the first numRows rows of a chunk stored column by column into out
+    interface Scorer {
+        void score(double[][] columns, int numRows, byte[] out) throws Exception;
+    }
+
+    // The scored rows of one chunk and how often each label was given
+    private static final class Chunk {
+        int from;
+        byte[] codes;
+        int numRows;
+        long[] counts;
+        byte[] text;
+    }
+
+    private final Instances header;
+    private final String[] labels;
+    private final ThreadLocal<Scorer> scorers;
+    private final Object model;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int chunkRows = 1 << 16;
+
+    public Batch_Scorer(J48 j48, Instances header) throws Exception {
+        this.header = new Instances(header, 0);
+        this.labels = classLabels(header);
+        this.model = j48;
+        Compiled_J48 compiled = Compiled_J48.compile(j48);
+        this.scorers = ThreadLocal.withInitial(() -> (columns, numRows, out) -> {
+            double[] predictions = new double[numRows];
+            compiled.classify(columns, 0, numRows, predictions);
+            for (int i = 0; i < numRows; i++) {
+                out[i] = Utils.isMissingValue(predictions[i]) ? -1 : (byte) predictions[i];
+            }
+        });
+    }
+
+    public Batch_Scorer(Classifier classifier, Instances header) throws Exception {
+        this.header = new Instances(header, 0);
+        this.labels = classLabels(header);
+        this.model = classifier;
+        this.scorers = ThreadLocal.withInitial(() -> {
+            try {
+                Classifier copy = AbstractClassifier.makeCopy(classifier);
+                return rowScorer(this.header, row -> copy.classifyInstance(row));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public Batch_Scorer(Clusterer clusterer, Instances header) throws Exception {
+        this.header = new Instances(header, 0);
+        this.labels = new String[clusterer.numberOfClusters()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = Integer.toString(i);
+        }
+        this.model = clusterer;
+        this.scorers = ThreadLocal.withInitial(() -> {
+            try {
+                Clusterer copy = AbstractClusterer.makeCopy(clusterer);
+                return rowScorer(this.header, row -> copy.clusterInstance(row));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    // A row-at-a-time model call
+    private interface Row_Model {
+        double apply(Instance row) throws Exception;
+    }
+
+    // A DenseInstance whose values are overwritten in place, without the copy that
+    // setValue() makes of the whole array on every call
+    private static final class Reused_Instance extends DenseInstance {
+        private static final long serialVersionUID = 1L;
+
+        Reused_Instance(Instances dataset) {
+            super(dataset.numAttributes());
+            setDataset(dataset);
+        }
+
+        void set(int attIndex, double value) {
+            m_AttValues[attIndex] = value;
+        }
+    }
+
+    // Scores a chunk through one reused Instance
+    private static Scorer rowScorer(Instances header, Row_Model model) {
+        Reused_Instance row = new Reused_Instance(header);
+        return (columns, numRows, out) -> {
+            for (int i = 0; i < numRows; i++) {
+                for (int j = 0; j < columns.length; j++) {
+                    row.set(j, columns[j][i]);
+                }
+                double prediction = model.apply(row);
+                out[i] = Utils.isMissingValue(prediction) ? -1 : (byte) prediction;
+            }
+        };
+    }
+
+    private static String[] classLabels(Instances header) throws Exception {
+        Attribute classAttribute = header.classAttribute();
+        if (!classAttribute.isNominal() || classAttribute.numValues() > Byte.MAX_VALUE) {
+            throw new Exception("Class '" + classAttribute.name() + "' must be nominal with at most "
+                    + Byte.MAX_VALUE + " values");
+        }
+        String[] labels = new String[classAttribute.numValues()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = classAttribute.value(i);
+        }
+        return labels;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public void setChunkRows(int chunkRows) {
+        this.chunkRows = chunkRows;
+    }
+
+    public String[] labels() {
+        return labels.clone();
+    }
+
+    // Scores every row of input into outputPath (.bin or CSV); returns how often each label was given
+    public long[] score(Binary_Dataset_Cache input, String outputPath) throws Exception {
+        checkHeader(input);
+        int numRows = input.numRows();
+        boolean binary = outputPath.endsWith(".bin");
+        long[] counts = new long[labels.length + 1];
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(headerBytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(numRows);
+            out.writeInt(labels.length);
+            for (String label : labels) {
+                out.writeUTF(label);
+            }
+        }
+        long dataOffset = headerBytes.size();
+        if (binary && dataOffset + numRows > Integer.MAX_VALUE) {
+            throw new Exception(numRows + " rows do not fit in one mapped .bin output; write CSV instead");
+        }
+
+        File target = new File(outputPath);
+        if (target.getParentFile() != null) {
+            target.getParentFile().mkdirs();
+        }
+        FileChannel channel = null;
+        MappedByteBuffer mapped = null;
+        OutputStream text = null;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+        try {
+            if (binary) {
+                channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset + numRows);
+                mapped.put(headerBytes.toByteArray());
+            } else {
+                text = new BufferedOutputStream(new FileOutputStream(target), 1 << 16);
+                text.write((header.classIndex() >= 0 ? "predicted_" + header.classAttribute().name() : "cluster")
+                        .getBytes(StandardCharsets.UTF_8));
+                text.write('\n');
+            }
+
+            final ByteBuffer slices = mapped;
+            for (int from = 0; from < numRows; from += chunkRows) {
+                final int start = from;
+                final int stop = Math.min(numRows, from + chunkRows);
+                inFlight.add(pool.submit(() -> {
+                    Chunk chunk = scoreChunk(input, start, stop);
+                    if (slices != null) {
+                        // Chunks write disjoint slices, each through its own view of the buffer
+                        ByteBuffer slice = slices.duplicate();
+                        slice.position((int) dataOffset + start);
+                        slice.put(chunk.codes, 0, chunk.numRows);
+                    } else {
+                        chunk.text = format(chunk);
+                    }
+                    return chunk;
+                }));
+                while (inFlight.size() >= 2 * numThreads) {
+                    accept(get(inFlight.poll()), text, counts);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                accept(get(inFlight.poll()), text, counts);
+            }
+            if (mapped != null) {
+                mapped.force();
+            }
+        } finally {
+            pool.shutdownNow();
+            if (text != null) {
+                text.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return counts;
+    }
+
+    private void checkHeader(Binary_Dataset_Cache input) throws Exception {
+        Instances inputHeader = input.header();
+        inputHeader.setClassIndex(header.classIndex());
+        String message = header.equalHeadersMsg(inputHeader);
+        if (message != null) {
+            throw new Exception("Input does not match the training data: " + message);
+        }
+    }
+
+    private Chunk scoreChunk(Binary_Dataset_Cache input, int from, int to) throws Exception {
+        Chunk chunk = new Chunk();
+        chunk.from = from;
+        chunk.numRows = to - from;
+        double[][] columns = new double[input.numAttributes()][to - from];
+        for (int j = 0; j < columns.length; j++) {
+            input.values(j, from, to, columns[j]);
+        }
+        chunk.codes = new byte[chunk.numRows];
+        scorers.get().score(columns, chunk.numRows, chunk.codes);
+        chunk.counts = new long[labels.length + 1];
+        for (int i = 0; i < chunk.numRows; i++) {
+            chunk.counts[chunk.codes[i] + 1]++;
+        }
+        return chunk;
+    }
+
+    private byte[] format(Chunk chunk) {
+        byte[][] spelled = new byte[labels.length + 1][];
+        spelled[0] = "?\n".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < labels.length; i++) {
+            spelled[i + 1] = (Utils.quote(labels[i]) + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.numRows * 4);
+        for (int i = 0; i < chunk.numRows; i++) {
+            out.write(spelled[chunk.codes[i] + 1], 0, spelled[chunk.codes[i] + 1].length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void accept(Chunk chunk, OutputStream text, long[] counts) throws IOException {
+        if (text != null) {
+            text.write(chunk.text);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += chunk.counts[i];
+        }
+    }
+
+    // Scores every row again with the model itself, one at a time, and compares it with the
+    // output file; returns the number of rows that differ
+    public long check(Binary_Dataset_Cache input, String outputPath) throws Exception {
+        byte[] written = readOutput(outputPath, input.numRows());
+        Reused_Instance row = new Reused_Instance(new Instances(header, 0));
+        double[][] columns = new double[input.numAttributes()][];
+        long differences = 0;
+        for (int from = 0; from < input.numRows(); from += chunkRows) {
+            int to = Math.min(input.numRows(), from + chunkRows);
+            for (int j = 0; j < columns.length; j++) {
+                columns[j] = new double[to - from];
+                input.values(j, from, to, columns[j]);
+            }
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < columns.length; j++) {
+                    row.set(j, columns[j][i - from]);
+                }
+                double expected = model instanceof Classifier ? ((Classifier) model).classifyInstance(row)
+                        : ((Clusterer) model).clusterInstance(row);
+                if ((Utils.isMissingValue(expected) ? -1 : (int) expected) != written[i]) {
+                    differences++;
+                }
+            }
+        }
+        return differences;
+    }
+
+    // The label index of every row of a .bin or CSV output
+    private byte[] readOutput(String outputPath, int numRows) throws Exception {
+        byte[] codes = new byte[numRows];
+        if (outputPath.endsWith(".bin")) {
+            try (FileChannel channel = FileChannel.open(new File(outputPath).toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != numRows) {
+                    throw new IOException(outputPath + " is not a score file for " + numRows + " rows");
+                }
+                int numLabels = buffer.getInt();
+                for (int i = 0; i < numLabels; i++) {
+                    buffer.position(buffer.position() + 2 + buffer.getShort(buffer.position()));
+                }
+                buffer.get(codes);
+            }
+            return codes;
+        }
+        List<String> quoted = new ArrayList<String>();
+        for (String label : labels) {
+            quoted.add(Utils.quote(label));
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(outputPath), StandardCharsets.UTF_8), 1 << 16)) {
+            reader.readLine();
+            for (int i = 0; i < numRows; i++) {
+                String line = reader.readLine();
+                if (line == null) {
+                    throw new IOException(outputPath + " has " + i + " rows instead of " + numRows);
+                }
+                codes[i] = (byte) quoted.indexOf(line);
+            }
+        }
+        return codes;
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            String scheme = "J48";
+            String trainArff = "../../dataset/initial/combined-cleaned.arff";
+            String inputPath = trainArff;
+            String outputPath = null;
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            int chunkRows = 1 << 16;
+            boolean check = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-scheme") && i + 1 < args.length) {
+                    scheme = args[++i];
+                } else if (args[i].equals("-input") && i + 1 < args.length) {
+                    inputPath = args[++i];
+                } else if (args[i].equals("-o") && i + 1 < args.length) {
+                    outputPath = args[++i];
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-chunk") && i + 1 < args.length) {
+                    chunkRows = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-check")) {
+                    check = true;
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+            if (outputPath == null) {
+                outputPath = "../../results/initial/Scores_" + scheme + ".bin";
+            }
+
+            // The driver's model, stored under the same scheme, options and data
+            long startTime = System.currentTimeMillis();
+            Instances train = Binary_Dataset_Cache.load(trainArff);
+            Batch_Scorer scorer;
+            Model_Store.Entry<?> model;
+            if (scheme.equals("J48") || scheme.equals("Naive_Bayes")) {
+                train.setClassIndex(train.numAttributes() - 1);
+                Model_Store.Entry<Classifier> entry = Scoring_Server.trainedModel(scheme, train);
+                model = entry;
+                scorer = entry.get() instanceof J48 ? new Batch_Scorer((J48) entry.get(), train)
+                        : new Batch_Scorer(entry.get(), train);
+            } else if (scheme.equals("K_Means")) {
+                train.setClassIndex(-1);
+                SimpleKMeans clusterer = new SimpleKMeans();
+                clusterer.setOptions(Utils.splitOptions(
+                        "-init 0 -max-candidates 100 -periodic-pruning 10000 -min-density 2.0 -t1 -1.25 -t2 -1.0 -N 2 -A \"weka.core.EuclideanDistance -R first-last\" -I 500 -num-slots 1 -S 10"));
+                Model_Store.Entry<SimpleKMeans> entry = Model_Store.getOrBuild(clusterer.getClass().getName(),
+                        Utils.joinOptions(clusterer.getOptions()), train, () -> {
+                            clusterer.buildClusterer(train);
+                            return clusterer;
+                        });
+                model = entry;
+                scorer = new Batch_Scorer(entry.get(), train);
+            } else {
+                System.err.println("Unknown scheme: " + scheme + " (J48, Naive_Bayes or K_Means)");
+                System.exit(1);
+                return;
+            }
+            long modelTime = System.currentTimeMillis();
+            scorer.setNumThreads(numThreads);
+            scorer.setChunkRows(chunkRows);
+
+            // Stream the input through the model
+            Binary_Dataset_Cache input = inputPath.endsWith(".bin") ? Binary_Dataset_Cache.read(inputPath)
+                    : Binary_Dataset_Cache.open(inputPath);
+            long inputTime = System.currentTimeMillis();
+            long[] counts = scorer.score(input, outputPath);
+            long endTime = System.currentTimeMillis();
+
+            System.out.println("Scheme:       " + scheme);
+            System.out.println("Input:        " + inputPath + " (" + input.numRows() + " rows)");
+            System.out.println("Output:       " + outputPath);
+            System.out.println("Time taken to " + model.action() + " model: "
+                    + String.format("%.2f", (modelTime - startTime) / 1000.0) + " seconds");
+            double seconds = (endTime - inputTime) / 1000.0;
+            System.out.println("Time taken to score: " + String.format("%.2f", seconds)
+                    + " seconds (" + String.format("%.0f", input.numRows() / Math.max(seconds, 1e-3))
+                    + " rows/s on " + numThreads + " threads, " + chunkRows + " rows per chunk)");
+            System.out.println();
+            String[] labels = scorer.labels();
+            for (int i = 0; i < labels.length; i++) {
+                System.out.println(String.format("%12d  %s", counts[i + 1], labels[i]));
+            }
+            if (counts[0] > 0) {
+                System.out.println(String.format("%12d  ?", counts[0]));
+            }
+
+            if (check) {
+                long differences = scorer.check(input, outputPath);
+                System.out.println();
+                System.out.println(differences == 0 ? "Check: every row matches the model"
+                        : "Check: " + differences + " rows differ from the model");
+                if (differences > 0) {
+                    System.exit(1);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
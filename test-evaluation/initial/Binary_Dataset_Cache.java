@@ -0,0 +1,414 @@
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+// Column-oriented binary copy of an ARFF file, written once next to the source
+// as "<file>.bin" and memory-mapped on later runs. The cache stores the SHA-256
+// of the ARFF it was built from and is rebuilt whenever the source changes. It also
+// stores the source's size and modification time: while both are unchanged the ARFF
+// is not read at all, otherwise it is hashed and compared.
+//
+// Layout (big-endian):
+//   int magic, int version, byte[32] source hash,
+//   long source size, long source modification time (both 0 for standalone files),
+//   int header length, byte[] ARFF header (UTF-8),
+//   int numRows, int numAttributes, byte hasWeights,
+//   per attribute: byte kind, long offset
+//   column data, then the weight column when hasWeights == 1
+//
+// Nominal columns are stored as one code per row (byte or short, -1 = missing),
+// numeric columns as doubles (NaN = missing). Preprocessing_Pipeline writes standalone
+// files in the same layout with an all-zero hash; read() maps those.
+public class Binary_Dataset_Cache {
+
+    private static final int MAGIC = 0x464C4D43; // "FLMC"
+    private static final int VERSION = 2;
+    static final int HASH_LENGTH = 32;
+    // Magic, version, source hash, size and modification time, header length
+    private static final int PREFIX_LENGTH = 4 + 4 + HASH_LENGTH + 8 + 8 + 4;
+
+    static final byte KIND_BYTE = 0;
+    static final byte KIND_SHORT = 1;
+    static final byte KIND_DOUBLE = 2;
+
+    private final Instances header;
+    private final int numRows;
+    private final byte[] kinds;
+    private final ByteBuffer[] columns;
+    private final ByteBuffer weights;
+
+    private Binary_Dataset_Cache(Instances header, int numRows, byte[] kinds, ByteBuffer[] columns,
+            ByteBuffer weights) {
+        this.header = header;
+        this.numRows = numRows;
+        this.kinds = kinds;
+        this.columns = columns;
+        this.weights = weights;
+    }
+
+    // Drop-in replacement for new DataSource(arffPath).getDataSet()
+    public static Instances load(String arffPath) throws Exception {
+        Instances[] parsed = new Instances[1];
+        Binary_Dataset_Cache cache = open(arffPath, parsed);
+        // When the cache was (re)built, the ARFF has just been parsed: no need to read it again
+        return parsed[0] != null ? parsed[0] : cache.toInstances();
+    }
+
+    // Opens (building if needed) the cache for arffPath. Returns null when the data
+    // cannot be cached (string or relational attributes) or the cache cannot be written.
+    public static Binary_Dataset_Cache open(String arffPath) throws Exception {
+        return open(arffPath, null);
+    }
+
+    // As open(arffPath); when the ARFF has to be parsed, the data is also handed out in parsed[0]
+    private static Binary_Dataset_Cache open(String arffPath, Instances[] parsed) throws Exception {
+        File source = new File(arffPath);
+        File cacheFile = new File(arffPath + ".bin");
+        long size = source.length();
+        long modified = source.lastModified();
+        byte[] hash = null;
+
+        if (cacheFile.isFile()) {
+            Binary_Dataset_Cache cache = map(cacheFile, null, size, modified);
+            if (cache != null) {
+                return cache;
+            }
+            // Touched or copied, but possibly the same content
+            hash = sha256(source);
+            cache = map(cacheFile, hash, -1, -1);
+            if (cache != null) {
+                stamp(cacheFile, size, modified);
+                return cache;
+            }
+        }
+
+        if (hash == null) {
+            hash = sha256(source);
+        }
+        Instances data = new DataSource(arffPath).getDataSet();
+        if (parsed != null) {
+            parsed[0] = data;
+        }
+        if (!isCacheable(data)) {
+            return null;
+        }
+        try {
+            write(data, hash, size, modified, cacheFile);
+        } catch (IOException e) {
+            System.err.println("Could not write dataset cache " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+        return map(cacheFile, hash, -1, -1);
+    }
+
+    // Maps a file in this layout that has no ARFF next to it, such as the output of
+    // Preprocessing_Pipeline, without checking the source hash
+    public static Binary_Dataset_Cache read(String binPath) throws Exception {
+        Binary_Dataset_Cache cache = map(new File(binPath), null, -1, -1);
+        if (cache == null) {
+            throw new IOException(binPath + " is not a dataset cache file");
+        }
+        return cache;
+    }
+
+    public Instances header() {
+        return new Instances(header, 0);
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numAttributes() {
+        return kinds.length;
+    }
+
+    // Nominal codes of one attribute (-1 = missing)
+    public int[] codes(int attIndex) {
+        ByteBuffer column = columns[attIndex].duplicate();
+        int[] codes = new int[numRows];
+        if (kinds[attIndex] == KIND_BYTE) {
+            for (int i = 0; i < numRows; i++) {
+                codes[i] = column.get(i);
+            }
+        } else if (kinds[attIndex] == KIND_SHORT) {
+            for (int i = 0; i < numRows; i++) {
+                codes[i] = column.getShort(i << 1);
+            }
+        } else {
+            throw new IllegalArgumentException(header.attribute(attIndex).name() + " is not nominal");
+        }
+        return codes;
+    }
+
+    // Values of one attribute as Weka stores them (nominal index or number, NaN = missing)
+    public double[] values(int attIndex) {
+        double[] values = new double[numRows];
+        if (kinds[attIndex] == KIND_DOUBLE) {
+            columns[attIndex].duplicate().asDoubleBuffer().get(values);
+        } else {
+            int[] codes = codes(attIndex);
+            for (int i = 0; i < numRows; i++) {
+                values[i] = codes[i] < 0 ? Utils.missingValue() : codes[i];
+            }
+        }
+        return values;
+    }
+
+    // Values of rows [from, to) of one attribute into out[0, to - from), read straight from
+    // the mapped column, so a large file can be processed a chunk of rows at a time
+    public void values(int attIndex, int from, int to, double[] out) {
+        ByteBuffer column = columns[attIndex].duplicate();
+        for (int i = from; i < to; i++) {
+            if (kinds[attIndex] == KIND_DOUBLE) {
+                out[i - from] = column.getDouble(i << 3);
+            } else {
+                int code = kinds[attIndex] == KIND_BYTE ? column.get(i) : column.getShort(i << 1);
+                out[i - from] = code < 0 ? Utils.missingValue() : code;
+            }
+        }
+    }
+
+    public double[] weights() {
+        double[] result = new double[numRows];
+        if (weights == null) {
+            Arrays.fill(result, 1.0);
+        } else {
+            weights.duplicate().asDoubleBuffer().get(result);
+        }
+        return result;
+    }
+
+    public Instances toInstances() {
+        int numAttributes = numAttributes();
+        double[][] columnValues = new double[numAttributes][];
+        for (int j = 0; j < numAttributes; j++) {
+            columnValues[j] = values(j);
+        }
+        double[] rowWeights = weights();
+
+        Instances data = new Instances(header, numRows);
+        for (int i = 0; i < numRows; i++) {
+            double[] row = new double[numAttributes];
+            for (int j = 0; j < numAttributes; j++) {
+                row[j] = columnValues[j][i];
+            }
+            data.add(new DenseInstance(rowWeights[i], row));
+        }
+        return data;
+    }
+
+    private static boolean isCacheable(Instances data) {
+        for (int j = 0; j < data.numAttributes(); j++) {
+            Attribute attribute = data.attribute(j);
+            if (!attribute.isNominal() && !attribute.isNumeric()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte kindOf(Attribute attribute) {
+        if (attribute.isNominal()) {
+            return attribute.numValues() <= Byte.MAX_VALUE ? KIND_BYTE
+                    : attribute.numValues() <= Short.MAX_VALUE ? KIND_SHORT : KIND_DOUBLE;
+        }
+        return KIND_DOUBLE;
+    }
+
+    private static int width(byte kind) {
+        return kind == KIND_BYTE ? 1 : kind == KIND_SHORT ? 2 : 8;
+    }
+
+    private static void write(Instances data, byte[] hash, long sourceSize, long sourceModified, File cacheFile)
+            throws IOException {
+        int numRows = data.numInstances();
+        int numAttributes = data.numAttributes();
+
+        boolean hasWeights = false;
+        for (Instance instance : data) {
+            if (instance.weight() != 1.0) {
+                hasWeights = true;
+                break;
+            }
+        }
+
+        byte[] kinds = new byte[numAttributes];
+        for (int j = 0; j < numAttributes; j++) {
+            kinds[j] = kindOf(data.attribute(j));
+        }
+
+        // Write to a temporary file first so concurrent runs never see half a cache
+        File tmp = new File(cacheFile.getPath() + ".tmp" + Thread.currentThread().getId());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            writeHeader(out, hash, sourceSize, sourceModified, data, numRows, kinds, hasWeights);
+            for (int j = 0; j < numAttributes; j++) {
+                for (int i = 0; i < numRows; i++) {
+                    double value = data.instance(i).value(j);
+                    boolean missing = Utils.isMissingValue(value);
+                    if (kinds[j] == KIND_BYTE) {
+                        out.writeByte(missing ? -1 : (int) value);
+                    } else if (kinds[j] == KIND_SHORT) {
+                        out.writeShort(missing ? -1 : (int) value);
+                    } else {
+                        out.writeDouble(missing ? Double.NaN : value);
+                    }
+                }
+            }
+            if (hasWeights) {
+                for (int i = 0; i < numRows; i++) {
+                    out.writeDouble(data.instance(i).weight());
+                }
+            }
+        }
+        replace(tmp, cacheFile);
+    }
+
+    // Writes everything up to the column data of a standalone file (no source ARFF); the
+    // columns must follow in attribute order
+    static void writeHeader(DataOutputStream out, byte[] hash, Instances header, int numRows, byte[] kinds,
+            boolean hasWeights) throws IOException {
+        writeHeader(out, hash, 0, 0, header, numRows, kinds, hasWeights);
+    }
+
+    private static void writeHeader(DataOutputStream out, byte[] hash, long sourceSize, long sourceModified,
+            Instances header, int numRows, byte[] kinds, boolean hasWeights) throws IOException {
+        int numAttributes = kinds.length;
+        byte[] headerText = new Instances(header, 0).toString().getBytes(StandardCharsets.UTF_8);
+        long offset = PREFIX_LENGTH + headerText.length + 4 + 4 + 1 + numAttributes * (1 + 8);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(hash);
+        out.writeLong(sourceSize);
+        out.writeLong(sourceModified);
+        out.writeInt(headerText.length);
+        out.write(headerText);
+        out.writeInt(numRows);
+        out.writeInt(numAttributes);
+        out.writeByte(hasWeights ? 1 : 0);
+        for (int j = 0; j < numAttributes; j++) {
+            out.writeByte(kinds[j]);
+            out.writeLong(offset);
+            offset += (long) numRows * width(kinds[j]);
+        }
+    }
+
+    static void replace(File tmp, File target) throws IOException {
+        if (!tmp.renameTo(target)) {
+            target.delete();
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("cannot rename " + tmp + " to " + target);
+            }
+        }
+    }
+
+    // Maps an existing cache; returns null when it is stale or unreadable. A null
+    // expectedHash accepts any source hash, and a negative expectedSize any source size
+    // and modification time.
+    private static Binary_Dataset_Cache map(File cacheFile, byte[] expectedHash, long expectedSize,
+            long expectedModified) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+                FileChannel channel = file.getChannel()) {
+            long fileSize = channel.size();
+            if (fileSize < PREFIX_LENGTH) {
+                return null;
+            }
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, PREFIX_LENGTH);
+            byte[] hash = new byte[HASH_LENGTH];
+            if (head.getInt() != MAGIC || head.getInt() != VERSION) {
+                return null;
+            }
+            head.get(hash);
+            if (expectedHash != null && !Arrays.equals(hash, expectedHash)) {
+                return null;
+            }
+            long sourceSize = head.getLong();
+            long sourceModified = head.getLong();
+            // Standalone files (size and time 0) never match a source by its stamp
+            if (expectedSize >= 0 && (sourceModified == 0 || sourceSize != expectedSize
+                    || sourceModified != expectedModified)) {
+                return null;
+            }
+            int headerLength = head.getInt();
+
+            long metaStart = PREFIX_LENGTH;
+            ByteBuffer meta = channel.map(FileChannel.MapMode.READ_ONLY, metaStart,
+                    Math.min(fileSize - metaStart, (long) headerLength + 9));
+            byte[] headerText = new byte[headerLength];
+            meta.get(headerText);
+            int numRows = meta.getInt();
+            int numAttributes = meta.getInt();
+            boolean hasWeights = meta.get() == 1;
+
+            ByteBuffer offsetTable = channel.map(FileChannel.MapMode.READ_ONLY, metaStart + headerLength + 9,
+                    (long) numAttributes * 9);
+            byte[] kinds = new byte[numAttributes];
+            ByteBuffer[] columns = new ByteBuffer[numAttributes];
+            long end = metaStart + headerLength + 9 + (long) numAttributes * 9;
+            for (int j = 0; j < numAttributes; j++) {
+                kinds[j] = offsetTable.get();
+                long offset = offsetTable.getLong();
+                long length = (long) numRows * width(kinds[j]);
+                columns[j] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                end = offset + length;
+            }
+            ByteBuffer weights = hasWeights
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, end, (long) numRows * 8)
+                    : null;
+
+            Instances header = new Instances(new StringReader(new String(headerText, StandardCharsets.UTF_8)));
+            if (header.numAttributes() != numAttributes) {
+                return null;
+            }
+            return new Binary_Dataset_Cache(header, numRows, kinds, columns, weights);
+        } catch (IOException | RuntimeException e) {
+            // Truncated or foreign file: rebuild it
+            return null;
+        }
+    }
+
+    // Records the source's current size and modification time in a cache whose hash still matches
+    private static void stamp(File cacheFile, long sourceSize, long sourceModified) {
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+            file.seek(4 + 4 + HASH_LENGTH);
+            file.writeLong(sourceSize);
+            file.writeLong(sourceModified);
+        } catch (IOException e) {
+            // Read-only cache: the source is hashed again next time
+        }
+    }
+
+    static byte[] sha256(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[1 << 20];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,381 @@
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.BinC45Split;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.Distribution;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+// Usage: java Compiled_J48 [-reps <passes>]
+//
+// A trained J48 tree flattened into parallel arrays, so a prediction is a loop over
+// int/double arrays on a primitive feature vector instead of a walk through
+// ClassifierTree, split model and Distribution objects with an Instance per row.
+//
+// Rows are double[] in attribute order, as Instance.toDoubleArray() returns them
+// (nominal values are label indexes, NaN = missing; the class slot is ignored).
+// classify() returns exactly what J48.classifyInstance() returns: every leaf stores
+// its class probabilities and the class J48 would pick from them, so a row without
+// missing split values costs one comparison per level. A row with a missing split
+// value is spread over the branches by their training weights, with the same
+// arithmetic and the same tie rule as ClassifierTree.getProbs().
+//
+// main() compiles the model J48_Classification builds (via Model_Store), checks
+// every row against classifyInstance() and times both.
+public class Compiled_J48 implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Node kinds
+    private static final byte LEAF = 0;
+    // A branch without training data: answers with the parent's probabilities for that
+    // branch, and is skipped when a missing value spreads a row over the branches
+    private static final byte EMPTY_LEAF = 1;
+    // One branch per label of a nominal attribute
+    private static final byte NOMINAL = 2;
+    // Branch 0 for one label of a nominal attribute, branch 1 for the others (J48 -B)
+    private static final byte NOMINAL_BINARY = 3;
+    // Branch 0 for value <= split, branch 1 above
+    private static final byte NUMERIC = 4;
+
+    private final int numClasses;
+    private final int numNodes;
+    private final int depth;
+    // Per node
+    private final byte[] kind;
+    private final int[] attribute;
+    private final double[] split;
+    private final int[] firstChild;
+    private final int[] numChildren;
+    private final int[] leafClass;
+    // Per child slot (firstChild[node] + branch): child node and its weight for missing values
+    private final int[] child;
+    private final double[] childWeight;
+    // numClasses probabilities per node, for leaves
+    private final double[] probs;
+
+    private Compiled_J48(int numClasses, int numNodes, int numSlots, int depth) {
+        this.numClasses = numClasses;
+        this.numNodes = numNodes;
+        this.depth = depth;
+        this.kind = new byte[numNodes];
+        this.attribute = new int[numNodes];
+        this.split = new double[numNodes];
+        this.firstChild = new int[numNodes];
+        this.numChildren = new int[numNodes];
+        this.leafClass = new int[numNodes];
+        this.child = new int[numSlots];
+        this.childWeight = new double[numSlots];
+        this.probs = new double[numNodes * numClasses];
+    }
+
+    public static void main(String[] args) {
+        try {
+            int reps = 20;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-reps") && i + 1 < args.length) {
+                    reps = Integer.parseInt(args[++i]);
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            // Load data, class = last attribute as in J48_Classification
+            Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+            data.setClassIndex(data.numAttributes() - 1);
+
+            J48 classifier = new J48();
+            classifier.setConfidenceFactor(0.25f); // -C 0.25
+            classifier.setMinNumObj(2); // -M 2
+            long startTime = System.currentTimeMillis();
+            Model_Store.Entry<J48> model = Model_Store.getOrBuild(classifier.getClass().getName(),
+                    Utils.joinOptions(classifier.getOptions()), data, () -> {
+                        classifier.buildClassifier(data);
+                        return classifier;
+                    });
+            long loadTime = System.currentTimeMillis();
+            Compiled_J48 compiled = compile(model.get());
+            long endTime = System.currentTimeMillis();
+            System.out.println("Time taken to " + model.action() + " model: "
+                    + String.format("%.2f", (loadTime - startTime) / 1000.0) + " seconds");
+            System.out.println("Time taken to compile model: "
+                    + String.format("%.2f", (endTime - loadTime) / 1000.0) + " seconds ("
+                    + compiled.numNodes() + " nodes, depth " + compiled.depth() + ")");
+
+            int numRows = data.numInstances();
+            double[][] rows = new double[numRows][];
+            for (int i = 0; i < numRows; i++) {
+                rows[i] = data.instance(i).toDoubleArray();
+            }
+
+            int mismatches = 0;
+            for (int i = 0; i < numRows; i++) {
+                if (compiled.classify(rows[i]) != model.get().classifyInstance(data.instance(i))) {
+                    mismatches++;
+                }
+            }
+            System.out.println(mismatches + " of " + numRows + " predictions differ from classifyInstance()");
+
+            // Both sides twice, so the second timing is after JIT warm-up
+            double[] predictions = new double[numRows];
+            double treeSeconds = 0;
+            double compiledSeconds = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                long start = System.nanoTime();
+                for (int r = 0; r < reps; r++) {
+                    for (int i = 0; i < numRows; i++) {
+                        predictions[i] = model.get().classifyInstance(data.instance(i));
+                    }
+                }
+                treeSeconds = (System.nanoTime() - start) / 1e9;
+                start = System.nanoTime();
+                for (int r = 0; r < reps; r++) {
+                    compiled.classify(rows, predictions);
+                }
+                compiledSeconds = (System.nanoTime() - start) / 1e9;
+            }
+            long scored = (long) reps * numRows;
+            System.out.println("J48.classifyInstance(): " + String.format("%,.0f", scored / treeSeconds)
+                    + " rows/s");
+            System.out.println("Compiled_J48.classify(): " + String.format("%,.0f", scored / compiledSeconds)
+                    + " rows/s (" + String.format("%.1f", treeSeconds / compiledSeconds)
+                    + "x)");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Flattens a built J48 tree. The root and the empty-branch flags are not public in
+    // Weka, so they are read by reflection.
+    public static Compiled_J48 compile(J48 j48) throws Exception {
+        ClassifierTree root = (ClassifierTree) field(J48.class, "m_root").get(j48);
+        if (root == null) {
+            throw new Exception("J48 has not been built");
+        }
+        Field isEmpty = field(ClassifierTree.class, "m_isEmpty");
+        // The training data, or just its header once the tree is cleaned up
+        Instances header = root.getTrainingData();
+        int numClasses = header.numClasses();
+
+        int[] counts = new int[3];
+        count(root, 1, counts);
+        Compiled_J48 compiled = new Compiled_J48(numClasses, counts[0], counts[1], counts[2]);
+        int[] next = { 1, 0 };
+        compiled.fill(root, 0, next, header, isEmpty);
+        return compiled;
+    }
+
+    // counts = { nodes, child slots, depth }
+    private static void count(ClassifierTree node, int level, int[] counts) {
+        counts[0]++;
+        counts[2] = Math.max(counts[2], level);
+        if (!node.isLeaf()) {
+            counts[1] += node.getSons().length;
+            for (ClassifierTree son : node.getSons()) {
+                count(son, level + 1, counts);
+            }
+        }
+    }
+
+    // Writes node at index, its children from next[0] and their slots from next[1]
+    private void fill(ClassifierTree node, int index, int[] next, Instances header, Field isEmpty) throws Exception {
+        ClassifierSplitModel model = node.getLocalModel();
+        Distribution distribution = model.distribution();
+        if (node.isLeaf()) {
+            // NoSplit.classProb(j, instance, -1)
+            kind[index] = LEAF;
+            for (int j = 0; j < numClasses; j++) {
+                probs[index * numClasses + j] = distribution.prob(j);
+            }
+            leafClass[index] = bestClass(index);
+            return;
+        }
+
+        // C45Split or BinC45Split (J48 -B); the latter sends one nominal label to branch 0
+        int attIndex;
+        if (model instanceof C45Split) {
+            attIndex = ((C45Split) model).attIndex();
+            split[index] = ((C45Split) model).splitPoint();
+            kind[index] = header.attribute(attIndex).isNominal() ? NOMINAL : NUMERIC;
+        } else if (model instanceof BinC45Split) {
+            attIndex = ((BinC45Split) model).attIndex();
+            split[index] = ((BinC45Split) model).splitPoint();
+            kind[index] = header.attribute(attIndex).isNominal() ? NOMINAL_BINARY : NUMERIC;
+        } else {
+            throw new Exception("Cannot compile split model " + model.getClass().getName());
+        }
+        attribute[index] = attIndex;
+
+        ClassifierTree[] sons = node.getSons();
+        int slots = next[1];
+        int children = next[0];
+        next[1] += sons.length;
+        next[0] += sons.length;
+        firstChild[index] = slots;
+        numChildren[index] = sons.length;
+        for (int i = 0; i < sons.length; i++) {
+            int son = children + i;
+            child[slots + i] = son;
+            // C45Split.weights() for a missing value
+            childWeight[slots + i] = distribution.perBag(i) / distribution.total();
+            if ((Boolean) isEmpty.get(sons[i])) {
+                // C45Split.classProb(j, instance, i)
+                kind[son] = EMPTY_LEAF;
+                for (int j = 0; j < numClasses; j++) {
+                    probs[son * numClasses + j] = Utils.gr(distribution.perBag(i), 0) ? distribution.prob(j, i)
+                            : distribution.prob(j);
+                }
+                leafClass[son] = bestClass(son);
+            }
+        }
+        for (int i = 0; i < sons.length; i++) {
+            if (kind[children + i] != EMPTY_LEAF) {
+                fill(sons[i], children + i, next, header, isEmpty);
+            }
+        }
+    }
+
+    private static Field field(Class<?> type, String name) throws Exception {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    // ClassifierTree.classifyInstance(): first class whose probability is greater by more than Utils.SMALL
+    private int bestClass(int node) {
+        double maxProb = -1;
+        int maxIndex = 0;
+        for (int j = 0; j < numClasses; j++) {
+            double prob = probs[node * numClasses + j];
+            if (Utils.gr(prob, maxProb)) {
+                maxIndex = j;
+                maxProb = prob;
+            }
+        }
+        return maxIndex;
+    }
+
+    public int numNodes() {
+        return numNodes;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    // Same result as J48.classifyInstance() on a row of attribute values
+    public double classify(double[] values) {
+        int node = 0;
+        while (true) {
+            switch (kind[node]) {
+            case LEAF:
+            case EMPTY_LEAF:
+                return leafClass[node];
+            case NOMINAL: {
+                double value = values[attribute[node]];
+                if (Double.isNaN(value)) {
+                    return classifyMissing(values);
+                }
+                node = child[firstChild[node] + (int) value];
+                break;
+            }
+            case NOMINAL_BINARY: {
+                double value = values[attribute[node]];
+                if (Double.isNaN(value)) {
+                    return classifyMissing(values);
+                }
+                node = child[firstChild[node] + ((int) split[node] == (int) value ? 0 : 1)];
+                break;
+            }
+            default: {
+                double value = values[attribute[node]];
+                if (Double.isNaN(value)) {
+                    return classifyMissing(values);
+                }
+                node = child[firstChild[node] + (value <= split[node] ? 0 : 1)];
+                break;
+            }
+            }
+        }
+    }
+
+    public double classify(Instance instance) {
+        return classify(instance.toDoubleArray());
+    }
+
+    // Scores rows[i] into predictions[i]
+    public void classify(double[][] rows, double[] predictions) {
+        for (int i = 0; i < rows.length; i++) {
+            predictions[i] = classify(rows[i]);
+        }
+    }
+
+    // Same result as J48.classifyInstance() on rows stored column by column
+    // (columns[attribute][row]), e.g. from Binary_Dataset_Cache.values()
+    public void classify(double[][] columns, int from, int to, double[] predictions) {
+        double[] row = new double[columns.length];
+        for (int i = from; i < to; i++) {
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j] != null) {
+                    row[j] = columns[j][i];
+                }
+            }
+            predictions[i] = classify(row);
+        }
+    }
+
+    // A missing split value on the path: class probabilities summed over the tree as in
+    // ClassifierTree.getProbs(), then the same argmax
+    private double classifyMissing(double[] values) {
+        double[][] sums = new double[depth][numClasses];
+        probabilities(0, values, 1.0, 0, sums);
+        double maxProb = -1;
+        int maxIndex = 0;
+        for (int j = 0; j < numClasses; j++) {
+            if (Utils.gr(sums[0][j], maxProb)) {
+                maxIndex = j;
+                maxProb = sums[0][j];
+            }
+        }
+        return maxIndex;
+    }
+
+    // Sets sums[level] to getProbs(j, row, weight) of node for every class j
+    private void probabilities(int node, double[] values, double weight, int level, double[][] sums) {
+        double[] sum = sums[level];
+        if (kind[node] == LEAF || kind[node] == EMPTY_LEAF) {
+            for (int j = 0; j < numClasses; j++) {
+                sum[j] = weight * probs[node * numClasses + j];
+            }
+            return;
+        }
+        double value = values[attribute[node]];
+        int first = firstChild[node];
+        if (Double.isNaN(value)) {
+            Arrays.fill(sum, 0.0);
+            double[] sonSum = sums[level + 1];
+            for (int i = 0; i < numChildren[node]; i++) {
+                int son = child[first + i];
+                if (kind[son] == EMPTY_LEAF) {
+                    continue;
+                }
+                probabilities(son, values, childWeight[first + i] * weight, level + 1, sums);
+                for (int j = 0; j < numClasses; j++) {
+                    sum[j] += sonSum[j];
+                }
+            }
+            return;
+        }
+        int branch = kind[node] == NOMINAL ? (int) value
+                : kind[node] == NOMINAL_BINARY ? ((int) split[node] == (int) value ? 0 : 1)
+                        : (value <= split[node] ? 0 : 1);
+        probabilities(child[first + branch], values, weight, level, sums);
+    }
+}
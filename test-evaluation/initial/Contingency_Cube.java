@@ -0,0 +1,365 @@
+import weka.classifiers.AggregateableEvaluation;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Attribute x value x class counts of nominal data, filled in one pass over the rows.
+// Everything OneR and ZeroR learn from nominal data is in these counts: ZeroR
+// needs the class totals, OneR the class counts per value (and for missing values)
+// of every attribute. Fast_ZeroR and Fast_OneR are built from a cube, so one scan
+// replaces OneR's scan per attribute.
+//
+// Cubes of the same header add and subtract element by element. Cross-validation
+// therefore counts the data once, counts each test fold, and builds the fold's
+// model from the total minus the fold, with the same folds and statistics as
+// Evaluation.crossValidateModel. Instance weights must be 1; rows with a missing
+// class are left out, as OneR and ZeroR do.
+public class Contingency_Cube implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Rows per parallel task
+    private static final int CHUNK_ROWS = 1 << 16;
+
+    // Builds the classifier of one fold from its training cube
+    public interface Model {
+        Classifier build(Instances header, Contingency_Cube cube) throws Exception;
+    }
+
+    // Opens a new pass over a rating stream
+    public interface Source {
+        Streaming_Rating_Loader open() throws Exception;
+    }
+
+    private final int classIndex;
+    private final int numClasses;
+    // Non-class attributes in header order, their label counts and cube offsets
+    private final int[] attributes;
+    private final int[] numValues;
+    private final int[] offsets;
+
+    // Rows per class
+    private final long[] classCounts;
+    // Rows per attribute, value and class: offsets[k] + value * numClasses + class,
+    // with value = numValues[k] for a missing value
+    private final long[] counts;
+
+    public Contingency_Cube(Instances header) {
+        classIndex = header.classIndex();
+        numClasses = header.numClasses();
+        attributes = new int[header.numAttributes() - 1];
+        numValues = new int[attributes.length];
+        offsets = new int[attributes.length];
+        int size = 0;
+        for (int j = 0, k = 0; j < header.numAttributes(); j++) {
+            if (j != classIndex) {
+                attributes[k] = j;
+                numValues[k] = header.attribute(j).numValues();
+                offsets[k] = size;
+                size += (numValues[k] + 1) * numClasses;
+                k++;
+            }
+        }
+        classCounts = new long[numClasses];
+        counts = new long[size];
+    }
+
+    private Contingency_Cube(Contingency_Cube other) {
+        classIndex = other.classIndex;
+        numClasses = other.numClasses;
+        attributes = other.attributes;
+        numValues = other.numValues;
+        offsets = other.offsets;
+        classCounts = other.classCounts.clone();
+        counts = other.counts.clone();
+    }
+
+    public Contingency_Cube copy() {
+        return new Contingency_Cube(this);
+    }
+
+    // Counts one row of attribute values (NaN = missing)
+    public void add(double[] values) {
+        double classValue = values[classIndex];
+        if (Double.isNaN(classValue)) {
+            return;
+        }
+        int c = (int) classValue;
+        for (int k = 0; k < attributes.length; k++) {
+            double value = values[attributes[k]];
+            int v = Double.isNaN(value) ? numValues[k] : (int) value;
+            counts[offsets[k] + v * numClasses + c]++;
+        }
+        classCounts[c]++;
+    }
+
+    public void add(Instance instance) throws Exception {
+        if (instance.weight() != 1) {
+            throw new Exception("Contingency_Cube needs instance weights of 1, got " + instance.weight());
+        }
+        add(instance.toDoubleArray());
+    }
+
+    // Adds rows [from, to) of data
+    public void add(Instances data, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            add(data.instance(i));
+        }
+    }
+
+    // Merges another cube into this one
+    public void add(Contingency_Cube other) {
+        addTo(other, 1);
+    }
+
+    // Removes the rows of other, which must have been counted in this cube
+    public void subtract(Contingency_Cube other) {
+        addTo(other, -1);
+    }
+
+    private void addTo(Contingency_Cube other, int sign) {
+        if (counts.length != other.counts.length || classCounts.length != other.classCounts.length) {
+            throw new IllegalArgumentException("Cubes of different headers");
+        }
+        for (int i = 0; i < classCounts.length; i++) {
+            classCounts[i] += sign * other.classCounts[i];
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += sign * other.counts[i];
+        }
+    }
+
+    public long numRows() {
+        long rows = 0;
+        for (long count : classCounts) {
+            rows += count;
+        }
+        return rows;
+    }
+
+    public int numClasses() {
+        return numClasses;
+    }
+
+    public long classCount(int classValue) {
+        return classCounts[classValue];
+    }
+
+    // Non-class attributes, in header order
+    public int numAttributes() {
+        return attributes.length;
+    }
+
+    // Header index of the k-th non-class attribute
+    public int attribute(int k) {
+        return attributes[k];
+    }
+
+    public int numValues(int k) {
+        return numValues[k];
+    }
+
+    // Rows of class classValue with value (numValues(k) = missing) for the k-th non-class attribute
+    public long count(int k, int value, int classValue) {
+        return counts[offsets[k] + value * numClasses + classValue];
+    }
+
+    // Counts data in chunks on numThreads threads and adds the chunk cubes up
+    public static Contingency_Cube count(Instances data, int numThreads) throws Exception {
+        Contingency_Cube total = new Contingency_Cube(data);
+        if (data.numInstances() <= CHUNK_ROWS || numThreads <= 1) {
+            total.add(data, 0, data.numInstances());
+            return total;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Contingency_Cube>> futures = new ArrayList<Future<Contingency_Cube>>();
+            for (int from = 0; from < data.numInstances(); from += CHUNK_ROWS) {
+                final int start = from;
+                final int end = Math.min(data.numInstances(), from + CHUNK_ROWS);
+                futures.add(pool.submit(() -> {
+                    Contingency_Cube chunk = new Contingency_Cube(data);
+                    chunk.add(data, start, end);
+                    return chunk;
+                }));
+            }
+            for (Contingency_Cube chunk : getAll(futures)) {
+                total.add(chunk);
+            }
+            return total;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Stratified cross-validation with the same folds, predictions and statistics as
+    // Evaluation.crossValidateModel; each fold's model is built from the total cube
+    // minus the cube of its test fold.
+    public static Evaluation crossValidate(Instances data, int numFolds, Random random, int numThreads, Model model)
+            throws Exception {
+        // Same preparation as weka.classifiers.evaluation.Evaluation.crossValidateModel
+        data = new Instances(data);
+        data.randomize(random);
+        if (data.classAttribute().isNominal()) {
+            data.stratify(numFolds);
+        }
+        Contingency_Cube total = count(data, numThreads);
+
+        Evaluation evaluation = new Evaluation(data);
+        for (int i = 0; i < numFolds; i++) {
+            Instances test = data.testCV(numFolds, i);
+            Contingency_Cube train = total.copy();
+            train.subtract(count(test, numThreads));
+            // trainCV() would shuffle the training fold; draw the same numbers so the
+            // Random is left in the same state
+            for (int j = data.numInstances() - test.numInstances() - 1; j > 0; j--) {
+                random.nextInt(j + 1);
+            }
+
+            Classifier classifier = model.build(data, train);
+            evaluation.setPriors(priorRows(data, train));
+            for (Instance instance : test) {
+                evaluation.evaluateModelOnceAndRecordPrediction(classifier, instance);
+            }
+        }
+        return evaluation;
+    }
+
+    // First pass over a stream: counts row i into folds[i mod numFolds], every chunk
+    // split over numThreads threads
+    public static Contingency_Cube[] countFolds(Source source, Instances header, int numFolds, int numThreads)
+            throws Exception {
+        Contingency_Cube[] folds = newFolds(header, numFolds);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try (Streaming_Rating_Loader loader = source.open()) {
+            long numRows = 0;
+            Instances chunk;
+            while ((chunk = loader.nextChunk()) != null) {
+                final Instances rows = chunk;
+                final long first = numRows;
+                int step = (rows.numInstances() + numThreads - 1) / Math.max(1, numThreads);
+                List<Future<Contingency_Cube[]>> futures = new ArrayList<Future<Contingency_Cube[]>>();
+                for (int from = 0; from < rows.numInstances(); from += step) {
+                    final int start = from;
+                    final int end = Math.min(rows.numInstances(), from + step);
+                    futures.add(pool.submit(() -> {
+                        Contingency_Cube[] partial = newFolds(header, numFolds);
+                        for (int i = start; i < end; i++) {
+                            partial[(int) ((first + i) % numFolds)].add(rows.instance(i));
+                        }
+                        return partial;
+                    }));
+                }
+                for (Contingency_Cube[] partial : getAll(futures)) {
+                    for (int f = 0; f < numFolds; f++) {
+                        folds[f].add(partial[f]);
+                    }
+                }
+                numRows += rows.numInstances();
+            }
+            return folds;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Second pass over the same stream: row i is scored by the model of the total
+    // minus folds[i mod numFolds]. Predictions are not kept, so memory stays bounded.
+    public static Evaluation evaluateFolds(Source source, Instances header, Contingency_Cube[] folds, int numThreads,
+            Model model) throws Exception {
+        final int numFolds = folds.length;
+        Contingency_Cube total = new Contingency_Cube(header);
+        for (Contingency_Cube fold : folds) {
+            total.add(fold);
+        }
+        final Classifier[] classifiers = new Classifier[numFolds];
+        final Evaluation[] evaluations = new Evaluation[numFolds];
+        for (int f = 0; f < numFolds; f++) {
+            Contingency_Cube train = total.copy();
+            train.subtract(folds[f]);
+            classifiers[f] = model.build(header, train);
+            evaluations[f] = new Evaluation(header);
+            evaluations[f].setDiscardPredictions(true);
+            evaluations[f].setPriors(priorRows(header, train));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numFolds, numThreads)));
+        try (Streaming_Rating_Loader loader = source.open()) {
+            long numRows = 0;
+            Instances chunk;
+            while ((chunk = loader.nextChunk()) != null) {
+                final Instances rows = chunk;
+                final long first = numRows;
+                // One task per fold, so each Evaluation is only used by one thread at a time
+                List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (int f = 0; f < numFolds; f++) {
+                    final int fold = f;
+                    futures.add(pool.submit(() -> {
+                        int start = (int) ((fold - first % numFolds + numFolds) % numFolds);
+                        for (int i = start; i < rows.numInstances(); i += numFolds) {
+                            evaluations[fold].evaluateModelOnce(classifiers[fold], rows.instance(i));
+                        }
+                        return null;
+                    }));
+                }
+                getAll(futures);
+                numRows += rows.numInstances();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        AggregateableEvaluation evaluation = new AggregateableEvaluation(header);
+        for (Evaluation fold : evaluations) {
+            evaluation.aggregate(fold);
+        }
+        return evaluation;
+    }
+
+    private static Contingency_Cube[] newFolds(Instances header, int numFolds) {
+        Contingency_Cube[] folds = new Contingency_Cube[numFolds];
+        for (int f = 0; f < numFolds; f++) {
+            folds[f] = new Contingency_Cube(header);
+        }
+        return folds;
+    }
+
+    // One row per class weighted by its count, so Evaluation.setPriors() sees the training rows
+    private static Instances priorRows(Instances header, Contingency_Cube cube) {
+        Instances rows = new Instances(header, header.numClasses());
+        for (int j = 0; j < header.numClasses(); j++) {
+            if (cube.classCount(j) > 0) {
+                double[] values = new double[header.numAttributes()];
+                values[header.classIndex()] = j;
+                rows.add(new DenseInstance(cube.classCount(j), values));
+            }
+        }
+        return rows;
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) throws Exception {
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+}
@@ -0,0 +1,496 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Evaluation;
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Naive Bayes for nominal attributes kept as plain long[] count tables.
+// With only nominal attributes, NaiveBayes is a table of class counts and one of
+// per-class value counts per attribute (each starting at 1, the Laplace estimate).
+// Here those counts live in a Counts object of long[] arrays, so tables built on
+// separate threads or shards of the data merge by adding them, and a fold's table
+// can be subtracted from the total instead of training on the other folds.
+//
+// distributionForInstance() repeats NaiveBayes' arithmetic (product of the
+// probabilities with its underflow rescaling, then normalize), so predictions,
+// evaluation statistics and toString() are the same as NaiveBayes on the same rows.
+// classify() scores a batch of rows column by column with sums of precomputed log
+// probabilities instead; it returns the same class unless two classes are within
+// rounding of each other. Instance weights must be 1, and instances with a missing
+// class are skipped like NaiveBayes does.
+public class Count_Naive_Bayes extends AbstractClassifier {
+
+    private static final long serialVersionUID = 1L;
+
+    // Rows per parallel task
+    private static final int CHUNK_ROWS = 1 << 16;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private Instances header;
+    private Counts counts;
+    // Natural logs of the Laplace probabilities, filled on first use by classify():
+    // classLogs[class], valueLogs[valueOffsets[k] + value * numClasses + class]
+    private transient double[] classLogs;
+    private transient double[] valueLogs;
+
+    // Class counts and per-class value counts of a header's nominal attributes. Tables
+    // for the same header add and subtract element by element.
+    public static final class Counts implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int classIndex;
+        private final int numClasses;
+        // Non-class attributes in header order, their label counts and table offsets
+        private final int[] attributes;
+        private final int[] numValues;
+        private final int[] offsets;
+
+        // Rows per class
+        private final long[] classCounts;
+        // Rows per attribute, class and value: offsets[k] + class * numValues[k] + value
+        private final long[] valueCounts;
+        // Rows with a value (not missing) per attribute and class: k * numClasses + class
+        private final long[] totals;
+
+        public Counts(Instances header) {
+            classIndex = header.classIndex();
+            numClasses = header.numClasses();
+            attributes = new int[header.numAttributes() - 1];
+            numValues = new int[attributes.length];
+            offsets = new int[attributes.length];
+            int size = 0;
+            for (int j = 0, k = 0; j < header.numAttributes(); j++) {
+                if (j != classIndex) {
+                    attributes[k] = j;
+                    numValues[k] = header.attribute(j).numValues();
+                    offsets[k] = size;
+                    size += numClasses * numValues[k];
+                    k++;
+                }
+            }
+            classCounts = new long[numClasses];
+            valueCounts = new long[size];
+            totals = new long[attributes.length * numClasses];
+        }
+
+        private Counts(Counts other) {
+            classIndex = other.classIndex;
+            numClasses = other.numClasses;
+            attributes = other.attributes;
+            numValues = other.numValues;
+            offsets = other.offsets;
+            classCounts = other.classCounts.clone();
+            valueCounts = other.valueCounts.clone();
+            totals = other.totals.clone();
+        }
+
+        public Counts copy() {
+            return new Counts(this);
+        }
+
+        // Counts one row of attribute values (NaN = missing), as NaiveBayes.updateClassifier() does
+        public void add(double[] values) {
+            double classValue = values[classIndex];
+            if (Double.isNaN(classValue)) {
+                return;
+            }
+            int c = (int) classValue;
+            for (int k = 0; k < attributes.length; k++) {
+                double value = values[attributes[k]];
+                if (!Double.isNaN(value)) {
+                    valueCounts[offsets[k] + c * numValues[k] + (int) value]++;
+                    totals[k * numClasses + c]++;
+                }
+            }
+            classCounts[c]++;
+        }
+
+        public void add(Instance instance) throws Exception {
+            if (instance.weight() != 1) {
+                throw new Exception("Count_Naive_Bayes needs instance weights of 1, got " + instance.weight());
+            }
+            add(instance.toDoubleArray());
+        }
+
+        // Adds the counts of rows [from, to) of data
+        public void add(Instances data, int from, int to) throws Exception {
+            for (int i = from; i < to; i++) {
+                add(data.instance(i));
+            }
+        }
+
+        // Merges another table into this one
+        public void add(Counts other) {
+            addTo(classCounts, other.classCounts, 1);
+            addTo(valueCounts, other.valueCounts, 1);
+            addTo(totals, other.totals, 1);
+        }
+
+        // Removes the rows of other, which must have been counted in this table
+        public void subtract(Counts other) {
+            addTo(classCounts, other.classCounts, -1);
+            addTo(valueCounts, other.valueCounts, -1);
+            addTo(totals, other.totals, -1);
+        }
+
+        private static void addTo(long[] table, long[] other, int sign) {
+            if (table.length != other.length) {
+                throw new IllegalArgumentException("Count tables of different headers");
+            }
+            for (int i = 0; i < table.length; i++) {
+                table[i] += sign * other[i];
+            }
+        }
+
+        public long numRows() {
+            long rows = 0;
+            for (long count : classCounts) {
+                rows += count;
+            }
+            return rows;
+        }
+
+        public long classCount(int classValue) {
+            return classCounts[classValue];
+        }
+
+        // DiscreteEstimator(numClasses, true).getProbability(classValue)
+        double classProbability(int classValue) {
+            return (classCounts[classValue] + 1.0) / ((double) numRows() + numClasses);
+        }
+
+        // DiscreteEstimator(numValues, true).getProbability(value) for the k-th non-class attribute
+        double valueProbability(int k, int classValue, int value) {
+            return (valueCounts[offsets[k] + classValue * numValues[k] + value] + 1.0)
+                    / ((double) totals[k * numClasses + classValue] + numValues[k]);
+        }
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+        result.enable(Capabilities.Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capabilities.Capability.MISSING_VALUES);
+        result.enable(Capabilities.Capability.NOMINAL_CLASS);
+        result.enable(Capabilities.Capability.MISSING_CLASS_VALUES);
+        result.setMinimumNumberInstances(0);
+        return result;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+        setCounts(new Instances(data, 0), count(data, numThreads));
+    }
+
+    // Uses counts, built for header (e.g. merged from shards), as the model
+    public void setCounts(Instances header, Counts counts) {
+        this.header = new Instances(header, 0);
+        this.counts = counts;
+        this.classLogs = null;
+        this.valueLogs = null;
+    }
+
+    public Counts getCounts() {
+        return counts;
+    }
+
+    // Counts data in chunks on numThreads threads and adds the chunk tables up
+    public static Counts count(Instances data, int numThreads) throws Exception {
+        Counts total = new Counts(data);
+        if (data.numInstances() <= CHUNK_ROWS || numThreads <= 1) {
+            total.add(data, 0, data.numInstances());
+            return total;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Counts>> futures = new ArrayList<Future<Counts>>();
+            for (int from = 0; from < data.numInstances(); from += CHUNK_ROWS) {
+                final int start = from;
+                final int end = Math.min(data.numInstances(), from + CHUNK_ROWS);
+                futures.add(pool.submit(() -> {
+                    Counts chunk = new Counts(data);
+                    chunk.add(data, start, end);
+                    return chunk;
+                }));
+            }
+            for (Future<Counts> future : futures) {
+                total.add(future.get());
+            }
+            return total;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Same arithmetic as NaiveBayes.distributionForInstance()
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        int numClasses = counts.numClasses;
+        double[] probs = new double[numClasses];
+        for (int j = 0; j < numClasses; j++) {
+            probs[j] = counts.classProbability(j);
+        }
+        for (int k = 0; k < counts.attributes.length; k++) {
+            double value = instance.value(counts.attributes[k]);
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            double max = 0;
+            for (int j = 0; j < numClasses; j++) {
+                probs[j] *= Math.max(1e-75, counts.valueProbability(k, j, (int) value));
+                if (probs[j] > max) {
+                    max = probs[j];
+                }
+            }
+            // Danger of probability underflow
+            if (max > 0 && max < 1e-75) {
+                for (int j = 0; j < numClasses; j++) {
+                    probs[j] *= 1e75;
+                }
+            }
+        }
+        Utils.normalize(probs);
+        return probs;
+    }
+
+    // Most likely class of rows [from, to) given as nominal codes per attribute
+    // (codes[attribute][row], -1 = missing, class column ignored, e.g. from
+    // Binary_Dataset_Cache.codes()), written to predictions[row]
+    public void classify(int[][] codes, int from, int to, double[] predictions) {
+        if (valueLogs == null) {
+            computeLogs();
+        }
+        int numClasses = counts.numClasses;
+        int numRows = to - from;
+        double[] scores = new double[numRows * numClasses];
+        for (int i = 0; i < numRows; i++) {
+            System.arraycopy(classLogs, 0, scores, i * numClasses, numClasses);
+        }
+        // One attribute at a time over all rows: the inner loop adds a contiguous
+        // run of numClasses log probabilities
+        for (int k = 0; k < counts.attributes.length; k++) {
+            int[] column = codes[counts.attributes[k]];
+            int offset = counts.offsets[k];
+            for (int i = 0; i < numRows; i++) {
+                int value = column[from + i];
+                if (value < 0) {
+                    continue;
+                }
+                int base = offset + value * numClasses;
+                int row = i * numClasses;
+                for (int j = 0; j < numClasses; j++) {
+                    scores[row + j] += valueLogs[base + j];
+                }
+            }
+        }
+        for (int i = 0; i < numRows; i++) {
+            int row = i * numClasses;
+            int best = 0;
+            for (int j = 1; j < numClasses; j++) {
+                if (scores[row + j] > scores[row + best]) {
+                    best = j;
+                }
+            }
+            predictions[from + i] = best;
+        }
+    }
+
+    private void computeLogs() {
+        int numClasses = counts.numClasses;
+        double[] classes = new double[numClasses];
+        double[] values = new double[counts.valueCounts.length];
+        for (int j = 0; j < numClasses; j++) {
+            classes[j] = Math.log(counts.classProbability(j));
+        }
+        // Laid out value-major, unlike valueCounts, so one value's classes are adjacent
+        for (int k = 0; k < counts.attributes.length; k++) {
+            for (int v = 0; v < counts.numValues[k]; v++) {
+                for (int j = 0; j < numClasses; j++) {
+                    values[counts.offsets[k] + v * numClasses + j] = Math.log(Math.max(1e-75,
+                            counts.valueProbability(k, j, v)));
+                }
+            }
+        }
+        classLogs = classes;
+        valueLogs = values;
+    }
+
+    // Stratified cross-validation with the same folds, predictions and statistics as
+    // Evaluation.crossValidateModel(new NaiveBayes(), ...), but each fold's model is
+    // the full table minus the counts of its test fold, so nothing is retrained.
+    public static Evaluation crossValidate(Instances data, int numFolds, Random random, int numThreads)
+            throws Exception {
+        // Same preparation as weka.classifiers.evaluation.Evaluation.crossValidateModel
+        data = new Instances(data);
+        data.randomize(random);
+        if (data.classAttribute().isNominal()) {
+            data.stratify(numFolds);
+        }
+        Counts total = count(data, numThreads);
+
+        Evaluation evaluation = new Evaluation(data);
+        for (int i = 0; i < numFolds; i++) {
+            Instances test = data.testCV(numFolds, i);
+            Counts train = total.copy();
+            train.subtract(count(test, numThreads));
+            // trainCV() would shuffle the training fold; draw the same numbers so the
+            // Random is left in the same state
+            for (int j = data.numInstances() - test.numInstances() - 1; j > 0; j--) {
+                random.nextInt(j + 1);
+            }
+
+            Count_Naive_Bayes fold = new Count_Naive_Bayes();
+            fold.setCounts(data, train);
+            evaluation.setPriors(priorRows(data, train));
+            for (Instance instance : test) {
+                evaluation.evaluateModelOnceAndRecordPrediction(fold.distributionForInstance(instance), instance);
+            }
+        }
+        return evaluation;
+    }
+
+    // One row per class weighted by its count, so Evaluation.setPriors() sees the training rows
+    static Instances priorRows(Instances header, Counts counts) {
+        Instances rows = new Instances(header, header.numClasses());
+        for (int j = 0; j < header.numClasses(); j++) {
+            if (counts.classCount(j) > 0) {
+                double[] values = new double[header.numAttributes()];
+                values[header.classIndex()] = j;
+                rows.add(new DenseInstance(counts.classCount(j), values));
+            }
+        }
+        return rows;
+    }
+
+    // Same layout as NaiveBayes.toString()
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("Naive Bayes Classifier");
+        if (header == null) {
+            return text.append(": No model built yet.").toString();
+        }
+        Attribute classAttribute = header.classAttribute();
+        int numClasses = counts.numClasses;
+
+        int maxWidth = 0;
+        int maxAttWidth = 0;
+        for (int j = 0; j < numClasses; j++) {
+            maxWidth = Math.max(maxWidth, classAttribute.value(j).length());
+        }
+        for (int k = 0; k < counts.attributes.length; k++) {
+            Attribute attribute = header.attribute(counts.attributes[k]);
+            maxAttWidth = Math.max(maxAttWidth, attribute.name().length());
+            for (int v = 0; v < attribute.numValues(); v++) {
+                maxAttWidth = Math.max(maxAttWidth, (attribute.value(v) + "  ").length());
+            }
+            for (int j = 0; j < numClasses; j++) {
+                for (int v = 0; v < counts.numValues[k]; v++) {
+                    maxWidth = Math.max(maxWidth, valueCount(k, j, v).length());
+                }
+                maxWidth = Math.max(maxWidth, totalCount(k, j).length());
+            }
+        }
+        for (int j = 0; j < numClasses; j++) {
+            maxWidth = Math.max(maxWidth, prior(j, maxWidth).length());
+        }
+        maxAttWidth = Math.max(maxAttWidth, "Attribute".length());
+        maxAttWidth = Math.max(maxAttWidth, "  weight sum".length());
+        maxAttWidth += 2;
+
+        text.append("\n\n");
+        text.append(pad("Class", maxAttWidth + maxWidth + 1 - "Class".length(), true)).append("\n");
+        text.append(pad("Attribute", maxAttWidth - "Attribute".length(), false));
+        for (int j = 0; j < numClasses; j++) {
+            String label = classAttribute.value(j);
+            text.append(pad(label, maxWidth + 1 - label.length(), true));
+        }
+        text.append("\n");
+        text.append(pad("", maxAttWidth, true));
+        for (int j = 0; j < numClasses; j++) {
+            String prior = prior(j, maxWidth);
+            text.append(pad(prior, maxWidth + 1 - prior.length(), true));
+        }
+        text.append("\n");
+        for (int i = 0; i < maxAttWidth + maxWidth * numClasses + numClasses + 1; i++) {
+            text.append('=');
+        }
+        text.append("\n");
+        for (int k = 0; k < counts.attributes.length; k++) {
+            Attribute attribute = header.attribute(counts.attributes[k]);
+            text.append(attribute.name()).append("\n");
+            for (int v = 0; v < attribute.numValues(); v++) {
+                String label = "  " + attribute.value(v);
+                text.append(pad(label, maxAttWidth + 1 - label.length(), false));
+                for (int j = 0; j < numClasses; j++) {
+                    String count = valueCount(k, j, v);
+                    text.append(pad(count, maxWidth + 1 - count.length(), true));
+                }
+                text.append("\n");
+            }
+            String label = "  [total]";
+            text.append(pad(label, maxAttWidth + 1 - label.length(), false));
+            for (int j = 0; j < numClasses; j++) {
+                String count = totalCount(k, j);
+                text.append(pad(count, maxWidth + 1 - count.length(), true));
+            }
+            text.append("\n\n");
+        }
+        return text.toString();
+    }
+
+    // Counts print as the doubles DiscreteEstimator holds, Laplace start included
+    private String valueCount(int k, int classValue, int value) {
+        return "" + (counts.valueCounts[counts.offsets[k] + classValue * counts.numValues[k] + value] + 1.0);
+    }
+
+    private String totalCount(int k, int classValue) {
+        return "" + ((double) counts.totals[k * counts.numClasses + classValue] + counts.numValues[k]);
+    }
+
+    private String prior(int classValue, int width) {
+        return "(" + Utils.doubleToString(counts.classProbability(classValue), width, 2).trim() + ")";
+    }
+
+    private static String pad(String source, int length, boolean leftPad) {
+        StringBuilder text = new StringBuilder();
+        if (!leftPad) {
+            text.append(source);
+        }
+        for (int i = 0; i < length; i++) {
+            text.append(' ');
+        }
+        if (leftPad) {
+            text.append(source);
+        }
+        return text.toString();
+    }
+}
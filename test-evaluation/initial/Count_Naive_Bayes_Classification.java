@@ -0,0 +1,236 @@
+import weka.classifiers.AggregateableEvaluation;
+import weka.classifiers.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Usage: java Count_Naive_Bayes_Classification [-full]
+//
+// -full counts every row of rating.csv instead of the 10,000-row sample and
+// cross-validates on it with row i in fold i mod 10: one pass counts each fold,
+// a second pass scores every row with the total minus its fold's counts.
+public class Count_Naive_Bayes_Classification {
+    public static void main(String[] args) {
+        try {
+            boolean full = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-full")) {
+                    full = true;
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            if (full) {
+                runFull(System.out);
+            } else {
+                // Load data
+                Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+                run(data, System.out);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the scheme on data and prints the report to out, in the same layout as Naive_Bayes_Classification
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Set class index to the last attribute (members_encoded)
+        data.setClassIndex(data.numAttributes() - 1);
+
+        // Initialize Count_Naive_Bayes
+        Count_Naive_Bayes classifier = new Count_Naive_Bayes();
+
+        // 1. Build model on full training set, or load it from the store. Stored models
+        // are keyed by scheme, options and data (see Model_Store); the thread count does
+        // not change the model and is left out.
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<Count_Naive_Bayes> model = Model_Store.getOrBuild("Count_Naive_Bayes", "", data, () -> {
+            classifier.buildClassifier(data);
+            return classifier;
+        });
+        long endTime = System.currentTimeMillis();
+        double timeTaken = (endTime - startTime) / 1000.0;
+
+        // Print Run Information
+        printRunInformation(out, classifier, data, data.numInstances(), "10-fold cross-validation");
+
+        // Print Classifier model
+        out.println("=== Classifier model (full training set) ===");
+        out.println();
+        out.println(model.get().toString());
+        out.println("Time taken to " + model.action() + " model: " + String.format("%.2f", timeTaken) + " seconds");
+        out.println();
+
+        // 2. Cross-validation, each fold's counts subtracted from the total
+        Evaluation evaluation = Model_Store.getOrBuild("Count_Naive_Bayes", "-x 10 -s 1", data,
+                () -> Count_Naive_Bayes.crossValidate(data, 10, new Random(1), classifier.getNumThreads())).get();
+
+        out.println("=== Stratified cross-validation ===");
+        printEvaluation(out, evaluation);
+    }
+
+    // Counts all of rating.csv per fold in one pass, then scores it fold by fold in a second pass
+    public static Count_Naive_Bayes runFull(PrintStream out) throws Exception {
+        final int numFolds = 10;
+        Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv");
+        Instances header = Streaming_Rating_Loader.readHeader("../../dataset/initial/combined-cleaned.arff");
+        header.setClassIndex(header.numAttributes() - 1);
+
+        Count_Naive_Bayes classifier = new Count_Naive_Bayes();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, classifier.getNumThreads()));
+        try {
+            // Pass 1: every chunk is split over the threads, each counting its rows per fold
+            long startTime = System.currentTimeMillis();
+            Count_Naive_Bayes.Counts[] folds = newFolds(header, numFolds);
+            long numRows = 0;
+            try (Streaming_Rating_Loader loader = new Streaming_Rating_Loader("../../dataset/raw/rating.csv", anime,
+                    header, 100000)) {
+                Instances chunk;
+                while ((chunk = loader.nextChunk()) != null) {
+                    final Instances rows = chunk;
+                    final long first = numRows;
+                    int numThreads = Math.max(1, classifier.getNumThreads());
+                    int step = (rows.numInstances() + numThreads - 1) / numThreads;
+                    List<Future<Count_Naive_Bayes.Counts[]>> futures =
+                            new ArrayList<Future<Count_Naive_Bayes.Counts[]>>();
+                    for (int from = 0; from < rows.numInstances(); from += step) {
+                        final int start = from;
+                        final int end = Math.min(rows.numInstances(), from + step);
+                        futures.add(pool.submit(() -> {
+                            Count_Naive_Bayes.Counts[] partial = newFolds(header, numFolds);
+                            for (int i = start; i < end; i++) {
+                                partial[(int) ((first + i) % numFolds)].add(rows.instance(i));
+                            }
+                            return partial;
+                        }));
+                    }
+                    for (Count_Naive_Bayes.Counts[] partial : getAll(futures)) {
+                        for (int f = 0; f < numFolds; f++) {
+                            folds[f].add(partial[f]);
+                        }
+                    }
+                    numRows += rows.numInstances();
+                }
+            }
+            Count_Naive_Bayes.Counts total = new Count_Naive_Bayes.Counts(header);
+            for (Count_Naive_Bayes.Counts fold : folds) {
+                total.add(fold);
+            }
+            classifier.setCounts(header, total);
+            long buildTime = System.currentTimeMillis();
+
+            // Pass 2: fold f's rows are scored by the total minus fold f, one task per fold
+            final Count_Naive_Bayes[] models = new Count_Naive_Bayes[numFolds];
+            final Evaluation[] evaluations = new Evaluation[numFolds];
+            for (int f = 0; f < numFolds; f++) {
+                Count_Naive_Bayes.Counts train = total.copy();
+                train.subtract(folds[f]);
+                models[f] = new Count_Naive_Bayes();
+                models[f].setCounts(header, train);
+                evaluations[f] = new Evaluation(header);
+                evaluations[f].setDiscardPredictions(true);
+                evaluations[f].setPriors(Count_Naive_Bayes.priorRows(header, train));
+            }
+            numRows = 0;
+            try (Streaming_Rating_Loader loader = new Streaming_Rating_Loader("../../dataset/raw/rating.csv", anime,
+                    header, 100000)) {
+                Instances chunk;
+                while ((chunk = loader.nextChunk()) != null) {
+                    final Instances rows = chunk;
+                    final long first = numRows;
+                    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                    for (int f = 0; f < numFolds; f++) {
+                        final int fold = f;
+                        futures.add(pool.submit(() -> {
+                            int start = (int) ((fold - first % numFolds + numFolds) % numFolds);
+                            for (int i = start; i < rows.numInstances(); i += numFolds) {
+                                Instance instance = rows.instance(i);
+                                evaluations[fold].evaluateModelOnce(models[fold].distributionForInstance(instance),
+                                        instance);
+                            }
+                            return null;
+                        }));
+                    }
+                    getAll(futures);
+                    numRows += rows.numInstances();
+                }
+            }
+            AggregateableEvaluation eval = new AggregateableEvaluation(header);
+            for (Evaluation evaluation : evaluations) {
+                eval.aggregate(evaluation);
+            }
+            long endTime = System.currentTimeMillis();
+
+            printRunInformation(out, classifier, header, numRows,
+                    numFolds + "-fold cross-validation over rating.csv (row i in fold i mod " + numFolds + ")");
+            out.println("=== Classifier model (full rating stream) ===");
+            out.println();
+            out.println(classifier.toString());
+            out.println("Time taken to stream and count rating.csv : "
+                    + String.format("%.2f", (buildTime - startTime) / 1000.0) + " seconds");
+            out.println("Time taken to stream and cross-validate : "
+                    + String.format("%.2f", (endTime - buildTime) / 1000.0) + " seconds");
+            out.println();
+
+            out.println("=== Cross-validation ===");
+            printEvaluation(out, eval);
+            return classifier;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Count_Naive_Bayes.Counts[] newFolds(Instances header, int numFolds) {
+        Count_Naive_Bayes.Counts[] folds = new Count_Naive_Bayes.Counts[numFolds];
+        for (int f = 0; f < numFolds; f++) {
+            folds[f] = new Count_Naive_Bayes.Counts(header);
+        }
+        return folds;
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) throws Exception {
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private static void printRunInformation(PrintStream out, Count_Naive_Bayes classifier, Instances data,
+            long numRows, String testMode) {
+        out.println("=== Run information ===");
+        out.println();
+        out.println("Scheme:       Count_Naive_Bayes -num-threads " + classifier.getNumThreads());
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + numRows);
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    " + testMode);
+        out.println();
+    }
+
+    private static void printEvaluation(PrintStream out, Evaluation evaluation) throws Exception {
+        out.println(evaluation.toSummaryString("=== Summary ===", false));
+        out.println(evaluation.toClassDetailsString("=== Detailed Accuracy By Class ==="));
+        out.println(evaluation.toMatrixString("=== Confusion Matrix ==="));
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Minimal RFC 4180 reader for the raw Kaggle CSV files (anime.csv, rating.csv).
+// Quoted fields may contain commas, doubled quotes and line breaks.
+public class Csv_Reader implements Closeable {
+
+    private final BufferedReader reader;
+    private final List<String> fields = new ArrayList<String>();
+    private final StringBuilder field = new StringBuilder();
+
+    public Csv_Reader(String path) throws IOException {
+        this(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8));
+    }
+
+    public Csv_Reader(Reader in) {
+        this.reader = new BufferedReader(in, 1 << 16);
+    }
+
+    // Returns the next record, or null at end of file
+    public String[] next() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (!quoted) {
+                break;
+            }
+            // Line break inside a quoted field
+            line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            field.append('\n');
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    // Fast path for purely numeric records such as rating.csv (user_id,anime_id,rating)
+    public static int parseInts(String line, int[] out) {
+        int count = 0;
+        int value = 0;
+        boolean negative = false;
+        boolean any = false;
+        for (int i = 0; i <= line.length(); i++) {
+            char c = i < line.length() ? line.charAt(i) : ',';
+            if (c == ',') {
+                if (count < out.length) {
+                    out[count] = any ? (negative ? -value : value) : Integer.MIN_VALUE;
+                }
+                count++;
+                value = 0;
+                negative = false;
+                any = false;
+            } else if (c == '-') {
+                negative = true;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                any = true;
+            }
+        }
+        return count;
+    }
+
+    // Same as parseInts(String, int[]) on the ASCII line buffer[from, to), so numeric
+    // files can be parsed straight from the bytes read without decoding them
+    public static int parseInts(byte[] buffer, int from, int to, int[] out) {
+        int count = 0;
+        int value = 0;
+        boolean negative = false;
+        boolean any = false;
+        for (int i = from; i <= to; i++) {
+            byte c = i < to ? buffer[i] : (byte) ',';
+            if (c == ',') {
+                if (count < out.length) {
+                    out[count] = any ? (negative ? -value : value) : Integer.MIN_VALUE;
+                }
+                count++;
+                value = 0;
+                negative = false;
+                any = false;
+            } else if (c == '-') {
+                negative = true;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                any = true;
+            }
+        }
+        return count;
+    }
+
+    // Raw line access for callers that use parseInts()
+    public String nextLine() throws IOException {
+        return reader.readLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
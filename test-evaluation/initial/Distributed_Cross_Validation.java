@@ -0,0 +1,588 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.AggregateableEvaluation;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.SerializedObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Usage: java Distributed_Cross_Validation -worker <host>:<port>
+//        java Distributed_Cross_Validation [-spawn <n>] [-workers <n>] [-port <port>] [-bind <address>]
+//
+// Cross-validation spread over worker JVMs, each with its own heap and GC. The
+// coordinator listens on a socket; workers connect to it and run the tasks it sends,
+// one at a time, and send back the result. A dataset is sent to a worker once and kept
+// there (the last 8 by content hash), so a task only carries its own small state.
+//
+// crossValidateModel() randomizes and stratifies the data on the calling thread exactly
+// like Evaluation.crossValidateModel(), then sends one task per fold. trainCV() shuffles
+// each training fold with the shared Random, so every task carries a copy of that Random
+// as it was before its fold was cut, and the worker cuts the same fold. The workers'
+// Evaluation objects are aggregated in fold order, which gives the same summary, class
+// details and confusion matrix as Parallel_Cross_Validation. submit() runs any other
+// Task, e.g. a whole scheme (see Experiment_Runner -spawn).
+//
+// A worker that disconnects has its task queued again for the others, once: a task that
+// has lost MAX_ATTEMPTS workers fails, naming the task and the last disconnect, so a task
+// that kills its worker (e.g. out of memory) cannot take down the whole pool. When the
+// last worker goes, the queued tasks fail. A task that throws fails with the worker's
+// exception, or with its text and stack trace if the exception cannot be serialized.
+// The protocol is Java serialization without any authentication, so the coordinator
+// binds to the loopback address unless -bind names another one; only do that on a
+// trusted network.
+//
+// -worker runs a worker. Without it, main() starts a coordinator, starts -spawn local
+// worker JVMs (default 3) and/or waits for -workers more, cross-validates J48 and
+// NaiveBayes on combined-cleaned.arff both locally and on the workers, and checks
+// that the reports are the same.
+public class Distributed_Cross_Validation implements Closeable {
+
+    // Work run on a worker, on the dataset it was submitted with
+    public interface Task<T extends Serializable> extends Serializable {
+        T run(Instances data) throws Exception;
+    }
+
+    // A dataset serialized once, to be sent to each worker that does not hold it yet
+    public static final class Dataset {
+        final byte[] bytes;
+        final String hash;
+
+        Dataset(byte[] bytes) throws Exception {
+            this.bytes = bytes;
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            this.hash = hex.toString();
+        }
+    }
+
+    // What a fold task sends back: its evaluation and the phases it recorded on the worker
+    static final class Fold_Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Evaluation evaluation;
+        final List<Phase_Metrics.Phase> phases;
+
+        Fold_Result(Evaluation evaluation, List<Phase_Metrics.Phase> phases) {
+            this.evaluation = evaluation;
+            this.phases = phases;
+        }
+    }
+
+    // Trains on one training fold and evaluates on its test fold, as Parallel_Cross_Validation does
+    static final class Fold_Task implements Task<Fold_Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final Classifier classifier;
+        private final int numFolds;
+        private final int fold;
+        private final Random random;
+
+        Fold_Task(Classifier classifier, int numFolds, int fold, Random random) {
+            this.classifier = classifier;
+            this.numFolds = numFolds;
+            this.fold = fold;
+            this.random = random;
+        }
+
+        @Override
+        public String toString() {
+            return "fold " + fold + " of " + numFolds + " (" + classifier.getClass().getName() + ")";
+        }
+
+        @Override
+        public Fold_Result run(Instances randomized) throws Exception {
+            Phase_Metrics metrics = new Phase_Metrics("fold " + fold);
+            Instances train = randomized.trainCV(numFolds, fold, random);
+            Instances test = randomized.testCV(numFolds, fold);
+            Phase_Metrics.run(metrics, "fold " + fold + " train", () -> classifier.buildClassifier(train));
+            // The constructor sets the priors from the training fold, like setPriors(train)
+            Evaluation evaluation = new Evaluation(train);
+            Phase_Metrics.run(metrics, "fold " + fold + " test", () -> evaluation.evaluateModel(classifier, test));
+            return new Fold_Result(evaluation, metrics.getPhases());
+        }
+    }
+
+    // Workers a task may lose before it fails
+    static final int MAX_ATTEMPTS = 2;
+
+    // A submitted task waiting for, or running on, a worker
+    private static final class Job {
+        final long id;
+        final Dataset dataset;
+        final byte[] task;
+        final String name;
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        // Workers that disconnected while running it
+        int attempts;
+
+        Job(long id, Dataset dataset, byte[] task, String name) {
+            this.id = id;
+            this.dataset = dataset;
+            this.task = task;
+            this.name = name;
+        }
+    }
+
+    // Message types
+    private static final byte DATA = 'D';
+    private static final byte TASK = 'T';
+    private static final byte QUIT = 'Q';
+    private static final byte RESULT = 'R';
+    private static final byte FAILURE = 'F';
+
+    // Datasets a worker keeps, least recently used first out
+    private static final int MAX_DATASETS = 8;
+
+    private final ServerSocket server;
+    private final LinkedBlockingDeque<Job> queue = new LinkedBlockingDeque<Job>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger numWorkers = new AtomicInteger();
+    private volatile boolean connected;
+    private final List<Process> processes = new ArrayList<Process>();
+    private final List<Thread> connections = new ArrayList<Thread>();
+    private volatile boolean closed;
+
+    // Listens on port (0 = any free port) of the loopback address
+    public Distributed_Cross_Validation(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public Distributed_Cross_Validation(InetAddress bindAddress, int port) throws IOException {
+        server = new ServerSocket(port, 50, bindAddress);
+        Thread acceptor = new Thread(this::accept, "coordinator-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int numWorkers() {
+        return numWorkers.get();
+    }
+
+    // Starts n worker JVMs on this machine with this JVM's class path and the given JVM options
+    public void spawnWorkers(int n, String... jvmOptions) throws IOException {
+        for (int i = 0; i < n; i++) {
+            List<String> command = new ArrayList<String>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            for (String option : jvmOptions) {
+                command.add(option);
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(Distributed_Cross_Validation.class.getName());
+            command.add("-worker");
+            command.add(server.getInetAddress().getHostAddress() + ":" + getPort());
+            synchronized (processes) {
+                processes.add(new ProcessBuilder(command).inheritIO().start());
+            }
+        }
+    }
+
+    // Waits until at least n workers are connected
+    public void awaitWorkers(int n, long timeoutMillis) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (numWorkers.get() < n) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new Exception("Only " + numWorkers.get() + " of " + n + " workers connected to port "
+                        + getPort());
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    // Serializes data once for any number of submit() calls
+    public Dataset share(Instances data) throws Exception {
+        return new Dataset(serialize(data));
+    }
+
+    // Queues task to run on the next free worker with the given dataset
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> Future<T> submit(Dataset dataset, Task<T> task) throws Exception {
+        if (closed) {
+            throw new IOException("Coordinator is closed");
+        }
+        Job job = new Job(nextId.getAndIncrement(), dataset, serialize(task), task.toString());
+        queue.add(job);
+        // Tasks wait for the first worker, but not for a new one after the last has gone
+        if (connected && numWorkers.get() == 0) {
+            failQueued(new IOException("No workers left"));
+        }
+        return (Future<T>) (Future<?>) job.result;
+    }
+
+    // Distributed Evaluation.crossValidateModel(): one task per fold, aggregated in fold order
+    public Evaluation crossValidateModel(Classifier classifier, Instances data, int numFolds, Random random)
+            throws Exception {
+        final Phase_Metrics metrics = Phase_Metrics.current();
+
+        // Same preparation as weka.classifiers.evaluation.Evaluation.crossValidateModel
+        final Instances randomized = new Instances(data);
+        List<Future<Fold_Result>> folds = new ArrayList<Future<Fold_Result>>();
+        Phase_Metrics.run(metrics, "split", () -> {
+            randomized.randomize(random);
+            if (randomized.classAttribute().isNominal()) {
+                randomized.stratify(numFolds);
+            }
+            Dataset dataset = share(randomized);
+
+            // Each fold gets the Random as trainCV() finds it, then the folds are cut here
+            // in order only to move the shared Random on
+            for (int i = 0; i < numFolds; i++) {
+                Random foldRandom = (Random) new SerializedObject(random).getObject();
+                folds.add(submit(dataset, new Fold_Task(AbstractClassifier.makeCopy(classifier), numFolds, i,
+                        foldRandom)));
+                randomized.trainCV(numFolds, i, random);
+            }
+        });
+
+        AggregateableEvaluation evaluation = new AggregateableEvaluation(randomized);
+        for (Future<Fold_Result> fold : folds) {
+            Fold_Result result = get(fold);
+            evaluation.aggregate(result.evaluation);
+            if (metrics != null) {
+                for (Phase_Metrics.Phase phase : result.phases) {
+                    metrics.add(phase);
+                }
+            }
+        }
+        return evaluation;
+    }
+
+    // Stops the workers (spawned ones are ended if they do not quit) and the listener
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        List<Thread> threads;
+        synchronized (connections) {
+            threads = new ArrayList<Thread>(connections);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (processes) {
+            for (Process process : processes) {
+                try {
+                    if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        failQueued(new IOException("Coordinator closed"));
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> serve(socket), "coordinator-" + socket.getRemoteSocketAddress());
+                connection.setDaemon(true);
+                synchronized (connections) {
+                    connections.add(connection);
+                }
+                numWorkers.incrementAndGet();
+                connected = true;
+                connection.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Feeds one worker from the queue until the coordinator closes or the worker goes away
+    private void serve(Socket socket) {
+        Map<String, Boolean> held = newCache();
+        Job job = null;
+        try (Socket s = socket;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16))) {
+            while (true) {
+                job = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (job == null) {
+                    if (closed) {
+                        out.writeByte(QUIT);
+                        out.flush();
+                        return;
+                    }
+                    continue;
+                }
+                // The worker's cache sees the same sequence of puts and gets, so both agree
+                if (held.get(job.dataset.hash) == null) {
+                    out.writeByte(DATA);
+                    out.writeUTF(job.dataset.hash);
+                    out.writeInt(job.dataset.bytes.length);
+                    out.write(job.dataset.bytes);
+                    held.put(job.dataset.hash, Boolean.TRUE);
+                }
+                out.writeByte(TASK);
+                out.writeLong(job.id);
+                out.writeUTF(job.dataset.hash);
+                out.writeInt(job.task.length);
+                out.write(job.task);
+                out.flush();
+
+                byte type = in.readByte();
+                long id = in.readLong();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                if (id != job.id) {
+                    throw new IOException("Worker answered task " + id + " instead of " + job.id);
+                }
+                if (type == RESULT) {
+                    job.result.complete(deserialize(payload));
+                } else {
+                    job.result.completeExceptionally((Throwable) deserialize(payload));
+                }
+                job = null;
+            }
+        } catch (Exception e) {
+            if (job != null && !job.result.isDone()) {
+                if (e instanceof IOException && ++job.attempts < MAX_ATTEMPTS) {
+                    // The worker went away: give its task to another one
+                    queue.addFirst(job);
+                } else if (e instanceof IOException) {
+                    job.result.completeExceptionally(new IOException("Task " + job.name + " lost " + job.attempts
+                            + " workers, the last one " + socket.getRemoteSocketAddress() + ": " + e, e));
+                } else {
+                    job.result.completeExceptionally(e);
+                }
+            }
+            if (!closed) {
+                System.err.println("Worker " + socket.getRemoteSocketAddress() + " disconnected: " + e);
+            }
+        } finally {
+            // Nobody is left to run the queue, so do not leave its callers waiting
+            if (numWorkers.decrementAndGet() == 0) {
+                failQueued(new IOException("No workers left"));
+            }
+        }
+    }
+
+    private void failQueued(Exception e) {
+        Job job;
+        while ((job = queue.poll()) != null) {
+            job.result.completeExceptionally(e);
+        }
+    }
+
+    // Connects to the coordinator at host:port and runs its tasks until it says quit
+    public static void runWorker(String host, int port) throws Exception {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        Thread.currentThread().setName("worker " + name);
+        Map<String, Instances> datasets = newCache();
+        try (Socket socket = new Socket(host, port);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+            while (true) {
+                byte type = in.readByte();
+                if (type == QUIT) {
+                    return;
+                } else if (type == DATA) {
+                    String hash = in.readUTF();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    datasets.put(hash, (Instances) deserialize(bytes));
+                } else if (type == TASK) {
+                    long id = in.readLong();
+                    String hash = in.readUTF();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    byte[] payload;
+                    byte answer;
+                    try {
+                        Instances data = datasets.get(hash);
+                        if (data == null) {
+                            throw new Exception("Worker " + name + " does not hold dataset " + hash);
+                        }
+                        Task<?> task = (Task<?>) deserialize(bytes);
+                        payload = serialize(task.run(data));
+                        answer = RESULT;
+                    } catch (Exception | Error e) {
+                        if (e instanceof OutOfMemoryError || e instanceof VirtualMachineError) {
+                            throw (Error) e;
+                        }
+                        try {
+                            payload = serialize(e);
+                        } catch (IOException notSerializable) {
+                            // Something the exception holds is not Serializable: send its text
+                            Exception text = new Exception(e.toString());
+                            text.setStackTrace(e.getStackTrace());
+                            payload = serialize(text);
+                        }
+                        answer = FAILURE;
+                    }
+                    out.writeByte(answer);
+                    out.writeLong(id);
+                    out.writeInt(payload.length);
+                    out.write(payload);
+                    out.flush();
+                } else {
+                    throw new IOException("Unknown message type " + type);
+                }
+            }
+        } catch (SocketException e) {
+            // Coordinator gone
+        }
+    }
+
+    private static <V> Map<String, V> newCache() {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_DATASETS;
+            }
+        };
+    }
+
+    static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            int spawn = -1;
+            int external = 0;
+            int port = 0;
+            InetAddress bind = InetAddress.getLoopbackAddress();
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-worker") && i + 1 < args.length) {
+                    String address = args[++i];
+                    int colon = address.lastIndexOf(':');
+                    runWorker(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+                    return;
+                } else if (args[i].equals("-spawn") && i + 1 < args.length) {
+                    spawn = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-workers") && i + 1 < args.length) {
+                    external = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-port") && i + 1 < args.length) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-bind") && i + 1 < args.length) {
+                    bind = InetAddress.getByName(args[++i]);
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+            if (spawn < 0) {
+                spawn = external > 0 ? 0 : 3;
+            }
+
+            // Load data, class = last attribute (members_encoded) as in the drivers
+            Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+            data.setClassIndex(data.numAttributes() - 1);
+
+            boolean same = true;
+            try (Distributed_Cross_Validation coordinator = new Distributed_Cross_Validation(bind, port)) {
+                if (external > 0) {
+                    System.out.println("Waiting for " + external + " workers: java Distributed_Cross_Validation"
+                            + " -worker " + bind.getHostAddress() + ":" + coordinator.getPort());
+                }
+                coordinator.spawnWorkers(spawn);
+                coordinator.awaitWorkers(spawn + external, 60000 + 600000L * external);
+                System.out.println(coordinator.numWorkers() + " workers connected on port " + coordinator.getPort());
+
+                Classifier[] classifiers = { new J48(), new NaiveBayes() };
+                for (Classifier classifier : classifiers) {
+                    long startTime = System.currentTimeMillis();
+                    Evaluation local = Parallel_Cross_Validation.crossValidateModel(classifier, data, 10,
+                            new Random(1));
+                    long localTime = System.currentTimeMillis();
+                    Evaluation distributed = coordinator.crossValidateModel(classifier, data, 10, new Random(1));
+                    long endTime = System.currentTimeMillis();
+
+                    boolean match = report(local).equals(report(distributed));
+                    same &= match;
+                    System.out.println(classifier.getClass().getSimpleName() + ": local "
+                            + String.format("%.2f", (localTime - startTime) / 1000.0)
+                            + " seconds, " + coordinator.numWorkers() + " workers "
+                            + String.format("%.2f", (endTime - localTime) / 1000.0)
+                            + " seconds, " + (match ? "same report" : "REPORTS DIFFER"));
+                    if (!match) {
+                        System.out.println(report(local));
+                        System.out.println(report(distributed));
+                    }
+                }
+            }
+            if (!same) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String report(Evaluation evaluation) throws Exception {
+        return evaluation.toSummaryString(false) + evaluation.toClassDetailsString() + evaluation.toMatrixString();
+    }
+}
@@ -0,0 +1,265 @@
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs several schemes in one JVM on a single load of the dataset.
+//
+// Usage: java Experiment_Runner [-o <output dir>] [-t <threads>] [-m <model dir>] [-rebuild]
+//                               [-spawn <n>] [-workers <n>] [-port <port>] [-all] [scheme ...]
+//
+// Schemes default to the six Weka drivers (DEFAULT_SCHEMES). Their Fast_* and Count_*
+// twins write the same reports faster, so they run only when named or with -all. Each
+// report is written to <output dir>/<Scheme>.txt
+// in the same format as the matching *_Classification main, next to <Scheme>.json with
+// the wall time, CPU time, allocated bytes and peak heap of its phases (see Phase_Metrics).
+// Each run is also appended as one line to metrics-history.jsonl, so runs can be compared
+// over time. Built models are kept in the model store (../../models, see Model_Store) and
+// reused by later runs on the same data; -rebuild ignores the stored models.
+//
+// -spawn starts n local worker JVMs and -workers waits for n more started by hand with
+// "java Distributed_Cross_Validation -worker <host>:<port>" (see Distributed_Cross_Validation).
+// Schemes that cross-validate with Parallel_Cross_Validation then send their folds to the
+// workers; the other schemes are sent to a worker whole. Reports are the same either way.
+public class Experiment_Runner {
+
+    // A driver's run(Instances, PrintStream) method
+    public interface Scheme {
+        void run(Instances data, PrintStream out) throws Exception;
+    }
+
+    static final Map<String, Scheme> SCHEMES = new LinkedHashMap<String, Scheme>();
+    static {
+        SCHEMES.put("ZeroR", ZeroR_Classification::run);
+        SCHEMES.put("Fast_ZeroR", Fast_ZeroR_Classification::run);
+        SCHEMES.put("OneR", OneR_Classification::run);
+        SCHEMES.put("Fast_OneR", Fast_OneR_Classification::run);
+        SCHEMES.put("J48", J48_Classification::run);
+        SCHEMES.put("Fast_J48", Fast_J48_Classification::run);
+        SCHEMES.put("Naive_Bayes", Naive_Bayes_Classification::run);
+        SCHEMES.put("Count_Naive_Bayes", Count_Naive_Bayes_Classification::run);
+        SCHEMES.put("K_Means", K_Means_Classification::run);
+        SCHEMES.put("Fast_K_Means", Fast_K_Means_Classification::run);
+        SCHEMES.put("Apriori", Apriori_Classification::run);
+        SCHEMES.put("Fast_Apriori", Fast_Apriori_Classification::run);
+    }
+
+    // What runs when no scheme is named
+    static final List<String> DEFAULT_SCHEMES = Arrays.asList("ZeroR", "OneR", "J48", "Naive_Bayes", "K_Means",
+            "Apriori");
+
+    // Schemes whose cross-validation goes through Parallel_Cross_Validation
+    static final Set<String> FOLD_SCHEMES = new HashSet<String>(
+            Arrays.asList("ZeroR", "OneR", "J48", "Fast_J48", "Naive_Bayes"));
+
+    // What a scheme sent to a worker sends back: its report and the phases of its run
+    static final class Scheme_Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final byte[] report;
+        final List<Phase_Metrics.Phase> phases;
+
+        Scheme_Result(byte[] report, List<Phase_Metrics.Phase> phases) {
+            this.report = report;
+            this.phases = phases;
+        }
+    }
+
+    // Runs a whole scheme on a worker, with the coordinator's model store settings
+    static final class Scheme_Task implements Distributed_Cross_Validation.Task<Scheme_Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final File modelDirectory;
+        private final boolean rebuild;
+
+        Scheme_Task(String name, File modelDirectory, boolean rebuild) {
+            this.name = name;
+            this.modelDirectory = modelDirectory;
+            this.rebuild = rebuild;
+        }
+
+        @Override
+        public String toString() {
+            return "scheme " + name;
+        }
+
+        @Override
+        public Scheme_Result run(Instances data) throws Exception {
+            Model_Store.setDirectory(modelDirectory);
+            Model_Store.setRebuild(rebuild);
+            Phase_Metrics metrics = new Phase_Metrics(name);
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            Phase_Metrics.setCurrent(metrics);
+            try (PrintStream out = new PrintStream(report, false, "UTF-8")) {
+                Instances copy = new Instances(data);
+                Phase_Metrics.run(metrics, "run", () -> SCHEMES.get(name).run(copy, out));
+            } finally {
+                Phase_Metrics.setCurrent(null);
+            }
+            return new Scheme_Result(report.toByteArray(), metrics.getPhases());
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            String outputDir = "../../results/initial";
+            int numThreads = 0;
+            int spawn = 0;
+            int external = 0;
+            int port = 0;
+            List<String> schemes = new ArrayList<String>();
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-o") && i + 1 < args.length) {
+                    outputDir = args[++i];
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-m") && i + 1 < args.length) {
+                    Model_Store.setDirectory(new File(args[++i]));
+                } else if (args[i].equals("-rebuild")) {
+                    Model_Store.setRebuild(true);
+                } else if (args[i].equals("-spawn") && i + 1 < args.length) {
+                    spawn = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-workers") && i + 1 < args.length) {
+                    external = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-port") && i + 1 < args.length) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-all") || SCHEMES.containsKey(args[i])) {
+                    for (String name : args[i].equals("-all") ? SCHEMES.keySet() : Arrays.asList(args[i])) {
+                        if (!schemes.contains(name)) {
+                            schemes.add(name);
+                        }
+                    }
+                } else {
+                    System.err.println("Unknown scheme or option: " + args[i]);
+                    System.err.println("Usage: java Experiment_Runner [-o <output dir>] [-t <threads>] [-m <model dir>] [-rebuild] "
+                            + "[-spawn <n>] [-workers <n>] [-port <port>] [-all] " + String.join(" ", SCHEMES.keySet()));
+                    System.exit(1);
+                }
+            }
+            if (schemes.isEmpty()) {
+                schemes.addAll(DEFAULT_SCHEMES);
+            }
+
+            // Load data once
+            long startTime = System.currentTimeMillis();
+            Phase_Metrics loading = new Phase_Metrics("load");
+            Instances data = loading.record("load",
+                    () -> Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff"));
+            System.out.println("Loaded " + data.numInstances() + " instances in "
+                    + String.format("%.2f", (System.currentTimeMillis() - startTime) / 1000.0).replace(",", ".")
+                    + " seconds");
+
+            boolean ok;
+            if (spawn + external > 0) {
+                try (Distributed_Cross_Validation coordinator = new Distributed_Cross_Validation(port)) {
+                    if (external > 0) {
+                        System.out.println("Waiting for " + external + " workers: java Distributed_Cross_Validation"
+                                + " -worker localhost:" + coordinator.getPort());
+                    }
+                    coordinator.spawnWorkers(spawn);
+                    coordinator.awaitWorkers(spawn + external, 60000 + 600000L * external);
+                    System.out.println(coordinator.numWorkers() + " workers connected");
+                    ok = runAll(data, schemes, new File(outputDir), numThreads, loading.getPhases(), coordinator);
+                }
+            } else {
+                ok = runAll(data, schemes, new File(outputDir), numThreads, loading.getPhases());
+            }
+            System.out.println("Done. Results are in '" + outputDir + "'.");
+            if (!ok) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the schemes concurrently, each on its own shallow copy of data. Returns false if any scheme failed.
+    public static boolean runAll(Instances data, List<String> schemes, File outputDir, int numThreads)
+            throws Exception {
+        return runAll(data, schemes, outputDir, numThreads, new ArrayList<Phase_Metrics.Phase>());
+    }
+
+    // As above, with the phases that prepared data (e.g. its load) added to every scheme's metrics
+    public static boolean runAll(Instances data, List<String> schemes, File outputDir, int numThreads,
+            List<Phase_Metrics.Phase> shared) throws Exception {
+        return runAll(data, schemes, outputDir, numThreads, shared, null);
+    }
+
+    // As above, with the work spread over the coordinator's workers when it is not null
+    public static boolean runAll(Instances data, List<String> schemes, File outputDir, int numThreads,
+            List<Phase_Metrics.Phase> shared, Distributed_Cross_Validation coordinator) throws Exception {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new Exception("Cannot create output directory " + outputDir);
+        }
+        int threads = numThreads > 0 ? numThreads : schemes.size();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, schemes.size())));
+        Distributed_Cross_Validation.Dataset dataset = coordinator != null ? coordinator.share(data) : null;
+        Parallel_Cross_Validation.setWorkers(coordinator);
+        try {
+            Map<String, Future<Double>> runs = new LinkedHashMap<String, Future<Double>>();
+            for (final String name : schemes) {
+                final Scheme scheme = SCHEMES.get(name);
+                // Schemes set their own class index, so each one gets its own Instances
+                // object; the instance values themselves are shared, not copied.
+                final Instances copy = new Instances(data);
+                final File report = new File(outputDir, name + ".txt");
+                final Phase_Metrics metrics = new Phase_Metrics(name);
+                for (Phase_Metrics.Phase phase : shared) {
+                    metrics.add(phase);
+                }
+                runs.put(name, pool.submit(() -> {
+                    long start = System.currentTimeMillis();
+                    Phase_Metrics.setCurrent(metrics);
+                    try (PrintStream out = new PrintStream(new FileOutputStream(report), false, "UTF-8")) {
+                        if (coordinator != null && !FOLD_SCHEMES.contains(name)) {
+                            Scheme_Result result = Distributed_Cross_Validation.get(coordinator.submit(dataset,
+                                    new Scheme_Task(name, Model_Store.getDirectory(), Model_Store.isRebuild())));
+                            out.write(result.report);
+                            for (Phase_Metrics.Phase phase : result.phases) {
+                                metrics.add(phase);
+                            }
+                        } else {
+                            Phase_Metrics.run(metrics, "run", () -> scheme.run(copy, out));
+                        }
+                    } finally {
+                        Phase_Metrics.setCurrent(null);
+                    }
+                    metrics.writeJson(new File(outputDir, name + ".json"));
+                    metrics.appendJsonLine(new File(outputDir, "metrics-history.jsonl"));
+                    return (System.currentTimeMillis() - start) / 1000.0;
+                }));
+            }
+
+            boolean ok = true;
+            for (Map.Entry<String, Future<Double>> run : runs.entrySet()) {
+                try {
+                    double seconds = run.getValue().get();
+                    System.out.println("Running " + run.getKey() + "... "
+                            + String.format("%.2f", seconds).replace(",", ".") + " seconds");
+                } catch (Exception e) {
+                    ok = false;
+                    System.out.println("Running " + run.getKey() + "... failed");
+                    (e.getCause() != null ? e.getCause() : e).printStackTrace();
+                }
+            }
+            return ok;
+        } finally {
+            Parallel_Cross_Validation.setWorkers(null);
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import weka.core.Instances;
+
+import java.io.PrintStream;
+
+// Usage: java Fast_Apriori_Classification [-full] [-M <lower bound min support>]
+//
+// -full mines every row of rating.csv instead of the 10,000-row sample, -M lowers
+// the minimum support Apriori stops at (default 0.1).
+public class Fast_Apriori_Classification {
+    public static void main(String[] args) {
+        try {
+            boolean full = false;
+            double lowerBound = 0.1;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-full")) {
+                    full = true;
+                } else if (args[i].equals("-M") && i + 1 < args.length) {
+                    lowerBound = Double.parseDouble(args[++i]);
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            if (full) {
+                runFull(lowerBound, System.out);
+            } else {
+                // Load data
+                Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+                run(data, lowerBound, System.out);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the scheme on data and prints the report to out, in the same layout as Apriori_Classification
+    public static void run(Instances data, PrintStream out) throws Exception {
+        run(data, 0.1, out);
+    }
+
+    public static Fast_Apriori run(Instances data, double lowerBound, PrintStream out) throws Exception {
+        // No class index for Apriori (-c -1)
+        data.setClassIndex(-1);
+
+        // Initialize Fast_Apriori with the Apriori settings -N 10 -T 0 -C 0.9 -D 0.05 -U 1.0 -M 0.1
+        Fast_Apriori associator = newAssociator(lowerBound);
+
+        // 1. Build associator on full training set, or load it from the store. Stored models
+        // are keyed by scheme, options and data (see Model_Store); the thread count does
+        // not change the rules and is left out.
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<Fast_Apriori> model = Model_Store.getOrBuild("Fast_Apriori", "-N "
+                + associator.getNumRules() + " -C " + associator.getMinConfidence() + " -D " + associator.getDelta()
+                + " -U " + associator.getUpperBoundMinSupport() + " -M " + associator.getLowerBoundMinSupport(),
+                data, () -> {
+                    associator.buildAssociations(data);
+                    return associator;
+                });
+        long endTime = System.currentTimeMillis();
+        double timeTaken = (endTime - startTime) / 1000.0;
+
+        // Print Run Information
+        printRunInformation(out, associator, data, data.numInstances());
+
+        out.println(model.get().toString());
+        out.println("Time taken to " + model.action() + " model (full training data) : "
+                + String.format("%.2f", timeTaken) + " seconds");
+        return model.get();
+    }
+
+    // Streams all of rating.csv into the item bitsets, mines them and prints the report to out
+    public static Fast_Apriori runFull(double lowerBound, PrintStream out) throws Exception {
+        Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv");
+        Instances header = Streaming_Rating_Loader.readHeader("../../dataset/initial/combined-cleaned.arff");
+        header.setClassIndex(-1);
+
+        Fast_Apriori associator = newAssociator(lowerBound);
+        long startTime = System.currentTimeMillis();
+        long numRows = 0;
+        // 1. Set the item bits of every rating, then mine them
+        associator.startBuild(header);
+        try (Streaming_Rating_Loader loader = new Streaming_Rating_Loader("../../dataset/raw/rating.csv", anime,
+                header, 100000)) {
+            Instances chunk;
+            while ((chunk = loader.nextChunk()) != null) {
+                associator.addInstances(chunk);
+                numRows += chunk.numInstances();
+            }
+        }
+        long loadTime = System.currentTimeMillis();
+        associator.finishBuild();
+        long endTime = System.currentTimeMillis();
+
+        // Print Run Information
+        printRunInformation(out, associator, header, numRows);
+        out.println(associator.toString());
+        out.println("Time taken to stream rating.csv : " + String.format("%.2f", (loadTime - startTime) / 1000.0)
+                + " seconds");
+        out.println("Time taken to build model (full training data) : "
+                + String.format("%.2f", (endTime - loadTime) / 1000.0) + " seconds");
+        return associator;
+    }
+
+    private static Fast_Apriori newAssociator(double lowerBound) {
+        Fast_Apriori associator = new Fast_Apriori();
+        associator.setNumRules(10);
+        associator.setMinConfidence(0.9);
+        associator.setDelta(0.05);
+        associator.setUpperBoundMinSupport(1.0);
+        associator.setLowerBoundMinSupport(lowerBound);
+        return associator;
+    }
+
+    private static void printRunInformation(PrintStream out, Fast_Apriori associator, Instances data, long numRows) {
+        out.println("=== Run information ===");
+        out.println();
+        out.println("Scheme:       Fast_Apriori -N " + associator.getNumRules() + " -C " + associator.getMinConfidence()
+                + " -D " + associator.getDelta() + " -U " + associator.getUpperBoundMinSupport() + " -M "
+                + associator.getLowerBoundMinSupport() + " -num-threads " + associator.getNumThreads());
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + numRows);
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("=== Associator model (full training set) ===");
+        out.println();
+    }
+}
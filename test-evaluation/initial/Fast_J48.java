@@ -0,0 +1,403 @@
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.C45ModelSelection;
+import weka.classifiers.trees.j48.C45PruneableClassifierTree;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.Distribution;
+import weka.classifiers.trees.j48.ModelSelection;
+import weka.classifiers.trees.j48.NoSplit;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Usage: java Fast_J48 [-full] [-t <threads>]
+//
+// J48 with the C4.5 tree grown on a fork-join pool. Each node evaluates the split of
+// every attribute as a separate task, the subtrees of a split are grown as separate
+// tasks, and so are the subtrees pruned before their parent is. Nodes with fewer than
+// MIN_PARALLEL_ROWS rows stay on the calling thread.
+//
+// Every task runs Weka's own code (C45Split, Distribution, the pruning of
+// C45PruneableClassifierTree) on the same rows in the same order as J48, and picks the
+// split with the same rule, so the tree and toString() are the same as J48's for the
+// same data and options. The exceptions: split statistics are computed in parallel only
+// when every attribute is nominal, since C45Split sorts the node's rows in place for a
+// numeric one; and -B and -R fall back to J48's serial build.
+//
+// When buildClassifier() is called from a fork-join pool (Parallel_Cross_Validation
+// runs its folds on one), the tasks go to that pool; otherwise a pool of getNumThreads()
+// threads is made for the build.
+//
+// main() builds J48 and Fast_J48 on combined-cleaned.arff, or with -full on every row of
+// rating.csv, checks that the trees print the same and times both.
+public class Fast_J48 extends J48 {
+
+    private static final long serialVersionUID = 1L;
+
+    // Smallest node whose work is split into tasks
+    static final int MIN_PARALLEL_ROWS = 2048;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    @Override
+    public void buildClassifier(Instances instances) throws Exception {
+        if (m_binarySplits || m_reducedErrorPruning) {
+            super.buildClassifier(instances);
+            return;
+        }
+        // The checks of J48.buildClassifier() that apply without -B and -R
+        if (m_unpruned && !m_subtreeRaising) {
+            throw new Exception("Subtree raising does not need to be unset for unpruned trees!");
+        }
+        if (m_unpruned && m_CF != 0.25f) {
+            throw new Exception("It does not make sense to change the confidence for an unpruned tree!");
+        }
+        if (m_numFolds != 3) {
+            throw new Exception(
+                    "Changing the number of folds does not make sense if reduced error pruning is not selected.");
+        }
+        if (m_Seed != 1) {
+            throw new Exception("Changing the seed does not make sense if reduced error pruning is not selected.");
+        }
+        if (m_CF <= 0 || m_CF >= 1) {
+            throw new Exception("Confidence has to be greater than zero and smaller than one!");
+        }
+        getCapabilities().testWithFail(instances);
+
+        Parallel_Selection selection = new Parallel_Selection(m_minNumObj, instances, m_useMDLcorrection,
+                m_doNotMakeSplitPointActualValue);
+        Parallel_Tree root = new Parallel_Tree(selection, !m_unpruned, m_CF, m_subtreeRaising, !m_noCleanup,
+                m_collapseTree);
+        m_root = root;
+        if (ForkJoinTask.inForkJoinPool() || numThreads <= 1) {
+            root.buildClassifier(instances);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                pool.submit(() -> {
+                    root.buildClassifier(instances);
+                    return null;
+                }).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        selection.cleanup();
+    }
+
+    // C45PruneableClassifierTree that grows and prunes the subtrees of a split as tasks
+    static final class Parallel_Tree extends C45PruneableClassifierTree {
+
+        private static final long serialVersionUID = 1L;
+
+        Parallel_Tree(ModelSelection selection, boolean pruneTree, float cf, boolean raiseTree, boolean cleanup,
+                boolean collapseTree) throws Exception {
+            super(selection, pruneTree, cf, raiseTree, cleanup, collapseTree);
+        }
+
+        // ClassifierTree.buildTree() with the sons built as tasks
+        @Override
+        public void buildTree(Instances data, boolean keepData) throws Exception {
+            if (keepData) {
+                m_train = data;
+            }
+            m_test = null;
+            m_isLeaf = false;
+            m_isEmpty = false;
+            m_sons = null;
+            m_localModel = m_toSelectModel.selectModel(data);
+            if (m_localModel.numSubsets() > 1) {
+                Instances[] localInstances = m_localModel.split(data);
+                m_sons = new ClassifierTree[m_localModel.numSubsets()];
+                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+                for (int i = 0; i < m_sons.length; i++) {
+                    final int son = i;
+                    final Instances subset = localInstances[i];
+                    localInstances[i] = null;
+                    Callable<Void> task = () -> {
+                        m_sons[son] = getNewTree(subset);
+                        return null;
+                    };
+                    if (subset.numInstances() >= MIN_PARALLEL_ROWS) {
+                        tasks.add(task);
+                    } else {
+                        task.call();
+                    }
+                }
+                invokeAll(tasks);
+            } else {
+                m_isLeaf = true;
+                if (Utils.eq(data.sumOfWeights(), 0)) {
+                    m_isEmpty = true;
+                }
+            }
+        }
+
+        @Override
+        protected ClassifierTree getNewTree(Instances data) throws Exception {
+            Parallel_Tree newTree = new Parallel_Tree(m_toSelectModel, m_pruneTheTree, m_CF, m_subtreeRaising,
+                    m_cleanup, m_collapseTheTree);
+            newTree.buildTree(data, m_subtreeRaising || !m_cleanup);
+            return newTree;
+        }
+
+        // C45PruneableClassifierTree.prune() with the sons pruned as tasks; a son only
+        // touches its own subtree, so the order does not matter
+        @Override
+        public void prune() throws Exception {
+            if (m_isLeaf) {
+                return;
+            }
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < m_sons.length; i++) {
+                Parallel_Tree son = tree(i);
+                Callable<Void> task = () -> {
+                    son.prune();
+                    return null;
+                };
+                if (son.localModel().distribution().total() >= MIN_PARALLEL_ROWS) {
+                    tasks.add(task);
+                } else {
+                    task.call();
+                }
+            }
+            invokeAll(tasks);
+
+            int indexOfLargestBranch = localModel().distribution().maxBag();
+            double errorsLargestBranch = m_subtreeRaising
+                    ? tree(indexOfLargestBranch).getEstimatedErrorsForBranch(m_train)
+                    : Double.MAX_VALUE;
+            double errorsLeaf = getEstimatedErrorsForDistribution(localModel().distribution());
+            double errorsTree = getEstimatedErrors();
+            if (Utils.smOrEq(errorsLeaf, errorsTree + 0.1) && Utils.smOrEq(errorsLeaf, errorsLargestBranch + 0.1)) {
+                m_sons = null;
+                m_isLeaf = true;
+                m_localModel = new NoSplit(localModel().distribution());
+                return;
+            }
+            if (Utils.smOrEq(errorsLargestBranch, errorsTree + 0.1)) {
+                Parallel_Tree largestBranch = tree(indexOfLargestBranch);
+                m_sons = largestBranch.m_sons;
+                m_localModel = largestBranch.localModel();
+                m_isLeaf = largestBranch.m_isLeaf;
+                newDistribution(m_train);
+                prune();
+            }
+        }
+
+        private Parallel_Tree tree(int index) {
+            return (Parallel_Tree) m_sons[index];
+        }
+    }
+
+    // C45ModelSelection that builds the C45Split of each attribute as a task
+    static final class Parallel_Selection extends C45ModelSelection {
+
+        private static final long serialVersionUID = 1L;
+
+        Parallel_Selection(int minNoObj, Instances allData, boolean useMDLcorrection,
+                boolean doNotMakeSplitPointActualValue) {
+            super(minNoObj, allData, useMDLcorrection, doNotMakeSplitPointActualValue);
+        }
+
+        // C45ModelSelection.selectModel() with the splits built as tasks
+        @Override
+        public ClassifierSplitModel selectModel(Instances data) {
+            try {
+                Distribution checkDistribution = new Distribution(data);
+                NoSplit noSplitModel = new NoSplit(checkDistribution);
+                if (Utils.sm(checkDistribution.total(), 2 * m_minNoObj) || Utils.eq(checkDistribution.total(),
+                        checkDistribution.perClass(checkDistribution.maxClass()))) {
+                    return noSplitModel;
+                }
+
+                // Check if all attributes are nominal and have a lot of values
+                boolean multiVal = true;
+                boolean allNominal = true;
+                Enumeration<Attribute> enu = data.enumerateAttributes();
+                while (enu.hasMoreElements()) {
+                    Attribute attribute = enu.nextElement();
+                    if (attribute.isNumeric()) {
+                        allNominal = false;
+                    }
+                    if (m_allData != null && (attribute.isNumeric()
+                            || Utils.sm(attribute.numValues(), 0.3 * m_allData.numInstances()))) {
+                        multiVal = false;
+                    }
+                }
+
+                final C45Split[] currentModel = new C45Split[data.numAttributes()];
+                final double sumOfWeights = data.sumOfWeights();
+                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+                for (int i = 0; i < data.numAttributes(); i++) {
+                    if (i != data.classIndex()) {
+                        final int attIndex = i;
+                        currentModel[i] = new C45Split(i, m_minNoObj, sumOfWeights, m_useMDLcorrection);
+                        Callable<Void> task = () -> {
+                            currentModel[attIndex].buildClassifier(data);
+                            return null;
+                        };
+                        if (allNominal && data.numInstances() >= MIN_PARALLEL_ROWS) {
+                            tasks.add(task);
+                        } else {
+                            task.call();
+                        }
+                    }
+                }
+                invokeAll(tasks);
+
+                // Average info gain of the splits that are allowed
+                double averageInfoGain = 0;
+                int validModels = 0;
+                for (int i = 0; i < data.numAttributes(); i++) {
+                    if (i != data.classIndex() && currentModel[i].checkModel()) {
+                        if (m_allData != null && !data.attribute(i).isNumeric() && !multiVal
+                                && !Utils.sm(data.attribute(i).numValues(), 0.3 * m_allData.numInstances())) {
+                            continue;
+                        }
+                        averageInfoGain += currentModel[i].infoGain();
+                        validModels++;
+                    }
+                }
+                if (validModels == 0) {
+                    return noSplitModel;
+                }
+                averageInfoGain /= validModels;
+
+                // Best gain ratio among the splits with at least average info gain
+                C45Split bestModel = null;
+                double minResult = 0;
+                for (int i = 0; i < data.numAttributes(); i++) {
+                    if (i != data.classIndex() && currentModel[i].checkModel()
+                            && currentModel[i].infoGain() >= averageInfoGain - 1e-3
+                            && Utils.gr(currentModel[i].gainRatio(), minResult)) {
+                        bestModel = currentModel[i];
+                        minResult = currentModel[i].gainRatio();
+                    }
+                }
+                if (Utils.eq(minResult, 0)) {
+                    return noSplitModel;
+                }
+
+                bestModel.distribution().addInstWithUnknown(data, bestModel.attIndex());
+                if (m_allData != null && !m_doNotMakeSplitPointActualValue) {
+                    bestModel.setSplitPoint(m_allData);
+                }
+                return bestModel;
+            } catch (Exception e) {
+                // As C45ModelSelection does
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    // Runs the tasks on the current fork-join pool, or in order outside of one
+    private static void invokeAll(List<Callable<Void>> tasks) throws Exception {
+        if (tasks.size() <= 1 || !ForkJoinTask.inForkJoinPool()) {
+            for (Callable<Void> task : tasks) {
+                task.call();
+            }
+            return;
+        }
+        List<ForkJoinTask<Void>> forks = new ArrayList<ForkJoinTask<Void>>(tasks.size());
+        for (Callable<Void> task : tasks) {
+            forks.add(ForkJoinTask.adapt(task));
+        }
+        ForkJoinTask.invokeAll(forks);
+        for (ForkJoinTask<Void> fork : forks) {
+            try {
+                fork.get();
+            } catch (ExecutionException e) {
+                // adapt() wraps checked exceptions in a RuntimeException
+                Throwable cause = e.getCause();
+                while (cause instanceof RuntimeException && cause.getCause() instanceof Exception) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            boolean full = false;
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-full")) {
+                    full = true;
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            // Load data, class = last attribute (members_encoded) as in J48_Classification
+            Instances data;
+            if (full) {
+                Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv");
+                Instances header = Streaming_Rating_Loader.readHeader("../../dataset/initial/combined-cleaned.arff");
+                try (Streaming_Rating_Loader loader = new Streaming_Rating_Loader("../../dataset/raw/rating.csv",
+                        anime, header, 100000)) {
+                    data = Columnar_Dataset.of(loader).asInstances();
+                }
+            } else {
+                data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+            }
+            data.setClassIndex(data.numAttributes() - 1);
+
+            // J48 first, so the JIT has warmed up the shared Weka code for both
+            J48 j48 = new J48();
+            j48.setConfidenceFactor(0.25f); // -C 0.25
+            j48.setMinNumObj(2); // -M 2
+            long startTime = System.currentTimeMillis();
+            j48.buildClassifier(data);
+            long j48Time = System.currentTimeMillis();
+
+            Fast_J48 fast = new Fast_J48();
+            fast.setConfidenceFactor(0.25f);
+            fast.setMinNumObj(2);
+            fast.setNumThreads(numThreads);
+            fast.buildClassifier(data);
+            long endTime = System.currentTimeMillis();
+
+            System.out.println("Rows: " + data.numInstances() + ", " + j48.measureNumLeaves() + " leaves, "
+                    + j48.measureTreeSize() + " nodes");
+            System.out.println("Time taken to build J48 : "
+                    + String.format("%.2f", (j48Time - startTime) / 1000.0) + " seconds");
+            System.out.println("Time taken to build Fast_J48 (" + numThreads + " threads) : "
+                    + String.format("%.2f", (endTime - j48Time) / 1000.0) + " seconds");
+            System.out.println(j48.toString().equals(fast.toString()) ? "Trees are identical"
+                    : "Trees differ:\n" + j48 + "\n" + fast);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+import weka.core.Utils;
+import java.io.PrintStream;
+import java.util.Random;
+
+public class Fast_J48_Classification {
+    public static void main(String[] args) {
+        try {
+            // Load data
+            Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+            run(data, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the scheme on data and prints the report to out, in the same layout as J48_Classification
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Set class index to the last attribute (members_encoded)
+        data.setClassIndex(data.numAttributes() - 1);
+
+        // Initialize Fast_J48 with options, same tree as J48 -C 0.25 -M 2
+        Fast_J48 classifier = new Fast_J48();
+        classifier.setOptions(Utils.splitOptions("-C 0.25 -M 2"));
+
+        // 1. Build model on full training set
+        // Stored models are keyed by scheme, options and data (see Model_Store); the
+        // thread count does not change the model and is left out
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<Fast_J48> model = Phase_Metrics.time("build",
+                () -> Model_Store.getOrBuild("Fast_J48", Utils.joinOptions(classifier.getOptions()), data, () -> {
+                    classifier.buildClassifier(data);
+                    return classifier;
+                }));
+        long endTime = System.currentTimeMillis();
+        double timeTaken = (endTime - startTime) / 1000.0;
+
+        // Print Run Information
+        out.println("=== Run information ===");
+        out.println();
+        String scheme = "Fast_J48 " + Utils.joinOptions(classifier.getOptions()) + " -num-threads "
+                + classifier.getNumThreads();
+        out.println("Scheme:       " + scheme);
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    10-fold cross-validation");
+        out.println();
+
+        // Print Classifier model
+        out.println("=== Classifier model (full training set) ===");
+        out.println();
+        out.println(model.get().toString());
+        out.println("Time taken to " + model.action() + " model: " + String.format("%.2f", timeTaken) + " seconds");
+        out.println();
+
+        // 2. Cross-validation; each fold's tree is grown on the cross-validation pool
+        Evaluation evaluation = Phase_Metrics.time("cross-validation",
+                () -> Model_Store.getOrBuild("Fast_J48", Utils.joinOptions(classifier.getOptions()) + " -x 10 -s 1",
+                        data,
+                        () -> Parallel_Cross_Validation.crossValidateModel(classifier, data, 10, new Random(1))).get());
+
+        Phase_Metrics.run("report", () -> {
+            out.println("=== Stratified cross-validation ===");
+            out.println(evaluation.toSummaryString("=== Summary ===", false));
+            out.println(evaluation.toClassDetailsString("=== Detailed Accuracy By Class ==="));
+            out.println(evaluation.toMatrixString("=== Confusion Matrix ==="));
+        });
+    }
+}
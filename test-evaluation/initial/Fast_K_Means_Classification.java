@@ -0,0 +1,228 @@
+import weka.clusterers.ClusterEvaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Usage: java Fast_K_Means_Classification [-full] [-save <model file>]
+//        java Fast_K_Means_Classification -update <model file> <ratings csv>
+//
+// -full clusters every row of rating.csv instead of the 10,000-row sample, -save
+// stores the clusterer, and -update restores it, adds the rows of a rating file
+// (same columns as rating.csv) in mini-batches and saves it again.
+public class Fast_K_Means_Classification {
+    public static void main(String[] args) {
+        try {
+            boolean full = false;
+            String saveFile = null;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-full")) {
+                    full = true;
+                } else if (args[i].equals("-save") && i + 1 < args.length) {
+                    saveFile = args[++i];
+                } else if (args[i].equals("-update") && i + 2 < args.length) {
+                    runUpdate(args[i + 1], args[i + 2], System.out);
+                    return;
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            Fast_K_Means clusterer;
+            if (full) {
+                clusterer = runFull(System.out);
+            } else {
+                // Load data
+                Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+                clusterer = run(data, System.out);
+            }
+            if (saveFile != null) {
+                SerializationHelper.write(saveFile, clusterer);
+                System.out.println("Model saved to " + saveFile);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the scheme on data and prints the report to out, in the same layout as K_Means_Classification
+    public static Fast_K_Means run(Instances data, PrintStream out) throws Exception {
+        // Do NOT set class index for clustering as per output analysis
+        // data.setClassIndex(0);
+
+        // Initialize Fast_K_Means with the SimpleKMeans settings -N 2 -I 500 -S 10
+        Fast_K_Means clusterer = newClusterer();
+
+        // 1. Build clusterer on full training set, or load it from the store. Stored models
+        // are keyed by scheme, options and data (see Model_Store); the thread count does
+        // not change the model and is left out.
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<Fast_K_Means> model = Model_Store.getOrBuild("Fast_K_Means", "-N "
+                + clusterer.getNumClusters() + " -I " + clusterer.getMaxIterations() + " -S " + clusterer.getSeed(),
+                data, () -> {
+                    clusterer.buildClusterer(data);
+                    return clusterer;
+                });
+        long endTime = System.currentTimeMillis();
+        double timeTaken = (endTime - startTime) / 1000.0;
+
+        // Print Run Information
+        printRunInformation(out, clusterer, data, data.numInstances(), "evaluate on training data");
+
+        // Print Clustering model
+        out.println("=== Clustering model (full training set) ===");
+        out.println();
+        out.println(model.get().toString());
+        out.println("Time taken to " + model.action() + " model (full training data) : "
+                + String.format("%.2f", timeTaken) + " seconds");
+        out.println();
+
+        // 2. Evaluation
+        out.println("=== Model and evaluation on training set ===");
+        out.println();
+
+        ClusterEvaluation eval = new ClusterEvaluation();
+        eval.setClusterer(model.get());
+        eval.evaluateClusterer(data);
+
+        out.println(eval.clusterResultsToString());
+        return model.get();
+    }
+
+    // Streams all of rating.csv into one matrix, clusters it and prints the report to out
+    public static Fast_K_Means runFull(PrintStream out) throws Exception {
+        Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv");
+        Instances header = Streaming_Rating_Loader.readHeader("../../dataset/initial/combined-cleaned.arff");
+        header.setClassIndex(-1);
+        int numAttributes = header.numAttributes();
+
+        long startTime = System.currentTimeMillis();
+        double[] matrix = new double[1 << 20];
+        int numRows = 0;
+        try (Streaming_Rating_Loader loader = new Streaming_Rating_Loader("../../dataset/raw/rating.csv", anime,
+                header, 100000)) {
+            Instances chunk;
+            while ((chunk = loader.nextChunk()) != null) {
+                long needed = (long) (numRows + chunk.numInstances()) * numAttributes;
+                if (needed > matrix.length) {
+                    matrix = Arrays.copyOf(matrix, (int) Math.min(Integer.MAX_VALUE - 8,
+                            Math.max(needed, matrix.length * 3L / 2)));
+                }
+                for (Instance instance : chunk) {
+                    for (int j = 0; j < numAttributes; j++) {
+                        matrix[numRows * numAttributes + j] = instance.value(j);
+                    }
+                    numRows++;
+                }
+            }
+        }
+        long loadTime = System.currentTimeMillis();
+
+        // 1. Build clusterer on every rating
+        Fast_K_Means clusterer = newClusterer();
+        clusterer.buildClusterer(header, matrix, null, numRows);
+        long endTime = System.currentTimeMillis();
+
+        // Print Run Information
+        printRunInformation(out, clusterer, header, numRows, "evaluate on training data (all of rating.csv)");
+
+        // Print Clustering model
+        out.println("=== Clustering model (full rating stream) ===");
+        out.println();
+        out.println(clusterer.toString());
+        out.println("Time taken to stream rating.csv : " + String.format("%.2f", (loadTime - startTime) / 1000.0)
+                + " seconds");
+        out.println("Time taken to build model (full training data) : "
+                + String.format("%.2f", (endTime - loadTime) / 1000.0) + " seconds");
+        out.println();
+
+        // 2. Evaluation
+        out.println("=== Model and evaluation on training set ===");
+        out.println();
+        out.println(clusteredInstances(clusterer.getClusterCounts()));
+        return clusterer;
+    }
+
+    // Restores the clusterer from modelFile, adds the rows of ratingCsv one chunk (mini-batch)
+    // at a time, saves it back and prints the report to out
+    public static Fast_K_Means runUpdate(String modelFile, String ratingCsv, PrintStream out) throws Exception {
+        Fast_K_Means clusterer = (Fast_K_Means) SerializationHelper.read(modelFile);
+        Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv");
+        Instances header = Streaming_Rating_Loader.readHeader("../../dataset/initial/combined-cleaned.arff");
+
+        long startTime = System.currentTimeMillis();
+        long numRows = 0;
+        try (Streaming_Rating_Loader loader = new Streaming_Rating_Loader(ratingCsv, anime, header, 100000)) {
+            Instances chunk;
+            while ((chunk = loader.nextChunk()) != null) {
+                clusterer.updateClusterer(chunk);
+                numRows += chunk.numInstances();
+            }
+        }
+        clusterer.updateFinished();
+        long endTime = System.currentTimeMillis();
+        SerializationHelper.write(modelFile, clusterer);
+
+        printRunInformation(out, clusterer, header, numRows, "mini-batch update with " + ratingCsv);
+
+        out.println("=== Clustering model (updated) ===");
+        out.println();
+        out.println(clusterer.toString());
+        out.println("Time taken to update model : " + String.format("%.2f", (endTime - startTime) / 1000.0)
+                + " seconds");
+        out.println("Model saved to " + modelFile);
+        out.println();
+
+        out.println("=== Model and evaluation on all rows seen ===");
+        out.println();
+        out.println(clusteredInstances(clusterer.getClusterCounts()));
+        return clusterer;
+    }
+
+    private static Fast_K_Means newClusterer() {
+        Fast_K_Means clusterer = new Fast_K_Means();
+        clusterer.setNumClusters(2);
+        clusterer.setMaxIterations(500);
+        clusterer.setSeed(10);
+        return clusterer;
+    }
+
+    private static void printRunInformation(PrintStream out, Fast_K_Means clusterer, Instances data, long numRows,
+            String testMode) {
+        out.println("=== Run information ===");
+        out.println();
+        out.println("Scheme:       Fast_K_Means -N " + clusterer.getNumClusters() + " -I " + clusterer.getMaxIterations()
+                + " -S " + clusterer.getSeed() + " -num-threads " + clusterer.getNumThreads());
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + numRows);
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    " + testMode);
+        out.println();
+    }
+
+    // Same layout as ClusterEvaluation.clusterResultsToString() for the final assignment
+    private static String clusteredInstances(long[] counts) {
+        double total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        int clusterWidth = (int) (Math.log(counts.length) / Math.log(10.0) + 1.0);
+        int countWidth = (int) (Math.log(total) / Math.log(10.0) + 1.0);
+        StringBuilder text = new StringBuilder("Clustered Instances\n\n");
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                text.append(Utils.doubleToString(i, clusterWidth, 0) + "      "
+                        + Utils.doubleToString(counts[i], countWidth, 0) + " ("
+                        + Utils.doubleToString(counts[i] / total * 100.0, 3, 0) + "%)\n");
+            }
+        }
+        return text.toString();
+    }
+}
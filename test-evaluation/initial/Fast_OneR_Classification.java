@@ -0,0 +1,138 @@
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+// Usage: java Fast_OneR_Classification [-full]
+//
+// -full cross-validates on every row of rating.csv instead of the 10,000-row sample,
+// with row i in fold i mod 10: one pass counts each fold's cube, a second pass scores
+// every row with the rule of the total minus its fold.
+public class Fast_OneR_Classification {
+    public static void main(String[] args) {
+        try {
+            boolean full = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-full")) {
+                    full = true;
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            if (full) {
+                runFull(System.out);
+            } else {
+                // Load data
+                Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+                run(data, System.out);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the scheme on data and prints the report to out, in the same layout as OneR_Classification
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Set class index to the last attribute (members_encoded)
+        data.setClassIndex(data.numAttributes() - 1);
+
+        // Initialize Fast_OneR
+        Fast_OneR classifier = new Fast_OneR();
+
+        // 1. Build model on full training set, or load it from the store. Stored models
+        // are keyed by scheme, options and data (see Model_Store); the thread count does
+        // not change the model and is left out.
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<Fast_OneR> model = Model_Store.getOrBuild("Fast_OneR", "", data, () -> {
+            classifier.buildClassifier(data);
+            return classifier;
+        });
+        long endTime = System.currentTimeMillis();
+        double timeTaken = (endTime - startTime) / 1000.0;
+
+        // Print Run Information
+        printRunInformation(out, classifier, data, data.numInstances(), "10-fold cross-validation");
+
+        // Print Classifier model
+        out.println("=== Classifier model (full training set) ===");
+        out.println();
+        out.println(model.get().toString());
+        out.println("Time taken to " + model.action() + " model: " + String.format("%.2f", timeTaken) + " seconds");
+        out.println();
+
+        // 2. Cross-validation, each fold's cube subtracted from the total
+        Evaluation evaluation = Model_Store.getOrBuild("Fast_OneR", "-x 10 -s 1", data,
+                () -> Contingency_Cube.crossValidate(data, 10, new Random(1), classifier.getNumThreads(),
+                        Fast_OneR_Classification::newFoldModel)).get();
+
+        out.println("=== Stratified cross-validation ===");
+        printEvaluation(out, evaluation);
+    }
+
+    // Counts all of rating.csv per fold in one pass, then scores it fold by fold in a second pass
+    public static Fast_OneR runFull(PrintStream out) throws Exception {
+        Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv");
+        Instances header = Streaming_Rating_Loader.readHeader("../../dataset/initial/combined-cleaned.arff");
+        header.setClassIndex(header.numAttributes() - 1);
+        Contingency_Cube.Source ratings = () -> new Streaming_Rating_Loader("../../dataset/raw/rating.csv", anime,
+                header, 100000);
+
+        Fast_OneR classifier = new Fast_OneR();
+        long startTime = System.currentTimeMillis();
+        Contingency_Cube[] folds = Contingency_Cube.countFolds(ratings, header, 10, classifier.getNumThreads());
+        Contingency_Cube total = new Contingency_Cube(header);
+        for (Contingency_Cube fold : folds) {
+            total.add(fold);
+        }
+        classifier.buildClassifier(header, total);
+        long buildTime = System.currentTimeMillis();
+        Evaluation evaluation = Contingency_Cube.evaluateFolds(ratings, header, folds, classifier.getNumThreads(),
+                Fast_OneR_Classification::newFoldModel);
+        long endTime = System.currentTimeMillis();
+
+        printRunInformation(out, classifier, header, total.numRows(),
+                "10-fold cross-validation over rating.csv (row i in fold i mod 10)");
+        out.println("=== Classifier model (full rating stream) ===");
+        out.println();
+        out.println(classifier.toString());
+        out.println("Time taken to stream and count rating.csv : "
+                + String.format("%.2f", (buildTime - startTime) / 1000.0) + " seconds");
+        out.println("Time taken to stream and cross-validate : "
+                + String.format("%.2f", (endTime - buildTime) / 1000.0) + " seconds");
+        out.println();
+
+        out.println("=== Cross-validation ===");
+        printEvaluation(out, evaluation);
+        return classifier;
+    }
+
+    private static Fast_OneR newFoldModel(Instances header, Contingency_Cube cube) throws Exception {
+        Fast_OneR classifier = new Fast_OneR();
+        classifier.buildClassifier(header, cube);
+        return classifier;
+    }
+
+    private static void printRunInformation(PrintStream out, Fast_OneR classifier, Instances data, long numRows,
+            String testMode) {
+        out.println("=== Run information ===");
+        out.println();
+        out.println("Scheme:       Fast_OneR -num-threads " + classifier.getNumThreads());
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + numRows);
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    " + testMode);
+        out.println();
+    }
+
+    private static void printEvaluation(PrintStream out, Evaluation evaluation) throws Exception {
+        out.println(evaluation.toSummaryString("=== Summary ===", false));
+        out.println(evaluation.toClassDetailsString("=== Detailed Accuracy By Class ==="));
+        out.println(evaluation.toMatrixString("=== Confusion Matrix ==="));
+    }
+}
@@ -0,0 +1,74 @@
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+// ZeroR for a nominal class, built from the class totals of a Contingency_Cube.
+// The class distribution starts every class at 1 and is normalized like ZeroR's,
+// so predictions, distributions and toString() are the same.
+public class Fast_ZeroR extends AbstractClassifier {
+
+    private static final long serialVersionUID = 1L;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private Attribute classAttribute;
+    private double classValue;
+    private double[] distribution;
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+        result.enable(Capabilities.Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capabilities.Capability.MISSING_VALUES);
+        result.enable(Capabilities.Capability.NOMINAL_CLASS);
+        result.enable(Capabilities.Capability.MISSING_CLASS_VALUES);
+        result.setMinimumNumberInstances(0);
+        return result;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+        buildClassifier(data, Contingency_Cube.count(data, numThreads));
+    }
+
+    public void buildClassifier(Instances header, Contingency_Cube cube) {
+        classAttribute = header.classAttribute();
+        distribution = new double[cube.numClasses()];
+        for (int c = 0; c < distribution.length; c++) {
+            distribution[c] = cube.classCount(c) + 1.0;
+        }
+        classValue = Utils.maxIndex(distribution);
+        Utils.normalize(distribution, (double) cube.numRows() + distribution.length);
+    }
+
+    @Override
+    public double classifyInstance(Instance instance) {
+        return classValue;
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) {
+        return distribution.clone();
+    }
+
+    @Override
+    public String toString() {
+        if (classAttribute == null) {
+            return "ZeroR: No model built yet.";
+        }
+        return "ZeroR predicts class value: " + classAttribute.value((int) classValue);
+    }
+}
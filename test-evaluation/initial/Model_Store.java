@@ -0,0 +1,194 @@
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Version;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Directory of serialized models, so a driver that runs again with the same scheme,
+// options and data loads its model instead of building it.
+//
+// An entry is keyed by the scheme name, its options string, the Weka version and a
+// SHA-256 of the data (header, class index, every value and weight), and is stored
+// as <dir>/<scheme>-<first 16 hex digits of the key>.model together with the full key.
+// Schemes outside weka.* (this repo's Fast_J48, Count_Naive_Bayes, ...) are not covered
+// by the Weka version, so their key also holds a SHA-256 of the compiled class and its
+// nested classes. A changed dataset, option or implementation therefore never hits an
+// old entry. Entries that cannot be read (e.g. written by another Weka version, or
+// naming a class that no longer exists) are treated as misses, rebuilt and overwritten.
+public class Model_Store {
+
+    // Called on a miss; returns the built model
+    public interface Builder<T> {
+        T build() throws Exception;
+    }
+
+    // A model and whether it came from the store
+    public static final class Entry<T> {
+        private final T model;
+        private final boolean loaded;
+
+        Entry(T model, boolean loaded) {
+            this.model = model;
+            this.loaded = loaded;
+        }
+
+        public T get() {
+            return model;
+        }
+
+        public boolean isLoaded() {
+            return loaded;
+        }
+
+        // "load" or "build", for the "Time taken to ... model" lines
+        public String action() {
+            return loaded ? "load" : "build";
+        }
+    }
+
+    private static volatile File directory = new File("../../models");
+    private static volatile boolean rebuild = false;
+    private static final Map<String, String> codeHashes = new ConcurrentHashMap<String, String>();
+
+    // Directory of the store, or null to always build and never store
+    public static void setDirectory(File directory) {
+        Model_Store.directory = directory;
+    }
+
+    public static File getDirectory() {
+        return directory;
+    }
+
+    // Ignore stored models; new builds still replace them
+    public static void setRebuild(boolean rebuild) {
+        Model_Store.rebuild = rebuild;
+    }
+
+    public static boolean isRebuild() {
+        return rebuild;
+    }
+
+    // Returns the model stored for scheme and options on data, or builds, stores and returns it
+    @SuppressWarnings("unchecked")
+    public static <T> Entry<T> getOrBuild(String scheme, String options, Instances data, Builder<T> builder)
+            throws Exception {
+        File dir = directory;
+        if (dir == null) {
+            return new Entry<T>(builder.build(), false);
+        }
+
+        String key = scheme + "\n" + options + "\nweka " + Version.VERSION + codeHash(scheme) + "\n" + hash(data);
+        File file = new File(dir, scheme.replaceAll("[^A-Za-z0-9_-]+", "_") + "-"
+                + toHex(sha256(key.getBytes(StandardCharsets.UTF_8))).substring(0, 16) + ".model");
+
+        if (!rebuild && file.isFile()) {
+            try {
+                Object[] stored = SerializationHelper.readAll(file.getPath());
+                if (stored.length == 2 && key.equals(stored[0])) {
+                    return new Entry<T>((T) stored[1], true);
+                }
+            } catch (Exception | LinkageError e) {
+                System.err.println("Could not read stored model " + file + ": " + e);
+            }
+        }
+
+        T model = builder.build();
+        File temp = null;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new Exception("cannot create " + dir);
+            }
+            // Written next to the entry and renamed, so concurrent runs never read half a file
+            temp = File.createTempFile(file.getName(), ".tmp", dir);
+            SerializationHelper.writeAll(temp.getPath(), new Object[] { key, model });
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            System.err.println("Could not store model " + file + ": " + e.getMessage());
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+        return new Entry<T>(model, false);
+    }
+
+    // "\ncode <SHA-256>" of the compiled scheme class and its nested classes when scheme
+    // names a class outside weka.*, else ""
+    static String codeHash(String scheme) throws Exception {
+        String cached = codeHashes.get(scheme);
+        if (cached != null) {
+            return cached;
+        }
+        String code = "";
+        if (!scheme.startsWith("weka.")) {
+            try {
+                Class<?> schemeClass = Class.forName(scheme, false, Model_Store.class.getClassLoader());
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                addClassBytes(schemeClass, digest);
+                code = "\ncode " + toHex(digest.digest());
+            } catch (ClassNotFoundException e) {
+                // Not a class name: the options and data are the whole key
+            }
+        }
+        codeHashes.put(scheme, code);
+        return code;
+    }
+
+    private static void addClassBytes(Class<?> type, MessageDigest digest) throws IOException {
+        try (InputStream in = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+            if (in != null) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+        }
+        Class<?>[] nested = type.getDeclaredClasses();
+        Arrays.sort(nested, Comparator.comparing(Class::getName));
+        for (Class<?> inner : nested) {
+            addClassBytes(inner, digest);
+        }
+    }
+
+    // SHA-256 of the header (with the class index), then every row's values and weight
+    public static String hash(Instances data) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(new Instances(data, 0).toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(4).putInt(data.classIndex()).array());
+        int numAttributes = data.numAttributes();
+        ByteBuffer row = ByteBuffer.allocate(8 * (numAttributes + 1));
+        for (Instance instance : data) {
+            row.clear();
+            for (int j = 0; j < numAttributes; j++) {
+                row.putDouble(instance.value(j));
+            }
+            row.putDouble(instance.weight());
+            digest.update(row.array());
+        }
+        return toHex(digest.digest());
+    }
+
+    private static byte[] sha256(byte[] bytes) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -2,65 +2,77 @@ import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.bayes.NaiveBayes;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
 import weka.core.Utils;
+import java.io.PrintStream;
 import java.util.Random;
 
 public class Naive_Bayes_Classification {
     public static void main(String[] args) {
         try {
             // Load data
-            DataSource source = new DataSource("../../dataset/initial/combined-cleaned.arff");
-            Instances data = source.getDataSet();
-
-            // Set class index to the last attribute (members_encoded)
-            data.setClassIndex(data.numAttributes() - 1);
+            Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+            run(data, System.out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Initialize NaiveBayes
-            NaiveBayes classifier = new NaiveBayes();
-            // No options needed based on output
+    // Runs the scheme on data and prints the report to out
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Set class index to the last attribute (members_encoded)
+        data.setClassIndex(data.numAttributes() - 1);
 
-            // 1. Build model on full training set
-            long startTime = System.currentTimeMillis();
-            classifier.buildClassifier(data);
-            long endTime = System.currentTimeMillis();
-            double timeTaken = (endTime - startTime) / 1000.0;
+        // Initialize NaiveBayes
+        NaiveBayes classifier = new NaiveBayes();
+        // No options needed based on output
 
-            // Print Run Information
-            System.out.println("=== Run information ===");
-            System.out.println();
-            String scheme = classifier.getClass().getName();
-            if (classifier.getOptions().length > 0) {
-                scheme += " " + Utils.joinOptions(classifier.getOptions());
-            }
-            System.out.println("Scheme:       " + scheme);
-            System.out.println("Relation:     " + data.relationName());
-            System.out.println("Instances:    " + data.numInstances());
-            System.out.println("Attributes:   " + data.numAttributes());
-            for (int i = 0; i < data.numAttributes(); i++) {
-                System.out.println("              " + data.attribute(i).name());
-            }
-            System.out.println("Test mode:    10-fold cross-validation");
-            System.out.println();
+        // 1. Build model on full training set
+        // Stored models are keyed by scheme, options and data, see Model_Store
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<NaiveBayes> model = Phase_Metrics.time("build",
+                () -> Model_Store.getOrBuild(classifier.getClass().getName(),
+                        Utils.joinOptions(classifier.getOptions()), data, () -> {
+                            classifier.buildClassifier(data);
+                            return classifier;
+                        }));
+        long endTime = System.currentTimeMillis();
+        double timeTaken = (endTime - startTime) / 1000.0;
 
-            // Print Classifier model
-            System.out.println("=== Classifier model (full training set) ===");
-            System.out.println();
-            System.out.println(classifier.toString());
-            System.out.println("Time taken to build model: " + String.format("%.2f", timeTaken) + " seconds");
-            System.out.println();
+        // Print Run Information
+        out.println("=== Run information ===");
+        out.println();
+        String scheme = classifier.getClass().getName();
+        if (classifier.getOptions().length > 0) {
+            scheme += " " + Utils.joinOptions(classifier.getOptions());
+        }
+        out.println("Scheme:       " + scheme);
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    10-fold cross-validation");
+        out.println();
 
-            // 2. Cross-validation
-            Evaluation evaluation = new Evaluation(data);
-            evaluation.crossValidateModel(classifier, data, 10, new Random(1));
+        // Print Classifier model
+        out.println("=== Classifier model (full training set) ===");
+        out.println();
+        out.println(model.get().toString());
+        out.println("Time taken to " + model.action() + " model: " + String.format("%.2f", timeTaken) + " seconds");
+        out.println();
 
-            System.out.println("=== Stratified cross-validation ===");
-            System.out.println(evaluation.toSummaryString("=== Summary ===", false));
-            System.out.println(evaluation.toClassDetailsString("=== Detailed Accuracy By Class ==="));
-            System.out.println(evaluation.toMatrixString("=== Confusion Matrix ==="));
+        // 2. Cross-validation
+        Evaluation evaluation = Phase_Metrics.time("cross-validation",
+                () -> Model_Store.getOrBuild(classifier.getClass().getName(),
+                        Utils.joinOptions(classifier.getOptions()) + " -x 10 -s 1", data,
+                        () -> Parallel_Cross_Validation.crossValidateModel(classifier, data, 10, new Random(1))).get());
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        Phase_Metrics.run("report", () -> {
+            out.println("=== Stratified cross-validation ===");
+            out.println(evaluation.toSummaryString("=== Summary ===", false));
+            out.println(evaluation.toClassDetailsString("=== Detailed Accuracy By Class ==="));
+            out.println(evaluation.toMatrixString("=== Confusion Matrix ==="));
+        });
     }
 }
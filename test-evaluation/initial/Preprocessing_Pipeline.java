@@ -0,0 +1,564 @@
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Java replacement for the rating side of pre-processing-initial.ipynb: streams the raw
+// rating.csv, bins the user ratings, joins every row with the encoded anime table on
+// anime_id (see Anime_Encoder) and writes combined_data straight to an ARFF file or to
+// a .bin file in the Binary_Dataset_Cache layout.
+//
+// The file is read in 4 MB blocks that are cut at line ends. Each block is parsed from
+// its bytes and encoded on a thread pool, and the blocks are written back in file order.
+// At most two blocks per thread are in flight, so memory stays bounded by the block
+// size, not by the size of rating.csv. The anime table is the hash side of the join;
+// each anime's codes are resolved once and shared by all threads.
+//
+// Like the notebook, a -1 rating becomes user_rating_encoded No_Rating and ratings of
+// unknown anime are dropped (the merged table goes through dropna()). -drop-unrated drops
+// the -1 ratings as well. The header lists every value the encoders can produce, in the
+// order they first appear in anime.csv. -header <arff> takes the header of an existing
+// ARFF instead, so the output can be scored by models built on that file. Values that
+// header does not list become missing.
+//
+// Usage: java Preprocessing_Pipeline [-o <output.arff|output.bin>] [-t <threads>]
+//            [-sample <n>] [-seed <seed>] [-header <arff>] [-drop-unrated]
+//
+// -sample keeps a uniform random sample of n rows, as the notebook does for
+// combined-cleaned.arff. The sample is drawn with reservoir sampling, so the pass still
+// holds only n rows. The rows differ from the notebook's, since pandas' sampler is not
+// reproduced. A .bin output is read back with Binary_Dataset_Cache.read(path).
+public class Preprocessing_Pipeline {
+
+    // Attribute order of combined-cleaned.arff
+    static final String[] COLUMNS = { "user_rating_encoded", "genre_encoded", "type", "episodes_encoded",
+            "anime_rating_encoded", "members_encoded" };
+
+    private static final int BLOCK_BYTES = 1 << 22;
+
+    // Codes of an anime that is not in anime.csv
+    private static final byte[] UNMATCHED = new byte[0];
+
+    // Rows parsed and encoded from one block of rating.csv
+    static final class Block {
+        byte[] codes;
+        int rows;
+        long skipped;
+        long dropped;
+        byte[] text;
+        int textLength;
+    }
+
+    // Where the encoded blocks go, in file order
+    interface Output extends Closeable {
+        void write(Block block) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private final Anime_Encoder anime;
+    private final Instances header;
+    private final int numAttributes;
+    private final int userRatingIndex;
+    private final int[] animeIndices = new int[Anime_Encoder.ATTRIBUTES.length];
+
+    // Code per raw rating -1..10, and per anime_id once it has been seen
+    private final byte[] userRatingCodes = new byte[12];
+    private final Map<Integer, byte[]> animeCodes = new ConcurrentHashMap<Integer, byte[]>();
+
+    // ARFF spelling of every code, and the longest row it can give
+    private final byte[][][] labels;
+    private final int maxRowBytes;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private boolean dropUnrated;
+    private int sampleSize;
+    private long seed = 42;
+
+    private long rowsEncoded;
+    private long rowsWritten;
+    private long rowsSkipped;
+    private long rowsDropped;
+
+    public Preprocessing_Pipeline(Anime_Encoder anime, Instances header) throws Exception {
+        this.anime = anime;
+        this.header = new Instances(header, 0);
+        if (this.header.classIndex() < 0) {
+            this.header.setClassIndex(this.header.numAttributes() - 1);
+        }
+        numAttributes = this.header.numAttributes();
+        for (int j = 0; j < numAttributes; j++) {
+            Attribute attribute = this.header.attribute(j);
+            if (!attribute.isNominal() || attribute.numValues() > Byte.MAX_VALUE) {
+                throw new Exception("Attribute '" + attribute.name() + "' must be nominal with at most "
+                        + Byte.MAX_VALUE + " values");
+            }
+        }
+
+        userRatingIndex = attributeIndex(this.header, "user_rating_encoded");
+        for (int i = 0; i < animeIndices.length; i++) {
+            animeIndices[i] = attributeIndex(this.header, Anime_Encoder.ATTRIBUTES[i]);
+        }
+        for (int rating = -1; rating <= 10; rating++) {
+            userRatingCodes[rating + 1] = code(userRatingIndex, Anime_Encoder.encodeUserRating(rating));
+        }
+
+        labels = new byte[numAttributes][][];
+        int rowBytes = numAttributes;
+        for (int j = 0; j < numAttributes; j++) {
+            Attribute attribute = this.header.attribute(j);
+            labels[j] = new byte[attribute.numValues() + 1][];
+            labels[j][0] = "?".getBytes(StandardCharsets.UTF_8);
+            int longest = 1;
+            for (int v = 0; v < attribute.numValues(); v++) {
+                labels[j][v + 1] = Utils.quote(attribute.value(v)).getBytes(StandardCharsets.UTF_8);
+                longest = Math.max(longest, labels[j][v + 1].length);
+            }
+            rowBytes += longest;
+        }
+        maxRowBytes = rowBytes;
+    }
+
+    // The combined_data header with every value the encoders can produce
+    public static Instances deriveHeader(Anime_Encoder anime, boolean dropUnrated) {
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        for (String name : COLUMNS) {
+            List<String> values;
+            if (name.equals("user_rating_encoded")) {
+                LinkedHashSet<String> ratings = new LinkedHashSet<String>();
+                for (int rating = dropUnrated ? 1 : -1; rating <= 10; rating++) {
+                    if (rating != 0) {
+                        ratings.add(Anime_Encoder.encodeUserRating(rating));
+                    }
+                }
+                values = new ArrayList<String>(ratings);
+            } else {
+                values = anime.values(Arrays.asList(Anime_Encoder.ATTRIBUTES).indexOf(name));
+            }
+            attributes.add(new Attribute(name, values));
+        }
+        Instances header = new Instances("combined_data", attributes, 0);
+        header.setClassIndex(header.numAttributes() - 1);
+        return header;
+    }
+
+    public Instances getHeader() {
+        return header;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public void setDropUnrated(boolean dropUnrated) {
+        this.dropUnrated = dropUnrated;
+    }
+
+    // Keeps a random sample of n rows instead of all of them; 0 keeps everything
+    public void setSample(int sampleSize, long seed) {
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+    }
+
+    public long rowsEncoded() {
+        return rowsEncoded;
+    }
+
+    public long rowsWritten() {
+        return rowsWritten;
+    }
+
+    // Lines that are not user_id,anime_id,rating
+    public long rowsSkipped() {
+        return rowsSkipped;
+    }
+
+    // Unrated or unmatched rows left out on purpose
+    public long rowsDropped() {
+        return rowsDropped;
+    }
+
+    // Streams ratingCsv into outputPath, as a .bin file when the name ends in ".bin" and as ARFF otherwise
+    public void process(String ratingCsv, String outputPath) throws Exception {
+        File target = new File(outputPath);
+        boolean binary = outputPath.endsWith(".bin");
+        boolean formatInWorkers = !binary && sampleSize == 0;
+        rowsEncoded = rowsWritten = rowsSkipped = rowsDropped = 0;
+
+        byte[] reservoir = sampleSize > 0 ? new byte[sampleSize * numAttributes] : null;
+        Random random = new Random(seed);
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        ArrayDeque<Future<Block>> inFlight = new ArrayDeque<Future<Block>>();
+        try (Output output = binary ? new Binary_Output(target, header) : new Arff_Output(target, header);
+                InputStream in = new FileInputStream(ratingCsv)) {
+            byte[] pending = new byte[0];
+            boolean first = true;
+            boolean eof = false;
+            while (!eof) {
+                byte[] buffer = Arrays.copyOf(pending, Math.max(BLOCK_BYTES, 2 * pending.length));
+                int length = pending.length;
+                int read;
+                while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) >= 0) {
+                    length += read;
+                }
+                eof = length < buffer.length;
+                int end = eof ? length : lastLineEnd(buffer, length);
+                if (end < 0) {
+                    // A line longer than the block: read on with a bigger one
+                    pending = Arrays.copyOf(buffer, length);
+                    continue;
+                }
+                int start = first ? skipHeader(buffer, end, ratingCsv) : 0;
+                first = false;
+                pending = Arrays.copyOfRange(buffer, end, length);
+
+                inFlight.add(pool.submit(() -> encode(buffer, start, end, formatInWorkers)));
+                while (inFlight.size() >= 2 * numThreads) {
+                    accept(get(inFlight.poll()), output, reservoir, random);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                accept(get(inFlight.poll()), output, reservoir, random);
+            }
+
+            if (reservoir != null) {
+                Block sample = new Block();
+                sample.rows = (int) Math.min(sampleSize, rowsEncoded);
+                sample.codes = reservoir;
+                if (!binary) {
+                    format(sample);
+                }
+                output.write(sample);
+                rowsWritten = sample.rows;
+            }
+            output.finish();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void accept(Block block, Output output, byte[] reservoir, Random random) throws IOException {
+        rowsSkipped += block.skipped;
+        rowsDropped += block.dropped;
+        if (reservoir == null) {
+            output.write(block);
+            rowsEncoded += block.rows;
+            rowsWritten += block.rows;
+            return;
+        }
+        // Algorithm R: row t replaces a random slot with probability n / (t + 1)
+        for (int i = 0; i < block.rows; i++, rowsEncoded++) {
+            long slot = rowsEncoded < sampleSize ? rowsEncoded : (long) (random.nextDouble() * (rowsEncoded + 1));
+            if (slot < sampleSize) {
+                System.arraycopy(block.codes, i * numAttributes, reservoir, (int) slot * numAttributes,
+                        numAttributes);
+            }
+        }
+    }
+
+    // Parses and encodes the lines of buffer[from, to)
+    private Block encode(byte[] buffer, int from, int to, boolean formatText) {
+        Block block = new Block();
+        block.codes = new byte[Math.max(16, (to - from) / 8) * numAttributes];
+        int[] record = new int[3];
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && buffer[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                encodeLine(buffer, lineStart, lineEnd, record, block);
+            }
+            lineStart = next;
+        }
+        if (formatText) {
+            format(block);
+        }
+        return block;
+    }
+
+    private void encodeLine(byte[] buffer, int from, int to, int[] record, Block block) {
+        if (Csv_Reader.parseInts(buffer, from, to, record) < 3 || record[1] == Integer.MIN_VALUE) {
+            block.skipped++;
+            return;
+        }
+        byte[] joined = animeCodes.computeIfAbsent(record[1], this::encodeAnime);
+        if ((joined == UNMATCHED && Anime_Encoder.DROP_UNMATCHED) || (record[2] == -1 && dropUnrated)) {
+            block.dropped++;
+            return;
+        }
+
+        int offset = block.rows * numAttributes;
+        if (offset + numAttributes > block.codes.length) {
+            block.codes = Arrays.copyOf(block.codes, 2 * block.codes.length);
+        }
+        Arrays.fill(block.codes, offset, offset + numAttributes, (byte) -1);
+        int rating = record[2];
+        if (rating != Integer.MIN_VALUE) {
+            block.codes[offset + userRatingIndex] = rating >= -1 && rating <= 10 ? userRatingCodes[rating + 1]
+                    : code(userRatingIndex, Anime_Encoder.encodeUserRating(rating));
+        }
+        if (joined != UNMATCHED) {
+            for (int i = 0; i < animeIndices.length; i++) {
+                block.codes[offset + animeIndices[i]] = joined[i];
+            }
+        }
+        block.rows++;
+    }
+
+    private byte[] encodeAnime(int animeId) {
+        String[] encoded = anime.lookup(animeId);
+        if (encoded == null) {
+            return UNMATCHED;
+        }
+        byte[] codes = new byte[animeIndices.length];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = code(animeIndices[i], encoded[i]);
+        }
+        return codes;
+    }
+
+    private byte code(int attIndex, String value) {
+        double index = Streaming_Rating_Loader.valueIndex(header.attribute(attIndex), value);
+        return Utils.isMissingValue(index) ? -1 : (byte) index;
+    }
+
+    // Writes the block's rows as ARFF data lines into block.text
+    private void format(Block block) {
+        byte[] text = new byte[block.rows * maxRowBytes];
+        int length = 0;
+        for (int i = 0; i < block.rows; i++) {
+            for (int j = 0; j < numAttributes; j++) {
+                if (j > 0) {
+                    text[length++] = ',';
+                }
+                byte[] label = labels[j][block.codes[i * numAttributes + j] + 1];
+                System.arraycopy(label, 0, text, length, label.length);
+                length += label.length;
+            }
+            text[length++] = '\n';
+        }
+        block.text = text;
+        block.textLength = length;
+    }
+
+    // ARFF header and data lines, written to a temporary file that replaces the target at the end
+    private static final class Arff_Output implements Output {
+        private final File target;
+        private final File tmp;
+        private final OutputStream out;
+
+        Arff_Output(File target, Instances header) throws IOException {
+            this.target = target;
+            this.tmp = new File(target.getPath() + ".tmp");
+            this.out = new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16);
+            out.write(new Instances(header, 0).toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void write(Block block) throws IOException {
+            out.write(block.text, 0, block.textLength);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.close();
+            Binary_Dataset_Cache.replace(tmp, target);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            tmp.delete();
+        }
+    }
+
+    // One spill file per column while streaming, joined behind the Binary_Dataset_Cache
+    // header once the row count is known
+    private static final class Binary_Output implements Output {
+        private final File target;
+        private final Instances header;
+        private final File[] spills;
+        private final OutputStream[] columns;
+        private byte[] column = new byte[0];
+        private long numRows;
+
+        Binary_Output(File target, Instances header) throws IOException {
+            this.target = target;
+            this.header = header;
+            spills = new File[header.numAttributes()];
+            columns = new OutputStream[spills.length];
+            for (int j = 0; j < spills.length; j++) {
+                spills[j] = new File(target.getPath() + ".col" + j + ".tmp");
+                columns[j] = new BufferedOutputStream(new FileOutputStream(spills[j]), 1 << 16);
+            }
+        }
+
+        @Override
+        public void write(Block block) throws IOException {
+            if (column.length < block.rows) {
+                column = new byte[block.rows];
+            }
+            for (int j = 0; j < columns.length; j++) {
+                for (int i = 0; i < block.rows; i++) {
+                    column[i] = block.codes[i * columns.length + j];
+                }
+                columns[j].write(column, 0, block.rows);
+            }
+            numRows += block.rows;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (numRows > Integer.MAX_VALUE) {
+                throw new IOException(numRows + " rows do not fit in a dataset cache file");
+            }
+            for (OutputStream out : columns) {
+                out.close();
+            }
+            byte[] kinds = new byte[columns.length];
+            Arrays.fill(kinds, Binary_Dataset_Cache.KIND_BYTE);
+
+            File tmp = new File(target.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                Binary_Dataset_Cache.writeHeader(out, new byte[Binary_Dataset_Cache.HASH_LENGTH], header,
+                        (int) numRows, kinds, false);
+                for (File spill : spills) {
+                    Files.copy(spill.toPath(), out);
+                }
+            }
+            Binary_Dataset_Cache.replace(tmp, target);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (int j = 0; j < columns.length; j++) {
+                columns[j].close();
+                spills[j].delete();
+            }
+            new File(target.getPath() + ".tmp").delete();
+        }
+    }
+
+    // Checks the user_id,anime_id,rating header line and returns where the data starts
+    private static int skipHeader(byte[] buffer, int end, String ratingCsv) throws Exception {
+        int lineEnd = 0;
+        while (lineEnd < end && buffer[lineEnd] != '\n') {
+            lineEnd++;
+        }
+        String[] columns = new String(buffer, 0, lineEnd, StandardCharsets.UTF_8).replace("\uFEFF", "").split(",");
+        if (columns.length < 3 || !"user_id".equals(columns[0].trim()) || !"anime_id".equals(columns[1].trim())
+                || !"rating".equals(columns[2].trim())) {
+            throw new Exception(ratingCsv + " must start with user_id,anime_id,rating");
+        }
+        return Math.min(end, lineEnd + 1);
+    }
+
+    private static int lastLineEnd(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int attributeIndex(Instances header, String name) throws Exception {
+        Attribute attribute = header.attribute(name);
+        if (attribute == null) {
+            throw new Exception("Attribute '" + name + "' not found in " + header.relationName());
+        }
+        return attribute.index();
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            String outputPath = "../../dataset/initial/combined-full.arff";
+            String headerArff = null;
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            int sampleSize = 0;
+            long seed = 42;
+            boolean dropUnrated = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-o") && i + 1 < args.length) {
+                    outputPath = args[++i];
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-sample") && i + 1 < args.length) {
+                    sampleSize = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-seed") && i + 1 < args.length) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-header") && i + 1 < args.length) {
+                    headerArff = args[++i];
+                } else if (args[i].equals("-drop-unrated")) {
+                    dropUnrated = true;
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            long startTime = System.currentTimeMillis();
+            Anime_Encoder anime = new Anime_Encoder("../../dataset/raw/anime.csv");
+            Instances header = headerArff != null ? Streaming_Rating_Loader.readHeader(headerArff)
+                    : deriveHeader(anime, dropUnrated);
+
+            Preprocessing_Pipeline pipeline = new Preprocessing_Pipeline(anime, header);
+            pipeline.setNumThreads(numThreads);
+            pipeline.setDropUnrated(dropUnrated);
+            pipeline.setSample(sampleSize, seed);
+            pipeline.process("../../dataset/raw/rating.csv", outputPath);
+            double timeTaken = (System.currentTimeMillis() - startTime) / 1000.0;
+
+            System.out.println("Anime encoded:  " + anime.size());
+            System.out.println("Rows encoded:   " + pipeline.rowsEncoded());
+            System.out.println("Rows dropped:   " + pipeline.rowsDropped());
+            System.out.println("Rows skipped:   " + pipeline.rowsSkipped());
+            System.out.println("Rows written:   " + pipeline.rowsWritten() + " to " + outputPath);
+            System.out.println(String.format("Time taken: %.2f seconds", timeTaken));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
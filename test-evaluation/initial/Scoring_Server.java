@@ -0,0 +1,767 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Usage: java Scoring_Server [-scheme J48|Naive_Bayes] [-port <port>] [-threads <n>] [-load-test <requests>]
+//
+// Serves predictions of user_rating_encoded from the other five attributes on
+// http://localhost:<port> (default 8080). The model is trained once on
+// combined-cleaned.arff, or loaded from the model store (see Model_Store).
+//
+//   POST /predict  one row per CSV line, in the attribute order of GET /schema, e.g.
+//                  Action,TV,Medium_Series,High,Medium
+//                  or JSON: one object keyed by attribute name, an array of such
+//                  objects, or an array of value arrays. Values are nominal labels
+//                  ("?" or null = missing); a number also matches a label with the
+//                  same value, so 1 finds "1.00". The answer uses the same format, with
+//                  the predicted label and its probability per row.
+//   GET /schema    the feature attributes and their labels
+//   GET /stats     request and per-prediction latency percentiles (microseconds)
+//
+// Requests are parsed on the HTTP threads and handed to one scoring thread, which
+// takes whatever rows are queued at that moment as a micro-batch. Rows are copied into
+// one reused Instance, so no Instances object (or Instance) is created per request.
+//
+// -load-test starts the server, sends the given number of single-row requests built
+// from the dataset, checks every answer against classifyInstance() and prints /stats.
+// Every tenth request is sent as a JSON object with numeric labels as plain numbers.
+public class Scoring_Server {
+
+    // Rows scored per batch at most
+    private static final int MAX_BATCH_ROWS = 256;
+    // Latencies kept for the percentiles
+    private static final int LATENCY_WINDOW = 1 << 16;
+
+    private final Classifier classifier;
+    private final Instances header;
+    private final int[] features;
+    // Numeric value of each nominal label, NaN if the label is not a number
+    private final double[][] labelNumbers;
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(4096);
+    private final Latencies requestLatencies = new Latencies();
+    private final Latencies predictionLatencies = new Latencies();
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numRows = new AtomicLong();
+    private final AtomicLong numBatches = new AtomicLong();
+    private HttpServer server;
+    private Thread scorer;
+    private volatile boolean stopped;
+
+    // Rows of one request and their results, filled in by the scoring thread
+    private static final class Batch {
+        final double[][] rows;
+        final double[] predictions;
+        final double[] probabilities;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Exception error;
+        // Not scored because the server stopped first
+        volatile boolean rejected;
+
+        Batch(double[][] rows) {
+            this.rows = rows;
+            this.predictions = new double[rows.length];
+            this.probabilities = new double[rows.length];
+        }
+    }
+
+    // An Instance whose values are overwritten in place for every row
+    private static final class Reused_Instance extends DenseInstance {
+        private static final long serialVersionUID = 1L;
+
+        Reused_Instance(int numAttributes) {
+            super(numAttributes);
+        }
+
+        void set(double[] values) {
+            System.arraycopy(values, 0, m_AttValues, 0, values.length);
+        }
+    }
+
+    // Ring buffer of the most recent latencies in nanoseconds
+    private static final class Latencies {
+        private final long[] values = new long[LATENCY_WINDOW];
+        private long count;
+
+        synchronized void add(long nanos) {
+            values[(int) (count++ % LATENCY_WINDOW)] = nanos;
+        }
+
+        // p in [0, 1], in microseconds
+        synchronized double percentile(double p) {
+            int n = (int) Math.min(count, LATENCY_WINDOW);
+            if (n == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, n);
+            Arrays.sort(sorted);
+            int rank = Math.max(0, (int) Math.ceil(p * n) - 1);
+            return sorted[Math.min(n - 1, rank)] / 1000.0;
+        }
+    }
+
+    public Scoring_Server(Classifier classifier, Instances header) {
+        this.classifier = classifier;
+        this.header = new Instances(header, 0);
+        this.features = new int[header.numAttributes() - 1];
+        for (int j = 0, f = 0; j < header.numAttributes(); j++) {
+            if (j != header.classIndex()) {
+                features[f++] = j;
+            }
+        }
+        this.labelNumbers = new double[header.numAttributes()][];
+        for (int j = 0; j < header.numAttributes(); j++) {
+            Attribute attribute = header.attribute(j);
+            if (attribute.isNominal()) {
+                labelNumbers[j] = new double[attribute.numValues()];
+                for (int v = 0; v < attribute.numValues(); v++) {
+                    labelNumbers[j][v] = parseNumber(attribute.value(v));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            String scheme = "J48";
+            int port = 8080;
+            int threads = 4;
+            int loadTest = 0;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-scheme") && i + 1 < args.length) {
+                    scheme = args[++i];
+                } else if (args[i].equals("-port") && i + 1 < args.length) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-load-test") && i + 1 < args.length) {
+                    loadTest = Integer.parseInt(args[++i]);
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+
+            // Load data and predict user_rating_encoded from the other attributes
+            Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+            data.setClass(data.attribute("user_rating_encoded"));
+
+            long startTime = System.currentTimeMillis();
+            Model_Store.Entry<Classifier> model = trainedModel(scheme, data);
+            long endTime = System.currentTimeMillis();
+            double timeTaken = (endTime - startTime) / 1000.0;
+            System.out.println("Time taken to " + model.action() + " " + scheme + " model: "
+                    + String.format("%.2f", timeTaken) + " seconds");
+
+            Scoring_Server scoringServer = new Scoring_Server(model.get(), data);
+            scoringServer.start(port, threads);
+            System.out.println("Scoring " + data.classAttribute().name() + " on http://localhost:" + port
+                    + "/predict (GET /schema, GET /stats)");
+
+            if (loadTest > 0) {
+                try {
+                    loadTest(scoringServer, data, port, loadTest, threads);
+                } finally {
+                    scoringServer.stop();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Builds the scheme on data, or loads it from the model store
+    static Model_Store.Entry<Classifier> trainedModel(String scheme, Instances data) throws Exception {
+        final AbstractClassifier classifier;
+        if (scheme.equals("J48")) {
+            J48 j48 = new J48();
+            j48.setConfidenceFactor(0.25f); // -C 0.25
+            j48.setMinNumObj(2); // -M 2
+            classifier = j48;
+        } else if (scheme.equals("Naive_Bayes")) {
+            classifier = new NaiveBayes();
+        } else {
+            throw new Exception("Unknown scheme " + scheme + " (J48 or Naive_Bayes)");
+        }
+        return Model_Store.getOrBuild(classifier.getClass().getName(), Utils.joinOptions(classifier.getOptions()),
+                data, () -> {
+                    classifier.buildClassifier(data);
+                    return classifier;
+                });
+    }
+
+    // Starts the HTTP server on localhost with threads request threads, and the scoring thread
+    public void start(int port, int threads) throws Exception {
+        scorer = new Thread(this::score, "scorer");
+        scorer.setDaemon(true);
+        scorer.start();
+
+        // Small answers are otherwise held back by Nagle's algorithm for tens of milliseconds
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+        server.setExecutor(Executors.newFixedThreadPool(Math.max(1, threads)));
+        server.createContext("/predict", this::handlePredict);
+        server.createContext("/schema", exchange -> send(exchange, 200, "application/json", schema()));
+        server.createContext("/stats", exchange -> send(exchange, 200, "application/json", stats()));
+        server.start();
+    }
+
+    // Stops the scoring thread, answers the requests still queued with 503, then stops the
+    // HTTP server once their answers are sent (within a second)
+    public void stop() throws InterruptedException {
+        stopped = true;
+        scorer.interrupt();
+        scorer.join();
+        rejectPending();
+        server.stop(1);
+        ExecutorService executor = (ExecutorService) server.getExecutor();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    // Releases the handlers waiting on batches the scoring thread will never take
+    private void rejectPending() {
+        Batch batch;
+        while ((batch = queue.poll()) != null) {
+            batch.rejected = true;
+            batch.done.countDown();
+        }
+    }
+
+    // Scoring thread: takes every batch queued at the moment and scores their rows in one go
+    private void score() {
+        Reused_Instance instance = new Reused_Instance(header.numAttributes());
+        instance.setDataset(header);
+        List<Batch> batches = new ArrayList<Batch>();
+        try {
+            // stop() sets stopped before interrupting, so an interrupt swallowed by a model still ends the loop
+            while (!stopped) {
+                batches.add(queue.take());
+                int rows = batches.get(0).rows.length;
+                while (rows < MAX_BATCH_ROWS) {
+                    Batch next = queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batches.add(next);
+                    rows += next.rows.length;
+                }
+                numBatches.incrementAndGet();
+                for (Batch batch : batches) {
+                    try {
+                        for (int i = 0; i < batch.rows.length; i++) {
+                            long start = System.nanoTime();
+                            instance.set(batch.rows[i]);
+                            double[] distribution = classifier.distributionForInstance(instance);
+                            int best = Utils.maxIndex(distribution);
+                            // Same rule as AbstractClassifier.classifyInstance
+                            batch.predictions[i] = distribution[best] == 0 ? Utils.missingValue() : best;
+                            batch.probabilities[i] = distribution[best];
+                            predictionLatencies.add(System.nanoTime() - start);
+                        }
+                    } catch (Exception e) {
+                        batch.error = e;
+                    }
+                    batch.done.countDown();
+                }
+                batches.clear();
+            }
+        } catch (InterruptedException e) {
+            // Server stopped
+        }
+    }
+
+    private void handlePredict(HttpExchange exchange) {
+        long start = System.nanoTime();
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, "text/plain", "POST rows to /predict\n");
+                return;
+            }
+            String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8).trim();
+            boolean json = body.startsWith("{") || body.startsWith("[");
+            double[][] rows;
+            try {
+                rows = json ? parseJson(body) : parseCsv(body);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "text/plain", e.getMessage() + "\n");
+                return;
+            }
+
+            Batch batch = new Batch(rows);
+            if (rows.length > 0) {
+                queue.put(batch);
+                // Queued after stop() drained the queue
+                if (stopped) {
+                    rejectPending();
+                }
+                batch.done.await();
+            }
+            if (batch.rejected) {
+                send(exchange, 503, "text/plain", "Server is stopping\n");
+                return;
+            }
+            if (batch.error != null) {
+                send(exchange, 500, "text/plain", batch.error + "\n");
+                return;
+            }
+            send(exchange, 200, json ? "application/json" : "text/csv",
+                    json ? toJson(batch) : toCsv(batch));
+            numRequests.incrementAndGet();
+            numRows.addAndGet(rows.length);
+            requestLatencies.add(System.nanoTime() - start);
+        } catch (Exception e) {
+            try {
+                send(exchange, 500, "text/plain", e + "\n");
+            } catch (Exception ignored) {
+                // Client is gone
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // One row per line, the features in header order
+    double[][] parseCsv(String body) throws Exception {
+        List<double[]> rows = new ArrayList<double[]>();
+        try (Csv_Reader reader = new Csv_Reader(new StringReader(body))) {
+            String[] fields;
+            while ((fields = reader.next()) != null) {
+                if (fields.length == 1 && fields[0].trim().isEmpty()) {
+                    continue;
+                }
+                if (fields.length != features.length) {
+                    throw new IllegalArgumentException("Row " + (rows.size() + 1) + " has " + fields.length
+                            + " values, expected " + features.length + " (see /schema)");
+                }
+                double[] row = newRow();
+                for (int f = 0; f < features.length; f++) {
+                    row[features[f]] = parseValue(features[f], fields[f].trim());
+                }
+                rows.add(row);
+            }
+        }
+        return rows.toArray(new double[rows.size()][]);
+    }
+
+    // An object keyed by attribute name, an array of them, or an array of value arrays
+    double[][] parseJson(String body) {
+        Object parsed = new Json_Parser(body).parse();
+        List<?> items = parsed instanceof List && !((List<?>) parsed).isEmpty()
+                && !(((List<?>) parsed).get(0) instanceof List || ((List<?>) parsed).get(0) instanceof Map)
+                        ? Arrays.asList(parsed)
+                        : parsed instanceof List ? (List<?>) parsed : Arrays.asList(parsed);
+        double[][] rows = new double[items.size()][];
+        for (int r = 0; r < rows.length; r++) {
+            Object item = items.get(r);
+            double[] row = newRow();
+            if (item instanceof Map) {
+                Map<?, ?> values = (Map<?, ?>) item;
+                for (int f = 0; f < features.length; f++) {
+                    String name = header.attribute(features[f]).name();
+                    Object value = values.get(name);
+                    row[features[f]] = parseValue(features[f], value == null ? "?" : value.toString());
+                }
+            } else if (item instanceof List && ((List<?>) item).size() == features.length) {
+                List<?> values = (List<?>) item;
+                for (int f = 0; f < features.length; f++) {
+                    Object value = values.get(f);
+                    row[features[f]] = parseValue(features[f], value == null ? "?" : value.toString());
+                }
+            } else {
+                throw new IllegalArgumentException("Row " + (r + 1) + " must be an object or an array of "
+                        + features.length + " values (see /schema)");
+            }
+            rows[r] = row;
+        }
+        return rows;
+    }
+
+    private double[] newRow() {
+        double[] row = new double[header.numAttributes()];
+        row[header.classIndex()] = Utils.missingValue();
+        return row;
+    }
+
+    private double parseValue(int attIndex, String text) {
+        if (text.equals("?") || text.isEmpty()) {
+            return Utils.missingValue();
+        }
+        Attribute attribute = header.attribute(attIndex);
+        if (attribute.isNumeric()) {
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number for " + attribute.name() + ": " + text);
+            }
+        }
+        int index = attribute.indexOfValue(text);
+        if (index < 0) {
+            // A number matches the label with the same value, e.g. 1 for "1.00"
+            double number = parseNumber(text);
+            double[] numbers = labelNumbers[attIndex];
+            for (int v = 0; v < numbers.length && index < 0 && !Double.isNaN(number); v++) {
+                if (numbers[v] == number) {
+                    index = v;
+                }
+            }
+        }
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown value for " + attribute.name() + ": " + text);
+        }
+        return index;
+    }
+
+    private static double parseNumber(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private String label(double prediction) {
+        return Utils.isMissingValue(prediction) ? "?" : header.classAttribute().value((int) prediction);
+    }
+
+    private String toCsv(Batch batch) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < batch.predictions.length; i++) {
+            text.append(label(batch.predictions[i])).append(',')
+                    .append(Utils.doubleToString(batch.probabilities[i], 4)).append('\n');
+        }
+        return text.toString();
+    }
+
+    private String toJson(Batch batch) {
+        StringBuilder text = new StringBuilder("{\"predictions\":[");
+        String name = Json_Parser.quote(header.classAttribute().name());
+        for (int i = 0; i < batch.predictions.length; i++) {
+            text.append(i > 0 ? "," : "").append('{').append(name).append(':')
+                    .append(Json_Parser.quote(label(batch.predictions[i]))).append(",\"probability\":")
+                    .append(Utils.doubleToString(batch.probabilities[i], 4)).append('}');
+        }
+        return text.append("]}\n").toString();
+    }
+
+    String schema() {
+        StringBuilder text = new StringBuilder("{\"class\":")
+                .append(Json_Parser.quote(header.classAttribute().name())).append(",\"features\":[");
+        for (int f = 0; f < features.length; f++) {
+            Attribute attribute = header.attribute(features[f]);
+            text.append(f > 0 ? "," : "").append("{\"name\":").append(Json_Parser.quote(attribute.name()));
+            if (attribute.isNominal()) {
+                text.append(",\"values\":[");
+                for (int v = 0; v < attribute.numValues(); v++) {
+                    text.append(v > 0 ? "," : "").append(Json_Parser.quote(attribute.value(v)));
+                }
+                text.append(']');
+            }
+            text.append('}');
+        }
+        return text.append("]}\n").toString();
+    }
+
+    String stats() {
+        long batches = numBatches.get();
+        long rows = numRows.get();
+        return "{\"requests\":" + numRequests.get() + ",\"rows\":" + rows + ",\"batches\":" + batches
+                + ",\"mean_batch_rows\":" + Utils.doubleToString(batches == 0 ? 0 : (double) rows / batches, 2)
+                + ",\"request_latency_us\":{\"p50\":" + Utils.doubleToString(requestLatencies.percentile(0.5), 1)
+                + ",\"p99\":" + Utils.doubleToString(requestLatencies.percentile(0.99), 1) + "}"
+                + ",\"prediction_latency_us\":{\"p50\":"
+                + Utils.doubleToString(predictionLatencies.percentile(0.5), 1) + ",\"p99\":"
+                + Utils.doubleToString(predictionLatencies.percentile(0.99), 1) + "}}\n";
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Sends numRequests single-row CSV requests from threads clients, checks the answers
+    // against classifyInstance() and prints the server's /stats
+    private static void loadTest(Scoring_Server scoringServer, Instances data, int port, int numRequests,
+            int threads) throws Exception {
+        URL predict = new URL("http://localhost:" + port + "/predict");
+        Instances header = scoringServer.header;
+        int[] features = scoringServer.features;
+        ExecutorService clients = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            AtomicLong next = new AtomicLong();
+            long startTime = System.nanoTime();
+            for (int t = 0; t < Math.max(1, threads); t++) {
+                results.add(clients.submit(() -> {
+                    int mismatches = 0;
+                    long r;
+                    while ((r = next.getAndIncrement()) < numRequests) {
+                        Instance instance = data.instance((int) (r % data.numInstances()));
+                        double expected = scoringServer.classifier.classifyInstance(instance);
+                        String label = Utils.isMissingValue(expected) ? "?"
+                                : header.classAttribute().value((int) expected);
+                        if (r % 10 == 9) {
+                            String answer = post(predict, jsonRow(instance, features));
+                            if (!answer.startsWith("{\"predictions\":[{"
+                                    + Json_Parser.quote(header.classAttribute().name()) + ":"
+                                    + Json_Parser.quote(label) + ",")) {
+                                mismatches++;
+                            }
+                            continue;
+                        }
+                        StringBuilder row = new StringBuilder();
+                        for (int f = 0; f < features.length; f++) {
+                            row.append(f > 0 ? "," : "").append(csvField(instance.stringValue(features[f])));
+                        }
+                        String answer = post(predict, row.append('\n').toString());
+                        if (!answer.startsWith(label + ",")) {
+                            mismatches++;
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            int mismatches = 0;
+            for (Future<Integer> result : results) {
+                mismatches += result.get();
+            }
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            System.out.println("Sent " + numRequests + " requests in "
+                    + String.format("%.2f", seconds) + " seconds ("
+                    + String.format("%.0f", numRequests / seconds) + " requests/s), " + mismatches
+                    + " predictions differ from classifyInstance()");
+            System.out.print(scoringServer.stats());
+        } finally {
+            clients.shutdown();
+            clients.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    // A JSON object for the row, with labels that are numbers sent as plain numbers (1 for "1.00")
+    private static String jsonRow(Instance instance, int[] features) {
+        StringBuilder row = new StringBuilder("{");
+        for (int f = 0; f < features.length; f++) {
+            String value = instance.isMissing(features[f]) ? null : instance.stringValue(features[f]);
+            row.append(f > 0 ? "," : "").append(Json_Parser.quote(instance.attribute(features[f]).name()))
+                    .append(':');
+            if (value == null) {
+                row.append("null");
+            } else if (!Double.isNaN(parseNumber(value))) {
+                row.append(new BigDecimal(value).stripTrailingZeros().toPlainString());
+            } else {
+                row.append(Json_Parser.quote(value));
+            }
+        }
+        return row.append("}").toString();
+    }
+
+    private static String csvField(String value) {
+        return value.indexOf(',') < 0 && value.indexOf('"') < 0 ? value
+                : "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String post(URL url, String body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/csv");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        try (InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream()
+                : connection.getErrorStream()) {
+            return new String(readAll(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Just enough JSON for the request rows: objects, arrays, strings, numbers, true/false/null.
+    // Numbers are kept as their text, so 1.00 still matches the label "1.00".
+    static final class Json_Parser {
+        private final String text;
+        private int pos;
+
+        Json_Parser(String text) {
+            this.text = text;
+        }
+
+        Object parse() {
+            Object value = value();
+            skipSpace();
+            if (pos != text.length()) {
+                throw error("Unexpected content");
+            }
+            return value;
+        }
+
+        private Object value() {
+            skipSpace();
+            if (pos >= text.length()) {
+                throw error("Unexpected end");
+            }
+            char c = text.charAt(pos);
+            if (c == '{') {
+                Map<String, Object> object = new LinkedHashMap<String, Object>();
+                pos++;
+                skipSpace();
+                if (peek() == '}') {
+                    pos++;
+                    return object;
+                }
+                while (true) {
+                    skipSpace();
+                    String key = string();
+                    skipSpace();
+                    expect(':');
+                    object.put(key, value());
+                    skipSpace();
+                    if (peek() == ',') {
+                        pos++;
+                    } else {
+                        expect('}');
+                        return object;
+                    }
+                }
+            }
+            if (c == '[') {
+                List<Object> array = new ArrayList<Object>();
+                pos++;
+                skipSpace();
+                if (peek() == ']') {
+                    pos++;
+                    return array;
+                }
+                while (true) {
+                    array.add(value());
+                    skipSpace();
+                    if (peek() == ',') {
+                        pos++;
+                    } else {
+                        expect(']');
+                        return array;
+                    }
+                }
+            }
+            if (c == '"') {
+                return string();
+            }
+            int start = pos;
+            while (pos < text.length() && ",]} \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String word = text.substring(start, pos);
+            if (word.isEmpty()) {
+                throw error("Unexpected character '" + c + "'");
+            }
+            return word.equals("null") ? null : word;
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && pos < text.length()) {
+                    char e = text.charAt(pos++);
+                    if (e == 'u' && pos + 4 <= text.length()) {
+                        value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                    } else {
+                        value.append(e == 'n' ? '\n' : e == 't' ? '\t' : e == 'r' ? '\r' : e == 'b' ? '\b'
+                                : e == 'f' ? '\f' : e);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " of the JSON body");
+        }
+
+        static String quote(String value) {
+            StringBuilder text = new StringBuilder("\"");
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    text.append('\\').append(c);
+                } else if (c < 0x20) {
+                    text.append(String.format("\\u%04x", (int) c));
+                } else {
+                    text.append(c);
+                }
+            }
+            return text.append('"').toString();
+        }
+    }
+}
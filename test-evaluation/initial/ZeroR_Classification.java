@@ -2,58 +2,71 @@ import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.rules.ZeroR;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.Utils;
+import java.io.PrintStream;
 import java.util.Random;
 
 public class ZeroR_Classification {
     public static void main(String[] args) {
         try {
             // Load data
-            DataSource source = new DataSource("../../dataset/initial/combined-cleaned.arff");
-            Instances data = source.getDataSet();
-
-            // Set class index to the last attribute (members_encoded)
-            data.setClassIndex(data.numAttributes() - 1);
-
-            // 1. Build model on full training set
-            Classifier classifier = new ZeroR();
-
-            long startTime = System.currentTimeMillis();
-            classifier.buildClassifier(data);
-            long endTime = System.currentTimeMillis();
-            double timeTaken = (endTime - startTime) / 1000.0;
-
-            // Print Run Information
-            System.out.println("=== Run information ===");
-            System.out.println();
-            System.out.println("Scheme:       " + classifier.getClass().getName());
-            System.out.println("Relation:     " + data.relationName());
-            System.out.println("Instances:    " + data.numInstances());
-            System.out.println("Attributes:   " + data.numAttributes());
-            for (int i = 0; i < data.numAttributes(); i++) {
-                System.out.println("              " + data.attribute(i).name());
-            }
-            System.out.println("Test mode:    10-fold cross-validation");
-            System.out.println();
-
-            // Print Classifier model
-            System.out.println("=== Classifier model (full training set) ===");
-            System.out.println();
-            System.out.println(classifier.toString());
-            System.out.println("Time taken to build model: " + String.format("%.2f", timeTaken) + " seconds");
-            System.out.println();
-
-            // 2. Cross-validation
-            Evaluation evaluation = new Evaluation(data);
-            evaluation.crossValidateModel(classifier, data, 10, new Random(1));
-
-            System.out.println("=== Stratified cross-validation ===");
-            System.out.println(evaluation.toSummaryString("=== Summary ===", false));
-            System.out.println(evaluation.toClassDetailsString("=== Detailed Accuracy By Class ==="));
-            System.out.println(evaluation.toMatrixString("=== Confusion Matrix ==="));
-
+            Instances data = Binary_Dataset_Cache.load("../../dataset/initial/combined-cleaned.arff");
+            run(data, System.out);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    // Runs the scheme on data and prints the report to out
+    public static void run(Instances data, PrintStream out) throws Exception {
+        // Set class index to the last attribute (members_encoded)
+        data.setClassIndex(data.numAttributes() - 1);
+
+        // 1. Build model on full training set
+        ZeroR classifier = new ZeroR();
+
+        // Stored models are keyed by scheme, options and data, see Model_Store
+        long startTime = System.currentTimeMillis();
+        Model_Store.Entry<ZeroR> model = Phase_Metrics.time("build",
+                () -> Model_Store.getOrBuild(classifier.getClass().getName(),
+                        Utils.joinOptions(classifier.getOptions()), data, () -> {
+                            classifier.buildClassifier(data);
+                            return classifier;
+                        }));
+        long endTime = System.currentTimeMillis();
+        double timeTaken = (endTime - startTime) / 1000.0;
+
+        // Print Run Information
+        out.println("=== Run information ===");
+        out.println();
+        out.println("Scheme:       " + classifier.getClass().getName());
+        out.println("Relation:     " + data.relationName());
+        out.println("Instances:    " + data.numInstances());
+        out.println("Attributes:   " + data.numAttributes());
+        for (int i = 0; i < data.numAttributes(); i++) {
+            out.println("              " + data.attribute(i).name());
+        }
+        out.println("Test mode:    10-fold cross-validation");
+        out.println();
+
+        // Print Classifier model
+        out.println("=== Classifier model (full training set) ===");
+        out.println();
+        out.println(model.get().toString());
+        out.println("Time taken to " + model.action() + " model: " + String.format("%.2f", timeTaken) + " seconds");
+        out.println();
+
+        // 2. Cross-validation
+        Evaluation evaluation = Phase_Metrics.time("cross-validation",
+                () -> Model_Store.getOrBuild(classifier.getClass().getName(),
+                        Utils.joinOptions(classifier.getOptions()) + " -x 10 -s 1", data,
+                        () -> Parallel_Cross_Validation.crossValidateModel(classifier, data, 10, new Random(1))).get());
+
+        Phase_Metrics.run("report", () -> {
+            out.println("=== Stratified cross-validation ===");
+            out.println(evaluation.toSummaryString("=== Summary ===", false));
+            out.println(evaluation.toClassDetailsString("=== Detailed Accuracy By Class ==="));
+            out.println(evaluation.toMatrixString("=== Confusion Matrix ==="));
+        });
+    }
 }
@@ -1,5 +1,4 @@
 @echo off
-mkdir result 2>nul
 echo Compiling Java files...
 javac -cp ../../lib/weka.jar *.java
 if %errorlevel% neq 0 (
@@ -8,23 +7,11 @@ if %errorlevel% neq 0 (
     exit /b %errorlevel%
 )
 
-echo Running ZeroR...
-java -cp ".;../../lib/weka.jar" ZeroR_Classification > result/ZeroR_Classification.txt
+rem ZeroR, OneR, J48, Naive Bayes, K-Means and Apriori share one JVM and one dataset load.
+rem Pass scheme names to run a subset, e.g. Experiment_Runner J48 Naive_Bayes
+rem The Fast_* and Count_* twins of these schemes run when named, or with -all
+echo Running all schemes...
+java -cp ".;../../lib/weka.jar" Experiment_Runner
 
-echo Running OneR...
-java -cp ".;../../lib/weka.jar" OneR_Classification > result/OneR_Classification.txt
-
-echo Running J48...
-java -cp ".;../../lib/weka.jar" J48_Classification > result/J48_Classification.txt
-
-echo Running Naive Bayes...
-java -cp ".;../../lib/weka.jar" Naive_Bayes_Classification > result/Naive_Bayes_Classification.txt
-
-echo Running K-Means...
-java -cp ".;../../lib/weka.jar" K_Means_Classification > result/K_Means_Classification.txt
-
-echo Running Apriori...
-java -cp ".;../../lib/weka.jar" Apriori_Classification > result/Apriori_Classification.txt
-
-echo Done. Results are in the 'result' folder.
+echo Done. Results are in the '../../results/initial' folder.
 pause